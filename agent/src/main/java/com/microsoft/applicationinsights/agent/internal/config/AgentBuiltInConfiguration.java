@@ -21,6 +21,13 @@
 
 package com.microsoft.applicationinsights.agent.internal.config;
 
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.microsoft.applicationinsights.agent.internal.coresync.DependencyType;
+
 /**
  * Created by gupele on 6/5/2015.
  */
@@ -33,6 +40,9 @@ public class AgentBuiltInConfiguration {
     private final boolean jmxEnabled;
     private final long maxSqlQueryLimitInMS;
     private final long redisThresholdInMS;
+    private final long dependencyThresholdInMS;
+    private final Map<DependencyType, Long> dependencyThresholdsInMS;
+    private final Set<DependencyType> dependenciesWithFilteredFailures;
 
     public AgentBuiltInConfiguration(boolean enabled,
                                      boolean httpEnabled,
@@ -41,7 +51,10 @@ public class AgentBuiltInConfiguration {
                                      boolean jedisEnabled,
                                      boolean jmxEnabled,
                                      Long maxSqlQueryLimitInMS,
-                                     long redisThresholdInMS) {
+                                     long redisThresholdInMS,
+                                     long dependencyThresholdInMS,
+                                     Map<DependencyType, Long> dependencyThresholdsInMS,
+                                     Set<DependencyType> dependenciesWithFilteredFailures) {
         this.enabled = enabled;
         this.httpEnabled = httpEnabled;
         this.jdbcEnabled = jdbcEnabled;
@@ -53,6 +66,15 @@ public class AgentBuiltInConfiguration {
         this.redisThresholdInMS = redisThresholdInMS;
         this.jedisEnabled = jedisEnabled;
         this.maxSqlQueryLimitInMS = maxSqlQueryLimitInMS;
+        this.dependencyThresholdInMS = dependencyThresholdInMS;
+        this.dependencyThresholdsInMS = new EnumMap<DependencyType, Long>(DependencyType.class);
+        if (dependencyThresholdsInMS != null) {
+            this.dependencyThresholdsInMS.putAll(dependencyThresholdsInMS);
+        }
+        this.dependenciesWithFilteredFailures = EnumSet.noneOf(DependencyType.class);
+        if (dependenciesWithFilteredFailures != null) {
+            this.dependenciesWithFilteredFailures.addAll(dependenciesWithFilteredFailures);
+        }
     }
 
     public boolean isEnabled() {
@@ -83,6 +105,25 @@ public class AgentBuiltInConfiguration {
         return redisThresholdInMS;
     }
 
+    public long getDependencyThresholdInMS() {
+        return dependencyThresholdInMS;
+    }
+
+    /**
+     * @return The threshold of the type, or the one of all dependencies if the type has none.
+     */
+    public long getDependencyThresholdInMS(DependencyType type) {
+        Long thresholdInMS = dependencyThresholdsInMS.get(type);
+        return thresholdInMS == null ? dependencyThresholdInMS : thresholdInMS;
+    }
+
+    /**
+     * @return True if failed calls of the type are reported whatever their duration is, which is the default.
+     */
+    public boolean isAlwaysReportFailures(DependencyType type) {
+        return !dependenciesWithFilteredFailures.contains(type);
+    }
+
     public boolean isJmxEnabled() {
         return jmxEnabled;
     }
@@ -21,6 +21,11 @@
 
 package com.microsoft.applicationinsights.agent.internal.config;
 
+import java.util.EnumMap;
+import java.util.EnumSet;
+
+import com.microsoft.applicationinsights.agent.internal.coresync.DependencyType;
+
 /**
  * Created by gupele on 6/5/2015.
  */
@@ -33,6 +38,9 @@ public class AgentBuiltInConfigurationBuilder {
     private boolean jmxEnabled = true;
     private long jedisThresholdInMS = 10000L;
     private Long maxSqlQueryLimitInMS = 10000L;
+    private long dependencyThresholdInMS = 0L;
+    private final EnumMap<DependencyType, Long> dependencyThresholdsInMS = new EnumMap<DependencyType, Long>(DependencyType.class);
+    private final EnumSet<DependencyType> dependenciesWithFilteredFailures = EnumSet.noneOf(DependencyType.class);
 
     public AgentBuiltInConfiguration create() {
         return new AgentBuiltInConfiguration(enabled,
@@ -42,7 +50,10 @@ public class AgentBuiltInConfigurationBuilder {
                                              hibernateEnabled && jedisEnabled,
                                              enabled && jmxEnabled,
                                              maxSqlQueryLimitInMS,
-                                             jedisThresholdInMS);
+                                             jedisThresholdInMS,
+                                             dependencyThresholdInMS,
+                                             dependencyThresholdsInMS,
+                                             dependenciesWithFilteredFailures);
     }
 
     public AgentBuiltInConfigurationBuilder setEnabled(boolean enabled) {
@@ -79,6 +90,33 @@ public class AgentBuiltInConfigurationBuilder {
         return this;
     }
 
+    public AgentBuiltInConfigurationBuilder setDependencyThresholdInMS(Long dependencyThresholdInMS) {
+        if (dependencyThresholdInMS == null || dependencyThresholdInMS < 0) {
+            this.dependencyThresholdInMS = 0L;
+        } else {
+            this.dependencyThresholdInMS = dependencyThresholdInMS;
+        }
+        return this;
+    }
+
+    public AgentBuiltInConfigurationBuilder setDependencyThreshold(DependencyType type, Long thresholdInMS, boolean alwaysReportFailures) {
+        if (type == null) {
+            return this;
+        }
+
+        if (thresholdInMS == null) {
+            dependencyThresholdsInMS.remove(type);
+        } else {
+            dependencyThresholdsInMS.put(type, thresholdInMS < 0 ? 0L : thresholdInMS);
+        }
+        if (alwaysReportFailures) {
+            dependenciesWithFilteredFailures.remove(type);
+        } else {
+            dependenciesWithFilteredFailures.add(type);
+        }
+        return this;
+    }
+
     public AgentBuiltInConfigurationBuilder setJedisValues(boolean jedisEnabled, long jedisThresholdInMS) {
         this.jedisEnabled = jedisEnabled;
         this.jedisThresholdInMS = jedisThresholdInMS < 0 ? 0 : jedisThresholdInMS;
@@ -25,12 +25,14 @@ import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Locale;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import com.microsoft.applicationinsights.agent.internal.agent.ClassInstrumentationData;
 import com.microsoft.applicationinsights.agent.internal.common.StringUtils;
+import com.microsoft.applicationinsights.agent.internal.coresync.DependencyType;
 import com.microsoft.applicationinsights.agent.internal.coresync.InstrumentedClassType;
 import com.microsoft.applicationinsights.agent.internal.logger.InternalAgentLogger;
 
@@ -58,6 +60,9 @@ final class XmlAgentConfigurationBuilder implements AgentConfigurationBuilder {
     private final static String HIBERNATE_TAG = "HIBERNATE";
     private final static String JMX_TAG = "AgentJmx";
     private final static String MAX_STATEMENT_QUERY_LIMIT_TAG = "MaxStatementQueryLimitInMS";
+    private final static String DEPENDENCY_THRESHOLD_TAG = "DependencyThresholdInMS";
+    private final static String DEPENDENCY_THRESHOLDS_TAG = "DependencyThresholds";
+    private final static String DEPENDENCY_TAG = "Dependency";
 
     private final static String AGENT_LOGGER_TAG = "AgentLogger";
 
@@ -69,6 +74,8 @@ final class XmlAgentConfigurationBuilder implements AgentConfigurationBuilder {
     private final static String THRESHOLD_ATTRIBUTE = "thresholdInMS";
     private final static String ENABLED_ATTRIBUTE = "enabled";
     private final static String NAME_ATTRIBUTE = "name";
+    private final static String TYPE_ATTRIBUTE = "type";
+    private final static String ALWAYS_REPORT_FAILURES_ATTRIBUTE = "alwaysReportFailures";
     private final static String REPORT_CAUGHT_EXCEPTIONS_ATTRIBUTE = "reportCaughtExceptions";
     private final static String REPORT_EXECUTION_TIME_ATTRIBUTE = "reportExecutionTime";
     private final static String SIGNATURE_ATTRIBUTE = "signature";
@@ -196,9 +203,57 @@ final class XmlAgentConfigurationBuilder implements AgentConfigurationBuilder {
         nodes = builtInElement.getElementsByTagName(MAX_STATEMENT_QUERY_LIMIT_TAG);
         builtInConfigurationBuilder.setSqlMaxQueryLimitInMS(getLong(getFirst(nodes), MAX_STATEMENT_QUERY_LIMIT_TAG));
 
+        nodes = builtInElement.getElementsByTagName(DEPENDENCY_THRESHOLD_TAG);
+        builtInConfigurationBuilder.setDependencyThresholdInMS(getLong(getFirst(nodes), DEPENDENCY_THRESHOLD_TAG));
+
+        nodes = builtInElement.getElementsByTagName(DEPENDENCY_THRESHOLDS_TAG);
+        setDependencyThresholds(builtInConfigurationBuilder, getFirst(nodes));
+
         agentConfiguration.setBuiltInData(builtInConfigurationBuilder.create());
     }
 
+    private void setDependencyThresholds(AgentBuiltInConfigurationBuilder builtInConfigurationBuilder, Element thresholdsElement) {
+        if (thresholdsElement == null) {
+            return;
+        }
+
+        NodeList nodes = thresholdsElement.getElementsByTagName(DEPENDENCY_TAG);
+        for (int i = 0; i < nodes.getLength(); ++i) {
+            Node item = nodes.item(i);
+            if (item.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+
+            Element element = (Element)item;
+            String typeName = element.getAttribute(TYPE_ATTRIBUTE);
+            DependencyType type;
+            try {
+                type = Enum.valueOf(DependencyType.class, typeName.toUpperCase(Locale.ENGLISH));
+            } catch (Throwable t) {
+                InternalAgentLogger.INSTANCE.error("Unknown dependency type '%s' in '%s', the element is ignored", typeName, DEPENDENCY_THRESHOLDS_TAG);
+                continue;
+            }
+
+            Long thresholdInMS = null;
+            String valueStr = element.getAttribute(THRESHOLD_ATTRIBUTE);
+            if (!StringUtils.isNullOrEmpty(valueStr)) {
+                try {
+                    thresholdInMS = Long.valueOf(valueStr);
+                } catch (Throwable t) {
+                    InternalAgentLogger.INSTANCE.error("Failed to parse attribute '%s' of '%s' for '%s', default threshold will be used.", THRESHOLD_ATTRIBUTE, DEPENDENCY_TAG, typeName);
+                }
+            }
+
+            boolean alwaysReportFailures = true;
+            valueStr = element.getAttribute(ALWAYS_REPORT_FAILURES_ATTRIBUTE);
+            if (!StringUtils.isNullOrEmpty(valueStr)) {
+                alwaysReportFailures = Boolean.valueOf(valueStr);
+            }
+
+            builtInConfigurationBuilder.setDependencyThreshold(type, thresholdInMS, alwaysReportFailures);
+        }
+    }
+
     private Element getClassDataElement(Node item) {
         if (item.getNodeType() != Node.ELEMENT_NODE) {
             return null;
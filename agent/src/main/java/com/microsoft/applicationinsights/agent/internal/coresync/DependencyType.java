@@ -19,13 +19,14 @@
  * DEALINGS IN THE SOFTWARE.
  */
 
-package com.microsoft.applicationinsights.internal.util;
-
-import com.microsoft.applicationinsights.channel.TelemetryChannel;
+package com.microsoft.applicationinsights.agent.internal.coresync;
 
 /**
- * Created by gupele on 2/2/2015.
+ * The kinds of dependencies that have their own reporting threshold.
  */
-public interface ChannelFetcher {
-    TelemetryChannel fetch();
+public enum DependencyType {
+    SQL,
+    HTTP,
+    REDIS,
+    OTHER
 }
@@ -23,12 +23,15 @@ package com.microsoft.applicationinsights.agent.internal.coresync.impl;
 
 import java.sql.PreparedStatement;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.microsoft.applicationinsights.agent.internal.common.StringUtils;
+import com.microsoft.applicationinsights.agent.internal.config.AgentBuiltInConfiguration;
 import com.microsoft.applicationinsights.agent.internal.config.AgentConfiguration;
 import com.microsoft.applicationinsights.agent.internal.logger.InternalAgentLogger;
 import com.microsoft.applicationinsights.agent.internal.coresync.AgentNotificationsHandler;
+import com.microsoft.applicationinsights.agent.internal.coresync.DependencyType;
 import org.objectweb.asm.Type;
 
 /**
@@ -48,12 +51,18 @@ public enum ImplementationsCoordinator implements AgentNotificationsHandler {
 
     private volatile long maxSqlMaxQueryThresholdInMS = 10000L;
     private volatile long redisThresholdInNS = 10000L * 1000000;
+    private volatile long[] dependencyThresholdsInNS = new long[DependencyType.values().length];
+    private volatile boolean[] alwaysReportFailures = createAlwaysReportFailures();
 
     private static ConcurrentHashMap<String, RegistrationData> notificationHandlersData = new ConcurrentHashMap<String, RegistrationData>();
 
     public void setConfigurationData(AgentConfiguration configurationData) {
         maxSqlMaxQueryThresholdInMS = configurationData.getBuiltInConfiguration().getSqlMaxQueryLimitInMS();
         setRedisThresholdInMS(configurationData.getBuiltInConfiguration().getRedisThresholdInMS());
+        AgentBuiltInConfiguration builtInConfiguration = configurationData.getBuiltInConfiguration();
+        for (DependencyType type : DependencyType.values()) {
+            setDependencyThresholdInMS(type, builtInConfiguration.getDependencyThresholdInMS(type), builtInConfiguration.isAlwaysReportFailures(type));
+        }
     }
 
     /**
@@ -227,12 +236,51 @@ public enum ImplementationsCoordinator implements AgentNotificationsHandler {
         return maxSqlMaxQueryThresholdInMS;
     }
 
+    /**
+     * Successful calls that take less than the threshold of their type are not reported,
+     * failed calls are always reported unless the type is configured otherwise.
+     */
+    public boolean isDependencyReported(DependencyType type, long durationInNS, boolean success) {
+        int index = type.ordinal();
+        if (!success && alwaysReportFailures[index]) {
+            return true;
+        }
+
+        return durationInNS >= dependencyThresholdsInNS[index];
+    }
+
+    public long getDependencyThresholdInNS(DependencyType type) {
+        return dependencyThresholdsInNS[type.ordinal()];
+    }
+
+    public synchronized void setDependencyThresholdInMS(long thresholdInMS) {
+        long[] thresholds = new long[dependencyThresholdsInNS.length];
+        Arrays.fill(thresholds, thresholdInMS < 0 ? 0 : thresholdInMS * 1000000);
+        dependencyThresholdsInNS = thresholds;
+    }
+
+    public synchronized void setDependencyThresholdInMS(DependencyType type, long thresholdInMS, boolean alwaysReportFailures) {
+        long[] thresholds = dependencyThresholdsInNS.clone();
+        thresholds[type.ordinal()] = thresholdInMS < 0 ? 0 : thresholdInMS * 1000000;
+        boolean[] failures = this.alwaysReportFailures.clone();
+        failures[type.ordinal()] = alwaysReportFailures;
+
+        dependencyThresholdsInNS = thresholds;
+        this.alwaysReportFailures = failures;
+    }
+
     public void setQueryPlanThresholdInMS(long maxSqlMaxQueryThresholdInMS) {
         if (maxSqlMaxQueryThresholdInMS >= 0) {
             this.maxSqlMaxQueryThresholdInMS = maxSqlMaxQueryThresholdInMS;
         }
     }
 
+    private static boolean[] createAlwaysReportFailures() {
+        boolean[] failures = new boolean[DependencyType.values().length];
+        Arrays.fill(failures, true);
+        return failures;
+    }
+
     private AgentNotificationsHandler getImplementation() {
         String key = AgentTLS.getTLSKey();
         if (key != null && key.length() > 0) {
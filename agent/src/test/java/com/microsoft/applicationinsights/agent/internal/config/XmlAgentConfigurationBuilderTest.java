@@ -22,6 +22,7 @@
 package com.microsoft.applicationinsights.agent.internal.config;
 
 import com.microsoft.applicationinsights.agent.internal.agent.ClassInstrumentationData;
+import com.microsoft.applicationinsights.agent.internal.coresync.DependencyType;
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
@@ -73,6 +74,19 @@ public final class XmlAgentConfigurationBuilderTest {
         assertEquals(builtInConfiguration.isJdbcEnabled(), true);
         assertEquals(builtInConfiguration.isJdbcEnabled(), true);
         assertEquals(builtInConfiguration.isHibernateEnabled(), false);
+        assertEquals(builtInConfiguration.getDependencyThresholdInMS(), 5);
+    }
+
+    @Test
+    public void testDependencyThresholds() throws IOException {
+        AgentConfiguration configuration = testConfiguration("BuiltInTest.xml");
+        AgentBuiltInConfiguration builtInConfiguration = configuration.getBuiltInConfiguration();
+        assertEquals(builtInConfiguration.getDependencyThresholdInMS(DependencyType.SQL), 20);
+        assertEquals(builtInConfiguration.getDependencyThresholdInMS(DependencyType.REDIS), 1);
+        assertEquals(builtInConfiguration.getDependencyThresholdInMS(DependencyType.HTTP), 5);
+        assertEquals(builtInConfiguration.getDependencyThresholdInMS(DependencyType.OTHER), 5);
+        assertTrue(builtInConfiguration.isAlwaysReportFailures(DependencyType.SQL));
+        assertFalse(builtInConfiguration.isAlwaysReportFailures(DependencyType.REDIS));
     }
 
     private AgentConfiguration testConfiguration(String testFileName) throws IOException {
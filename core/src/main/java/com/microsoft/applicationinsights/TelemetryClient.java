@@ -22,13 +22,14 @@
 package com.microsoft.applicationinsights;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import com.microsoft.applicationinsights.extensibility.ContextInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
-import com.microsoft.applicationinsights.internal.util.ChannelFetcher;
-import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.metrics.MetricAggregator;
 import com.microsoft.applicationinsights.telemetry.*;
 import com.microsoft.applicationinsights.internal.util.MapUtil;
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
@@ -39,17 +40,31 @@ import com.google.common.base.Strings;
  * Created by gupele on 1/5/2015.
  */
 public class TelemetryClient {
-    private final class TelemetryClientChannelFetcher implements ChannelFetcher {
-        public TelemetryChannel fetch() {
-            return getChannel();
+    /**
+     * What the client needs from the configuration for every telemetry, read once per version of the configuration.
+     */
+    private static final class ConfigurationState {
+        private final int version;
+        private final boolean trackingDisabled;
+        private final TelemetryInitializer[] telemetryInitializers;
+        private final TelemetryProcessor[] telemetryProcessors;
+
+        private ConfigurationState(TelemetryConfiguration configuration) {
+            // The version is read first, so changes made while the state is created are picked up by the next one
+            version = configuration.getVersion();
+            trackingDisabled = configuration.isTrackingDisabled();
+            List<TelemetryInitializer> initializers = configuration.getTelemetryInitializers();
+            telemetryInitializers = initializers.toArray(new TelemetryInitializer[initializers.size()]);
+            List<TelemetryProcessor> processors = configuration.getTelemetryProcessors();
+            telemetryProcessors = processors.toArray(new TelemetryProcessor[processors.size()]);
         }
     }
 
     private final TelemetryConfiguration configuration;
-    private TelemetryContext context;
+    private volatile ConfigurationState configurationState;
+    private volatile TelemetryContext context;
     private TelemetryChannel channel;
-
-    private static final Object TELEMETRY_STOP_HOOK_LOCK = new Object();
+    private volatile MetricAggregator metricAggregator;
 
     /**
      * Initializes a new instance of the TelemetryClient class. Send telemetry with the specified configuration.
@@ -60,10 +75,6 @@ public class TelemetryClient {
             configuration = TelemetryConfiguration.getActive();
         }
 
-        synchronized (TELEMETRY_STOP_HOOK_LOCK) {
-            SDKShutdownActivity.INSTANCE.register(new TelemetryClientChannelFetcher());
-        }
-
         this.configuration = configuration;
     }
 
@@ -80,8 +91,15 @@ public class TelemetryClient {
      * application session.
      */
     public TelemetryContext getContext() {
+        TelemetryContext context = this.context;
         if (context == null) {
-            context = createInitializedContext();
+            synchronized (this) {
+                context = this.context;
+                if (context == null) {
+                    context = createInitializedContext();
+                    this.context = context;
+                }
+            }
         }
 
         return context;
@@ -92,8 +110,7 @@ public class TelemetryClient {
      * @return 'true' if tracking is disabled, 'false' otherwise.
      */
     public boolean isDisabled() {
-        return
-                Strings.isNullOrEmpty(getContext().getInstrumentationKey()) || configuration.isTrackingDisabled();
+        return isDisabled(getConfigurationState());
     }
 
     /**
@@ -242,6 +259,34 @@ public class TelemetryClient {
         track(telemetry);
     }
 
+    /**
+     * Aggregates the value locally, once a minute a single MetricTelemetry with the count, average,
+     * min, max and standard deviation of the values is sent.
+     * Use this method, instead of 'trackMetric', for metrics that are tracked very frequently.
+     * @param name The name of the measurement
+     * @param value The value of the measurement.
+     */
+    public void trackAggregatedMetric(String name, double value) {
+        trackAggregatedMetric(name, value, null);
+    }
+
+    /**
+     * Aggregates the value locally, once a minute a single MetricTelemetry with the count, average,
+     * min, max and standard deviation of the values is sent for every name and dimensions.
+     * Use this method, instead of 'trackMetric', for metrics that are tracked very frequently.
+     * @param name The name of the measurement
+     * @param value The value of the measurement.
+     * @param dimensions Named string values that are sent as the properties of the aggregated metric.
+     *                   Every distinct set of dimensions is aggregated separately.
+     */
+    public void trackAggregatedMetric(String name, double value, Map<String, String> dimensions) {
+        if (isDisabled()) {
+            return;
+        }
+
+        getMetricAggregator().track(name, value, dimensions);
+    }
+
     /**
      * Sends an ExceptionTelemetry record for display in Diagnostic Search.
      * @param exception The exception to log information about.
@@ -352,7 +397,8 @@ public class TelemetryClient {
             throw new IllegalArgumentException("telemetry item cannot be null");
         }
 
-        if (isDisabled()) {
+        ConfigurationState state = getConfigurationState();
+        if (isDisabled(state)) {
             return;
         }
 
@@ -370,7 +416,7 @@ public class TelemetryClient {
             InternalLogger.INSTANCE.error("Exception while telemetry context's initialization: '%s'", t.getMessage());
         }
 
-        for (TelemetryInitializer initializer : this.configuration.getTelemetryInitializers()) {
+        for (TelemetryInitializer initializer : state.telemetryInitializers) {
             try {
                 initializer.initialize(telemetry);
             } catch (Throwable e) {
@@ -382,6 +428,16 @@ public class TelemetryClient {
             throw new IllegalArgumentException("Instrumentation key cannot be undefined.");
         }
 
+        for (TelemetryProcessor processor : state.telemetryProcessors) {
+            try {
+                if (!processor.process(telemetry)) {
+                    return;
+                }
+            } catch (Throwable e) {
+                InternalLogger.INSTANCE.error("Failed during telemetry processing class '%s', exception: %s", processor.getClass().getName(), e.getMessage());
+            }
+        }
+
         try {
             telemetry.sanitize();
         } catch (Throwable t) {
@@ -396,9 +452,13 @@ public class TelemetryClient {
     }
 
     /**
-     * Flushes possible pending Telemetries in the channel.
+     * Sends the aggregated metrics and flushes possible pending Telemetries in the channel.
      */
     public void flush() {
+        if (metricAggregator != null) {
+            metricAggregator.flush();
+        }
+
         getChannel().flush();
     }
 
@@ -413,6 +473,32 @@ public class TelemetryClient {
         return this.channel;
     }
 
+    private MetricAggregator getMetricAggregator() {
+        if (metricAggregator == null) {
+            synchronized (this) {
+                if (metricAggregator == null) {
+                    metricAggregator = new MetricAggregator(this);
+                }
+            }
+        }
+
+        return metricAggregator;
+    }
+
+    private ConfigurationState getConfigurationState() {
+        ConfigurationState state = configurationState;
+        if (state == null || state.version != configuration.getVersion()) {
+            state = new ConfigurationState(configuration);
+            configurationState = state;
+        }
+
+        return state;
+    }
+
+    private boolean isDisabled(ConfigurationState state) {
+        return state.trackingDisabled || Strings.isNullOrEmpty(getContext().getInstrumentationKey());
+    }
+
     private TelemetryContext createInitializedContext() {
         TelemetryContext ctx = new TelemetryContext();
         ctx.setInstrumentationKey(configuration.getInstrumentationKey());
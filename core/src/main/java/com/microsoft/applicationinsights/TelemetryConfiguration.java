@@ -22,15 +22,19 @@
 package com.microsoft.applicationinsights;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 
 import com.microsoft.applicationinsights.extensibility.ContextInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryModule;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.config.TelemetryConfigurationFactory;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 
 import com.google.common.base.Strings;
@@ -48,11 +52,120 @@ public final class TelemetryConfiguration {
     private static volatile boolean initialized = false;
     private static TelemetryConfiguration active;
 
+    /**
+     * A list that changes the version of the configuration whenever it is modified.
+     */
+    private final class VersionedList<T> extends ArrayList<T> {
+        @Override
+        public boolean add(T element) {
+            try {
+                return super.add(element);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void add(int index, T element) {
+            try {
+                super.add(index, element);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends T> collection) {
+            try {
+                return super.addAll(collection);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends T> collection) {
+            try {
+                return super.addAll(index, collection);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public T set(int index, T element) {
+            try {
+                return super.set(index, element);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public T remove(int index) {
+            try {
+                return super.remove(index);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean remove(Object element) {
+            try {
+                return super.remove(element);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> collection) {
+            try {
+                return super.removeAll(collection);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> collection) {
+            try {
+                return super.retainAll(collection);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void clear() {
+            try {
+                super.clear();
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            try {
+                super.removeRange(fromIndex, toIndex);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    // Changed whenever the configuration is modified, so its users can cache what they read from it,
+    // it is initialized before the versioned lists that change it
+    private final AtomicInteger version = new AtomicInteger(0);
+
     private String instrumentationKey;
 
-    private final ArrayList<ContextInitializer> contextInitializers = new ArrayList<ContextInitializer>();
-    private final ArrayList<TelemetryInitializer> telemetryInitializers = new ArrayList<TelemetryInitializer>();
-    private final ArrayList<TelemetryModule> telemetryModules = new ArrayList<TelemetryModule>();
+    private final ArrayList<ContextInitializer> contextInitializers = new VersionedList<ContextInitializer>();
+    private final ArrayList<TelemetryInitializer> telemetryInitializers = new VersionedList<TelemetryInitializer>();
+    private final ArrayList<TelemetryModule> telemetryModules = new VersionedList<TelemetryModule>();
+    private final ArrayList<TelemetryProcessor> telemetryProcessors = new VersionedList<TelemetryProcessor>();
 
     private TelemetryChannel channel;
 
@@ -104,6 +217,8 @@ public final class TelemetryConfiguration {
      */
     public void setChannel(TelemetryChannel channel) {
         this.channel = channel;
+        SDKShutdownActivity.INSTANCE.register(channel);
+        version.incrementAndGet();
     }
 
     /**
@@ -127,6 +242,7 @@ public final class TelemetryConfiguration {
      */
     public void setTrackingIsDisabled(boolean disable) {
         trackingIsDisabled = disable;
+        version.incrementAndGet();
     }
 
     /**
@@ -158,6 +274,17 @@ public final class TelemetryConfiguration {
         return telemetryModules;
     }
 
+    /**
+     * Gets the list of {@link TelemetryProcessor} objects that every telemetry goes through, in order,
+     * after the telemetry initializers and before the telemetry is sent to the channel.
+     *
+     * A processor can veto the telemetry, for example to sample it, in which case it is never serialized.
+     * @return List of Telemetry Processors
+     */
+    public List<TelemetryProcessor> getTelemetryProcessors() {
+        return telemetryProcessors;
+    }
+
     /**
      * Gets or sets the default instrumentation key for the application.
      *
@@ -190,5 +317,15 @@ public final class TelemetryConfiguration {
         }
 
         instrumentationKey = key;
+        version.incrementAndGet();
+    }
+
+    /**
+     * Gets the version of the configuration, which is changed whenever a property or one of the lists
+     * of the configuration is modified.
+     * @return The version.
+     */
+    int getVersion() {
+        return version.get();
     }
 }
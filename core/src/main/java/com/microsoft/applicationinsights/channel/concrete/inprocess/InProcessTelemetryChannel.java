@@ -26,11 +26,22 @@ import java.io.StringWriter;
 import java.net.URI;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
+import com.microsoft.applicationinsights.internal.channel.common.AsyncTransmissionNetworkOutput;
+import com.microsoft.applicationinsights.internal.channel.common.CompressedTelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.common.RingTelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.PipelineStageConfiguration;
+import com.microsoft.applicationinsights.internal.channel.common.SegmentedTransmissionQueue;
 import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetricsPerformanceCounter;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounterContainer;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
@@ -58,6 +69,29 @@ import com.google.common.base.Preconditions;
  * Use application threads to populate the buffer
  * Use channel's threads to send buffers to the server
  *
+ * By default the buffer is guarded by a lock. Setting 'TelemetryBufferType' to 'RingBuffer' replaces it with
+ * a lock free ring that application threads publish into without blocking, see {@link RingTelemetryBuffer}.
+ * Setting it to 'Compressed' serializes telemetries as UTF-8 bytes into the batch, which is compressed once it is
+ * complete and handed to the transmitter as a ready transmission, see {@link CompressedTelemetryBuffer}.
+ *
+ * Batches are compressed with the default level of gzip, setting 'CompressionLevel' to a value between 0 and 9
+ * trades size for speed, for example '1' on hosts where the CPU is the bottleneck. '-1', or any value that is not valid,
+ * keeps the default.
+ *
+ * Transmissions that could not be sent are saved to a file each. Setting 'TransmissionStorageType' to 'Segmented'
+ * appends them to a memory mapped queue instead, see {@link SegmentedTransmissionQueue}.
+ *
+ * Transmissions are sent by a pool of threads that block on the server. Setting 'NetworkOutputType' to 'Async'
+ * sends them from one I/O thread over a few pipelined connections, see {@link AsyncTransmissionNetworkOutput}.
+ *
+ * The threads and queues of the transmitter and the outputs are set per stage, for example 'NetworkOutput.MaxThreads'
+ * or 'Transmitter.RejectionPolicy', see {@link PipelineStageConfiguration}.
+ *
+ * The channel keeps metrics about itself, see {@link ChannelMetrics}, that are registered in JMX under the
+ * 'com.microsoft.applicationinsights' domain. Setting 'ReportChannelMetrics' to 'true' also sends them
+ * as metrics every time the performance counters are collected. Like the performance counters, the metrics are
+ * sent through the channel of the active configuration, whichever channel they describe.
+ *
  * Created by gupele on 12/17/2014.
  */
 public final class InProcessTelemetryChannel implements TelemetryChannel {
@@ -74,6 +108,14 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
     private final static String DEVELOPER_MODE_NAME = "DeveloperMode";
     private final static String ENDPOINT_ADDRESS_NAME = "EndpointAddress";
     private final static String MAX_TRANSMISSION_STORAGE_CAPACITY_NAME = "MaxTransmissionStorageFilesCapacityInMB";
+    private final static String TELEMETRY_BUFFER_TYPE_NAME = "TelemetryBufferType";
+    private final static String RING_BUFFER_TYPE = "RingBuffer";
+    private final static String COMPRESSED_BUFFER_TYPE = "Compressed";
+    private final static String TRANSMISSION_STORAGE_TYPE_NAME = "TransmissionStorageType";
+    private final static String NETWORK_OUTPUT_TYPE_NAME = "NetworkOutputType";
+    private final static String REPORT_CHANNEL_METRICS_NAME = "ReportChannelMetrics";
+
+    private final static AtomicInteger s_channelCounter = new AtomicInteger(0);
 
     private boolean developerMode = false;
     private static TransmitterFactory s_transmitterFactory;
@@ -82,7 +124,14 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
 
     private TelemetriesTransmitter telemetriesTransmitter;
 
-    private TelemetryBuffer telemetryBuffer;
+    private TelemetriesBuffer telemetryBuffer;
+
+    // Set only when the buffer is compressed, telemetries are then added without being turned to Strings
+    private CompressedTelemetryBuffer compressedTelemetryBuffer;
+
+    private final ChannelMetrics channelMetrics = new ChannelMetrics();
+
+    private ChannelMetricsPerformanceCounter channelMetricsPerformanceCounter;
 
     public InProcessTelemetryChannel() {
         this(null, false);
@@ -98,7 +147,12 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
                    null,
                    developerMode,
                    createDefaultMaxTelemetryBufferCapacityEnforcer(null),
-                   createDefaultSendIntervalInSecondsEnforcer(null));
+                   createDefaultSendIntervalInSecondsEnforcer(null),
+                   null,
+                   null,
+                   null,
+                   false,
+                   null);
     }
 
     /**
@@ -115,7 +169,12 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
                    null,
                    developerMode,
                    createDefaultMaxTelemetryBufferCapacityEnforcer(maxTelemetryBufferCapacity),
-                   createDefaultSendIntervalInSecondsEnforcer(sendIntervalInMillis));
+                   createDefaultSendIntervalInSecondsEnforcer(sendIntervalInMillis),
+                   null,
+                   null,
+                   null,
+                   false,
+                   null);
     }
 
     /**
@@ -125,7 +184,11 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
      */
     public InProcessTelemetryChannel(Map<String, String> namesAndValues) {
         boolean developerMode = false;
+        String telemetryBufferType = null;
+        String transmissionStorageType = null;
+        String networkOutputType = null;
         String endpointAddress = null;
+        boolean reportChannelMetrics = false;
 
         LimitsEnforcer maxTelemetryBufferCapacityEnforcer = createDefaultMaxTelemetryBufferCapacityEnforcer(null);
 
@@ -134,13 +197,17 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
         if (namesAndValues != null) {
             developerMode = Boolean.valueOf(namesAndValues.get(DEVELOPER_MODE_NAME));
             endpointAddress = namesAndValues.get(ENDPOINT_ADDRESS_NAME);
+            telemetryBufferType = namesAndValues.get(TELEMETRY_BUFFER_TYPE_NAME);
+            transmissionStorageType = namesAndValues.get(TRANSMISSION_STORAGE_TYPE_NAME);
+            networkOutputType = namesAndValues.get(NETWORK_OUTPUT_TYPE_NAME);
+            reportChannelMetrics = Boolean.valueOf(namesAndValues.get(REPORT_CHANNEL_METRICS_NAME));
 
             maxTelemetryBufferCapacityEnforcer.normalizeStringValue(namesAndValues.get(MAX_MAX_TELEMETRY_BUFFER_CAPACITY_NAME));
             sendIntervalInSecondsEnforcer.normalizeStringValue(namesAndValues.get(FLUSH_BUFFER_TIMEOUT_IN_SECONDS_NAME));
         }
 
         String maxTransmissionStorageCapacity = namesAndValues.get(MAX_TRANSMISSION_STORAGE_CAPACITY_NAME);
-        initialize(endpointAddress, maxTransmissionStorageCapacity, developerMode, maxTelemetryBufferCapacityEnforcer, sendIntervalInSecondsEnforcer);
+        initialize(endpointAddress, maxTransmissionStorageCapacity, developerMode, maxTelemetryBufferCapacityEnforcer, sendIntervalInSecondsEnforcer, telemetryBufferType, transmissionStorageType, networkOutputType, reportChannelMetrics, namesAndValues);
     }
 
     /**
@@ -176,16 +243,28 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
             telemetry.getContext().getProperties().put("DeveloperMode", "true");
         }
 
-        StringWriter writer = new StringWriter();
-        JsonTelemetryDataSerializer jsonWriter = null;
         try {
-            jsonWriter = new JsonTelemetryDataSerializer(writer);
-            telemetry.serialize(jsonWriter);
-            jsonWriter.close();
-            String asJson = writer.toString();
-            telemetryBuffer.add(asJson);
+            long startTimeInNanos = System.nanoTime();
+            if (compressedTelemetryBuffer != null) {
+                // Serialized straight into the batch as UTF-8 bytes
+                compressedTelemetryBuffer.add(telemetry);
+                channelMetrics.recordLatency(ChannelMetrics.Latency.SERIALIZE, startTimeInNanos);
+            } else {
+                StringWriter writer = new StringWriter();
+                JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+                telemetry.serialize(jsonWriter);
+                jsonWriter.close();
+                String asJson = writer.toString();
+                channelMetrics.recordLatency(ChannelMetrics.Latency.SERIALIZE, startTimeInNanos);
+
+                startTimeInNanos = System.nanoTime();
+                telemetryBuffer.add(asJson);
+                channelMetrics.recordLatency(ChannelMetrics.Latency.ENQUEUE, startTimeInNanos);
+            }
+            channelMetrics.increment(ChannelMetrics.Counter.TELEMETRIES_ENQUEUED);
         } catch (IOException e) {
             InternalLogger.INSTANCE.error("Failed to serialize Telemetry");
+            channelMetrics.onDropped(ChannelMetrics.DropReason.SERIALIZATION_FAILED);
             return;
         }
 
@@ -196,6 +275,9 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
 
     /**
      * Stops on going work
+     *
+     * The buffered telemetries are sent first, the timeout is for the whole stop and what could
+     * not be sent before it expires is persisted for the next run.
      */
     @Override
     public synchronized void stop(long timeout, TimeUnit timeUnit) {
@@ -204,8 +286,15 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
                 return;
             }
 
-            telemetriesTransmitter.stop(timeout, timeUnit);
+            long deadlineInNanos = System.nanoTime() + timeUnit.toNanos(timeout);
+            telemetryBuffer.stop(timeout, timeUnit);
+            telemetriesTransmitter.stop(Math.max(0, deadlineInNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
             stopped = true;
+
+            if (channelMetricsPerformanceCounter != null) {
+                PerformanceCounterContainer.INSTANCE.unregister(channelMetricsPerformanceCounter);
+            }
+            channelMetrics.unregisterMBean();
         } catch (Throwable t) {
         }
     }
@@ -240,6 +329,10 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
         telemetryBuffer.setTransmitBufferTimeoutInSeconds(transmitBufferTimeoutInSeconds);
     }
 
+    ChannelMetrics getChannelMetrics() {
+        return channelMetrics;
+    }
+
     private void writeTelemetryToDebugOutput(Telemetry telemetry) {
         InternalLogger.INSTANCE.trace("InProcessTelemetryChannel sending telemetry");
     }
@@ -248,17 +341,40 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
                                          String maxTransmissionStorageCapacity,
                                          boolean developerMode,
                                          LimitsEnforcer maxTelemetryBufferCapacityEnforcer,
-                                         LimitsEnforcer sendIntervalInSeconds) {
+                                         LimitsEnforcer sendIntervalInSeconds,
+                                         String telemetryBufferType,
+                                         String transmissionStorageType,
+                                         String networkOutputType,
+                                         boolean reportChannelMetrics,
+                                         Map<String, String> namesAndValues) {
         makeSureEndpointAddressIsValid(endpointAddress);
 
         if (s_transmitterFactory == null) {
             s_transmitterFactory = new InProcessTelemetryChannelFactory();
         }
 
-        telemetriesTransmitter = s_transmitterFactory.create(endpointAddress, maxTransmissionStorageCapacity);
-        telemetryBuffer = new TelemetryBuffer(telemetriesTransmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
+        telemetriesTransmitter = s_transmitterFactory.create(endpointAddress, maxTransmissionStorageCapacity, transmissionStorageType, networkOutputType, namesAndValues, channelMetrics);
+        if (RING_BUFFER_TYPE.equalsIgnoreCase(telemetryBufferType)) {
+            telemetryBuffer = new RingTelemetryBuffer(telemetriesTransmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
+        } else if (COMPRESSED_BUFFER_TYPE.equalsIgnoreCase(telemetryBufferType)) {
+            compressedTelemetryBuffer = new CompressedTelemetryBuffer(
+                    telemetriesTransmitter,
+                    maxTelemetryBufferCapacityEnforcer,
+                    sendIntervalInSeconds,
+                    GzipTelemetrySerializer.getCompressionLevel(namesAndValues));
+            telemetryBuffer = compressedTelemetryBuffer;
+        } else {
+            telemetryBuffer = new TelemetryBuffer(telemetriesTransmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
+        }
 
         setDeveloperMode(developerMode);
+
+        String channelName = "InProcessTelemetryChannel-" + s_channelCounter.incrementAndGet();
+        channelMetrics.registerMBean(channelName);
+        if (reportChannelMetrics) {
+            channelMetricsPerformanceCounter = new ChannelMetricsPerformanceCounter(channelName, channelMetrics);
+            PerformanceCounterContainer.INSTANCE.register(channelMetricsPerformanceCounter);
+        }
     }
 
     /**
@@ -21,45 +21,121 @@
 
 package com.microsoft.applicationinsights.channel.concrete.inprocess;
 
+import java.util.Map;
+
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
-import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
-import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
 
 import com.microsoft.applicationinsights.internal.channel.common.TransmissionNetworkOutput;
 import com.microsoft.applicationinsights.internal.channel.common.ActiveTransmissionNetworkOutput;
 import com.microsoft.applicationinsights.internal.channel.common.ActiveTransmissionFileSystemOutput;
 import com.microsoft.applicationinsights.internal.channel.common.TransmissionFileSystemOutput;
 import com.microsoft.applicationinsights.internal.channel.common.NonBlockingDispatcher;
+import com.microsoft.applicationinsights.internal.channel.common.SegmentedTransmissionQueue;
 import com.microsoft.applicationinsights.internal.channel.common.ActiveTransmissionLoader;
+import com.microsoft.applicationinsights.internal.channel.common.AsyncTransmissionNetworkOutput;
 import com.microsoft.applicationinsights.internal.channel.common.TransmitterImpl;
 import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.common.PipelineStageConfiguration;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 
 /**
  * Created by gupele on 1/15/2015.
  */
 final class InProcessTelemetryChannelFactory implements TransmitterFactory {
+    private final static String SEGMENTED_STORAGE_TYPE = "Segmented";
+    private final static String ASYNC_NETWORK_OUTPUT_TYPE = "Async";
+
     @Override
-    public TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity) {
-        // An active object with the network sender
-        TransmissionNetworkOutput actualNetworkSender = TransmissionNetworkOutput.create(endpoint);
-        TransmissionOutput networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender);
+    public TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity, String transmissionStorageType, String networkOutputType, Map<String, String> namesAndValues, ChannelMetrics channelMetrics) {
+        // The file system sender also persists what the network sender could not send when it is stopped
+        TransmissionStorage fileSystemSender = createStorage(maxTransmissionStorageCapacity, transmissionStorageType);
+
+        TransmissionNetworkOutput actualNetworkSender = null;
+        AsyncTransmissionNetworkOutput asyncNetworkSender = null;
+        TransmissionOutput networkSender;
+        if (ASYNC_NETWORK_OUTPUT_TYPE.equalsIgnoreCase(networkOutputType)) {
+            // Sends from its own I/O thread, so it does not need an active object
+            asyncNetworkSender = createAsyncNetworkOutput(endpoint);
+        }
+        if (asyncNetworkSender != null) {
+            asyncNetworkSender.setSpillOutput(fileSystemSender);
+            asyncNetworkSender.setChannelMetrics(channelMetrics);
+            networkSender = asyncNetworkSender;
+        } else {
+            // An active object with the network sender
+            actualNetworkSender = TransmissionNetworkOutput.create(endpoint);
+            actualNetworkSender.setChannelMetrics(channelMetrics);
+            PipelineStageConfiguration networkOutputConfiguration =
+                    PipelineStageConfiguration.fromNamesAndValues(namesAndValues, ActiveTransmissionNetworkOutput.DEFAULT_CONFIGURATION);
+            ActiveTransmissionNetworkOutput activeNetworkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, fileSystemSender, networkOutputConfiguration);
+            activeNetworkSender.setChannelMetrics(channelMetrics);
+            networkSender = activeNetworkSender;
+        }
 
         // An active object with the file system sender
-        TransmissionFileSystemOutput fileSystemSender = new TransmissionFileSystemOutput(null, maxTransmissionStorageCapacity);
-        TransmissionOutput activeFileSystemOutput = new ActiveTransmissionFileSystemOutput(fileSystemSender);
+        PipelineStageConfiguration fileSystemOutputConfiguration = PipelineStageConfiguration.fromNamesAndValues(
+                namesAndValues,
+                ActiveTransmissionFileSystemOutput.DEFAULT_CONFIGURATION,
+                PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST,
+                PipelineStageConfiguration.RejectionPolicy.DROP_OLDEST,
+                PipelineStageConfiguration.RejectionPolicy.BLOCK);
+        ActiveTransmissionFileSystemOutput activeFileSystemOutput = new ActiveTransmissionFileSystemOutput(fileSystemSender, fileSystemOutputConfiguration);
+        activeFileSystemOutput.setChannelMetrics(channelMetrics);
 
         // The dispatcher works with the two active senders
-        TransmissionDispatcher dispatcher = new NonBlockingDispatcher(new TransmissionOutput[] {networkSender, activeFileSystemOutput});
-        actualNetworkSender.setTransmissionDispatcher(dispatcher);
+        NonBlockingDispatcher dispatcher = new NonBlockingDispatcher(new TransmissionOutput[] {networkSender, activeFileSystemOutput});
+        dispatcher.setChannelMetrics(channelMetrics);
 
-        // The loader works with the file system loader as the active one does
-        TransmissionsLoader transmissionsLoader = new ActiveTransmissionLoader(fileSystemSender, dispatcher);
+        // The loader works with the file system loader as the active one does,
+        // it is woken by the file system sender and follows the pace of the network sender
+        ActiveTransmissionLoader transmissionsLoader = new ActiveTransmissionLoader(fileSystemSender, dispatcher);
+        transmissionsLoader.setChannelMetrics(channelMetrics);
+        if (asyncNetworkSender != null) {
+            asyncNetworkSender.setTransmissionListener(transmissionsLoader);
+        } else {
+            actualNetworkSender.setTransmissionDispatcher(dispatcher);
+            actualNetworkSender.setTransmissionListener(transmissionsLoader);
+        }
 
         // The Transmitter manage all
-        TelemetriesTransmitter telemetriesTransmitter = new TransmitterImpl(dispatcher, new GzipTelemetrySerializer(), transmissionsLoader);
+        PipelineStageConfiguration transmitterConfiguration = PipelineStageConfiguration.fromNamesAndValues(
+                namesAndValues,
+                TransmitterImpl.DEFAULT_CONFIGURATION,
+                PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST,
+                PipelineStageConfiguration.RejectionPolicy.BLOCK);
+        TransmitterImpl telemetriesTransmitter = new TransmitterImpl(
+                dispatcher,
+                new GzipTelemetrySerializer(GzipTelemetrySerializer.getCompressionLevel(namesAndValues)),
+                transmissionsLoader,
+                transmitterConfiguration);
+        telemetriesTransmitter.setChannelMetrics(channelMetrics);
 
         return telemetriesTransmitter;
     }
+
+    private static AsyncTransmissionNetworkOutput createAsyncNetworkOutput(String endpoint) {
+        try {
+            return AsyncTransmissionNetworkOutput.create(endpoint);
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to create the async network output, the blocking one will be used instead, exception: %s", e.getMessage());
+        }
+
+        return null;
+    }
+
+    private static TransmissionStorage createStorage(String maxTransmissionStorageCapacity, String transmissionStorageType) {
+        if (SEGMENTED_STORAGE_TYPE.equalsIgnoreCase(transmissionStorageType)) {
+            try {
+                return new SegmentedTransmissionQueue(null, maxTransmissionStorageCapacity);
+            } catch (Exception e) {
+                InternalLogger.INSTANCE.error("Failed to create the segmented transmission queue, transmission files will be used instead, exception: %s", e.getMessage());
+            }
+        }
+
+        return new TransmissionFileSystemOutput(null, maxTransmissionStorageCapacity);
+    }
 }
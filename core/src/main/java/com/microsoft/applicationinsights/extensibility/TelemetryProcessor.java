@@ -0,0 +1,40 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility;
+
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * A stage in the chain that every telemetry goes through after it was initialized
+ * and before it is sanitized and handed to the channel.
+ *
+ * A processor may modify the telemetry or veto it, a vetoed telemetry is dropped by the
+ * {@link com.microsoft.applicationinsights.TelemetryClient} and is never serialized.
+ */
+public interface TelemetryProcessor {
+    /**
+     * Processes the telemetry.
+     * @param telemetry The {@link com.microsoft.applicationinsights.telemetry.Telemetry} to process.
+     * @return True if the telemetry should be sent, false if it should be dropped.
+     */
+    boolean process(Telemetry telemetry);
+}
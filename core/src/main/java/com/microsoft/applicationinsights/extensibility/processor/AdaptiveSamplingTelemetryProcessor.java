@@ -0,0 +1,153 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility.processor;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.MapUtil;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Adjusts the sampling percentage so that about 'MaxTelemetryItemsPerSecond' telemetries are kept.
+ *
+ * The processor counts the telemetries that are subject to sampling. Once in an evaluation interval
+ * the observed rate is added to a moving average and the percentage is set to the ratio between the
+ * target rate and that average. The percentage is rounded so that every kept telemetry stands for a whole
+ * number of telemetries, i.e. 100, 50, 33.3, 25...
+ *
+ * The evaluation is done by the thread that tracks the first telemetry after the interval has passed,
+ * no thread is needed for it.
+ */
+public class AdaptiveSamplingTelemetryProcessor extends SamplingTelemetryProcessor {
+    public final static double DEFAULT_MAX_TELEMETRY_ITEMS_PER_SECOND = 5.0;
+    public final static int DEFAULT_EVALUATION_INTERVAL_IN_SECONDS = 15;
+
+    private final static String MAX_TELEMETRY_ITEMS_PER_SECOND_NAME = "MaxTelemetryItemsPerSecond";
+    private final static String EVALUATION_INTERVAL_IN_SECONDS_NAME = "EvaluationIntervalInSeconds";
+
+    private final static double MIN_SAMPLING_PERCENTAGE = 0.1;
+    private final static double MOVING_AVERAGE_RATIO = 0.25;
+
+    private final double maxTelemetryItemsPerSecond;
+    private final long evaluationIntervalInNanos;
+
+    private final AtomicLong itemsInInterval = new AtomicLong(0);
+    private final AtomicLong nextEvaluationTime;
+
+    private double movingAverageItemsPerSecond = -1.0;
+    private volatile double samplingPercentage = MAX_SAMPLING_PERCENTAGE;
+
+    public AdaptiveSamplingTelemetryProcessor() {
+        this(DEFAULT_MAX_TELEMETRY_ITEMS_PER_SECOND);
+    }
+
+    public AdaptiveSamplingTelemetryProcessor(double maxTelemetryItemsPerSecond) {
+        this(maxTelemetryItemsPerSecond, DEFAULT_EVALUATION_INTERVAL_IN_SECONDS);
+    }
+
+    /**
+     * Creates the processor from the 'MaxTelemetryItemsPerSecond', 'EvaluationIntervalInSeconds',
+     * 'IncludedTypes' and 'ExcludedTypes' parameters of the configuration file.
+     * @param namesAndValues The parameters.
+     */
+    public AdaptiveSamplingTelemetryProcessor(Map<String, String> namesAndValues) {
+        this(namesAndValues,
+             getDoubleValue(namesAndValues, MAX_TELEMETRY_ITEMS_PER_SECOND_NAME, DEFAULT_MAX_TELEMETRY_ITEMS_PER_SECOND),
+             (int)getDoubleValue(namesAndValues, EVALUATION_INTERVAL_IN_SECONDS_NAME, DEFAULT_EVALUATION_INTERVAL_IN_SECONDS));
+    }
+
+    public AdaptiveSamplingTelemetryProcessor(double maxTelemetryItemsPerSecond, int evaluationIntervalInSeconds) {
+        this(null, maxTelemetryItemsPerSecond, evaluationIntervalInSeconds);
+    }
+
+    private AdaptiveSamplingTelemetryProcessor(Map<String, String> namesAndValues, double maxTelemetryItemsPerSecond, int evaluationIntervalInSeconds) {
+        super(namesAndValues);
+
+        Preconditions.checkArgument(maxTelemetryItemsPerSecond > 0.0, "maxTelemetryItemsPerSecond must be a positive number");
+        Preconditions.checkArgument(evaluationIntervalInSeconds > 0, "evaluationIntervalInSeconds must be a positive number");
+
+        this.maxTelemetryItemsPerSecond = maxTelemetryItemsPerSecond;
+        this.evaluationIntervalInNanos = TimeUnit.SECONDS.toNanos(evaluationIntervalInSeconds);
+        this.nextEvaluationTime = new AtomicLong(currentTimeNanos() + evaluationIntervalInNanos);
+    }
+
+    public double getMaxTelemetryItemsPerSecond() {
+        return maxTelemetryItemsPerSecond;
+    }
+
+    /**
+     * Gets the percentage that is currently applied.
+     * @return The sampling percentage.
+     */
+    public double getSamplingPercentage() {
+        return samplingPercentage;
+    }
+
+    @Override
+    protected double nextSamplingPercentage() {
+        long now = currentTimeNanos();
+        long evaluationTime = nextEvaluationTime.get();
+        if (now - evaluationTime >= 0 && nextEvaluationTime.compareAndSet(evaluationTime, now + evaluationIntervalInNanos)) {
+            // The interval started at the previous evaluation
+            evaluate(now - (evaluationTime - evaluationIntervalInNanos));
+        }
+
+        itemsInInterval.incrementAndGet();
+
+        return samplingPercentage;
+    }
+
+    private static double getDoubleValue(Map<String, String> namesAndValues, String name, double defaultValue) {
+        Double value = namesAndValues == null ? null : MapUtil.getDoubleValueOrNull(namesAndValues, name);
+        return value == null ? defaultValue : value;
+    }
+
+    long currentTimeNanos() {
+        return System.nanoTime();
+    }
+
+    private synchronized void evaluate(long elapsedNanos) {
+        double itemsPerSecond = itemsInInterval.getAndSet(0) / ((double)elapsedNanos / TimeUnit.SECONDS.toNanos(1));
+        if (movingAverageItemsPerSecond < 0.0) {
+            movingAverageItemsPerSecond = itemsPerSecond;
+        } else {
+            movingAverageItemsPerSecond = MOVING_AVERAGE_RATIO * itemsPerSecond + (1.0 - MOVING_AVERAGE_RATIO) * movingAverageItemsPerSecond;
+        }
+
+        double percentage = MAX_SAMPLING_PERCENTAGE;
+        if (movingAverageItemsPerSecond > maxTelemetryItemsPerSecond) {
+            percentage = MAX_SAMPLING_PERCENTAGE * maxTelemetryItemsPerSecond / movingAverageItemsPerSecond;
+            percentage = Math.max(MIN_SAMPLING_PERCENTAGE, percentage);
+            percentage = MAX_SAMPLING_PERCENTAGE / Math.ceil(MAX_SAMPLING_PERCENTAGE / percentage);
+        }
+
+        if (percentage != samplingPercentage) {
+            InternalLogger.INSTANCE.trace("Adaptive sampling: %.2f items per second, sampling percentage changed from %.2f to %.2f",
+                    movingAverageItemsPerSecond, samplingPercentage, percentage);
+            samplingPercentage = percentage;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility.processor;
+
+import java.util.Map;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.util.MapUtil;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Drops successful requests and dependencies that took less than 'MinimumDurationInMS' milliseconds.
+ * Failed requests and dependencies are always sent.
+ */
+public final class DurationThresholdTelemetryFilter implements TelemetryProcessor {
+    private final static String MINIMUM_DURATION_IN_MS_NAME = "MinimumDurationInMS";
+
+    private final long minimumDurationInMS;
+
+    public DurationThresholdTelemetryFilter(long minimumDurationInMS) {
+        Preconditions.checkArgument(minimumDurationInMS >= 0, "minimumDurationInMS must be a non negative number");
+
+        this.minimumDurationInMS = minimumDurationInMS;
+    }
+
+    /**
+     * Creates the filter from the 'MinimumDurationInMS' parameter of the configuration file.
+     * @param namesAndValues The parameters.
+     */
+    public DurationThresholdTelemetryFilter(Map<String, String> namesAndValues) {
+        this(getMinimumDurationInMS(namesAndValues));
+    }
+
+    public long getMinimumDurationInMS() {
+        return minimumDurationInMS;
+    }
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        if (telemetry instanceof RequestTelemetry) {
+            RequestTelemetry request = (RequestTelemetry) telemetry;
+            return !request.isSuccess() || !isBelowThreshold(request.getDuration());
+        }
+
+        if (telemetry instanceof RemoteDependencyTelemetry) {
+            RemoteDependencyTelemetry dependency = (RemoteDependencyTelemetry) telemetry;
+            return !dependency.getSuccess() || !isBelowThreshold(dependency.getDuration());
+        }
+
+        return true;
+    }
+
+    private boolean isBelowThreshold(Duration duration) {
+        return duration != null && duration.getTotalMilliseconds() < minimumDurationInMS;
+    }
+
+    private static long getMinimumDurationInMS(Map<String, String> namesAndValues) {
+        Double value = namesAndValues == null ? null : MapUtil.getDoubleValueOrNull(namesAndValues, MINIMUM_DURATION_IN_MS_NAME);
+        Preconditions.checkArgument(value != null, "'%s' must be set to a number", MINIMUM_DURATION_IN_MS_NAME);
+
+        return value.longValue();
+    }
+}
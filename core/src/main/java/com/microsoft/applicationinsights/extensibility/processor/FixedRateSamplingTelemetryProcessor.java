@@ -0,0 +1,77 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility.processor;
+
+import java.util.Map;
+
+import com.microsoft.applicationinsights.internal.util.MapUtil;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps a fixed percentage of the telemetries.
+ */
+public final class FixedRateSamplingTelemetryProcessor extends SamplingTelemetryProcessor {
+    private final static String SAMPLING_PERCENTAGE_NAME = "SamplingPercentage";
+
+    private volatile double samplingPercentage;
+
+    public FixedRateSamplingTelemetryProcessor() {
+        this(MAX_SAMPLING_PERCENTAGE);
+    }
+
+    public FixedRateSamplingTelemetryProcessor(double samplingPercentage) {
+        setSamplingPercentage(samplingPercentage);
+    }
+
+    /**
+     * Creates the processor from the 'SamplingPercentage', 'IncludedTypes' and 'ExcludedTypes'
+     * parameters of the configuration file.
+     * @param namesAndValues The parameters.
+     */
+    public FixedRateSamplingTelemetryProcessor(Map<String, String> namesAndValues) {
+        super(namesAndValues);
+
+        Double percentage = namesAndValues == null ? null : MapUtil.getDoubleValueOrNull(namesAndValues, SAMPLING_PERCENTAGE_NAME);
+        setSamplingPercentage(percentage == null ? MAX_SAMPLING_PERCENTAGE : percentage);
+    }
+
+    public double getSamplingPercentage() {
+        return samplingPercentage;
+    }
+
+    /**
+     * Sets the percentage of the telemetries that are kept.
+     * @param samplingPercentage A number in the range (0, 100].
+     */
+    public void setSamplingPercentage(double samplingPercentage) {
+        Preconditions.checkArgument(samplingPercentage > 0.0 && samplingPercentage <= MAX_SAMPLING_PERCENTAGE,
+                "samplingPercentage must be in the range (0, 100]");
+
+        this.samplingPercentage = samplingPercentage;
+    }
+
+    @Override
+    protected double nextSamplingPercentage() {
+        return samplingPercentage;
+    }
+}
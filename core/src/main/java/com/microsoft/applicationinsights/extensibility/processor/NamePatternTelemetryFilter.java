@@ -0,0 +1,90 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility.processor;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.PageViewTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * Drops requests, dependencies, events, page views and metrics whose name matches the
+ * 'Pattern' regular expression, for example 'GET /health.*'. The whole name must match.
+ */
+public final class NamePatternTelemetryFilter implements TelemetryProcessor {
+    private final static String PATTERN_NAME = "Pattern";
+
+    private final Pattern pattern;
+
+    public NamePatternTelemetryFilter(String pattern) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(pattern), "pattern must be a non empty regular expression");
+
+        this.pattern = Pattern.compile(pattern);
+    }
+
+    /**
+     * Creates the filter from the 'Pattern' parameter of the configuration file.
+     * @param namesAndValues The parameters.
+     */
+    public NamePatternTelemetryFilter(Map<String, String> namesAndValues) {
+        this(namesAndValues == null ? null : namesAndValues.get(PATTERN_NAME));
+    }
+
+    public String getPattern() {
+        return pattern.pattern();
+    }
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        String name = getName(telemetry);
+        return name == null || !pattern.matcher(name).matches();
+    }
+
+    private static String getName(Telemetry telemetry) {
+        if (telemetry instanceof RequestTelemetry) {
+            return ((RequestTelemetry) telemetry).getName();
+        }
+        if (telemetry instanceof RemoteDependencyTelemetry) {
+            return ((RemoteDependencyTelemetry) telemetry).getName();
+        }
+        if (telemetry instanceof EventTelemetry) {
+            return ((EventTelemetry) telemetry).getName();
+        }
+        if (telemetry instanceof PageViewTelemetry) {
+            return ((PageViewTelemetry) telemetry).getName();
+        }
+        if (telemetry instanceof MetricTelemetry) {
+            return ((MetricTelemetry) telemetry).getName();
+        }
+
+        return null;
+    }
+}
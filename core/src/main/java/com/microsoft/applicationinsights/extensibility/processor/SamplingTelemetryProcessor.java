@@ -0,0 +1,107 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility.processor;
+
+import java.util.Map;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.sampling.SamplingScoreGenerator;
+import com.microsoft.applicationinsights.internal.sampling.SamplingTypeFilter;
+import com.microsoft.applicationinsights.telemetry.SupportSampling;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * The base class of the sampling processors.
+ *
+ * A telemetry is kept when the score of its operation id is lower than the current sampling percentage,
+ * the percentage is then set on the telemetry and sent as the 'sampleRate' of its envelope.
+ * Dropped telemetries never reach the channel.
+ */
+public abstract class SamplingTelemetryProcessor implements TelemetryProcessor {
+    protected final static double MAX_SAMPLING_PERCENTAGE = 100.0;
+
+    private final static String INCLUDED_TYPES_NAME = "IncludedTypes";
+    private final static String EXCLUDED_TYPES_NAME = "ExcludedTypes";
+
+    private final SamplingTypeFilter typeFilter = new SamplingTypeFilter();
+
+    protected SamplingTelemetryProcessor() {
+    }
+
+    /**
+     * Reads the 'IncludedTypes' and 'ExcludedTypes' parameters.
+     * @param namesAndValues The parameters from the configuration file.
+     */
+    protected SamplingTelemetryProcessor(Map<String, String> namesAndValues) {
+        if (namesAndValues != null) {
+            setIncludedTypes(namesAndValues.get(INCLUDED_TYPES_NAME));
+            setExcludedTypes(namesAndValues.get(EXCLUDED_TYPES_NAME));
+        }
+    }
+
+    /**
+     * Sets the telemetry types that are sampled, all other types are always sent.
+     * @param types Type names separated by ';', for example 'Request;Dependency'.
+     */
+    public void setIncludedTypes(String types) {
+        typeFilter.setIncludedTypes(types);
+    }
+
+    /**
+     * Sets the telemetry types that are never sampled.
+     * @param types Type names separated by ';', for example 'Exception;Event'.
+     */
+    public void setExcludedTypes(String types) {
+        typeFilter.setExcludedTypes(types);
+    }
+
+    @Override
+    public final boolean process(Telemetry telemetry) {
+        if (!typeFilter.isSampled(telemetry)) {
+            return true;
+        }
+
+        double samplingPercentage = nextSamplingPercentage();
+        if (samplingPercentage >= MAX_SAMPLING_PERCENTAGE) {
+            return true;
+        }
+
+        if (SamplingScoreGenerator.getSamplingScore(telemetry) >= samplingPercentage) {
+            return false;
+        }
+
+        // The score is stable per operation, so an item kept by two samplers was kept by the lower percentage
+        SupportSampling sampledTelemetry = (SupportSampling) telemetry;
+        Double currentPercentage = sampledTelemetry.getSamplingPercentage();
+        if (currentPercentage == null || currentPercentage > samplingPercentage) {
+            sampledTelemetry.setSamplingPercentage(samplingPercentage);
+        }
+
+        return true;
+    }
+
+    /**
+     * Called once for every telemetry that is subject to sampling.
+     * @return The sampling percentage to apply to the telemetry.
+     */
+    protected abstract double nextSamplingPercentage();
+}
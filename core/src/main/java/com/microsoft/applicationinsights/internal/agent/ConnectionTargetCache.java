@@ -0,0 +1,134 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.agent;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Keeps the dependency target of every JDBC connection, so the connection's meta data is fetched
+ * once and not on every statement that is executed on it.
+ *
+ * The connections are weak keys that are compared by identity, a connection that is closed and collected
+ * leaves the cache, and connection wrappers that delegate equals to the physical connection are kept apart.
+ */
+final class ConnectionTargetCache {
+    final static String UNKNOWN_URL = "jdbc:Unknown DB URL (failed to fetch from connection)";
+
+    /**
+     * The resolved target of a connection.
+     */
+    static final class Target {
+        final String url;
+        final String databaseType;
+        final String host;
+
+        Target(String url) {
+            this.url = url;
+            this.databaseType = parseDatabaseType(url);
+            this.host = parseHost(url);
+        }
+    }
+
+    private final ConcurrentMap<Connection, Target> targets = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * @return The target of the connection, a connection whose meta data cannot be fetched gets an unknown target.
+     */
+    Target get(Connection connection) {
+        Target target = targets.get(connection);
+        if (target != null) {
+            return target;
+        }
+
+        String url = null;
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+            if (metaData != null) {
+                url = metaData.getURL();
+            }
+        } catch (Throwable t) {
+            url = UNKNOWN_URL;
+        }
+
+        target = new Target(url);
+        Target current = targets.putIfAbsent(connection, target);
+        return current == null ? target : current;
+    }
+
+    int size() {
+        return targets.size();
+    }
+
+    /**
+     * @return The sub protocol of the URL, e.g. 'mysql' for 'jdbc:mysql://host/db'.
+     */
+    static String parseDatabaseType(String url) {
+        if (url == null || !url.startsWith("jdbc:")) {
+            return null;
+        }
+
+        int start = "jdbc:".length();
+        int end = url.indexOf(':', start);
+        if (end <= start) {
+            return null;
+        }
+
+        return url.substring(start, end);
+    }
+
+    /**
+     * @return The host of the URL, found after '//' or after '@' for Oracle like URLs, or null if the URL has none.
+     */
+    static String parseHost(String url) {
+        if (url == null) {
+            return null;
+        }
+
+        int start = url.indexOf("//");
+        if (start != -1) {
+            start += 2;
+        } else {
+            start = url.indexOf('@');
+            if (start == -1) {
+                return null;
+            }
+            ++start;
+        }
+
+        int length = url.length();
+        int end = start;
+        if (end < length && url.charAt(end) == '[') {
+            // IPv6 address
+            end = url.indexOf(']', start);
+            return end == -1 ? null : url.substring(start, end + 1);
+        }
+        while (end < length && ":/;?,".indexOf(url.charAt(end)) == -1) {
+            ++end;
+        }
+
+        return end == start ? null : url.substring(start, end);
+    }
+}
@@ -24,15 +24,9 @@ package com.microsoft.applicationinsights.internal.agent;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
 
 import com.microsoft.applicationinsights.agent.internal.coresync.AgentNotificationsHandler;
+import com.microsoft.applicationinsights.agent.internal.coresync.DependencyType;
 import com.microsoft.applicationinsights.agent.internal.coresync.InstrumentedClassType;
 
 import com.microsoft.applicationinsights.TelemetryClient;
@@ -48,32 +42,18 @@ import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
  * The Core's implementation: the methods are called for instrumented methods.
  * The implementation can measure time in nano seconds, fetch Sql/Http data and report exceptions
  *
+ * Every thread keeps the methods it is in on a {@link MethodFrameStack} whose frames are reused,
+ * the telemetries of a method are only created if it failed or took at least the threshold of its dependency type.
+ * The calls that are not reported are folded into the metrics of a {@link DependencyAggregator}.
+ *
  * Created by gupele on 5/7/2015.
  */
 final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
 
-    /**
-     * The class holds the data gathered on a method
-     */
-    private static class MethodData {
-        public String name;
-        public Object[] arguments;
-        public long interval;
-        public InstrumentedClassType type;
-        public Object result;
-    }
-
-    private static class ThreadData {
-        public final LinkedList<MethodData> methods = new LinkedList<MethodData>();
-    }
-
-    static final class ThreadLocalData extends ThreadLocal<ThreadData> {
-        private ThreadData threadData;
-
+    static final class ThreadLocalData extends ThreadLocal<MethodFrameStack> {
         @Override
-        protected ThreadData initialValue() {
-            threadData = new ThreadData();
-            return threadData;
+        protected MethodFrameStack initialValue() {
+            return new MethodFrameStack();
         }
     };
 
@@ -88,6 +68,14 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
 
     private TelemetryClient telemetryClient = new TelemetryClient();
 
+    private final DependencyAggregator aggregator = new DependencyAggregator(telemetryClient);
+
+    private final QueryPlanCache queryPlanCache = new QueryPlanCache();
+
+    private final SqlNormalizer sqlNormalizer = new SqlNormalizer();
+
+    private final ConnectionTargetCache connectionTargets = new ConnectionTargetCache();
+
     private final String name;
 
     public ThreadLocalCleaner getCleaner() {
@@ -110,28 +98,30 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
 
     @Override
     public void httpMethodStarted(String classAndMethodNames, String url) {
-        startMethod(InstrumentedClassType.HTTP, name, url);
+        long start = System.nanoTime();
+
+        MethodFrameStack.Frame frame = threadDataThreadLocal.get().push(InstrumentedClassType.HTTP, name, start);
+        frame.target = url;
     }
 
     @Override
     public void sqlStatementExecuteQueryPossibleQueryPlan(String name, Statement statement, String sqlStatement) {
-        startSqlMethod(statement, sqlStatement, null);
+        startSqlMethod(statement, sqlStatement, null, -1);
     }
 
     @Override
     public void preparedStatementMethodStarted(String classAndMethodNames, PreparedStatement statement, String sqlStatement, Object[] args) {
-        startSqlMethod(statement, sqlStatement, args);
+        startSqlMethod(statement, sqlStatement, args, -1);
     }
 
     @Override
     public void sqlStatementMethodStarted(String name, Statement statement, String sqlStatement) {
-        startSqlMethod(statement, sqlStatement, null);
+        startSqlMethod(statement, sqlStatement, null, -1);
     }
 
     @Override
     public void preparedStatementExecuteBatchMethodStarted(String classAndMethodNames, PreparedStatement statement, String sqlStatement, int batchCounter) {
-        final String batchData = String.format("Batch of %d", batchCounter);
-        startSqlMethod(statement, sqlStatement, new Object[]{batchData});
+        startSqlMethod(statement, sqlStatement, null, batchCounter);
     }
 
     public String getName() {
@@ -140,12 +130,12 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
 
     @Override
     public void methodStarted(String name) {
-        startMethod(InstrumentedClassType.OTHER, name, new String[]{});
+        threadDataThreadLocal.get().push(InstrumentedClassType.OTHER, name, System.nanoTime());
     }
 
     @Override
     public void methodFinished(String name, Throwable throwable) {
-        if (!finalizeMethod(null, throwable)) {
+        if (!finalizeMethod(throwable)) {
             InternalLogger.INSTANCE.error("Agent has detected a 'Finish' method '%s' with exception '%s' event without a 'Start'",
                     name, throwable == null ? "unknown" : throwable.getClass().getName());
         }
@@ -153,14 +143,19 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
 
     @Override
     public void methodFinished(String name) {
-        if (!finalizeMethod(null, null)) {
+        if (!finalizeMethod(null)) {
             InternalLogger.INSTANCE.error("Agent has detected a 'Finish' method ('%s') event without a 'Start'", name);
         }
     }
 
     @Override
     public void methodFinished(String classAndMethodNames, long deltaInNS, Object[] args, Throwable throwable) {
-        long durationInMS =nanoToMilliseconds(deltaInNS);
+        if (!ImplementationsCoordinator.INSTANCE.isDependencyReported(DependencyType.REDIS, deltaInNS, throwable == null)) {
+            aggregator.add(DependencyType.REDIS, classAndMethodNames, deltaInNS, throwable == null);
+            return;
+        }
+
+        long durationInMS = nanoToMilliseconds(deltaInNS);
         Duration duration = new Duration(durationInMS);
         RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(classAndMethodNames, null, duration, throwable == null);
         telemetry.setDependencyKind(DependencyKind.Other);
@@ -179,107 +174,119 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
         }
     }
 
-    private void startSqlMethod(Statement statement, String sqlStatement, Object[] additionalArgs) {
-
+    private void startSqlMethod(Statement statement, String sqlStatement, Object[] additionalArgs, int batchSize) {
         try {
             Connection connection = null;
-            DatabaseMetaData metaData;
+            ConnectionTargetCache.Target database = null;
             String url = null;
             if (statement != null) {
                 try {
                     connection = statement.getConnection();
                     if (connection != null) {
-                        metaData = connection.getMetaData();
-
-                        if (metaData != null) {
-                            url = metaData.getURL();
-                        }
+                        database = connectionTargets.get(connection);
+                        url = database.url;
                     }
                 } catch (Throwable t) {
-                    url = "jdbc:Unknown DB URL (failed to fetch from connection)";
+                    url = ConnectionTargetCache.UNKNOWN_URL;
                 }
             }
 
-            Object[] sqlMetaData;
-            if (additionalArgs == null) {
-                sqlMetaData = new Object[] {url, sqlStatement, connection};
-            } else {
-                sqlMetaData = new Object[] {url, sqlStatement, connection, additionalArgs};
-            }
-            startSqlMethod(InstrumentedClassType.SQL, name, sqlMetaData);
-            ThreadData localData = threadDataThreadLocal.get();
+            long start = System.nanoTime();
 
+            MethodFrameStack.Frame frame = threadDataThreadLocal.get().push(InstrumentedClassType.SQL, name, start);
+            frame.target = url;
+            frame.command = sqlStatement;
+            frame.connection = connection;
+            frame.database = database;
+            frame.arguments = additionalArgs;
+            frame.batchSize = batchSize;
         } catch (Throwable e) {
         }
     }
 
-    private void startMethod(InstrumentedClassType type, String name, String... arguments) {
-        long start = System.nanoTime();
+    private boolean finalizeMethod(Throwable throwable) {
+        long finish = System.nanoTime();
 
-        ThreadData localData = threadDataThreadLocal.get();
-        MethodData methodData = new MethodData();
-        methodData.interval = start;
-        methodData.type = type;
-        methodData.arguments = arguments;
-        methodData.name = name;
-        localData.methods.addFirst(methodData);
-    }
+        MethodFrameStack stack = threadDataThreadLocal.get();
+        MethodFrameStack.Frame frame = stack.peek();
+        if (frame == null) {
+            return false;
+        }
 
-    private void startSqlMethod(InstrumentedClassType type, String name, Object... arguments) {
-        long start = System.nanoTime();
+        try {
+            long durationInNanos = finish - frame.startInNanos;
+
+            // Fast calls are only counted, nothing is created for them
+            DependencyType dependencyType = toDependencyType(frame.type);
+            if (!ImplementationsCoordinator.INSTANCE.isDependencyReported(dependencyType, durationInNanos, throwable == null)) {
+                aggregator.add(dependencyType, getAggregationTarget(frame), durationInNanos, throwable == null);
+                return true;
+            }
 
-        ThreadData localData = threadDataThreadLocal.get();
-        MethodData methodData = new MethodData();
-        methodData.interval = start;
-        methodData.type = type;
-        methodData.arguments = arguments;
-        methodData.name = name;
-        localData.methods.addFirst(methodData);
+            report(frame, durationInNanos, throwable);
+        } finally {
+            stack.pop();
+        }
+
+        return true;
     }
 
-    private boolean finalizeMethod(Object result, Throwable throwable) {
-        long finish = System.nanoTime();
+    private static DependencyType toDependencyType(InstrumentedClassType type) {
+        switch (type) {
+            case SQL:
+                return DependencyType.SQL;
 
-        ThreadData localData = threadDataThreadLocal.get();
-        if (localData.methods == null || localData.methods.isEmpty()) {
-            return false;
-        }
+            case HTTP:
+                return DependencyType.HTTP;
 
-        MethodData methodData = localData.methods.removeFirst();
-        if (methodData == null) {
-            return true;
+            default:
+                return DependencyType.OTHER;
         }
+    }
 
-        methodData.interval = finish - methodData.interval;
-        methodData.result = result;
+    private String getAggregationTarget(MethodFrameStack.Frame frame) {
+        switch (frame.type) {
+            case SQL:
+                return sqlNormalizer.normalize(frame.command, frame.database != null ? frame.database.databaseType : null);
 
-        report(methodData, throwable);
+            case HTTP:
+                // The query string would make a target of almost every call
+                String url = frame.target;
+                if (url != null) {
+                    int queryIndex = url.indexOf('?');
+                    if (queryIndex != -1) {
+                        url = url.substring(0, queryIndex);
+                    }
+                }
+                return url;
 
-        return true;
+            default:
+                return frame.name;
+        }
     }
 
-    private void report(MethodData methodData, Throwable throwable) {
-        switch (methodData.type) {
+    private void report(MethodFrameStack.Frame frame, long durationInNanos, Throwable throwable) {
+        switch (frame.type) {
             case SQL:
-                sendSQLTelemetry(methodData, throwable);
+                sendSQLTelemetry(frame, durationInNanos, throwable);
                 break;
 
             case HTTP:
-                sendHTTPTelemetry(methodData, throwable);
+                sendHTTPTelemetry(frame, durationInNanos, throwable);
                 break;
 
             default:
-                sendInstrumentationTelemetry(methodData, throwable);
+                sendInstrumentationTelemetry(frame, durationInNanos, throwable);
                 break;
         }
     }
 
-    private void sendInstrumentationTelemetry(MethodData methodData, Throwable throwable) {
-        Duration duration = new Duration(nanoToMilliseconds(methodData.interval));
-        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(methodData.name, null, duration, throwable == null);
+    private void sendInstrumentationTelemetry(MethodFrameStack.Frame frame, long durationInNanos, Throwable throwable) {
+        Duration duration = new Duration(nanoToMilliseconds(durationInNanos));
+        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(frame.name, null, duration, throwable == null);
         telemetry.setDependencyKind(DependencyKind.Other);
 
-        InternalLogger.INSTANCE.trace("Sending RDD event for '%s'", methodData.name);
+        InternalLogger.INSTANCE.trace("Sending RDD event for '%s'", frame.name);
 
         telemetryClient.track(telemetry);
         if (throwable != null) {
@@ -288,10 +295,10 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
         }
     }
 
-    private void sendHTTPTelemetry(MethodData methodData, Throwable throwable) {
-        if (methodData.arguments != null && methodData.arguments.length == 1) {
-            String url = methodData.arguments[0].toString();
-            long durationInMilliSeconds = nanoToMilliseconds(methodData.interval);
+    private void sendHTTPTelemetry(MethodFrameStack.Frame frame, long durationInNanos, Throwable throwable) {
+        if (frame.target != null) {
+            String url = frame.target;
+            long durationInMilliSeconds = nanoToMilliseconds(durationInNanos);
             Duration duration = new Duration(durationInMilliSeconds);
 
             InternalLogger.INSTANCE.trace("Sending HTTP RDD event, URL: '%s', duration=%s ms", url, durationInMilliSeconds);
@@ -306,20 +313,15 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
         }
     }
 
-    private void sendSQLTelemetry(MethodData methodData, Throwable throwable) {
-        if (methodData.arguments != null && methodData.arguments.length >= 3 && methodData.arguments[1] != null) {
+    private void sendSQLTelemetry(MethodFrameStack.Frame frame, long durationInNanos, Throwable throwable) {
+        if (frame.command != null) {
             try {
-                String dependencyName = null;
-                if (methodData.arguments[0] != null) {
-                    dependencyName = methodData.arguments[0].toString();
-                }
-                String commandName = null;
-                if (methodData.arguments[1] == null) {
-                    return;
-                }
-
-                commandName = methodData.arguments[1].toString();
-                long durationInMilliSeconds = nanoToMilliseconds(methodData.interval);
+                String dependencyName = frame.target;
+                String sqlStatement = frame.command;
+                Object connection = frame.connection;
+                ConnectionTargetCache.Target database = frame.database;
+                String commandName = sqlNormalizer.normalize(sqlStatement, database != null ? database.databaseType : null);
+                long durationInMilliSeconds = nanoToMilliseconds(durationInNanos);
                 Duration duration = new Duration(durationInMilliSeconds);
 
                 RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(
@@ -328,18 +330,26 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
                         duration,
                         throwable == null);
                 telemetry.setDependencyKind(DependencyKind.SQL);
+                if (database != null) {
+                    if (database.databaseType != null) {
+                        telemetry.getContext().getProperties().put("Database Type", database.databaseType);
+                    }
+                    if (database.host != null) {
+                        telemetry.getContext().getProperties().put("Host", database.host);
+                    }
+                }
 
                 StringBuilder sb = null;
-                if (methodData.arguments.length > 3) {
-                    sb = formatAdditionalSqlArguments(methodData);
+                if (frame.arguments != null || frame.batchSize >= 0) {
+                    sb = formatAdditionalSqlArguments(frame);
                     if (sb != null) {
                         telemetry.getContext().getProperties().put("Args", sb.toString());
                     }
                 } else {
-                    if (durationInMilliSeconds > ImplementationsCoordinator.INSTANCE.getQueryPlanThresholdInMS()) {
-                        sb = fetchExplainQuery(commandName, methodData.arguments[2]);
-                        if (sb != null) {
-                            telemetry.getContext().getProperties().put("Query Plan", sb.toString());
+                    if (durationInMilliSeconds > ImplementationsCoordinator.INSTANCE.getQueryPlanThresholdInMS() && connection instanceof Connection) {
+                        String queryPlan = queryPlanCache.getPlan(commandName, sqlStatement, (Connection)connection);
+                        if (queryPlan != null) {
+                            telemetry.getContext().getProperties().put("Query Plan", queryPlan);
                         }
                     }
                 }
@@ -362,11 +372,17 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
         return nanoSeconds / 1000000;
     }
 
-    private StringBuilder formatAdditionalSqlArguments(MethodData methodData) {
+    private StringBuilder formatAdditionalSqlArguments(MethodFrameStack.Frame frame) {
         try {
             StringBuilder sb = new StringBuilder();
             sb.append(" [");
-            Object[] args = (Object[])methodData.arguments[3];
+            if (frame.batchSize >= 0) {
+                sb.append("Batch of ").append(frame.batchSize);
+                sb.append(']');
+                return sb;
+            }
+
+            Object[] args = frame.arguments;
             if (args != null && args.length > 0) {
                 for (Object arg : args) {
                     if (arg == null) {
@@ -384,55 +400,4 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
             return null;
         }
     }
-
-    private StringBuilder fetchExplainQuery(String commandName, Object object) {
-        StringBuilder explainSB = null;
-        Statement explain = null;
-        ResultSet rs = null;
-        try {
-            if (commandName.startsWith("SELECT ")) {
-                Connection connection = (Connection)object;
-                if (connection == null) {
-                    return explainSB;
-                }
-                explain = connection.createStatement();
-                rs = explain.executeQuery("EXPLAIN " + commandName);
-                explainSB = new StringBuilder();
-                while (rs.next()) {
-                    explainSB.append('[');
-                    int columns = rs.getMetaData().getColumnCount();
-                    if (columns == 1) {
-                        explainSB.append(rs.getString(1));
-                    } else {
-                        for (int i1 = 1; i1 < rs.getMetaData().getColumnCount(); ++i1) {
-                            explainSB.append(rs.getMetaData().getColumnName(i1));
-                            explainSB.append(':');
-                            Object obj = rs.getObject(i1);
-                            explainSB.append(obj == null ? "" : obj.toString());
-                            explainSB.append(',');
-                        }
-                        explainSB.deleteCharAt(explainSB.length() - 1);
-                    }
-                    explainSB.append("],");
-                }
-                explainSB.deleteCharAt(explainSB.length() - 1);
-            }
-        } catch (Throwable t) {
-        } finally {
-            if (rs != null) {
-                try {
-                    rs.close();
-                } catch (SQLException e) {
-                }
-            }
-            if (explain != null) {
-                try {
-                    explain.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-
-        return explainSB;
-    }
 }
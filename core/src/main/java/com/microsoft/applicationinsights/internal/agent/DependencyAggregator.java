@@ -0,0 +1,240 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.agent;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.agent.internal.coresync.DependencyType;
+import com.microsoft.applicationinsights.internal.channel.common.FlushScheduler;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+/**
+ * Folds the dependency calls that were not reported, since they were faster than their threshold,
+ * into one metric per dependency type and target. The metrics are sent once a minute, their value
+ * is the average duration of the calls in milliseconds, their count is the number of calls and
+ * the total duration is kept in a property.
+ *
+ * Adding a call of a known target does not allocate, the number of targets of a type is limited
+ * and the calls of the targets beyond the limit are folded together.
+ *
+ * The metrics are sent by a thread of the aggregator, and the calls that are left are sent when
+ * the application exits.
+ */
+final class DependencyAggregator implements Stoppable {
+    final static String METRIC_NAME = "Dependency Calls Below Threshold";
+    final static String TYPE_PROPERTY = "DependencyType";
+    final static String TARGET_PROPERTY = "Target";
+    final static String FAILURES_PROPERTY = "Failures";
+    final static String TOTAL_DURATION_PROPERTY = "TotalDuration";
+    final static String UNKNOWN_TARGET = "Unknown";
+    final static String OTHER_TARGETS = "Other";
+    final static int MAX_TARGETS_PER_TYPE = 1000;
+
+    private final static long FLUSH_INTERVAL_IN_SECONDS = 60;
+
+    private static final class Aggregate {
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong totalDurationInNanos = new AtomicLong(0);
+        private final AtomicLong failures = new AtomicLong(0);
+    }
+
+    private final TelemetryClient telemetryClient;
+    private final EnumMap<DependencyType, ConcurrentHashMap<String, Aggregate>> aggregates =
+            new EnumMap<DependencyType, ConcurrentHashMap<String, Aggregate>>(DependencyType.class);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean registered = new AtomicBoolean(false);
+    private final ThreadPoolExecutor sender;
+    private volatile boolean stopped;
+
+    // Runs on the thread of the scheduler, which must not be kept by sending the metrics
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                sender.execute(sendTask);
+            } catch (RejectedExecutionException e) {
+                if (!stopped) {
+                    InternalLogger.INSTANCE.error("Failed to send the dependency aggregates, exception: %s", e.getMessage());
+                }
+            }
+        }
+    };
+
+    private final Runnable sendTask = new Runnable() {
+        @Override
+        public void run() {
+            boolean sent = false;
+            try {
+                sent = flush();
+            } catch (Throwable t) {
+                InternalLogger.INSTANCE.error("Failed to send the dependency aggregates, exception: %s", t.getMessage());
+            }
+
+            if (!sent) {
+                flushScheduled.set(false);
+
+                // A call might have been added after the flush, it must not be left without a flush
+                if (!hasCalls() || !flushScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+
+            if (!stopped) {
+                FlushScheduler.INSTANCE.schedule(flushTask, FLUSH_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+    };
+
+    DependencyAggregator(TelemetryClient telemetryClient) {
+        this.telemetryClient = telemetryClient;
+        for (DependencyType type : DependencyType.values()) {
+            aggregates.put(type, new ConcurrentHashMap<String, Aggregate>());
+        }
+
+        sender = ThreadPoolUtils.newLimitedThreadPool(1, 1, FLUSH_INTERVAL_IN_SECONDS, 1);
+        sender.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DependencyAggregator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    void add(DependencyType type, String target, long durationInNanos, boolean success) {
+        if (target == null) {
+            target = UNKNOWN_TARGET;
+        }
+
+        ConcurrentHashMap<String, Aggregate> targets = aggregates.get(type);
+        Aggregate aggregate = targets.get(target);
+        if (aggregate == null) {
+            aggregate = createAggregate(targets, target);
+        }
+
+        aggregate.count.incrementAndGet();
+        aggregate.totalDurationInNanos.addAndGet(durationInNanos);
+        if (!success) {
+            aggregate.failures.incrementAndGet();
+        }
+
+        if (!flushScheduled.get() && flushScheduled.compareAndSet(false, true)) {
+            if (!registered.get() && registered.compareAndSet(false, true)) {
+                // Register the instance so the calls that are left are sent when the application exits.
+                SDKShutdownActivity.INSTANCE.register(this);
+            }
+            FlushScheduler.INSTANCE.schedule(flushTask, FLUSH_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Sends the calls that were added since the previous flush.
+     * @return True if any metric was sent.
+     */
+    boolean flush() {
+        boolean sent = false;
+        for (Map.Entry<DependencyType, ConcurrentHashMap<String, Aggregate>> targets : aggregates.entrySet()) {
+            for (Map.Entry<String, Aggregate> entry : targets.getValue().entrySet()) {
+                Aggregate aggregate = entry.getValue();
+                long count = aggregate.count.getAndSet(0);
+                if (count == 0) {
+                    continue;
+                }
+
+                double totalDurationInMillis = aggregate.totalDurationInNanos.getAndSet(0) / 1000000.0;
+                long failures = aggregate.failures.getAndSet(0);
+
+                MetricTelemetry telemetry = new MetricTelemetry(METRIC_NAME, totalDurationInMillis / count);
+                telemetry.setCount((int)Math.min(count, Integer.MAX_VALUE));
+                telemetry.getProperties().put(TYPE_PROPERTY, targets.getKey().toString());
+                telemetry.getProperties().put(TARGET_PROPERTY, entry.getKey());
+                telemetry.getProperties().put(TOTAL_DURATION_PROPERTY, String.valueOf(totalDurationInMillis));
+                if (failures > 0) {
+                    telemetry.getProperties().put(FAILURES_PROPERTY, String.valueOf(failures));
+                }
+
+                telemetryClient.track(telemetry);
+                sent = true;
+            }
+        }
+
+        return sent;
+    }
+
+    /**
+     * Sends the calls that are left on the calling thread, nothing is sent by the aggregator afterwards.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        stopped = true;
+        sender.shutdown();
+
+        try {
+            flush();
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to send the dependency aggregates, exception: %s", t.getMessage());
+        }
+
+        ThreadPoolUtils.stop(sender, timeout, timeUnit);
+    }
+
+    private boolean hasCalls() {
+        for (ConcurrentHashMap<String, Aggregate> targets : aggregates.values()) {
+            for (Aggregate aggregate : targets.values()) {
+                if (aggregate.count.get() > 0) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static Aggregate createAggregate(ConcurrentHashMap<String, Aggregate> targets, String target) {
+        if (targets.size() >= MAX_TARGETS_PER_TYPE) {
+            target = OTHER_TARGETS;
+            Aggregate aggregate = targets.get(target);
+            if (aggregate != null) {
+                return aggregate;
+            }
+        }
+
+        Aggregate aggregate = new Aggregate();
+        Aggregate current = targets.putIfAbsent(target, aggregate);
+        return current == null ? aggregate : current;
+    }
+}
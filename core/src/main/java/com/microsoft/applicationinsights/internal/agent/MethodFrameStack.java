@@ -0,0 +1,126 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.agent;
+
+import java.util.Arrays;
+
+import com.microsoft.applicationinsights.agent.internal.coresync.InstrumentedClassType;
+
+/**
+ * The instrumented methods that a thread is in, the innermost one on top.
+ *
+ * The frames are created once and reused by the following calls of the thread, so starting
+ * and finishing a method does not allocate. The data of a frame is kept in fields that match
+ * the kind of the method, its telemetry is only built if the frame is reported.
+ *
+ * The class is not thread safe, every thread has its own stack.
+ */
+final class MethodFrameStack {
+    private final static int INITIAL_DEPTH = 16;
+
+    /**
+     * The data gathered on a method, valid between its start and its finish.
+     */
+    static final class Frame {
+        InstrumentedClassType type;
+        String name;
+        long startInNanos;
+
+        // The URL for HTTP and SQL, the SQL statement with its connection and the connection's target for SQL
+        String target;
+        String command;
+        Object connection;
+        ConnectionTargetCache.Target database;
+
+        // The arguments of a prepared statement, or the size of a batch when there are none
+        Object[] arguments;
+        int batchSize = -1;
+
+        private void clear() {
+            type = null;
+            name = null;
+            target = null;
+            command = null;
+            connection = null;
+            database = null;
+            arguments = null;
+            batchSize = -1;
+        }
+    }
+
+    private Frame[] frames = new Frame[INITIAL_DEPTH];
+    private int depth;
+
+    MethodFrameStack() {
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = new Frame();
+        }
+    }
+
+    /**
+     * @return The frame of the method that starts, filled by the caller.
+     */
+    Frame push(InstrumentedClassType type, String name, long startInNanos) {
+        if (depth == frames.length) {
+            int oldLength = frames.length;
+            frames = Arrays.copyOf(frames, oldLength << 1);
+            for (int i = oldLength; i < frames.length; ++i) {
+                frames[i] = new Frame();
+            }
+        }
+
+        Frame frame = frames[depth++];
+        frame.type = type;
+        frame.name = name;
+        frame.startInNanos = startInNanos;
+
+        return frame;
+    }
+
+    /**
+     * @return The frame of the innermost method, or null if the thread is not in any.
+     *         The frame stays on the stack until it is popped, so methods that are called
+     *         while it is reported get frames of their own.
+     */
+    Frame peek() {
+        if (depth == 0) {
+            return null;
+        }
+
+        return frames[depth - 1];
+    }
+
+    /**
+     * Removes the frame of the innermost method and drops its references, so arguments
+     * and connections are not kept alive by the thread.
+     */
+    void pop() {
+        if (depth == 0) {
+            return;
+        }
+
+        frames[--depth].clear();
+    }
+
+    int depth() {
+        return depth;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.agent;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+/**
+ * Keeps the query plans of slow SELECT statements.
+ *
+ * The plans are kept by the normalized statements. The EXPLAIN query runs on the thread that executed the statement,
+ * since a JDBC connection must not be used by two threads, but only when the statement has no cached plan and was not
+ * explained recently, so the following slow executions of the statement get the cached plan without running it.
+ * A plan expires after a while and the least recently used plans are evicted. A statement is not explained again
+ * before the capture interval passes, even if the previous capture failed.
+ */
+final class QueryPlanCache {
+    private final static int MAX_PLANS = 500;
+    private final static long PLAN_TTL_IN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private final static long CAPTURE_INTERVAL_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final class CachedPlan {
+        private String plan;
+        private long planExpirationInMillis;
+        private long nextCaptureInMillis;
+    }
+
+    private final long planTtlInMillis;
+    private final long captureIntervalInMillis;
+    private final LinkedHashMap<String, CachedPlan> plans;
+
+    QueryPlanCache() {
+        this(PLAN_TTL_IN_MILLIS, CAPTURE_INTERVAL_IN_MILLIS, MAX_PLANS);
+    }
+
+    QueryPlanCache(long planTtlInMillis, long captureIntervalInMillis, final int maxPlans) {
+        this.planTtlInMillis = planTtlInMillis;
+        this.captureIntervalInMillis = captureIntervalInMillis;
+        this.plans = new LinkedHashMap<String, CachedPlan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPlan> eldest) {
+                return size() > maxPlans;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached plan of the statement, or explains the statement on the calling thread if there
+     * is no plan and the statement was not explained recently.
+     *
+     * @param normalizedStatement The normalized statement, the key of the plan.
+     * @param sqlStatement The statement that was executed, the one that is explained.
+     * @param connection The connection the statement was executed on by the calling thread, the EXPLAIN query will use it.
+     * @return The plan of the statement or null if it has none.
+     */
+    String getPlan(String normalizedStatement, String sqlStatement, Connection connection) {
+        if (connection == null || normalizedStatement == null || sqlStatement == null) {
+            return null;
+        }
+
+        String key = normalizedStatement;
+        if (!key.startsWith("SELECT ")) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        final CachedPlan cachedPlan;
+        synchronized (plans) {
+            CachedPlan current = plans.get(key);
+            if (current != null && current.plan != null && now < current.planExpirationInMillis) {
+                return current.plan;
+            }
+            if (current != null && now < current.nextCaptureInMillis) {
+                return null;
+            }
+
+            cachedPlan = current == null ? new CachedPlan() : current;
+            cachedPlan.nextCaptureInMillis = now + captureIntervalInMillis;
+            plans.put(key, cachedPlan);
+        }
+
+        String plan = explain(sqlStatement, connection);
+        if (plan == null) {
+            return null;
+        }
+
+        now = System.currentTimeMillis();
+        synchronized (plans) {
+            cachedPlan.plan = plan;
+            cachedPlan.planExpirationInMillis = now + planTtlInMillis;
+            cachedPlan.nextCaptureInMillis = Math.max(cachedPlan.nextCaptureInMillis, cachedPlan.planExpirationInMillis);
+            plans.put(key, cachedPlan);
+        }
+
+        return plan;
+    }
+
+    int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    static String explain(String sqlStatement, Connection connection) {
+        Statement explain = null;
+        ResultSet rs = null;
+        try {
+            if (connection.isClosed()) {
+                return null;
+            }
+
+            explain = connection.createStatement();
+            rs = explain.executeQuery("EXPLAIN " + sqlStatement);
+            ResultSetMetaData metaData = rs.getMetaData();
+            int columns = metaData.getColumnCount();
+            StringBuilder explainSB = new StringBuilder();
+            while (rs.next()) {
+                explainSB.append('[');
+                if (columns == 1) {
+                    explainSB.append(rs.getString(1));
+                } else {
+                    for (int i = 1; i < columns; ++i) {
+                        explainSB.append(metaData.getColumnName(i));
+                        explainSB.append(':');
+                        Object obj = rs.getObject(i);
+                        explainSB.append(obj == null ? "" : obj.toString());
+                        explainSB.append(',');
+                    }
+                    explainSB.deleteCharAt(explainSB.length() - 1);
+                }
+                explainSB.append("],");
+            }
+            if (explainSB.length() == 0) {
+                return null;
+            }
+            explainSB.deleteCharAt(explainSB.length() - 1);
+
+            return explainSB.toString();
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.trace("Failed to fetch the query plan of '%s': %s", sqlStatement, t.getMessage());
+        } finally {
+            if (rs != null) {
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+            if (explain != null) {
+                try {
+                    explain.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.agent;
+
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns SQL statements into a form that does not depend on their literals: string and numeric literals
+ * are replaced by '?', IN lists of literals are collapsed to 'IN (?)' and whitespace is collapsed.
+ * Statements that only differ by their literals are sent as the same command, and the values, which may
+ * be private, are not sent at all.
+ *
+ * How quotes are read depends on the {@link Dialect} of the database: double quotes delimit identifiers in standard SQL
+ * and string literals in MySQL, and backslashes escape characters in MySQL strings only. When the database is not known
+ * double quoted tokens are replaced too, unless they are clearly identifiers, and backslashes are taken as escapes,
+ * so a value is never sent as part of the command.
+ *
+ * The normalized forms are cached by the statement strings, so a statement that is executed again costs a
+ * map lookup. The cache is bounded, it is cleared when it is full.
+ */
+final class SqlNormalizer {
+    enum Dialect {
+        // Double quotes delimit identifiers and backslashes are plain characters
+        STANDARD(false),
+
+        // Double quotes delimit string literals and backslashes escape the next character
+        MYSQL(true),
+
+        // Double quoted tokens are kept only where an identifier is expected
+        UNKNOWN(true);
+
+        private final boolean backslashEscapes;
+
+        Dialect(boolean backslashEscapes) {
+            this.backslashEscapes = backslashEscapes;
+        }
+
+        /**
+         * @param databaseType The sub protocol of the JDBC URL, e.g. 'mysql', may be null.
+         */
+        static Dialect fromDatabaseType(String databaseType) {
+            if (databaseType == null) {
+                return UNKNOWN;
+            }
+            if ("mysql".equals(databaseType) || "mariadb".equals(databaseType)) {
+                return MYSQL;
+            }
+            if ("postgresql".equals(databaseType) || "oracle".equals(databaseType) || "sqlserver".equals(databaseType) ||
+                "jtds".equals(databaseType) || "h2".equals(databaseType) || "hsqldb".equals(databaseType) ||
+                "derby".equals(databaseType) || "db2".equals(databaseType) || "sqlite".equals(databaseType)) {
+                return STANDARD;
+            }
+            return UNKNOWN;
+        }
+    }
+
+    private final static int MAX_CACHED_STATEMENTS = 1000;
+    private final static Pattern IN_LIST_PATTERN = Pattern.compile("(?i)\\b(IN) ?\\( ?\\?(?: ?, ?\\?)+ ?\\)");
+
+    // The keywords that are followed by the name of a table or of an alias
+    private final static String[] IDENTIFIER_KEYWORDS = {"FROM", "JOIN", "INTO", "UPDATE", "TABLE", "AS"};
+
+    private final int maxCachedStatements;
+    private final EnumMap<Dialect, ConcurrentHashMap<String, String>> normalizedStatements =
+            new EnumMap<Dialect, ConcurrentHashMap<String, String>>(Dialect.class);
+
+    SqlNormalizer() {
+        this(MAX_CACHED_STATEMENTS);
+    }
+
+    SqlNormalizer(int maxCachedStatements) {
+        this.maxCachedStatements = maxCachedStatements;
+        for (Dialect dialect : Dialect.values()) {
+            normalizedStatements.put(dialect, new ConcurrentHashMap<String, String>());
+        }
+    }
+
+    /**
+     * @param sqlStatement The statement as it was executed, may be null.
+     * @return The normalized statement.
+     */
+    String normalize(String sqlStatement) {
+        return normalize(sqlStatement, null);
+    }
+
+    /**
+     * @param sqlStatement The statement as it was executed, may be null.
+     * @param databaseType The sub protocol of the JDBC URL of the connection, may be null if it is not known.
+     * @return The normalized statement.
+     */
+    String normalize(String sqlStatement, String databaseType) {
+        if (sqlStatement == null) {
+            return null;
+        }
+
+        Dialect dialect = Dialect.fromDatabaseType(databaseType);
+        ConcurrentHashMap<String, String> statements = normalizedStatements.get(dialect);
+        String normalized = statements.get(sqlStatement);
+        if (normalized != null) {
+            return normalized;
+        }
+
+        normalized = normalizeStatement(sqlStatement, dialect);
+        if (statements.size() >= maxCachedStatements) {
+            statements.clear();
+        }
+        statements.put(sqlStatement, normalized);
+
+        return normalized;
+    }
+
+    int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, String> statements : normalizedStatements.values()) {
+            size += statements.size();
+        }
+        return size;
+    }
+
+    static String normalizeStatement(String sqlStatement) {
+        return normalizeStatement(sqlStatement, Dialect.UNKNOWN);
+    }
+
+    static String normalizeStatement(String sqlStatement, Dialect dialect) {
+        int length = sqlStatement.length();
+        StringBuilder sb = new StringBuilder(length);
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < length) {
+            char c = sqlStatement.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+                ++i;
+                continue;
+            }
+
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+
+            switch (c) {
+                case '\'':
+                    i = skipQuoted(sqlStatement, i, '\'', dialect.backslashEscapes || isEscapeStringPrefix(sb));
+                    sb.append('?');
+                    break;
+
+                case '"':
+                    int end = skipQuoted(sqlStatement, i, c, dialect.backslashEscapes);
+                    if (dialect == Dialect.STANDARD || (dialect == Dialect.UNKNOWN && isIdentifierPosition(sb, sqlStatement, end))) {
+                        sb.append(sqlStatement, i, end);
+                    } else {
+                        sb.append('?');
+                    }
+                    i = end;
+                    break;
+
+                case '`':
+                    // Quoted identifiers are kept as they are
+                    end = skipQuoted(sqlStatement, i, c, false);
+                    sb.append(sqlStatement, i, end);
+                    i = end;
+                    break;
+
+                default:
+                    if (Character.isDigit(c) && !isAfterIdentifier(sb)) {
+                        i = skipNumber(sqlStatement, i);
+                        sb.append('?');
+                    } else {
+                        sb.append(c);
+                        ++i;
+                    }
+                    break;
+            }
+        }
+
+        String normalized = sb.toString();
+        if (normalized.indexOf(',') == -1) {
+            return normalized;
+        }
+
+        Matcher matcher = IN_LIST_PATTERN.matcher(normalized);
+        return matcher.find() ? matcher.replaceAll("$1 (?)") : normalized;
+    }
+
+    private static boolean isAfterIdentifier(StringBuilder sb) {
+        if (sb.length() == 0) {
+            return false;
+        }
+
+        return isIdentifierCharacter(sb.charAt(sb.length() - 1));
+    }
+
+    private static boolean isIdentifierCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * @return True if the quote follows an 'E' prefix, whose strings take backslash escapes in PostgreSQL.
+     */
+    private static boolean isEscapeStringPrefix(StringBuilder sb) {
+        int length = sb.length();
+        if (length == 0) {
+            return false;
+        }
+
+        char previous = sb.charAt(length - 1);
+        if (previous != 'E' && previous != 'e') {
+            return false;
+        }
+
+        return length == 1 || !isIdentifierCharacter(sb.charAt(length - 2));
+    }
+
+    /**
+     * @return True if a double quoted token that ends at 'end' is qualified, qualifies a name or follows a keyword
+     * that is followed by a table name.
+     */
+    private static boolean isIdentifierPosition(StringBuilder sb, String sqlStatement, int end) {
+        if (end < sqlStatement.length() && sqlStatement.charAt(end) == '.') {
+            return true;
+        }
+
+        int i = sb.length();
+        while (i > 0 && sb.charAt(i - 1) == ' ') {
+            --i;
+        }
+        if (i == 0) {
+            return false;
+        }
+        if (sb.charAt(i - 1) == '.') {
+            return true;
+        }
+
+        int wordEnd = i;
+        while (i > 0 && Character.isLetter(sb.charAt(i - 1))) {
+            --i;
+        }
+        if (i > 0 && isIdentifierCharacter(sb.charAt(i - 1))) {
+            return false;
+        }
+        for (String keyword : IDENTIFIER_KEYWORDS) {
+            if (wordEnd - i == keyword.length() && sb.substring(i, wordEnd).equalsIgnoreCase(keyword)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The index after the closing quote, doubled quotes and, if the dialect has them, escaped characters are part of the literal.
+     */
+    private static int skipQuoted(String sqlStatement, int start, char quote, boolean backslashEscapes) {
+        int length = sqlStatement.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = sqlStatement.charAt(i);
+            if (backslashEscapes && c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == quote) {
+                if (i + 1 < length && sqlStatement.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            ++i;
+        }
+
+        return length;
+    }
+
+    /**
+     * @return The index after the number, which may be a decimal, hexadecimal or exponent one.
+     */
+    private static int skipNumber(String sqlStatement, int start) {
+        int length = sqlStatement.length();
+        int i = start;
+        while (i < length) {
+            char c = sqlStatement.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '.') {
+                if ((c == 'e' || c == 'E') && i + 1 < length) {
+                    char next = sqlStatement.charAt(i + 1);
+                    if (next == '+' || next == '-') {
+                        ++i;
+                    }
+                }
+                ++i;
+                continue;
+            }
+            break;
+        }
+
+        return i;
+    }
+}
@@ -24,6 +24,8 @@ package com.microsoft.applicationinsights.internal.channel;
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+
 /**
  * The class is responsible for getting containers of {@link com.microsoft.applicationinsights.telemetry.Telemetry},
  * transform them into {@link com.microsoft.applicationinsights.internal.channel.common.Transmission} and
@@ -34,20 +36,31 @@ import java.util.concurrent.TimeUnit;
  * user and channel threads happens here.
  *
  * The class lets its users to schedule a 'send', where a channel thread will be sent to 'pick up'
- * the container of Telemetries.
+ * the container of Telemetries. A scheduled send whose container was already sent is skipped.
  * Or, it also lets the caller to initiate a 'send now' call where the caller passes the container
  * and this class will continue, again, using a channel thread while releasing the calling thread.
  *
+ * Buffers that already produce a ready {@link com.microsoft.applicationinsights.internal.channel.common.Transmission}
+ * can hand it over as is, the transmitter will only dispatch it.
+ *
  * Created by gupele on 12/17/2014.
  */
 public interface TelemetriesTransmitter {
     public interface TelemetriesFetcher {
         Collection<String> fetch();
+
+        /**
+         * Called by the scheduler thread when the timeout expires, so it must not block.
+         * @return True if the container was already sent and there is nothing to fetch.
+         */
+        boolean isObsolete();
     }
 
     boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit);
 
     boolean sendNow(Collection<String> telemetries);
 
+    boolean sendNow(Transmission transmission);
+
     void stop(long timeout, TimeUnit timeUnit);
 }
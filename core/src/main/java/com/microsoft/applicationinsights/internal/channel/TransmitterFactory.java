@@ -21,9 +21,17 @@
 
 package com.microsoft.applicationinsights.internal.channel;
 
+import java.util.Map;
+
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
+
 /**
  * Created by gupele on 12/21/2014.
  */
 public interface TransmitterFactory {
-    TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity);
+    /**
+     * @param namesAndValues The channel's data, holds the configuration of the pipeline stages, might be null.
+     * @param channelMetrics The metrics of the channel, the created components record into them.
+     */
+    TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity, String transmissionStorageType, String networkOutputType, Map<String, String> namesAndValues, ChannelMetrics channelMetrics);
 }
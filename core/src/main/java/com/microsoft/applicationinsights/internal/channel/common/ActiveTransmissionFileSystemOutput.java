@@ -22,34 +22,70 @@
 package com.microsoft.applicationinsights.internal.channel.common;
 
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
-import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
+
+import com.google.common.base.Preconditions;
 
 /**
  * The class is responsible for de-coupling the file persist activity.
  *
- * When this class is called it will use a thread pool's thread to do the persistence
+ * When this class is called it will use a thread pool's thread to do the persistence,
+ * the pool is sized by a {@link PipelineStageConfiguration}.
  *
  * Created by gupele on 12/22/2014.
  */
 public final class ActiveTransmissionFileSystemOutput implements TransmissionOutput {
+    public final static PipelineStageConfiguration DEFAULT_CONFIGURATION =
+            new PipelineStageConfiguration("FileSystemOutput", 1, 3, 1024, PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST, 500);
+
+    private final PipelineStageConfiguration configuration;
+
     private final ThreadPoolExecutor threadPool;
 
     private final TransmissionOutput actualOutput;
 
+    private volatile ChannelMetrics channelMetrics = ChannelMetrics.NONE;
+
     public ActiveTransmissionFileSystemOutput(TransmissionOutput actualOutput) {
+        this(actualOutput, DEFAULT_CONFIGURATION);
+    }
+
+    public ActiveTransmissionFileSystemOutput(TransmissionOutput actualOutput, PipelineStageConfiguration configuration) {
+        Preconditions.checkNotNull(configuration, "configuration should be non-null value");
+        Preconditions.checkArgument(configuration.getRejectionPolicy() != PipelineStageConfiguration.RejectionPolicy.SPILL_TO_DISK,
+                "The file system output is the last stage and can not spill to disk");
+
         this.actualOutput = actualOutput;
-        threadPool = ThreadPoolUtils.newLimitedThreadPool(1, 3, 20L, 1024);
-        threadPool.setThreadFactory(new ThreadFactory() {
+        this.configuration = configuration;
+        threadPool = configuration.newThreadPool(new PipelineStageConfiguration.DroppedTaskListener() {
+            @Override
+            public void onDropped(Runnable task) {
+                channelMetrics.onDropped(ChannelMetrics.DropReason.QUEUE_FULL);
+            }
+        });
+    }
+
+    /**
+     * Sets the metrics the output records into, and adds the transmissions that wait to be persisted as a queue.
+     */
+    public void setChannelMetrics(ChannelMetrics channelMetrics) {
+        Preconditions.checkNotNull(channelMetrics, "channelMetrics should be non-null value");
+
+        this.channelMetrics = channelMetrics;
+        channelMetrics.addQueue("FileSystemOutputQueue", new ChannelMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return threadPool.getQueue().size();
+            }
+        });
+        channelMetrics.addPool("FileSystemOutputPool", new ChannelMetrics.Gauge() {
             @Override
-            public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
-                thread.setDaemon(true);
-                return thread;
+            public long getValue() {
+                return threadPool.getPoolSize();
             }
         });
     }
@@ -62,19 +98,30 @@ public final class ActiveTransmissionFileSystemOutput implements TransmissionOut
             threadPool.execute(new Runnable() {
                 @Override
                 public void run() {
+                    ChannelMetrics metrics = channelMetrics;
                     try {
-                        actualOutput.send(transmission);
+                        long startTimeInNanos = System.nanoTime();
+                        if (actualOutput.send(transmission)) {
+                            metrics.recordLatency(ChannelMetrics.Latency.PERSIST, startTimeInNanos);
+                            metrics.increment(ChannelMetrics.Counter.TRANSMISSIONS_PERSISTED);
+                            return;
+                        }
                     } catch (Throwable throwable) {
                         // Avoid un-expected exit of thread
                     }
+                    metrics.onDropped(ChannelMetrics.DropReason.STORAGE_REFUSED);
                 }
             });
             return true;
 
         } catch (RejectedExecutionException e) {
-            // Note that currently if we cannot put the job to work we drop
-            // the transmission, we need to add internal logging for that case
-            // TODO: log
+            if (configuration.getRejectionPolicy() == PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST && !threadPool.isShutdown()) {
+                channelMetrics.onDropped(ChannelMetrics.DropReason.QUEUE_FULL);
+                return true;
+            }
+
+            // The dispatcher counts the transmission as dropped if no other output takes it
+            channelMetrics.increment(ChannelMetrics.Counter.FILE_SYSTEM_OUTPUT_REJECTED);
         } catch (Exception e) {
             // TODO: log
         }
@@ -82,9 +129,24 @@ public final class ActiveTransmissionFileSystemOutput implements TransmissionOut
         return false;
     }
 
+    /**
+     * Waits, up to the timeout, for the transmissions that were accepted to be persisted,
+     * the ones that are left are persisted by the calling thread before the actual output is stopped.
+     */
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
-        actualOutput.stop(timeout, timeUnit);
-        ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
+        threadPool.shutdown();
+        try {
+            if (!threadPool.awaitTermination(timeout, timeUnit)) {
+                for (Runnable notStarted : threadPool.shutdownNow()) {
+                    notStarted.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            threadPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        actualOutput.stop(0L, TimeUnit.MILLISECONDS);
     }
 }
@@ -27,7 +27,10 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionListener;
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 
 import com.google.common.base.Preconditions;
@@ -37,18 +40,29 @@ import com.google.common.base.Preconditions;
  *
  * The class will ask for the oldest transmission file and will hand it to the dispatcher
  *
+ * The threads do not poll the disk: they wait until the storage notifies that a transmission
+ * was persisted, and then load transmissions until the storage is empty. The pace is set by the network,
+ * only a limited number of loaded transmissions may wait for a send result, and after a failed send
+ * loading is paused for a period that grows while the sends keep failing.
+ *
  * Created by gupele on 12/22/2014.
  */
-public final class ActiveTransmissionLoader implements TransmissionsLoader {
+public final class ActiveTransmissionLoader implements TransmissionsLoader, TransmissionListener {
     public final static int MAX_THREADS_ALLOWED = 10;
 
     private final static int DEFAULT_NUMBER_OF_THREADS = 1;
 
-    private final static long DEFAULT_SLEEP_INTERVAL_WHEN_NO_TRANSMISSIONS_FOUND_IN_MILLS = 2000;
-    private final static long DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS = 100;
+    private final static int DEFAULT_MAX_TRANSMISSIONS_IN_FLIGHT = 8;
+
+    // A loaded transmission might be persisted again without a send result,
+    // so the loader stops waiting for results that did not arrive by then
+    private final static long MAX_WAIT_FOR_SEND_RESULT_IN_MILLS = 2000;
+
+    private final static long MIN_PAUSE_AFTER_FAILURE_IN_MILLS = 1000;
+    private final static long MAX_PAUSE_AFTER_FAILURE_IN_MILLS = 60000;
 
     // The helper class that encapsulates the file system access
-    private final TransmissionFileSystemOutput fileSystem;
+    private final TransmissionStorage fileSystem;
 
     // A synchronized flag to let us know when to stop
     private final AtomicBoolean done = new AtomicBoolean(false);
@@ -61,20 +75,35 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
     // The threads that do the work
     private final Thread[] threads;
 
-    private final long sleepIntervalWhenNoTransmissionsFoundInMills;
+    private final int maxTransmissionsInFlight;
+
+    // Guards the state below, the threads wait on it
+    private final Object lock = new Object();
+
+    // Set when there might be transmissions to load, true at first for the ones left by previous runs
+    private boolean transmissionsMightBePersisted = true;
+
+    // Loaded transmissions that were not followed by a send result yet. Results of transmissions
+    // that were not loaded are counted too, so this is an estimate
+    private int transmissionsInFlight;
+    private long lastProgressInNanos;
 
-    public ActiveTransmissionLoader(TransmissionFileSystemOutput fileSystem, TransmissionDispatcher dispatcher) {
+    private long pauseAfterFailureInMills;
+    private long pausedUntilInNanos;
+
+    private volatile ChannelMetrics channelMetrics = ChannelMetrics.NONE;
+
+    public ActiveTransmissionLoader(TransmissionStorage fileSystem, TransmissionDispatcher dispatcher) {
         this(fileSystem, dispatcher, DEFAULT_NUMBER_OF_THREADS);
     }
 
-    public ActiveTransmissionLoader(final TransmissionFileSystemOutput fileSystem, final TransmissionDispatcher dispatcher, int numberOfThreads) {
+    public ActiveTransmissionLoader(final TransmissionStorage fileSystem, final TransmissionDispatcher dispatcher, int numberOfThreads) {
         Preconditions.checkNotNull(fileSystem, "fileSystem must be a non-null value");
         Preconditions.checkNotNull(dispatcher, "dispatcher must be a non-null value");
         Preconditions.checkArgument(numberOfThreads > 0, "numberOfThreads must be a positive number");
         Preconditions.checkArgument(numberOfThreads < MAX_THREADS_ALLOWED, "numberOfThreads must be smaller than %s", MAX_THREADS_ALLOWED);
 
-        // Guy: This will probably be changed once we have configuration
-        this.sleepIntervalWhenNoTransmissionsFoundInMills = DEFAULT_SLEEP_INTERVAL_WHEN_NO_TRANSMISSIONS_FOUND_IN_MILLS;
+        this.maxTransmissionsInFlight = DEFAULT_MAX_TRANSMISSIONS_IN_FLIGHT;
 
         this.fileSystem = fileSystem;
         this.dispatcher = dispatcher;
@@ -94,24 +123,36 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
                     // Avoid un-expected exit of threads
                     while (!done.get()) {
                         try {
-                            Transmission transmission = fileSystem.fetchOldestFile();
-                            if (transmission == null) {
-                                Thread.sleep(sleepIntervalWhenNoTransmissionsFoundInMills);
-                            } else {
-                                dispatcher.dispatch(transmission);
+                            if (!waitUntilLoadIsAllowed()) {
+                                break;
+                            }
 
-                                // TODO: check if we need this as configuration value
-                                Thread.sleep(DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS);
+                            long startTimeInNanos = System.nanoTime();
+                            Transmission transmission = fileSystem.fetchOldest();
+                            onTransmissionFetched(transmission != null);
+                            if (transmission != null) {
+                                ChannelMetrics metrics = channelMetrics;
+                                metrics.recordLatency(ChannelMetrics.Latency.RELOAD, startTimeInNanos);
+                                metrics.increment(ChannelMetrics.Counter.TRANSMISSIONS_RELOADED);
+                                dispatcher.dispatch(transmission);
                             }
                         } catch (Exception e) {
                         } catch (Throwable t) {
                         }
-                        // TODO: check whether we need to pause after exception
                     }
                 }
             });
             threads[i].setDaemon(true);
-        }}
+        }
+
+        fileSystem.setTransmissionListener(this);
+    }
+
+    public void setChannelMetrics(ChannelMetrics channelMetrics) {
+        Preconditions.checkNotNull(channelMetrics, "channelMetrics should be non-null value");
+
+        this.channelMetrics = channelMetrics;
+    }
 
     @Override
     public synchronized boolean load(boolean waitForThreadsToStart) {
@@ -140,6 +181,11 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
         done.set(true);
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        fileSystem.setTransmissionListener(null);
+
         for (Thread thread : threads) {
             try {
                 thread.join();
@@ -148,4 +194,87 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
             }
         }
     }
+
+    @Override
+    public void onTransmissionPersisted() {
+        synchronized (lock) {
+            transmissionsMightBePersisted = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void onTransmissionSent(boolean succeeded) {
+        synchronized (lock) {
+            if (transmissionsInFlight > 0) {
+                --transmissionsInFlight;
+            }
+            long now = System.nanoTime();
+            lastProgressInNanos = now;
+
+            if (succeeded) {
+                pauseAfterFailureInMills = 0;
+                pausedUntilInNanos = now;
+            } else {
+                pauseAfterFailureInMills = pauseAfterFailureInMills == 0 ?
+                        MIN_PAUSE_AFTER_FAILURE_IN_MILLS : Math.min(pauseAfterFailureInMills * 2, MAX_PAUSE_AFTER_FAILURE_IN_MILLS);
+                pausedUntilInNanos = now + TimeUnit.MILLISECONDS.toNanos(pauseAfterFailureInMills);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until there might be transmissions to load, loading is not paused after a failure
+     * and there is room for another transmission in flight. The caller then owns that room.
+     * @return False if the loader was stopped.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private boolean waitUntilLoadIsAllowed() throws InterruptedException {
+        synchronized (lock) {
+            while (!done.get()) {
+                long now = System.nanoTime();
+                if (pausedUntilInNanos - now > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(lock, pausedUntilInNanos - now);
+                    continue;
+                }
+
+                if (!transmissionsMightBePersisted) {
+                    lock.wait();
+                    continue;
+                }
+
+                if (transmissionsInFlight >= maxTransmissionsInFlight) {
+                    long waitInNanos = lastProgressInNanos + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_FOR_SEND_RESULT_IN_MILLS) - now;
+                    if (waitInNanos > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(lock, waitInNanos);
+                        continue;
+                    }
+
+                    // The missing results are not expected anymore
+                    transmissionsInFlight = 0;
+                }
+
+                // Cleared before the fetch, so a transmission that is persisted during the fetch is not missed
+                transmissionsMightBePersisted = false;
+                ++transmissionsInFlight;
+                lastProgressInNanos = now;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void onTransmissionFetched(boolean found) {
+        synchronized (lock) {
+            if (found) {
+                // There might be more, other threads can help
+                transmissionsMightBePersisted = true;
+                lock.notifyAll();
+            } else if (transmissionsInFlight > 0) {
+                --transmissionsInFlight;
+            }
+        }
+    }
 }
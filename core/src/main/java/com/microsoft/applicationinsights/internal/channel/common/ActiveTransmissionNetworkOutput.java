@@ -21,48 +21,123 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
-import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.ShutdownStatistics;
+
+import com.google.common.base.Preconditions;
 
 /**
+ * Sends transmissions from a pool of threads, see {@link PipelineStageConfiguration} for its sizing.
+ * By default a transmission that arrives when the queue is full is refused, so the dispatcher persists it.
+ *
  * Created by gupele on 12/18/2014.
  */
 public final class ActiveTransmissionNetworkOutput implements TransmissionOutput {
-    private final static int DEFAULT_MAX_MESSAGES_IN_BUFFER = 128;
-    private final static int DEFAULT_MIN_NUMBER_OF_THREADS = 7;
-    private final static int DEFAULT_MAX_NUMBER_OF_THREADS = 7;
-    private final static long DEFAULT_REMOVE_IDLE_THREAD_TIMEOUT_IN_SECONDS = 60L;
+    public final static PipelineStageConfiguration DEFAULT_CONFIGURATION =
+            new PipelineStageConfiguration("NetworkOutput", 7, 7, 128, PipelineStageConfiguration.RejectionPolicy.SPILL_TO_DISK, 500);
 
-    private final int maxThreads;
+    private final PipelineStageConfiguration configuration;
 
     private final ThreadPoolExecutor outputThreads;
 
     private final TransmissionOutput actualOutput;
 
+    private final TransmissionOutput spillOutput;
+
+    private volatile ChannelMetrics channelMetrics = ChannelMetrics.NONE;
+
+    // The transmissions that are being sent by the output threads
+    private final Set<Transmission> transmissionsInFlight = Collections.newSetFromMap(new ConcurrentHashMap<Transmission, Boolean>());
+
+    private final class SendTask implements Runnable {
+        private final Transmission transmission;
+
+        private SendTask(Transmission transmission) {
+            this.transmission = transmission;
+        }
+
+        @Override
+        public void run() {
+            transmissionsInFlight.add(transmission);
+            try {
+                actualOutput.send(transmission);
+            } catch (Throwable throwable) {
+                // Avoid un-expected exit of thread
+            } finally {
+                transmissionsInFlight.remove(transmission);
+            }
+        }
+    }
+
     public ActiveTransmissionNetworkOutput(TransmissionOutput actualOutput) {
-        this(actualOutput, DEFAULT_MAX_MESSAGES_IN_BUFFER);
+        this(actualOutput, DEFAULT_CONFIGURATION.getQueueCapacity());
     }
 
     public ActiveTransmissionNetworkOutput(TransmissionOutput actualOutput, int maxMessagesInBuffer) {
+        this(actualOutput, maxMessagesInBuffer, null);
+    }
+
+    /**
+     * @param actualOutput The output that sends the transmissions.
+     * @param spillOutput The output that gets the transmissions that were not sent when the output is stopped, might be null.
+     */
+    public ActiveTransmissionNetworkOutput(TransmissionOutput actualOutput, TransmissionOutput spillOutput) {
+        this(actualOutput, spillOutput, DEFAULT_CONFIGURATION);
+    }
+
+    public ActiveTransmissionNetworkOutput(TransmissionOutput actualOutput, int maxMessagesInBuffer, TransmissionOutput spillOutput) {
+        this(actualOutput, spillOutput, DEFAULT_CONFIGURATION.withQueueCapacity(maxMessagesInBuffer));
+    }
+
+    /**
+     * @param actualOutput The output that sends the transmissions.
+     * @param spillOutput The output that gets the transmissions that were not sent when the output is stopped, might be null.
+     * @param configuration The sizing of the threads and the queue.
+     */
+    public ActiveTransmissionNetworkOutput(TransmissionOutput actualOutput, TransmissionOutput spillOutput, PipelineStageConfiguration configuration) {
+        Preconditions.checkNotNull(configuration, "configuration should be non-null value");
+
         this.actualOutput = actualOutput;
+        this.spillOutput = spillOutput;
+        this.configuration = configuration;
 
-        maxThreads = DEFAULT_MAX_NUMBER_OF_THREADS;
-        outputThreads = ThreadPoolUtils.newLimitedThreadPool(
-                DEFAULT_MIN_NUMBER_OF_THREADS,
-                maxThreads,
-                DEFAULT_REMOVE_IDLE_THREAD_TIMEOUT_IN_SECONDS,
-                maxMessagesInBuffer);
-        outputThreads.setThreadFactory(new ThreadFactory() {
+        outputThreads = configuration.newThreadPool(new PipelineStageConfiguration.DroppedTaskListener() {
             @Override
-            public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
-                thread.setDaemon(true);
-                return thread;
+            public void onDropped(Runnable task) {
+                channelMetrics.onDropped(ChannelMetrics.DropReason.QUEUE_FULL);
+            }
+        });
+    }
+
+    /**
+     * Sets the metrics the output records into, and adds the transmissions that wait for a thread as a queue.
+     * The actual output records its own metrics.
+     */
+    public void setChannelMetrics(ChannelMetrics channelMetrics) {
+        Preconditions.checkNotNull(channelMetrics, "channelMetrics should be non-null value");
+
+        this.channelMetrics = channelMetrics;
+        channelMetrics.addQueue("NetworkOutputQueue", new ChannelMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return outputThreads.getQueue().size();
+            }
+        });
+        channelMetrics.addPool("NetworkOutputPool", new ChannelMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return outputThreads.getPoolSize();
             }
         });
     }
@@ -70,19 +145,17 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
     @Override
     public boolean send(final Transmission transmission) {
         try {
-            outputThreads.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        actualOutput.send(transmission);
-                    } catch (Throwable throwable) {
-                        // Avoid un-expected exit of thread
-                    }
-                }
-            });
+            outputThreads.execute(new SendTask(transmission));
             return true;
 
         } catch (RejectedExecutionException e) {
+            if (configuration.getRejectionPolicy() == PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST && !outputThreads.isShutdown()) {
+                channelMetrics.onDropped(ChannelMetrics.DropReason.QUEUE_FULL);
+                return true;
+            }
+
+            // The dispatcher hands the transmission to the file system output
+            channelMetrics.increment(ChannelMetrics.Counter.NETWORK_OUTPUT_REJECTED);
         } catch (Exception e) {
             // TODO: log
         }
@@ -90,14 +163,50 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
         return false;
     }
 
+    /**
+     * Waits, up to the timeout, for the transmissions that were accepted to be sent.
+     * The ones that are left, including the ones that are still being sent, are given to the spill output.
+     */
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
-        actualOutput.stop(timeout, timeUnit);
-        ThreadPoolUtils.stop(outputThreads, timeout, timeUnit);
+        outputThreads.shutdown();
+        try {
+            if (!outputThreads.awaitTermination(timeout, timeUnit)) {
+                // Taken before the threads are interrupted, they might still be sent before the process exits,
+                // but losing them is worse than sending them twice
+                List<Transmission> notSent = new ArrayList<Transmission>(transmissionsInFlight);
+                for (Runnable notStarted : outputThreads.shutdownNow()) {
+                    if (notStarted instanceof SendTask) {
+                        notSent.add(((SendTask) notStarted).transmission);
+                    }
+                }
+
+                for (Transmission transmission : notSent) {
+                    spill(transmission);
+                }
+            }
+        } catch (InterruptedException e) {
+            outputThreads.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        actualOutput.stop(0L, TimeUnit.MILLISECONDS);
     }
 
     public int getNumberOfMaxThreads() {
-        return this.maxThreads;
+        return configuration.getMaxThreads();
     }
-}
 
+    private void spill(Transmission transmission) {
+        try {
+            if (spillOutput != null && spillOutput.send(transmission)) {
+                ShutdownStatistics.INSTANCE.onTransmissionPersisted();
+                return;
+            }
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to persist transmission, exception: %s", t.getMessage());
+        }
+
+        ShutdownStatistics.INSTANCE.onTransmissionDropped();
+    }
+}
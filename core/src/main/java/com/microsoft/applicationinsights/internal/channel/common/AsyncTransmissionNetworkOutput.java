@@ -0,0 +1,495 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionListener;
+import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.ShutdownStatistics;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * Sends {@link Transmission}s without blocking any thread while waiting for the server.
+ *
+ * One I/O thread drives a few {@link PipelinedHttpConnection}s through a selector, and each connection
+ * can keep several requests in flight, by default it keeps one. The results are classified the same way
+ * {@link TransmissionNetworkOutput} does. A request is sent again on another connection only if none of its
+ * bytes were written to the socket, since the server may have processed a request whose response was lost.
+ *
+ * The bytes of the transmissions that were accepted and not completed yet are bounded, once the bound is reached
+ * 'send' returns false and the dispatcher can try its other outputs.
+ * Throttled transmissions are sent again after the back-off times of the policy, without holding a thread or a connection.
+ */
+public final class AsyncTransmissionNetworkOutput implements TransmissionOutput, PipelinedHttpConnection.Listener {
+    private final static String DEFAULT_SERVER_URI = "https://dc.services.visualstudio.com/v2/track";
+    private final static String CONTENT_TYPE_HEADER = "Content-Type";
+    private final static String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    private final static int DEFAULT_MAX_CONNECTIONS = 2;
+    private final static int DEFAULT_MAX_PIPELINED_REQUESTS = 1;
+    private final static long DEFAULT_MAX_BYTES_IN_FLIGHT = 8 * 1024 * 1024;
+    private final static long DEFAULT_TIMEOUT_IN_MILLIS = ApacheSender.REQUEST_TIMEOUT_IN_MILLIS;
+
+    // The number of times a request is added to a connection that was closed before any of its bytes was written
+    private final static int MAX_ATTEMPTS = 3;
+    private final static long MAX_SELECT_TIMEOUT_IN_MILLIS = 1000;
+
+    static final class Request implements Comparable<Request> {
+        private final Transmission transmission;
+        private final byte[] message;
+        private final long submitTimeInNanos;
+        private int numberOfAttempts;
+        private int numberOfThrottles;
+        private long retryTimeInNanos;
+
+        private Request(Transmission transmission, byte[] message) {
+            this.transmission = transmission;
+            this.message = message;
+            this.submitTimeInNanos = System.nanoTime();
+        }
+
+        byte[] getMessage() {
+            return message;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            long difference = retryTimeInNanos - other.retryTimeInNanos;
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final String hostHeader;
+    private final String path;
+    private final SSLContext sslContext;
+
+    private final int maxConnections;
+    private final int maxPipelinedRequests;
+    private final long maxBytesInFlight;
+    private final long timeoutInNanos;
+    private final long[] backOffTimesInMillis;
+
+    // Written by any thread, read by the I/O thread
+    private final ConcurrentLinkedQueue<Request> submitted = new ConcurrentLinkedQueue<Request>();
+    private final AtomicLong bytesInFlight = new AtomicLong(0);
+
+    // Used only by the I/O thread
+    private final LinkedList<Request> pending = new LinkedList<Request>();
+    private final PriorityQueue<Request> throttled = new PriorityQueue<Request>();
+    private final ArrayList<PipelinedHttpConnection> connections = new ArrayList<PipelinedHttpConnection>();
+
+    private final Selector selector;
+    private final Thread ioThread;
+
+    private volatile boolean stopped;
+    private volatile long stopDeadlineInNanos;
+
+    private volatile TransmissionListener transmissionListener;
+    private volatile TransmissionOutput spillOutput;
+    private volatile ChannelMetrics channelMetrics = ChannelMetrics.NONE;
+
+    public static AsyncTransmissionNetworkOutput create() {
+        return create(DEFAULT_SERVER_URI);
+    }
+
+    public static AsyncTransmissionNetworkOutput create(String endpoint) {
+        String realEndpoint = Strings.isNullOrEmpty(endpoint) ? DEFAULT_SERVER_URI : endpoint;
+        try {
+            return new AsyncTransmissionNetworkOutput(realEndpoint,
+                                                      DEFAULT_MAX_CONNECTIONS,
+                                                      DEFAULT_MAX_PIPELINED_REQUESTS,
+                                                      DEFAULT_MAX_BYTES_IN_FLIGHT,
+                                                      DEFAULT_TIMEOUT_IN_MILLIS,
+                                                      new BackOffTimesPolicyFactory().create(null).getBackOffTimeoutsInMillis());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create the network output", e);
+        }
+    }
+
+    AsyncTransmissionNetworkOutput(String serverUri, int maxConnections, int maxPipelinedRequests, long maxBytesInFlight,
+                                   long timeoutInMillis, long[] backOffTimesInMillis) throws IOException {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(serverUri), "serverUri should be a valid non-null value");
+        Preconditions.checkArgument(maxConnections > 0, "maxConnections must be a positive number");
+        Preconditions.checkArgument(maxPipelinedRequests > 0, "maxPipelinedRequests must be a positive number");
+        Preconditions.checkArgument(maxBytesInFlight > 0, "maxBytesInFlight must be a positive number");
+        Preconditions.checkNotNull(backOffTimesInMillis, "backOffTimesInMillis must be a non-null value");
+
+        URI uri = URI.create(serverUri);
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase();
+        Preconditions.checkArgument(scheme.equals("http") || scheme.equals("https"), "serverUri must be an http or https uri");
+        Preconditions.checkArgument(uri.getHost() != null, "serverUri must have a host");
+
+        boolean secure = scheme.equals("https");
+        host = uri.getHost();
+        port = uri.getPort() == -1 ? (secure ? 443 : 80) : uri.getPort();
+        hostHeader = uri.getPort() == -1 ? host : host + ":" + port;
+        String rawPath = Strings.isNullOrEmpty(uri.getRawPath()) ? "/" : uri.getRawPath();
+        path = uri.getRawQuery() == null ? rawPath : rawPath + "?" + uri.getRawQuery();
+        if (secure) {
+            if (!PipelinedHttpConnection.isHostNameVerificationAvailable()) {
+                throw new IOException("Secure connections need host name verification, which is not available before Java 7");
+            }
+            try {
+                sslContext = SSLContext.getDefault();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("Secure connections are not available: " + e.getMessage());
+            }
+        } else {
+            sslContext = null;
+        }
+
+        this.maxConnections = maxConnections;
+        this.maxPipelinedRequests = maxPipelinedRequests;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.timeoutInNanos = TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+        this.backOffTimesInMillis = backOffTimesInMillis;
+
+        selector = Selector.open();
+        ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runIoLoop();
+            }
+        }, AsyncTransmissionNetworkOutput.class.getSimpleName());
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    public void setTransmissionListener(TransmissionListener transmissionListener) {
+        this.transmissionListener = transmissionListener;
+    }
+
+    /**
+     * Sets the output that gets the transmissions that were not sent when the output is stopped.
+     * @param spillOutput The output, usually the storage of the channel, or null to drop them.
+     */
+    public void setSpillOutput(TransmissionOutput spillOutput) {
+        this.spillOutput = spillOutput;
+    }
+
+    /**
+     * Sets the metrics the output records into, and adds the bytes in flight as a queue.
+     * The send latency is from the transmission being accepted until its response.
+     */
+    public void setChannelMetrics(ChannelMetrics channelMetrics) {
+        Preconditions.checkNotNull(channelMetrics, "channelMetrics should be non-null value");
+
+        this.channelMetrics = channelMetrics;
+        channelMetrics.addQueue("NetworkOutputBytesInFlight", new ChannelMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return bytesInFlight.get();
+            }
+        });
+    }
+
+    /**
+     * Accepts the transmission if the bytes in flight allow it, the transmission is sent by the I/O thread.
+     * @param transmission The data to send
+     * @return True if the transmission was accepted.
+     */
+    @Override
+    public boolean send(Transmission transmission) {
+        if (stopped) {
+            return false;
+        }
+
+        byte[] message = createRequestMessage(transmission);
+        while (true) {
+            long current = bytesInFlight.get();
+            // A transmission that is larger than the bound is accepted when nothing else is in flight
+            if (current > 0 && current + message.length > maxBytesInFlight) {
+                channelMetrics.increment(ChannelMetrics.Counter.NETWORK_OUTPUT_REJECTED);
+                return false;
+            }
+            if (bytesInFlight.compareAndSet(current, current + message.length)) {
+                break;
+            }
+        }
+
+        submitted.add(new Request(transmission, message));
+        selector.wakeup();
+
+        return true;
+    }
+
+    /**
+     * Stops accepting transmissions and waits, up to the timeout, for the ones that are in flight.
+     * The ones that were not sent by then are given to the spill output.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        if (stopped) {
+            return;
+        }
+
+        stopDeadlineInNanos = System.nanoTime() + timeUnit.toNanos(timeout);
+        stopped = true;
+        selector.wakeup();
+        try {
+            ioThread.join(timeUnit.toMillis(timeout) + MAX_SELECT_TIMEOUT_IN_MILLIS);
+        } catch (InterruptedException e) {
+            InternalLogger.INSTANCE.error("Interrupted during join of the network output, exception: %s", e.getMessage());
+        }
+    }
+
+    long getBytesInFlight() {
+        return bytesInFlight.get();
+    }
+
+    @Override
+    public void onResponse(Request request, int statusCode, String responseBody) {
+        channelMetrics.recordLatency(ChannelMetrics.Latency.SEND, request.submitTimeInNanos);
+
+        TransmissionSendResult result = TransmissionSendResult.fromResponseCode(statusCode);
+        if (result == TransmissionSendResult.THROTTLED && !stopped && request.numberOfThrottles < backOffTimesInMillis.length) {
+            long backOffInMillis = backOffTimesInMillis[request.numberOfThrottles++];
+            request.retryTimeInNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backOffInMillis);
+            throttled.add(request);
+            return;
+        }
+
+        if (result == TransmissionSendResult.THROTTLED && stopped) {
+            // The server asked for it to be sent later, by the next run
+            fail(request);
+            return;
+        }
+
+        if (result != TransmissionSendResult.SENT_SUCCESSFULLY) {
+            String firstLine = responseBody.split("\r?\n", 2)[0];
+            InternalLogger.INSTANCE.error("Failed to send, %s : %s", TransmissionNetworkOutput.getErrorMessage(statusCode, result), firstLine);
+            channelMetrics.onDropped(ChannelMetrics.DropReason.SEND_FAILED);
+        }
+        complete(request, result == TransmissionSendResult.SENT_SUCCESSFULLY);
+    }
+
+    @Override
+    public void onClosed(PipelinedHttpConnection connection, List<Request> written, List<Request> unwritten, IOException cause) {
+        connections.remove(connection);
+
+        boolean timedOut = cause instanceof SocketTimeoutException;
+        if (cause != null) {
+            InternalLogger.INSTANCE.error("Failed to send, %s, exception: %s",
+                    timedOut ? TransmissionSendResult.FAILED_TO_RECEIVE_DUE_TO_TIMEOUT : TransmissionSendResult.FAILED_TO_SEND_DUE_TO_NETWORK_ISSUES,
+                    cause.getMessage());
+        }
+
+        // The server may have processed the requests that were written, sending them again could duplicate them
+        for (Request request : written) {
+            fail(request);
+        }
+
+        // Sent again first, so the order is kept
+        for (int i = unwritten.size() - 1; i >= 0; --i) {
+            Request request = unwritten.get(i);
+            if (!stopped && ++request.numberOfAttempts < MAX_ATTEMPTS) {
+                pending.addFirst(request);
+            } else {
+                fail(request);
+            }
+        }
+    }
+
+    /**
+     * Completes a request that could not be sent, when the output is stopped its transmission is spilled.
+     */
+    private void fail(Request request) {
+        if (stopped) {
+            spill(request.transmission);
+        } else {
+            channelMetrics.onDropped(ChannelMetrics.DropReason.SEND_FAILED);
+        }
+        complete(request, false);
+    }
+
+    private void spill(Transmission transmission) {
+        TransmissionOutput output = spillOutput;
+        try {
+            if (output != null && output.send(transmission)) {
+                ShutdownStatistics.INSTANCE.onTransmissionPersisted();
+                return;
+            }
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to persist transmission, exception: %s", t.getMessage());
+        }
+
+        ShutdownStatistics.INSTANCE.onTransmissionDropped();
+    }
+
+    private void complete(Request request, boolean succeeded) {
+        bytesInFlight.addAndGet(-request.message.length);
+        if (succeeded) {
+            channelMetrics.increment(ChannelMetrics.Counter.TRANSMISSIONS_SENT);
+            ShutdownStatistics.INSTANCE.onTransmissionSent();
+        }
+
+        TransmissionListener listener = transmissionListener;
+        if (listener != null) {
+            listener.onTransmissionSent(succeeded);
+        }
+    }
+
+    private void runIoLoop() {
+        while (!stopped || (bytesInFlight.get() > 0 && System.nanoTime() - stopDeadlineInNanos < 0)) {
+            try {
+                Request request;
+                while ((request = submitted.poll()) != null) {
+                    pending.add(request);
+                }
+
+                long now = System.nanoTime();
+                while (!throttled.isEmpty() && throttled.peek().retryTimeInNanos - now <= 0) {
+                    pending.add(throttled.poll());
+                }
+
+                assignPendingRequests();
+                closeTimedOutConnections(now);
+
+                long selectTimeoutInMillis = MAX_SELECT_TIMEOUT_IN_MILLIS;
+                if (!throttled.isEmpty()) {
+                    long untilRetryInMillis = TimeUnit.NANOSECONDS.toMillis(throttled.peek().retryTimeInNanos - now) + 1;
+                    selectTimeoutInMillis = Math.max(1, Math.min(selectTimeoutInMillis, untilRetryInMillis));
+                }
+                selector.select(selectTimeoutInMillis);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        ((PipelinedHttpConnection) key.attachment()).onReady();
+                    }
+                }
+            } catch (Exception e) {
+                // Avoid un-expected exit of the thread
+                InternalLogger.INSTANCE.error("Network output failed, exception: %s", e.getMessage());
+            } catch (Throwable t) {
+            }
+        }
+
+        close();
+    }
+
+    private void assignPendingRequests() {
+        while (!pending.isEmpty()) {
+            PipelinedHttpConnection connection = null;
+            for (PipelinedHttpConnection candidate : connections) {
+                if (candidate.hasCapacity() && (connection == null || candidate.getNumberOfRequests() < connection.getNumberOfRequests())) {
+                    connection = candidate;
+                }
+            }
+
+            // A new connection is opened only when the others are busy
+            if ((connection == null || connection.getNumberOfRequests() > 0) && connections.size() < maxConnections) {
+                try {
+                    connection = PipelinedHttpConnection.open(selector, host, port, sslContext, this, maxPipelinedRequests);
+                    connections.add(connection);
+                } catch (IOException e) {
+                    InternalLogger.INSTANCE.error("Failed to send, %s, exception: %s", TransmissionSendResult.FAILED_TO_SEND_DUE_TO_NETWORK_ISSUES, e.getMessage());
+                    Request request = pending.removeFirst();
+                    if (++request.numberOfAttempts < MAX_ATTEMPTS) {
+                        pending.addLast(request);
+                    } else {
+                        fail(request);
+                    }
+                    return;
+                }
+            }
+
+            if (connection == null) {
+                return;
+            }
+
+            connection.add(pending.removeFirst());
+        }
+    }
+
+    private void closeTimedOutConnections(long now) {
+        for (PipelinedHttpConnection connection : new ArrayList<PipelinedHttpConnection>(connections)) {
+            if (connection.isTimedOut(now, timeoutInNanos)) {
+                connection.close(new SocketTimeoutException("No response from the server"));
+            }
+        }
+    }
+
+    private void close() {
+        for (PipelinedHttpConnection connection : new ArrayList<PipelinedHttpConnection>(connections)) {
+            connection.close(null);
+        }
+
+        Request request;
+        while ((request = submitted.poll()) != null) {
+            pending.add(request);
+        }
+        pending.addAll(throttled);
+        throttled.clear();
+        for (Request left : pending) {
+            fail(left);
+        }
+        pending.clear();
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private byte[] createRequestMessage(Transmission transmission) {
+        StringBuilder head = new StringBuilder();
+        head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(hostHeader).append("\r\n");
+        head.append(CONTENT_TYPE_HEADER).append(": ").append(transmission.getWebContentType()).append("\r\n");
+        if (!Strings.isNullOrEmpty(transmission.getWebContentEncodingType())) {
+            head.append(CONTENT_ENCODING_HEADER).append(": ").append(transmission.getWebContentEncodingType()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(transmission.getContent().length).append("\r\n\r\n");
+
+        byte[] headBytes = head.toString().getBytes(Charsets.US_ASCII);
+        byte[] message = new byte[headBytes.length + transmission.getContent().length];
+        System.arraycopy(headBytes, 0, message, 0, headBytes.length);
+        System.arraycopy(transmission.getContent(), 0, message, headBytes.length, transmission.getContent().length);
+
+        return message;
+    }
+}
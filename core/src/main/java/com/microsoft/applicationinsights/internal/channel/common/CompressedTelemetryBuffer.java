@@ -0,0 +1,420 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link TelemetriesBuffer} that keeps its batch as UTF-8 bytes and hands it to the transmitter already compressed.
+ *
+ * Every {@link Telemetry} is serialized by the calling thread as UTF-8 bytes into a thread local buffer,
+ * those bytes are then copied, under a lock, to the end of the current batch. When the batch is full, or the timeout
+ * expires, it is swapped for an empty one under the lock and compressed outside of it, by the thread that completed it,
+ * into a gzip stream with the same format that {@link GzipTelemetrySerializer} creates. The stream is handed to the transmitter
+ * as a ready {@link Transmission}.
+ *
+ * Compared to {@link TelemetryBuffer}, telemetries are not kept as Strings until they are sent
+ * and the transmitter does not need to compress the batch again. The threads that add telemetries
+ * only wait for each other to copy their bytes, never for the compression. A batch that is not complete
+ * is not compressed yet, so it takes about as much heap as the Strings of {@link TelemetryBuffer}.
+ *
+ * Two batches and one {@link Deflater} are reused for all the batches of the buffer, the compression level
+ * is set by the 'CompressionLevel' of the channel, see {@link GzipTelemetrySerializer#getCompressionLevel(java.util.Map)}.
+ */
+public final class CompressedTelemetryBuffer implements TelemetriesBuffer {
+    private final static String GZIP_WEB_CONTENT_TYPE = "application/x-json-stream";
+    private final static String GZIP_WEB_ENCODING_TYPE = "gzip";
+
+    private final static int INITIAL_TELEMETRY_CAPACITY = 1024;
+    private final static int MAX_RETAINED_TELEMETRY_CAPACITY = 64 * 1024;
+
+    private final static int INITIAL_BATCH_CAPACITY = 32 * 1024;
+    private final static int MAX_RETAINED_BATCH_CAPACITY = 1024 * 1024;
+
+    /**
+     * Serializes telemetries of one thread into a reused byte buffer.
+     */
+    private static final class TelemetryEncoder {
+        private final Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter(INITIAL_TELEMETRY_CAPACITY);
+        private JsonTelemetryDataSerializer serializer;
+
+        public Utf8ByteArrayWriter encode(Telemetry telemetry) throws IOException {
+            writer.trimTo(MAX_RETAINED_TELEMETRY_CAPACITY, INITIAL_TELEMETRY_CAPACITY);
+            if (serializer == null) {
+                serializer = new JsonTelemetryDataSerializer(writer);
+            } else {
+                serializer.reset(writer);
+            }
+            telemetry.serialize(serializer);
+            serializer.close();
+
+            return writer;
+        }
+
+        public Utf8ByteArrayWriter encode(String telemetry) {
+            writer.trimTo(MAX_RETAINED_TELEMETRY_CAPACITY, INITIAL_TELEMETRY_CAPACITY);
+            writer.write(telemetry);
+            writer.close();
+
+            return writer;
+        }
+    }
+
+    private static final class TelemetryEncoders extends ThreadLocal<TelemetryEncoder> {
+        @Override
+        protected TelemetryEncoder initialValue() {
+            return new TelemetryEncoder();
+        }
+    }
+
+    /**
+     * The UTF-8 bytes of telemetries separated by newlines.
+     */
+    private static final class Batch {
+        private final byte[] newline;
+
+        private byte[] bytes = new byte[INITIAL_BATCH_CAPACITY];
+        private int size;
+        private int numberOfTelemetries;
+
+        private Batch(byte[] newline) {
+            this.newline = newline;
+        }
+
+        public int getNumberOfTelemetries() {
+            return numberOfTelemetries;
+        }
+
+        public void append(byte[] telemetry, int length) {
+            if (numberOfTelemetries != 0) {
+                write(newline, newline.length);
+            }
+
+            write(telemetry, length);
+            ++numberOfTelemetries;
+        }
+
+        public void reset() {
+            numberOfTelemetries = 0;
+            size = 0;
+            if (bytes.length > MAX_RETAINED_BATCH_CAPACITY) {
+                bytes = new byte[INITIAL_BATCH_CAPACITY];
+            }
+        }
+
+        private void write(byte[] source, int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + length, bytes.length << 1));
+            }
+            System.arraycopy(source, 0, bytes, size, length);
+            size += length;
+        }
+    }
+
+    /**
+     * Completes the batch of 'expectedGeneration' when the timeout expires and sends it.
+     *
+     * The transmission is sent by the fetcher itself, so the transmitter always gets an empty collection.
+     */
+    private final class CompressedBatchFetcher implements TelemetriesTransmitter.TelemetriesFetcher {
+        private final long expectedGeneration;
+
+        private CompressedBatchFetcher(long expectedGeneration) {
+            this.expectedGeneration = expectedGeneration;
+        }
+
+        @Override
+        public Collection<String> fetch() {
+            Batch completed = null;
+            synchronized (lock) {
+                if (expectedGeneration == generation && batch.getNumberOfTelemetries() != 0) {
+                    completed = swapBatch();
+                }
+            }
+
+            if (completed != null) {
+                send(completed, "Failed to send buffer data to network");
+            }
+
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isObsolete() {
+            return expectedGeneration != generation;
+        }
+    }
+
+    private final TelemetriesTransmitter sender;
+
+    private int maxTelemetriesInBatch;
+    private final LimitsEnforcer maxTelemetriesInBatchEnforcer;
+
+    private int transmitBufferTimeoutInSeconds;
+    private final LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer;
+
+    private final TelemetryEncoders encoders = new TelemetryEncoders();
+
+    private final byte[] newline = System.getProperty("line.separator").getBytes();
+
+    // The batch that telemetries are added to, and an empty one that takes its place when it is completed
+    private Batch batch;
+    private Batch spare;
+
+    // Changed under the lock and read without it by the flush scheduler
+    private volatile long generation = 0;
+
+    private boolean stopped = false;
+
+    private final Object lock = new Object();
+
+    // Batches are compressed under their own lock, so adding telemetries never waits for the compression
+    private final int compressionLevel;
+    private GzipCompressor compressor;
+    private final Object compressorLock = new Object();
+
+    /**
+     * The constructor needs to get the 'sender' we work with
+     * @param sender The sender object for transmitting the telemetries
+     * @param maxTelemetriesInBatchEnforcer For getting the number of maximum number of telemetries in a batch within limits
+     * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
+     */
+    public CompressedTelemetryBuffer(TelemetriesTransmitter sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer) {
+        this(sender, maxTelemetriesInBatchEnforcer, transmitBufferTimeoutInSecondsEnforcer, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compressionLevel 0 to 9, where 1 favors speed and 9 favors size, or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public CompressedTelemetryBuffer(TelemetriesTransmitter sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer, int compressionLevel) {
+        Preconditions.checkNotNull(sender, "sender must be non-null value");
+        Preconditions.checkNotNull(maxTelemetriesInBatchEnforcer, "maxTelemetriesInBatchEnforcer must be non-null value");
+        Preconditions.checkNotNull(transmitBufferTimeoutInSecondsEnforcer, "transmitBufferTimeoutInSecondsEnforcer must be non-null value");
+        Preconditions.checkArgument(maxTelemetriesInBatchEnforcer.getCurrentValue() > 0, "maxTelemetriesInBatch must be a positive number");
+        Preconditions.checkArgument(transmitBufferTimeoutInSecondsEnforcer.getCurrentValue() > 0, "transmitBufferTimeoutInSeconds must be a positive number");
+
+        this.sender = sender;
+        this.maxTelemetriesInBatchEnforcer = maxTelemetriesInBatchEnforcer;
+        this.maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.getCurrentValue();
+        this.transmitBufferTimeoutInSecondsEnforcer = transmitBufferTimeoutInSecondsEnforcer;
+        this.transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSecondsEnforcer.getCurrentValue();
+
+        this.compressionLevel = compressionLevel;
+        compressor = createCompressor();
+        batch = new Batch(newline);
+        spare = new Batch(newline);
+    }
+
+    @Override
+    public void setMaxTelemetriesInBatch(int value) {
+        boolean flushNeeded;
+        synchronized (lock) {
+            maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.normalizeValue(value);
+            flushNeeded = maxTelemetriesInBatch < batch.getNumberOfTelemetries();
+        }
+
+        if (flushNeeded) {
+            flush();
+        }
+    }
+
+    @Override
+    public int getMaxTelemetriesInBatch() {
+        return maxTelemetriesInBatch;
+    }
+
+    @Override
+    public void setTransmitBufferTimeoutInSeconds(int value) {
+        boolean flushNeeded;
+        synchronized (lock) {
+            int oldValue = transmitBufferTimeoutInSeconds;
+            transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSecondsEnforcer.normalizeValue(value);
+            flushNeeded = transmitBufferTimeoutInSeconds < oldValue;
+        }
+
+        if (flushNeeded) {
+            flush();
+        }
+    }
+
+    @Override
+    public int getTransmitBufferTimeoutInSeconds() {
+        return transmitBufferTimeoutInSeconds;
+    }
+
+    /**
+     * Serializes the telemetry by the calling thread and adds it to the current batch.
+     * @param telemetry The telemetry to add.
+     * @throws IOException If the telemetry failed to serialize itself.
+     */
+    public void add(Telemetry telemetry) throws IOException {
+        Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
+
+        Utf8ByteArrayWriter encoded = encoders.get().encode(telemetry);
+        append(encoded.getBuffer(), encoded.size());
+    }
+
+    /**
+     * Adds an already serialized telemetry to the current batch.
+     * @param telemetry The telemetry in its Json format.
+     */
+    @Override
+    public void add(String telemetry) {
+        Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
+
+        Utf8ByteArrayWriter encoded = encoders.get().encode(telemetry);
+        append(encoded.getBuffer(), encoded.size());
+    }
+
+    @Override
+    public void flush() {
+        Batch completed = null;
+        synchronized (lock) {
+            if (batch.getNumberOfTelemetries() != 0) {
+                completed = swapBatch();
+            }
+        }
+
+        if (completed != null) {
+            send(completed, "Failed to flush buffer data to network");
+        }
+    }
+
+    /**
+     * Sends the current batch and releases the compressor, telemetries that are added later are ignored.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        Batch completed = null;
+        synchronized (lock) {
+            if (stopped) {
+                return;
+            }
+
+            stopped = true;
+            if (batch.getNumberOfTelemetries() != 0) {
+                completed = swapBatch();
+            }
+        }
+
+        if (completed != null) {
+            send(completed, "Failed to flush buffer data to network");
+        }
+
+        synchronized (compressorLock) {
+            compressor.end();
+            compressor = null;
+        }
+    }
+
+    private void append(byte[] telemetry, int length) {
+        Batch completed = null;
+        synchronized (lock) {
+            if (stopped) {
+                return;
+            }
+
+            batch.append(telemetry, length);
+
+            int currentSize = batch.getNumberOfTelemetries();
+            if (currentSize >= maxTelemetriesInBatch) {
+                completed = swapBatch();
+            } else if (currentSize == 1) {
+                if (!sender.scheduleSend(new CompressedBatchFetcher(generation), transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
+                    InternalLogger.INSTANCE.error("Failed to schedule send of the buffer to network");
+                    batch.reset();
+                }
+            }
+        }
+
+        if (completed != null) {
+            send(completed, "Failed to send buffer data to network");
+        }
+    }
+
+    /**
+     * The method assumes that the lock is held before calling it.
+     *
+     * @return The current batch, which is replaced by an empty one.
+     */
+    private Batch swapBatch() {
+        ++generation;
+
+        Batch completed = batch;
+        if (spare != null) {
+            batch = spare;
+            spare = null;
+        } else {
+            batch = new Batch(newline);
+        }
+
+        return completed;
+    }
+
+    /**
+     * Compresses the completed batch, sends it and keeps the batch for reuse. Called without the lock.
+     */
+    private void send(Batch completed, String errorMessage) {
+        byte[] content;
+        synchronized (compressorLock) {
+            // A batch that was completed while the buffer stopped gets a compressor of its own
+            GzipCompressor batchCompressor = compressor != null ? compressor : createCompressor();
+            try {
+                batchCompressor.write(completed.bytes, completed.size);
+                content = batchCompressor.complete();
+            } finally {
+                if (batchCompressor != compressor) {
+                    batchCompressor.end();
+                }
+            }
+        }
+
+        completed.reset();
+        synchronized (lock) {
+            if (spare == null) {
+                spare = completed;
+            }
+        }
+
+        if (!sender.sendNow(new Transmission(content, GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE))) {
+            InternalLogger.INSTANCE.error(errorMessage);
+        }
+    }
+
+    private GzipCompressor createCompressor() {
+        return new GzipCompressor(compressionLevel, INITIAL_BATCH_CAPACITY, MAX_RETAINED_BATCH_CAPACITY);
+    }
+}
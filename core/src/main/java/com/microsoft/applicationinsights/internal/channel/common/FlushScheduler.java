@@ -0,0 +1,249 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Owns the flush deadlines of the telemetry buffers of all the channels.
+ *
+ * The deadlines are kept in a hashed timing wheel that one daemon thread advances every tick,
+ * so scheduling and cancelling cost a constant time whatever the number of pending flushes,
+ * and a flush that was cancelled is only unlinked when its bucket is visited.
+ * The thread waits without ticking while there is nothing to flush.
+ *
+ * The tasks run on the thread of the scheduler and must only hand the work to other threads.
+ */
+public final class FlushScheduler {
+    public final static FlushScheduler INSTANCE = new FlushScheduler(50L, TimeUnit.MILLISECONDS, 512);
+
+    /**
+     * A flush that waits for its deadline.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private volatile boolean cancelled;
+
+        // Touched only by the thread of the scheduler
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * The task will not run, unless it already started.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickInNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+    private final long startTimeInNanos = System.nanoTime();
+
+    // Timeouts are added by any thread and moved to the wheel by the thread of the scheduler
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger numberOfTimeouts = new AtomicInteger(0);
+    private final Object idleLock = new Object();
+
+    private Thread thread;
+    private long lastTick = -1;
+
+    /**
+     * @param tickDuration The precision of the deadlines.
+     * @param unit The unit of the tick duration.
+     * @param wheelSize The number of buckets, rounded up to a power of two.
+     */
+    FlushScheduler(long tickDuration, TimeUnit unit, int wheelSize) {
+        Preconditions.checkArgument(tickDuration > 0, "tickDuration must be a positive number");
+        Preconditions.checkArgument(wheelSize > 0 && wheelSize <= (1 << 20), "wheelSize must be between 1 and 2^20");
+
+        tickInNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        wheel = new Timeout[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Runs the task on the thread of the scheduler once the delay expires, no earlier than the delay
+     * and no later than a tick after it.
+     * @param task The task, which should hand its work to another thread.
+     * @param delay The delay.
+     * @param unit The unit of the delay.
+     * @return The timeout, which can be cancelled.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Preconditions.checkNotNull(task, "task should be non-null value");
+        Preconditions.checkNotNull(unit, "unit should be non-null value");
+
+        long deadlineInNanos = System.nanoTime() - startTimeInNanos + unit.toNanos(Math.max(0L, delay));
+        Timeout timeout = new Timeout(task, (deadlineInNanos + tickInNanos - 1) / tickInNanos);
+        added.add(timeout);
+
+        if (numberOfTimeouts.getAndIncrement() == 0) {
+            synchronized (idleLock) {
+                startThreadIfNeeded();
+                idleLock.notifyAll();
+            }
+        }
+
+        return timeout;
+    }
+
+    /**
+     * @return The number of timeouts that did not expire, including cancelled ones that were not unlinked yet.
+     */
+    public int getNumberOfTimeouts() {
+        return numberOfTimeouts.get();
+    }
+
+    private void startThreadIfNeeded() {
+        if (thread != null) {
+            return;
+        }
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTicks();
+            }
+        }, "ApplicationInsights-FlushScheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void runTicks() {
+        while (true) {
+            try {
+                synchronized (idleLock) {
+                    while (numberOfTimeouts.get() == 0) {
+                        // The wheel is empty, so the ticks start over from the time the thread is woken
+                        lastTick = -1;
+                        idleLock.wait();
+                    }
+                }
+
+                long currentTick = waitForNextTick();
+                if (lastTick < 0) {
+                    lastTick = currentTick - 1;
+                }
+
+                addToWheel();
+                while (lastTick < currentTick) {
+                    ++lastTick;
+                    expire(lastTick);
+                }
+            } catch (InterruptedException e) {
+                // The thread is a daemon that serves every channel, so it goes on
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Flush scheduler failed to expire timeouts, exception: %s", t.getMessage());
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+    }
+
+    private long waitForNextTick() throws InterruptedException {
+        long elapsed = System.nanoTime() - startTimeInNanos;
+        long nextTick = lastTick < 0 ? elapsed / tickInNanos + 1 : lastTick + 1;
+        long sleepInNanos = nextTick * tickInNanos - elapsed;
+        if (sleepInNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(sleepInNanos);
+        }
+
+        return (System.nanoTime() - startTimeInNanos) / tickInNanos;
+    }
+
+    private void addToWheel() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.cancelled) {
+                numberOfTimeouts.decrementAndGet();
+                continue;
+            }
+
+            // A deadline that passed while the thread was waiting expires on the next tick
+            long tick = Math.max(timeout.deadlineTick, lastTick + 1);
+            int index = (int) (tick & mask);
+            timeout.next = wheel[index];
+            wheel[index] = timeout;
+        }
+    }
+
+    private void expire(long tick) {
+        int index = (int) (tick & mask);
+        Timeout previous = null;
+        Timeout timeout = wheel[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            boolean expired = timeout.deadlineTick <= tick;
+            if (expired || timeout.cancelled) {
+                if (previous == null) {
+                    wheel[index] = next;
+                } else {
+                    previous.next = next;
+                }
+                timeout.next = null;
+                numberOfTimeouts.decrementAndGet();
+
+                if (!timeout.cancelled) {
+                    run(timeout.task);
+                }
+            } else {
+                // Expires in a later round of the wheel
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Scheduled flush failed, exception: %s", t.getMessage());
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Compresses bytes into a gzip stream, the same one that {@link java.util.zip.GZIPOutputStream} writes.
+ *
+ * The {@link Deflater} and the output buffer are reused from one stream to the next, the buffer is
+ * replaced by a smaller one after a stream that made it grow over the retained capacity.
+ *
+ * The class is not thread safe.
+ */
+final class GzipCompressor {
+    // The header that GZIPOutputStream writes: magic number, 'deflate' method and no flags, time or OS
+    private final static byte[] GZIP_HEADER = {(byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final int initialCapacity;
+    private final int maxRetainedCapacity;
+
+    private byte[] output;
+    private int size;
+    private long uncompressedSize;
+
+    /**
+     * @param compressionLevel 0 to 9, where 1 favors speed and 9 favors size, or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param initialCapacity The initial size of the output buffer.
+     * @param maxRetainedCapacity The largest output buffer that is kept for the next stream.
+     */
+    GzipCompressor(int compressionLevel, int initialCapacity, int maxRetainedCapacity) {
+        Preconditions.checkArgument(isValidCompressionLevel(compressionLevel), "compressionLevel must be between 0 and 9, or -1 for the default");
+        Preconditions.checkArgument(initialCapacity > GZIP_HEADER.length, "initialCapacity is too small");
+        Preconditions.checkArgument(maxRetainedCapacity >= initialCapacity, "maxRetainedCapacity must not be smaller than initialCapacity");
+
+        deflater = new Deflater(compressionLevel, true);
+        this.initialCapacity = initialCapacity;
+        this.maxRetainedCapacity = maxRetainedCapacity;
+        output = new byte[initialCapacity];
+    }
+
+    static boolean isValidCompressionLevel(int compressionLevel) {
+        return compressionLevel == Deflater.DEFAULT_COMPRESSION ||
+               (compressionLevel >= Deflater.NO_COMPRESSION && compressionLevel <= Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * Compresses the bytes, the caller may reuse them once the method returns.
+     */
+    void write(byte[] bytes, int length) {
+        if (size == 0) {
+            System.arraycopy(GZIP_HEADER, 0, output, 0, GZIP_HEADER.length);
+            size = GZIP_HEADER.length;
+        }
+
+        crc.update(bytes, 0, length);
+        uncompressedSize += length;
+
+        // Keep going until the deflater took all the input, so the caller may reuse its bytes
+        deflater.setInput(bytes, 0, length);
+        while (!deflater.needsInput()) {
+            ensureCapacity(1);
+            size += deflater.deflate(output, size, output.length - size);
+        }
+    }
+
+    /**
+     * Completes the gzip stream and resets the compressor for the next one.
+     * @return The bytes of the completed gzip stream.
+     */
+    byte[] complete() {
+        if (size == 0) {
+            System.arraycopy(GZIP_HEADER, 0, output, 0, GZIP_HEADER.length);
+            size = GZIP_HEADER.length;
+        }
+
+        deflater.finish();
+        while (!deflater.finished()) {
+            ensureCapacity(1);
+            size += deflater.deflate(output, size, output.length - size);
+        }
+
+        ensureCapacity(8);
+        writeIntLittleEndian((int)crc.getValue());
+        writeIntLittleEndian((int)uncompressedSize);
+
+        byte[] content = Arrays.copyOf(output, size);
+
+        reset();
+
+        return content;
+    }
+
+    void reset() {
+        deflater.reset();
+        crc.reset();
+        size = 0;
+        uncompressedSize = 0;
+        if (output.length > maxRetainedCapacity) {
+            output = new byte[initialCapacity];
+        }
+    }
+
+    /**
+     * Releases the native memory of the deflater, the compressor can not be used afterwards.
+     */
+    void end() {
+        deflater.end();
+    }
+
+    private void writeIntLittleEndian(int value) {
+        output[size++] = (byte)value;
+        output[size++] = (byte)(value >> 8);
+        output[size++] = (byte)(value >> 16);
+        output[size++] = (byte)(value >> 24);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > output.length) {
+            output = Arrays.copyOf(output, Math.max(size + extra, output.length << 1));
+        }
+    }
+}
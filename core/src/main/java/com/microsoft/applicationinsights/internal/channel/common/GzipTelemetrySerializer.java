@@ -21,100 +21,139 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.StringWriter;
 import java.util.Collection;
-import java.util.zip.GZIPOutputStream;
+import java.util.Map;
+import java.util.zip.Deflater;
 
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
-import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 
 /**
  * The class is an implementation of the {@link TelemetrySerializer}
  * where the {@link Telemetry} instances are compressed by Gzip after converted to Json format
  *
+ * Every thread that serializes keeps its own {@link Deflater} and buffers, so a batch is encoded
+ * as UTF-8 and compressed without allocations other than the content of the {@link Transmission}.
+ *
  * Created by gupele on 12/17/2014.
  */
 public final class GzipTelemetrySerializer implements TelemetrySerializer {
+    public final static String COMPRESSION_LEVEL_NAME = "CompressionLevel";
+
     private final static String GZIP_WEB_CONTENT_TYPE = "application/x-json-stream";
     private final static String GZIP_WEB_ENCODING_TYPE = "gzip";
 
-    private final byte[] newlineString;
+    private final static int INITIAL_TELEMETRY_CAPACITY = 1024;
+    private final static int MAX_RETAINED_TELEMETRY_CAPACITY = 64 * 1024;
 
-    public GzipTelemetrySerializer() {
-        this.newlineString = System.getProperty("line.separator").getBytes();
-    }
+    private final static int INITIAL_BATCH_CAPACITY = 32 * 1024;
+    private final static int MAX_RETAINED_BATCH_CAPACITY = 1024 * 1024;
 
-    @Override
-    public Optional<Transmission> serialize(Collection<String> telemetries) {
-        Preconditions.checkNotNull(telemetries, "telemetries must be non-null value");
-        Preconditions.checkArgument(!telemetries.isEmpty(), "telemetries: One or more telemetry item is expected");
-
-        Transmission result = null;
-        boolean succeeded = false;
-        try {
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    /**
+     * The buffers and the compressor of one thread.
+     */
+    private final class Compression {
+        private final Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter(INITIAL_TELEMETRY_CAPACITY);
+        private final GzipCompressor compressor = new GzipCompressor(compressionLevel, INITIAL_BATCH_CAPACITY, MAX_RETAINED_BATCH_CAPACITY);
 
+        // The format is:
+        // 1. Separate each Telemetry by newline
+        // 2. Compress the entire data by using Gzip
+        public byte[] compress(Collection<String> telemetries) {
+            boolean first = true;
             try {
-                GZIPOutputStream zipStream = new GZIPOutputStream(byteStream);
-
-                try {
-                    succeeded = compress(zipStream, telemetries);
-                } catch (Exception e) {
-                    InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.getMessage());
-                } catch (Throwable t) {
-                    InternalLogger.INSTANCE.error("Failed to serialize, unknown exception: %s", t.getMessage());
-                } finally {
-                    zipStream.close();
+                for (String telemetry : telemetries) {
+                    if (!first) {
+                        compressor.write(newlineString, newlineString.length);
+                    }
+                    first = false;
+
+                    writer.trimTo(MAX_RETAINED_TELEMETRY_CAPACITY, INITIAL_TELEMETRY_CAPACITY);
+                    writer.write(telemetry);
+                    writer.close();
+                    compressor.write(writer.getBuffer(), writer.size());
                 }
-            } finally {
-                byteStream.close();
 
-                // The creation of the result must be done after the 'zipStream' is closed
-                if (succeeded) {
-                    result = new Transmission(byteStream.toByteArray(), GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
-                }
+                return compressor.complete();
+            } catch (RuntimeException e) {
+                compressor.reset();
+                throw e;
             }
-        } catch(Exception e) {
-            InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.getMessage());
         }
+    }
+
+    private final byte[] newlineString;
+
+    private final int compressionLevel;
+
+    private final ThreadLocal<Compression> compressions = new ThreadLocal<Compression>() {
+        @Override
+        protected Compression initialValue() {
+            return new Compression();
+        }
+    };
 
-        return Optional.fromNullable(result);
+    public GzipTelemetrySerializer() {
+        this(Deflater.DEFAULT_COMPRESSION);
     }
 
-    private boolean compress(GZIPOutputStream zipStream, Collection<String> telemetries) throws IOException {
-        int counter = 0;
-        StringWriter writer = new StringWriter();
-        JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+    /**
+     * @param compressionLevel 0 to 9, where 1 favors speed and 9 favors size, or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public GzipTelemetrySerializer(int compressionLevel) {
+        Preconditions.checkArgument(GzipCompressor.isValidCompressionLevel(compressionLevel), "compressionLevel must be between 0 and 9, or -1 for the default");
 
-        // The format is:
-        // 1. Separate each Telemetry by newline
-        // 2. Compress the entire data by using Gzip
-        for (String telemetry : telemetries) {
+        this.newlineString = System.getProperty("line.separator").getBytes();
+        this.compressionLevel = compressionLevel;
+    }
 
-            if (counter != 0) {
-                zipStream.write(newlineString);
-            }
+    /**
+     * Reads the 'CompressionLevel' of the channel, 0 to 9 or -1 for the default.
+     * @param namesAndValues The channel's data, might be null.
+     * @return The compression level, {@link Deflater#DEFAULT_COMPRESSION} if it is not set or is not valid.
+     */
+    public static int getCompressionLevel(Map<String, String> namesAndValues) {
+        if (namesAndValues == null) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
 
-            try {
-                zipStream.write(telemetry.getBytes());
-                ++counter;
-            } catch (Exception e) {
-                InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.getMessage());
-            }
+        String value = namesAndValues.get(COMPRESSION_LEVEL_NAME);
+        if (Strings.isNullOrEmpty(value)) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
 
-            if (counter < telemetries.size()) {
-                writer.getBuffer().setLength(0);
-                jsonWriter.reset(writer);
+        try {
+            int compressionLevel = Integer.parseInt(value.trim());
+            if (GzipCompressor.isValidCompressionLevel(compressionLevel)) {
+                return compressionLevel;
             }
+        } catch (NumberFormatException e) {
         }
 
-        return counter > 0;
+        InternalLogger.INSTANCE.warn("'%s': bad value '%s' is replaced by the default compression level", COMPRESSION_LEVEL_NAME, value);
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    @Override
+    public Optional<Transmission> serialize(Collection<String> telemetries) {
+        Preconditions.checkNotNull(telemetries, "telemetries must be non-null value");
+        Preconditions.checkArgument(!telemetries.isEmpty(), "telemetries: One or more telemetry item is expected");
+
+        Transmission result = null;
+        try {
+            byte[] content = compressions.get().compress(telemetries);
+            result = new Transmission(content, GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.getMessage());
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to serialize, unknown exception: %s", t.getMessage());
+        }
+
+        return Optional.fromNullable(result);
     }
 }
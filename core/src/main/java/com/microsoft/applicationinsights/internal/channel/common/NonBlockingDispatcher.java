@@ -26,6 +26,7 @@ import java.util.concurrent.TimeUnit;
 import com.google.common.base.Preconditions;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
 
 /**
  * The class implements {@link TransmissionDispatcher}
@@ -40,6 +41,8 @@ import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 public final class NonBlockingDispatcher implements TransmissionDispatcher {
     private final TransmissionOutput[] transmissionOutputs;
 
+    private volatile ChannelMetrics channelMetrics = ChannelMetrics.NONE;
+
     public NonBlockingDispatcher(TransmissionOutput[] transmissionOutputs) {
         Preconditions.checkNotNull(transmissionOutputs, "transmissionOutputs should be non-null value");
         Preconditions.checkArgument(transmissionOutputs.length > 0, "There should be at least one TransmissionOutput");
@@ -47,6 +50,12 @@ public final class NonBlockingDispatcher implements TransmissionDispatcher {
         this.transmissionOutputs = transmissionOutputs;
     }
 
+    public void setChannelMetrics(ChannelMetrics channelMetrics) {
+        Preconditions.checkNotNull(channelMetrics, "channelMetrics should be non-null value");
+
+        this.channelMetrics = channelMetrics;
+    }
+
     @Override
     public void dispatch(Transmission transmission) {
         Preconditions.checkNotNull(transmission, "transmission should be non-null value");
@@ -56,12 +65,19 @@ public final class NonBlockingDispatcher implements TransmissionDispatcher {
                 return;
             }
         }
+
+        channelMetrics.onDropped(ChannelMetrics.DropReason.OUTPUTS_FULL);
     }
 
+    /**
+     * Stops the outputs in order, sharing the timeout, so the network output, which comes first,
+     * can still persist what it could not send before the file system output is stopped.
+     */
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
+        long deadlineInNanos = System.nanoTime() + timeUnit.toNanos(timeout);
         for (TransmissionOutput output : transmissionOutputs) {
-            output.stop(timeout, timeUnit);
+            output.stop(Math.max(0, deadlineInNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
         }
     }
 }
@@ -0,0 +1,290 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * The sizing of a stage of the transmission pipeline: its threads, the bound of its queue and
+ * what is done with work that arrives when the queue is full.
+ *
+ * A stage is configured by the channel's name and value pairs, prefixed by the stage name,
+ * for example 'NetworkOutput.MaxThreads'. Values that are not set keep the stage defaults,
+ * values out of range are replaced by the closest limit.
+ */
+public final class PipelineStageConfiguration {
+    public enum RejectionPolicy {
+        // The new work is dropped
+        DROP_NEWEST("DropNewest"),
+
+        // The oldest queued work is dropped to make room for the new one
+        DROP_OLDEST("DropOldest"),
+
+        // The new work is refused so it goes on to the next output, which persists it
+        SPILL_TO_DISK("SpillToDisk"),
+
+        // The caller waits for room up to the block timeout, then the work is refused as with SPILL_TO_DISK
+        BLOCK("Block");
+
+        private final String name;
+
+        RejectionPolicy(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The policy, or null if there is no policy by that name.
+         */
+        public static RejectionPolicy fromName(String name) {
+            for (RejectionPolicy policy : values()) {
+                if (policy.name.equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Gets the queued work that the {@link RejectionPolicy#DROP_OLDEST} policy removed.
+     */
+    interface DroppedTaskListener {
+        void onDropped(Runnable task);
+    }
+
+    public final static String MIN_THREADS_NAME = "MinThreads";
+    public final static String MAX_THREADS_NAME = "MaxThreads";
+    public final static String QUEUE_CAPACITY_NAME = "QueueCapacity";
+    public final static String REJECTION_POLICY_NAME = "RejectionPolicy";
+    public final static String BLOCK_TIMEOUT_IN_MILLIS_NAME = "BlockTimeoutInMillis";
+
+    private final static int MAX_THREADS = 256;
+    private final static int MAX_QUEUE_CAPACITY = 1000000;
+    private final static int MAX_BLOCK_TIMEOUT_IN_MILLIS = 60000;
+    private final static long REMOVE_IDLE_THREAD_TIMEOUT_IN_SECONDS = 60L;
+
+    private final String stageName;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int queueCapacity;
+    private final RejectionPolicy rejectionPolicy;
+    private final long blockTimeoutInMillis;
+
+    public PipelineStageConfiguration(String stageName, int minThreads, int maxThreads, int queueCapacity, RejectionPolicy rejectionPolicy, long blockTimeoutInMillis) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(stageName), "stageName should be non null, non empty value");
+        Preconditions.checkArgument(minThreads > 0, "minThreads must be a positive number");
+        Preconditions.checkArgument(maxThreads >= minThreads, "maxThreads must not be smaller than minThreads");
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be a positive number");
+        Preconditions.checkNotNull(rejectionPolicy, "rejectionPolicy should be non-null value");
+        Preconditions.checkArgument(blockTimeoutInMillis >= 0, "blockTimeoutInMillis must not be negative");
+
+        this.stageName = stageName;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.queueCapacity = queueCapacity;
+        this.rejectionPolicy = rejectionPolicy;
+        this.blockTimeoutInMillis = blockTimeoutInMillis;
+    }
+
+    /**
+     * Reads the configuration of the stage from the name and value pairs of the channel.
+     * @param namesAndValues The channel's data, might be null.
+     * @param defaults The configuration of the stage when nothing is set, also names the stage.
+     * @param supportedPolicies The policies the stage can apply, other policies are replaced by the default one.
+     * @return The configuration.
+     */
+    public static PipelineStageConfiguration fromNamesAndValues(Map<String, String> namesAndValues, PipelineStageConfiguration defaults, RejectionPolicy... supportedPolicies) {
+        Preconditions.checkNotNull(defaults, "defaults should be non-null value");
+
+        if (namesAndValues == null) {
+            return defaults;
+        }
+
+        String prefix = defaults.stageName + ".";
+        int minThreads = readValue(namesAndValues, prefix + MIN_THREADS_NAME, 1, MAX_THREADS, defaults.minThreads);
+        int maxThreads = readValue(namesAndValues, prefix + MAX_THREADS_NAME, minThreads, MAX_THREADS, Math.max(minThreads, defaults.maxThreads));
+        int queueCapacity = readValue(namesAndValues, prefix + QUEUE_CAPACITY_NAME, 1, MAX_QUEUE_CAPACITY, defaults.queueCapacity);
+        int blockTimeoutInMillis = readValue(namesAndValues, prefix + BLOCK_TIMEOUT_IN_MILLIS_NAME, 0, MAX_BLOCK_TIMEOUT_IN_MILLIS, (int) defaults.blockTimeoutInMillis);
+
+        RejectionPolicy rejectionPolicy = defaults.rejectionPolicy;
+        String policyName = namesAndValues.get(prefix + REJECTION_POLICY_NAME);
+        if (!Strings.isNullOrEmpty(policyName)) {
+            RejectionPolicy policy = RejectionPolicy.fromName(policyName.trim());
+            if (policy != null && isSupported(policy, supportedPolicies)) {
+                rejectionPolicy = policy;
+            } else {
+                InternalLogger.INSTANCE.warn("'%s': '%s' is not a rejection policy of the stage, '%s' is used", prefix + REJECTION_POLICY_NAME, policyName, rejectionPolicy.getName());
+            }
+        }
+
+        return new PipelineStageConfiguration(defaults.stageName, minThreads, maxThreads, queueCapacity, rejectionPolicy, blockTimeoutInMillis);
+    }
+
+    public String getStageName() {
+        return stageName;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    public long getBlockTimeoutInMillis() {
+        return blockTimeoutInMillis;
+    }
+
+    public PipelineStageConfiguration withQueueCapacity(int queueCapacity) {
+        return new PipelineStageConfiguration(stageName, minThreads, maxThreads, queueCapacity, rejectionPolicy, blockTimeoutInMillis);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: threads %d-%d, queue %d, %s", stageName, minThreads, maxThreads, queueCapacity, rejectionPolicy.getName());
+    }
+
+    /**
+     * Creates the daemon threads of the stage. A full queue makes 'execute' throw {@link RejectedExecutionException},
+     * after the {@link RejectionPolicy#DROP_OLDEST} and {@link RejectionPolicy#BLOCK} policies were applied,
+     * so the caller applies the other policies.
+     * @param droppedTasks Gets the tasks that were removed from the queue by the {@link RejectionPolicy#DROP_OLDEST} policy.
+     * @return The pool.
+     */
+    ThreadPoolExecutor newThreadPool(final DroppedTaskListener droppedTasks) {
+        final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+                minThreads,
+                maxThreads,
+                REMOVE_IDLE_THREAD_TIMEOUT_IN_SECONDS,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity));
+
+        final String threadNamePrefix = "ApplicationInsights-" + stageName + "-";
+        final AtomicInteger threadCounter = new AtomicInteger(0);
+        threadPool.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadNamePrefix + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        switch (rejectionPolicy) {
+            case DROP_OLDEST:
+                threadPool.setRejectedExecutionHandler(new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("The stage is stopped");
+                        }
+
+                        // Another thread might fill the room first, so it is tried a few times
+                        for (int i = 0; i < queueCapacity + 1; ++i) {
+                            Runnable oldest = executor.getQueue().poll();
+                            if (oldest != null) {
+                                droppedTasks.onDropped(oldest);
+                            }
+                            if (executor.getQueue().offer(r)) {
+                                return;
+                            }
+                        }
+
+                        throw new RejectedExecutionException("The queue is full");
+                    }
+                });
+                break;
+
+            case BLOCK:
+                threadPool.setRejectedExecutionHandler(new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        try {
+                            if (!executor.isShutdown() && executor.getQueue().offer(r, blockTimeoutInMillis, TimeUnit.MILLISECONDS)) {
+                                return;
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+
+                        throw new RejectedExecutionException("The queue is full");
+                    }
+                });
+                break;
+
+            default:
+                break;
+        }
+
+        return threadPool;
+    }
+
+    private static boolean isSupported(RejectionPolicy policy, RejectionPolicy[] supportedPolicies) {
+        if (supportedPolicies.length == 0) {
+            return true;
+        }
+
+        for (RejectionPolicy supported : supportedPolicies) {
+            if (supported == policy) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int readValue(Map<String, String> namesAndValues, String name, int minimum, int maximum, int defaultValue) {
+        String value = namesAndValues.get(name);
+        if (Strings.isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+
+        return LimitsEnforcer.createWithClosestLimitOnError(minimum, maximum, defaultValue, name, value.trim()).getCurrentValue();
+    }
+}
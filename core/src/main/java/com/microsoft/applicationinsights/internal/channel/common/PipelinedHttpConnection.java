@@ -0,0 +1,746 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A non blocking HTTP/1.1 connection that is used by the {@link AsyncTransmissionNetworkOutput}.
+ *
+ * Requests are written one after the other without waiting for the responses, and the responses,
+ * which arrive in the same order, are matched with the requests that were written first.
+ * When the connection is secure the bytes go through an {@link SSLEngine}.
+ *
+ * The class is not thread safe, it should only be used by the thread that owns the selector.
+ */
+final class PipelinedHttpConnection {
+    interface Listener {
+        void onResponse(AsyncTransmissionNetworkOutput.Request request, int statusCode, String responseBody);
+
+        /**
+         * Called once the connection is closed.
+         * @param connection The connection.
+         * @param written The requests that some of their bytes were written to the socket, and got no response, in their order.
+         *                The server may have processed them.
+         * @param unwritten The requests that none of their bytes was written to the socket, in their order.
+         * @param cause The failure that closed the connection, or null if it was closed gracefully.
+         */
+        void onClosed(PipelinedHttpConnection connection,
+                      List<AsyncTransmissionNetworkOutput.Request> written,
+                      List<AsyncTransmissionNetworkOutput.Request> unwritten,
+                      IOException cause);
+    }
+
+    /**
+     * Tells which requests have bytes that left the process.
+     *
+     * The bytes of a request are first copied, or encrypted, into the network output and only later written to the socket.
+     * Every byte that enters the network output gets the next offset, a request starts at the offset of its first byte,
+     * and it is written once the socket took a byte beyond that offset.
+     */
+    static final class WriteProgress {
+        // The offsets of the requests that were started and got no response, in their order
+        private final LinkedList<Long> startOffsets = new LinkedList<Long>();
+        private long buffered;
+        private long flushed;
+
+        /**
+         * Called before the first bytes of the next request enter the network output.
+         */
+        void onRequestStarted() {
+            startOffsets.add(buffered);
+        }
+
+        void onBuffered(long bytes) {
+            buffered += bytes;
+        }
+
+        void onFlushed(long bytes) {
+            flushed += bytes;
+        }
+
+        /**
+         * Called when the first started request got its response.
+         */
+        void onRequestAnswered() {
+            startOffsets.pollFirst();
+        }
+
+        int getNumberOfStartedRequests() {
+            return startOffsets.size();
+        }
+
+        /**
+         * @return The number of started requests, from the first one, that some of their bytes were written to the socket.
+         */
+        int getNumberOfWrittenRequests() {
+            int written = 0;
+            for (long startOffset : startOffsets) {
+                if (startOffset >= flushed) {
+                    break;
+                }
+                ++written;
+            }
+
+            return written;
+        }
+    }
+
+    private enum ParserState {
+        HEAD,
+        BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_END,
+        TRAILERS
+    }
+
+    private final static int BUFFER_SIZE = 16 * 1024;
+    private final static int MAX_RESPONSE_BODY_TO_KEEP = 1024;
+    private final static byte[] END_OF_LINE = {'\r', '\n'};
+    private final static byte[] END_OF_HEAD = {'\r', '\n', '\r', '\n'};
+    private final static ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine sslEngine;
+    private final Listener listener;
+    private final int maxPipelinedRequests;
+    private SelectionKey key;
+
+    // Requests whose bytes were not completely written yet, the bytes of the first one are 'currentWrite'
+    private final LinkedList<AsyncTransmissionNetworkOutput.Request> unwritten = new LinkedList<AsyncTransmissionNetworkOutput.Request>();
+    private final LinkedList<AsyncTransmissionNetworkOutput.Request> unanswered = new LinkedList<AsyncTransmissionNetworkOutput.Request>();
+    private ByteBuffer currentWrite;
+    private boolean currentWriteStarted;
+    private final WriteProgress writeProgress = new WriteProgress();
+
+    // The buffers are kept ready to be written into
+    private ByteBuffer networkInput;
+    private ByteBuffer networkOutput;
+    private ByteBuffer applicationInput;
+
+    private boolean connecting = true;
+    private boolean closed;
+    private long lastActivityInNanos = System.nanoTime();
+
+    private ParserState parserState = ParserState.HEAD;
+    private int statusCode;
+    private long contentLength;
+    private boolean chunked;
+    private boolean closeAfterResponse;
+    private long bytesLeft;
+    private final ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+
+    private PipelinedHttpConnection(SocketChannel channel, SSLEngine sslEngine, Listener listener, int maxPipelinedRequests) {
+        this.channel = channel;
+        this.sslEngine = sslEngine;
+        this.listener = listener;
+        this.maxPipelinedRequests = maxPipelinedRequests;
+
+        int networkBufferSize = sslEngine == null ? BUFFER_SIZE : sslEngine.getSession().getPacketBufferSize();
+        int applicationBufferSize = sslEngine == null ? BUFFER_SIZE : sslEngine.getSession().getApplicationBufferSize();
+        networkInput = ByteBuffer.allocate(networkBufferSize);
+        networkOutput = ByteBuffer.allocate(networkBufferSize);
+        applicationInput = ByteBuffer.allocate(applicationBufferSize);
+    }
+
+    /**
+     * Starts to connect, the connection is registered with the selector and is attached to its key.
+     * @param sslContext The context of secure connections, or null for a plain connection.
+     */
+    static PipelinedHttpConnection open(Selector selector, String host, int port, SSLContext sslContext, Listener listener, int maxPipelinedRequests) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            SSLEngine sslEngine = null;
+            if (sslContext != null) {
+                sslEngine = sslContext.createSSLEngine(host, port);
+                sslEngine.setUseClientMode(true);
+                enableHostNameVerification(sslEngine);
+            }
+
+            PipelinedHttpConnection connection = new PipelinedHttpConnection(channel, sslEngine, listener, maxPipelinedRequests);
+            boolean connected = channel.connect(new InetSocketAddress(host, port));
+            connection.key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+            if (connected) {
+                connection.onConnected();
+            }
+
+            return connection;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    boolean hasCapacity() {
+        return !closed && getNumberOfRequests() < maxPipelinedRequests;
+    }
+
+    int getNumberOfRequests() {
+        return unwritten.size() + unanswered.size();
+    }
+
+    void add(AsyncTransmissionNetworkOutput.Request request) {
+        if (getNumberOfRequests() == 0) {
+            lastActivityInNanos = System.nanoTime();
+        }
+        unwritten.add(request);
+        if (!connecting) {
+            // The request is written once the selector reports the channel is writable
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    boolean isTimedOut(long nowInNanos, long timeoutInNanos) {
+        return !closed && (connecting || getNumberOfRequests() > 0) && nowInNanos - lastActivityInNanos > timeoutInNanos;
+    }
+
+    /**
+     * Called when the selector reports the connection is ready for one of its operations.
+     */
+    void onReady() {
+        try {
+            if (connecting) {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                onConnected();
+            }
+
+            boolean endOfStream = read();
+            process();
+            if (endOfStream) {
+                close(null);
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    void close(IOException cause) {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+        if (sslEngine != null) {
+            sslEngine.closeOutbound();
+        }
+
+        // Bytes that were only copied to the network output never left the process, their requests may be sent again
+        ArrayList<AsyncTransmissionNetworkOutput.Request> requests = new ArrayList<AsyncTransmissionNetworkOutput.Request>(unanswered);
+        requests.addAll(unwritten);
+        int numberOfWritten = writeProgress.getNumberOfWrittenRequests();
+        ArrayList<AsyncTransmissionNetworkOutput.Request> written = new ArrayList<AsyncTransmissionNetworkOutput.Request>(requests.subList(0, numberOfWritten));
+        ArrayList<AsyncTransmissionNetworkOutput.Request> notWritten = new ArrayList<AsyncTransmissionNetworkOutput.Request>(requests.subList(numberOfWritten, requests.size()));
+        unanswered.clear();
+        unwritten.clear();
+        currentWrite = null;
+
+        listener.onClosed(this, written, notWritten, cause);
+    }
+
+    private void onConnected() throws IOException {
+        connecting = false;
+        lastActivityInNanos = System.nanoTime();
+        if (sslEngine != null) {
+            sslEngine.beginHandshake();
+        }
+
+        process();
+    }
+
+    /**
+     * @return True if the server closed its side of the connection.
+     */
+    private boolean read() throws IOException {
+        while (networkInput.hasRemaining()) {
+            int read = channel.read(networkInput);
+            if (read < 0) {
+                return true;
+            }
+            if (read == 0) {
+                break;
+            }
+            lastActivityInNanos = System.nanoTime();
+        }
+
+        return false;
+    }
+
+    private void process() throws IOException {
+        boolean progress = true;
+        while (progress && !closed) {
+            progress = unwrap();
+            progress |= parseResponses();
+            if (closed) {
+                return;
+            }
+            progress |= wrap();
+            progress |= flush();
+        }
+
+        if (!closed) {
+            key.interestOps(networkOutput.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Moves the bytes that were read from the network to the application input, decrypting them if needed.
+     */
+    private boolean unwrap() throws IOException {
+        if (networkInput.position() == 0) {
+            return false;
+        }
+
+        networkInput.flip();
+        try {
+            if (sslEngine == null) {
+                applicationInput = ensureRemaining(applicationInput, networkInput.remaining());
+                applicationInput.put(networkInput);
+                return true;
+            }
+
+            boolean progress = false;
+            while (networkInput.hasRemaining()) {
+                SSLEngineResult result = sslEngine.unwrap(networkInput, applicationInput);
+                runDelegatedTasks();
+                switch (result.getStatus()) {
+                    case BUFFER_OVERFLOW:
+                        applicationInput = ensureRemaining(applicationInput, sslEngine.getSession().getApplicationBufferSize());
+                        continue;
+
+                    case BUFFER_UNDERFLOW:
+                        return progress;
+
+                    case CLOSED:
+                        throw new EOFException("The server closed the secure session");
+
+                    default:
+                        break;
+                }
+
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    return progress;
+                }
+                progress = true;
+
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    return true;
+                }
+            }
+
+            return progress;
+        } finally {
+            networkInput.compact();
+        }
+    }
+
+    /**
+     * Moves the bytes of the requests to the network output, encrypting them if needed.
+     */
+    private boolean wrap() throws IOException {
+        boolean progress = false;
+        if (sslEngine == null) {
+            while (networkOutput.hasRemaining()) {
+                ByteBuffer source = getCurrentWrite();
+                if (source == null) {
+                    break;
+                }
+
+                int length = Math.min(source.remaining(), networkOutput.remaining());
+                ByteBuffer part = source.duplicate();
+                part.limit(part.position() + length);
+                onCurrentWriteStarted();
+                networkOutput.put(part);
+                writeProgress.onBuffered(length);
+                source.position(source.position() + length);
+                progress = true;
+
+                if (!source.hasRemaining()) {
+                    onCurrentWriteDone();
+                }
+            }
+
+            return progress;
+        }
+
+        while (true) {
+            SSLEngineResult.HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+            ByteBuffer source;
+            if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                source = EMPTY;
+            } else if (handshakeStatus == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING || handshakeStatus == SSLEngineResult.HandshakeStatus.FINISHED) {
+                source = getCurrentWrite();
+                if (source == null) {
+                    break;
+                }
+            } else {
+                break;
+            }
+
+            SSLEngineResult result = sslEngine.wrap(source, networkOutput);
+            runDelegatedTasks();
+            if (source != EMPTY && result.bytesConsumed() > 0) {
+                onCurrentWriteStarted();
+            }
+            writeProgress.onBuffered(result.bytesProduced());
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new EOFException("The secure session was closed");
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) {
+                // The network output is written first
+                break;
+            }
+
+            progress = true;
+            if (source != EMPTY && !source.hasRemaining()) {
+                onCurrentWriteDone();
+            }
+        }
+
+        return progress;
+    }
+
+    private boolean flush() throws IOException {
+        if (networkOutput.position() == 0) {
+            return false;
+        }
+
+        networkOutput.flip();
+        int written;
+        try {
+            written = channel.write(networkOutput);
+        } finally {
+            networkOutput.compact();
+        }
+
+        if (written > 0) {
+            writeProgress.onFlushed(written);
+            lastActivityInNanos = System.nanoTime();
+            return true;
+        }
+
+        return false;
+    }
+
+    private ByteBuffer getCurrentWrite() {
+        if (currentWrite == null && !unwritten.isEmpty()) {
+            currentWrite = ByteBuffer.wrap(unwritten.getFirst().getMessage());
+            currentWriteStarted = false;
+        }
+
+        return currentWrite;
+    }
+
+    private void onCurrentWriteStarted() {
+        if (!currentWriteStarted) {
+            currentWriteStarted = true;
+            writeProgress.onRequestStarted();
+        }
+    }
+
+    private void onCurrentWriteDone() {
+        unanswered.add(unwritten.removeFirst());
+        currentWrite = null;
+        currentWriteStarted = false;
+    }
+
+    private boolean parseResponses() throws IOException {
+        if (applicationInput.position() == 0) {
+            return false;
+        }
+
+        boolean progress = false;
+        applicationInput.flip();
+        try {
+            while (!closed && applicationInput.hasRemaining()) {
+                switch (parserState) {
+                    case HEAD:
+                        int endOfHead = indexOf(applicationInput, END_OF_HEAD);
+                        if (endOfHead < 0) {
+                            return progress;
+                        }
+                        parseHead(readString(applicationInput, endOfHead));
+                        applicationInput.position(applicationInput.position() + END_OF_HEAD.length);
+                        break;
+
+                    case BODY:
+                    case CHUNK_DATA:
+                        int length = (int) Math.min(bytesLeft, applicationInput.remaining());
+                        keepResponseBody(length);
+                        bytesLeft -= length;
+                        if (bytesLeft > 0) {
+                            return true;
+                        }
+                        if (parserState == ParserState.BODY) {
+                            onResponseCompleted();
+                        } else {
+                            parserState = ParserState.CHUNK_END;
+                        }
+                        break;
+
+                    case CHUNK_SIZE:
+                        String chunkSize = readLine();
+                        if (chunkSize == null) {
+                            return progress;
+                        }
+                        int extension = chunkSize.indexOf(';');
+                        try {
+                            bytesLeft = Long.parseLong((extension < 0 ? chunkSize : chunkSize.substring(0, extension)).trim(), 16);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Invalid chunk size in response: " + chunkSize);
+                        }
+                        parserState = bytesLeft == 0 ? ParserState.TRAILERS : ParserState.CHUNK_DATA;
+                        break;
+
+                    case CHUNK_END:
+                        if (readLine() == null) {
+                            return progress;
+                        }
+                        parserState = ParserState.CHUNK_SIZE;
+                        break;
+
+                    case TRAILERS:
+                        String trailer = readLine();
+                        if (trailer == null) {
+                            return progress;
+                        }
+                        if (trailer.length() == 0) {
+                            onResponseCompleted();
+                        }
+                        break;
+                }
+                progress = true;
+            }
+
+            return progress;
+        } finally {
+            applicationInput.compact();
+        }
+    }
+
+    private void parseHead(String head) throws IOException {
+        String[] lines = head.split("\r\n");
+        String[] statusLine = lines[0].split(" ", 3);
+        if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid response status line: " + lines[0]);
+        }
+
+        try {
+            statusCode = Integer.parseInt(statusLine[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid response status line: " + lines[0]);
+        }
+
+        closeAfterResponse = "HTTP/1.0".equals(statusLine[0]);
+        chunked = false;
+        contentLength = -1;
+        for (int i = 1; i < lines.length; ++i) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid response content length: " + value);
+                }
+            } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                chunked = value.toLowerCase().contains("chunked");
+            } else if ("Connection".equalsIgnoreCase(name)) {
+                closeAfterResponse = "close".equalsIgnoreCase(value);
+            }
+        }
+
+        if (statusCode >= 100 && statusCode < 200) {
+            // Informational, the final response follows
+            return;
+        }
+
+        responseBody.reset();
+        if (chunked) {
+            parserState = ParserState.CHUNK_SIZE;
+        } else if (contentLength > 0) {
+            bytesLeft = contentLength;
+            parserState = ParserState.BODY;
+        } else {
+            if (contentLength < 0 && statusCode != 204 && statusCode != 304) {
+                // The body ends when the connection is closed, it is not needed
+                closeAfterResponse = true;
+            }
+            onResponseCompleted();
+        }
+    }
+
+    private void onResponseCompleted() {
+        parserState = ParserState.HEAD;
+        lastActivityInNanos = System.nanoTime();
+
+        AsyncTransmissionNetworkOutput.Request request = unanswered.pollFirst();
+        if (request != null) {
+            writeProgress.onRequestAnswered();
+        } else {
+            if (unwritten.isEmpty()) {
+                InternalLogger.INSTANCE.error("Got a response with status %d that does not match any request", statusCode);
+                close(null);
+                return;
+            }
+
+            // The server responded before it got the whole request, the rest of it can't be sent on this connection
+            request = unwritten.removeFirst();
+            if (currentWriteStarted) {
+                writeProgress.onRequestAnswered();
+            }
+            currentWrite = null;
+            currentWriteStarted = false;
+            closeAfterResponse = true;
+        }
+
+        listener.onResponse(request, statusCode, new String(responseBody.toByteArray(), Charsets.UTF_8));
+        if (closeAfterResponse) {
+            close(null);
+        }
+    }
+
+    private void keepResponseBody(int length) {
+        int toKeep = Math.max(0, Math.min(length, MAX_RESPONSE_BODY_TO_KEEP - responseBody.size()));
+        if (toKeep > 0) {
+            responseBody.write(applicationInput.array(), applicationInput.arrayOffset() + applicationInput.position(), toKeep);
+        }
+        applicationInput.position(applicationInput.position() + length);
+    }
+
+    private String readLine() {
+        int endOfLine = indexOf(applicationInput, END_OF_LINE);
+        if (endOfLine < 0) {
+            return null;
+        }
+
+        String line = readString(applicationInput, endOfLine);
+        applicationInput.position(applicationInput.position() + END_OF_LINE.length);
+
+        return line;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * @return The position of the pattern, between the position and the limit of the buffer, or -1.
+     */
+    private static int indexOf(ByteBuffer buffer, byte[] pattern) {
+        int last = buffer.limit() - pattern.length;
+        for (int i = buffer.position(); i <= last; ++i) {
+            int j = 0;
+            while (j < pattern.length && buffer.get(i + j) == pattern[j]) {
+                ++j;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static String readString(ByteBuffer buffer, int end) {
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), end - buffer.position(), Charsets.ISO_8859_1);
+        buffer.position(end);
+
+        return value;
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int remaining) {
+        if (buffer.remaining() >= remaining) {
+            return buffer;
+        }
+
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + remaining));
+        buffer.flip();
+        larger.put(buffer);
+
+        return larger;
+    }
+
+    /**
+     * @return True if the SSL engine can verify that the server certificate matches the host name, which needs Java 7.
+     */
+    static boolean isHostNameVerificationAvailable() {
+        try {
+            SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The server certificate must match the host name, a secure connection is not opened without the check.
+     */
+    private static void enableHostNameVerification(SSLEngine sslEngine) throws IOException {
+        try {
+            SSLParameters parameters = sslEngine.getSSLParameters();
+            Method setEndpointIdentificationAlgorithm = SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+            setEndpointIdentificationAlgorithm.invoke(parameters, "HTTPS");
+            sslEngine.setSSLParameters(parameters);
+        } catch (Exception e) {
+            throw new SSLException("Host name verification is not available, the secure connection is refused: " + e.getMessage());
+        }
+    }
+}
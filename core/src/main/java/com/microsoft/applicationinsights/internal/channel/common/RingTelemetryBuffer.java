@@ -0,0 +1,354 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A lock free alternative to {@link TelemetryBuffer}.
+ *
+ * Application threads publish the serialized telemetries into a bounded, multi producer single consumer
+ * ring. Publishing never blocks: a producer claims a slot with a CAS on the tail, writes the item and
+ * then marks the slot as ready by advancing the slot's sequence. When the ring is full the item is dropped.
+ *
+ * A single drain thread owns the batch: it moves ready items from the ring into the current batch and
+ * hands the batch to the {@link TelemetriesTransmitter} when it reaches 'maxTelemetriesInBatch' items,
+ * or when 'transmitBufferTimeoutInSeconds' expired since the first item of the batch was drained.
+ *
+ * The drain thread parks when there is nothing to do, producers unpark it only when it is parked.
+ */
+public final class RingTelemetryBuffer implements TelemetriesBuffer {
+    public final static int DEFAULT_CAPACITY = 8192;
+
+    private final static int MAX_CAPACITY = 1 << 20;
+
+    /// How many times the drain thread yields, waiting for new items, before it parks
+    private final static int YIELDS_BEFORE_PARKING = 64;
+
+    /// How many times a producer that found the ring full yields to the drain thread before it drops the item
+    private final static int YIELDS_BEFORE_DROPPING = 16;
+
+    /// The sender we use to send Telemetry containers
+    private final TelemetriesTransmitter sender;
+
+    private final LimitsEnforcer maxTelemetriesInBatchEnforcer;
+    private final LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer;
+
+    private volatile int maxTelemetriesInBatch;
+    private volatile int transmitBufferTimeoutInSeconds;
+
+    /// The ring: slot 'i' is ready to be consumed when its sequence equals its position + 1
+    /// and is free to be claimed by a producer when its sequence equals its position
+    private final int mask;
+    private final AtomicReferenceArray<String> slots;
+    private final AtomicLongArray sequences;
+
+    /// The next position producers will claim
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /// The next position the drain thread will consume, only the drain thread writes it
+    private volatile long head = 0;
+
+    /// Set by the drain thread just before it parks
+    private final AtomicBoolean drainerParked = new AtomicBoolean(false);
+
+    private volatile boolean flushRequested = false;
+
+    private volatile boolean stopped = false;
+
+    private final Thread drainThread;
+
+    public RingTelemetryBuffer(TelemetriesTransmitter sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer) {
+        this(sender, maxTelemetriesInBatchEnforcer, transmitBufferTimeoutInSecondsEnforcer, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * The constructor needs to get the 'sender' we work with
+     * @param sender The sender object for transmitting the telemetries
+     * @param maxTelemetriesInBatchEnforcer For getting the number of maximum number of telemetries in a batch within limits
+     * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
+     * @param capacity The number of telemetries the ring can hold, rounded up to the next power of two
+     */
+    public RingTelemetryBuffer(TelemetriesTransmitter sender,
+                               LimitsEnforcer maxTelemetriesInBatchEnforcer,
+                               LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer,
+                               int capacity) {
+        Preconditions.checkNotNull(sender, "sender must be non-null value");
+        Preconditions.checkNotNull(maxTelemetriesInBatchEnforcer, "maxTelemetriesInBatchEnforcer must be non-null value");
+        Preconditions.checkNotNull(transmitBufferTimeoutInSecondsEnforcer, "transmitBufferTimeoutInSecondsEnforcer must be non-null value");
+        Preconditions.checkArgument(maxTelemetriesInBatchEnforcer.getCurrentValue() > 0, "maxTelemetriesInBatch must be a positive number");
+        Preconditions.checkArgument(transmitBufferTimeoutInSecondsEnforcer.getCurrentValue() > 0, "transmitBufferTimeoutInSeconds must be a positive number");
+        Preconditions.checkArgument(capacity > 0 && capacity <= MAX_CAPACITY, "capacity must be between 1 and %s", MAX_CAPACITY);
+
+        this.sender = sender;
+        this.maxTelemetriesInBatchEnforcer = maxTelemetriesInBatchEnforcer;
+        this.maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.getCurrentValue();
+        this.transmitBufferTimeoutInSecondsEnforcer = transmitBufferTimeoutInSecondsEnforcer;
+        this.transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSecondsEnforcer.getCurrentValue();
+
+        int actualCapacity = Integer.highestOneBit(capacity);
+        if (actualCapacity < capacity) {
+            actualCapacity <<= 1;
+        }
+        mask = actualCapacity - 1;
+        slots = new AtomicReferenceArray<String>(actualCapacity);
+        sequences = new AtomicLongArray(actualCapacity);
+        for (int i = 0; i < actualCapacity; ++i) {
+            sequences.set(i, i);
+        }
+
+        drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        });
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    @Override
+    public void setMaxTelemetriesInBatch(int value) {
+        int oldValue = maxTelemetriesInBatch;
+        maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.normalizeValue(value);
+        if (maxTelemetriesInBatch < oldValue) {
+            // Request for smaller buffers, let the drain thread re-check its batch
+            flush();
+        }
+    }
+
+    @Override
+    public int getMaxTelemetriesInBatch() {
+        return maxTelemetriesInBatch;
+    }
+
+    @Override
+    public void setTransmitBufferTimeoutInSeconds(int value) {
+        int oldValue = transmitBufferTimeoutInSeconds;
+        transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSecondsEnforcer.normalizeValue(value);
+        // Request for quicker flushes, we flush if the previous timeout is bigger
+        if (transmitBufferTimeoutInSeconds < oldValue) {
+            flush();
+        }
+    }
+
+    @Override
+    public int getTransmitBufferTimeoutInSeconds() {
+        return transmitBufferTimeoutInSeconds;
+    }
+
+    /**
+     * Publishes the telemetry into the ring without blocking.
+     *
+     * If the ring is full the producer yields a few times to let the drain thread catch up, if the ring
+     * is still full, or the buffer was stopped, the telemetry is dropped.
+     * @param telemetry The serialized telemetry to add to the buffer.
+     */
+    @Override
+    public void add(String telemetry) {
+        Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
+
+        if (stopped) {
+            return;
+        }
+
+        for (int attempt = 0; !offer(telemetry); ++attempt) {
+            if (attempt == YIELDS_BEFORE_DROPPING) {
+                InternalLogger.INSTANCE.error("Failed to add telemetry, the buffer is full");
+                return;
+            }
+
+            // Give the drain thread a chance, which matters mostly on hosts with very few cores
+            wakeUpDrainer();
+            Thread.yield();
+        }
+
+        wakeUpDrainer();
+    }
+
+    /**
+     * Asks the drain thread to hand its current batch, including everything already published,
+     * to the {@link TelemetriesTransmitter}. The method does not wait for the drain thread.
+     */
+    @Override
+    public void flush() {
+        flushRequested = true;
+        wakeUpDrainer();
+    }
+
+    /**
+     * Stops the drain thread. Telemetries that were published before the call are handed to the sender.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        stopped = true;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join(timeUnit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The number of telemetries that were published but not yet drained.
+     */
+    int size() {
+        return (int)(tail.get() - head);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    private boolean offer(String telemetry) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int)position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The slot was not consumed yet by the previous lap, the ring is full
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+
+        slots.lazySet(index, telemetry);
+        sequences.lazySet(index, position + 1);
+
+        return true;
+    }
+
+    /**
+     * Called by the drain thread only.
+     */
+    private String poll() {
+        long position = head;
+        int index = (int)position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+
+        String telemetry = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.lazySet(index, position + mask + 1);
+        head = position + 1;
+
+        return telemetry;
+    }
+
+    private void wakeUpDrainer() {
+        if (drainerParked.get() && drainerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(drainThread);
+        }
+    }
+
+    private void drainLoop() {
+        ArrayList<String> batch = new ArrayList<String>(maxTelemetriesInBatch);
+        long batchDeadline = 0;
+        int idleYields = 0;
+
+        while (true) {
+            try {
+                boolean stopping = stopped;
+
+                String telemetry;
+                while ((telemetry = poll()) != null) {
+                    idleYields = 0;
+                    if (batch.isEmpty()) {
+                        batchDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(transmitBufferTimeoutInSeconds);
+                    }
+                    batch.add(telemetry);
+                    if (batch.size() >= maxTelemetriesInBatch) {
+                        batch = sendBatch(batch, "Failed to send buffer data to network");
+                    }
+                }
+
+                if (flushRequested) {
+                    flushRequested = false;
+                    batch = sendBatch(batch, "Failed to flush buffer data to network");
+                } else if (!batch.isEmpty() && batchDeadline - System.nanoTime() <= 0) {
+                    batch = sendBatch(batch, "Failed to send buffer data to network");
+                }
+
+                if (stopping) {
+                    // Everything that was published before 'stopped' was set is already drained
+                    sendBatch(batch, "Failed to flush buffer data to network");
+                    return;
+                }
+
+                if (idleYields < YIELDS_BEFORE_PARKING) {
+                    // Under load new items arrive shortly, parking and being unparked is far more expensive
+                    ++idleYields;
+                    Thread.yield();
+                    continue;
+                }
+
+                drainerParked.set(true);
+                if (size() == 0 && !flushRequested && !stopped) {
+                    if (batch.isEmpty()) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, batchDeadline - System.nanoTime());
+                    }
+                }
+                drainerParked.set(false);
+            } catch (Throwable t) {
+                // Avoid un-expected exit of the drain thread
+                InternalLogger.INSTANCE.error("Failed to drain telemetry buffer: '%s'", t.getMessage());
+            }
+        }
+    }
+
+    private ArrayList<String> sendBatch(ArrayList<String> batch, String errorMessage) {
+        if (batch.isEmpty()) {
+            return batch;
+        }
+
+        if (!sender.sendNow(batch)) {
+            // The batch is lost, same as with the synchronized buffer
+            InternalLogger.INSTANCE.error(errorMessage);
+        }
+
+        return new ArrayList<String>(maxTelemetriesInBatch);
+    }
+}
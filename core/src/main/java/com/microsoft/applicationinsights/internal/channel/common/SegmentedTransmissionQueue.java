@@ -0,0 +1,556 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionListener;
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A persistent FIFO queue of {@link Transmission}s that is built from append only, memory mapped segment files.
+ *
+ * Every transmission is appended to the current segment as a record:
+ * <pre>
+ *   int            The length of the record, excluding this field and the crc
+ *   int            The crc32 of the record, excluding this field and the length
+ *   byte           The record format version
+ *   int            The transmission version
+ *   int            The number of sends
+ *   int            The number of persistence
+ *   short, bytes   The web content type, UTF-8
+ *   short, bytes   The web content encoding type, UTF-8
+ *   bytes          The content
+ * </pre>
+ * The length is written last, so a record that was not completely written is never read.
+ * A length of -1 marks the end of a segment whose free space was too small for the next record.
+ *
+ * Records are read in the order they were written. The read position is kept in a small memory mapped
+ * checkpoint file, so it survives restarts, and a segment is deleted once all of its records were read.
+ * The folder is listed only when the queue is opened.
+ *
+ * Transmission files that were saved by {@link TransmissionFileSystemOutput} to the parent folder
+ * are moved into the queue when it is opened.
+ */
+public final class SegmentedTransmissionQueue implements TransmissionStorage {
+    private final static String TRANSMISSION_DEFAULT_FOLDER = "transmissions";
+    private final static String QUEUE_FOLDER = "queue";
+    private final static String SEGMENT_FILE_PREFIX = "segment-";
+    private final static String SEGMENT_FILE_EXTENSION = ".seg";
+    private final static String CHECKPOINT_FILE_NAME = "checkpoint";
+    private final static String LEGACY_TRANSMISSION_FILE_EXTENSION = "trn";
+
+    private final static byte RECORD_FORMAT_VERSION = 1;
+    private final static int RECORD_PREFIX_SIZE = 8;
+    private final static int RECORD_HEADER_SIZE = 1 + 4 + 4 + 4 + 2 + 2;
+    private final static int END_OF_SEGMENT = -1;
+    private final static int CHECKPOINT_SIZE = 12;
+
+    private final static int DEFAULT_SEGMENT_SIZE_IN_BYTES = 1024 * 1024;
+
+    private final static int DEFAULT_CAPACITY_MEGABYTES = 10;
+    private final static int MAX_CAPACITY_MEGABYTES = 100;
+    private final static int MIN_CAPACITY_MEGABYTES = 1;
+    private static final String MAX_TRANSMISSION_STORAGE_CAPACITY_NAME = "Channel.MaxTransmissionStorageCapacityInMB";
+
+    private static final class Segment {
+        private final long id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private int size() {
+            return buffer.capacity();
+        }
+    }
+
+    private final File folder;
+    private final long capacityInBytes;
+    private final int segmentSizeInBytes;
+
+    // The ids of the segments on the disk, the first one is read and the last one is written
+    private final LinkedList<Long> segmentIds = new LinkedList<Long>();
+    private long sizeOfSegmentsInBytes;
+
+    private Segment readSegment;
+    private int readPosition;
+    private Segment writeSegment;
+    private int writePosition;
+
+    private final MappedByteBuffer checkpoint;
+    private final CRC32 crc = new CRC32();
+    private boolean stopped;
+
+    private volatile TransmissionListener transmissionListener;
+
+    public SegmentedTransmissionQueue(String folderPath, String maxTransmissionStorageCapacity) throws IOException {
+        this(folderPath, maxTransmissionStorageCapacity, DEFAULT_SEGMENT_SIZE_IN_BYTES);
+    }
+
+    SegmentedTransmissionQueue(String folderPath, String maxTransmissionStorageCapacity, int segmentSizeInBytes) throws IOException {
+        File legacyFolder;
+        if (folderPath == null) {
+            legacyFolder = new File(System.getProperty("java.io.tmpdir"), TRANSMISSION_DEFAULT_FOLDER);
+        } else {
+            legacyFolder = new File(folderPath);
+        }
+
+        folder = new File(legacyFolder, QUEUE_FOLDER);
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+
+        if (!folder.exists() || !folder.canRead() || !folder.canWrite()) {
+            throw new IllegalArgumentException("Folder must exist with read and write permissions");
+        }
+
+        LimitsEnforcer capacityEnforcer = LimitsEnforcer.createWithClosestLimitOnError(MIN_CAPACITY_MEGABYTES,
+                                                                                      MAX_CAPACITY_MEGABYTES,
+                                                                                      DEFAULT_CAPACITY_MEGABYTES,
+                                                                                      MAX_TRANSMISSION_STORAGE_CAPACITY_NAME,
+                                                                                      maxTransmissionStorageCapacity);
+        capacityInBytes = capacityEnforcer.getCurrentValue() * 1024L * 1024L;
+        this.segmentSizeInBytes = segmentSizeInBytes;
+
+        checkpoint = map(new File(folder, CHECKPOINT_FILE_NAME), CHECKPOINT_SIZE);
+        open();
+
+        migrateLegacyTransmissions(legacyFolder);
+    }
+
+    @Override
+    public boolean send(Transmission transmission) {
+        if (!appendIfRunning(transmission)) {
+            return false;
+        }
+
+        // Notified outside of the lock, the listener is expected to fetch right away
+        TransmissionListener listener = transmissionListener;
+        if (listener != null) {
+            listener.onTransmissionPersisted();
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized Transmission fetchOldest() {
+        try {
+            while (!stopped) {
+                if (readSegment == writeSegment && readPosition >= writePosition) {
+                    return null;
+                }
+
+                int length = readPosition + 4 <= readSegment.size() ? readSegment.buffer.getInt(readPosition) : END_OF_SEGMENT;
+                boolean endOfSegment = length == END_OF_SEGMENT || length == 0;
+                if (endOfSegment && readSegment != writeSegment) {
+                    // A length of 0 is the torn tail of a segment that was written before a crash
+                    moveToNextReadSegment();
+                    continue;
+                }
+
+                Transmission transmission = endOfSegment ? null : readRecord(length);
+                if (transmission == null) {
+                    InternalLogger.INSTANCE.error("Transmission queue segment '%s' is corrupted at %d, the rest of the segment is dropped", readSegment.file.getName(), readPosition);
+                    if (readSegment == writeSegment) {
+                        readPosition = writePosition;
+                        saveCheckpoint();
+                        return null;
+                    }
+
+                    moveToNextReadSegment();
+                    continue;
+                }
+
+                readPosition += RECORD_PREFIX_SIZE + length;
+                saveCheckpoint();
+
+                return transmission;
+            }
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to load transmission, exception: %s", e.getMessage());
+        }
+
+        return null;
+    }
+
+    @Override
+    public synchronized void stop(long timeout, TimeUnit timeUnit) {
+        if (stopped) {
+            return;
+        }
+
+        stopped = true;
+        try {
+            writeSegment.buffer.force();
+            checkpoint.force();
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to flush transmission queue, exception: %s", e.getMessage());
+        }
+
+        if (readSegment != writeSegment) {
+            unmap(readSegment.buffer);
+        }
+        unmap(writeSegment.buffer);
+        unmap(checkpoint);
+    }
+
+    @Override
+    public void setTransmissionListener(TransmissionListener listener) {
+        this.transmissionListener = listener;
+    }
+
+    synchronized long getSizeOfSegmentsInBytes() {
+        return sizeOfSegmentsInBytes;
+    }
+
+    private void open() throws IOException {
+        ArrayList<Long> ids = new ArrayList<Long>();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_EXTENSION)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_EXTENSION.length())));
+                    } catch (NumberFormatException e) {
+                        InternalLogger.INSTANCE.error("Unexpected file '%s' in transmission queue folder", name);
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        long checkpointSegmentId = checkpoint.getLong(0);
+        int checkpointPosition = checkpoint.getInt(8);
+        for (Long id : ids) {
+            File file = getSegmentFile(id);
+            if (id < checkpointSegmentId) {
+                // Was read completely but not deleted before the process ended
+                FileUtils.deleteQuietly(file);
+                continue;
+            }
+
+            segmentIds.add(id);
+            sizeOfSegmentsInBytes += file.length();
+        }
+
+        if (segmentIds.isEmpty()) {
+            writeSegment = createSegment(checkpointSegmentId + 1, segmentSizeInBytes);
+            segmentIds.add(writeSegment.id);
+            sizeOfSegmentsInBytes += writeSegment.size();
+            writePosition = 0;
+            readSegment = writeSegment;
+            readPosition = 0;
+            saveCheckpoint();
+            return;
+        }
+
+        readSegment = mapSegment(segmentIds.getFirst());
+        readPosition = 0;
+        if (readSegment.id == checkpointSegmentId && checkpointPosition > 0 && checkpointPosition <= readSegment.size()) {
+            readPosition = checkpointPosition;
+        }
+
+        writeSegment = segmentIds.size() == 1 ? readSegment : mapSegment(segmentIds.getLast());
+        writePosition = findEndOfRecords(writeSegment, writeSegment == readSegment ? readPosition : 0);
+        saveCheckpoint();
+    }
+
+    private synchronized boolean appendIfRunning(Transmission transmission) {
+        if (stopped) {
+            return false;
+        }
+
+        try {
+            return append(transmission);
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to save transmission, exception: %s", e.getMessage());
+        }
+
+        return false;
+    }
+
+    private boolean append(Transmission transmission) throws IOException {
+        byte[] contentType = transmission.getWebContentType().getBytes(Charsets.UTF_8);
+        byte[] contentEncodingType = transmission.getWebContentEncodingType().getBytes(Charsets.UTF_8);
+        byte[] content = transmission.getContent();
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + contentType.length + contentEncodingType.length);
+        header.put(RECORD_FORMAT_VERSION);
+        header.putInt(transmission.getVersion());
+        header.putInt(transmission.getNumberOfSends());
+        header.putInt(transmission.getNumberOfPersistence());
+        header.putShort((short) contentType.length);
+        header.put(contentType);
+        header.putShort((short) contentEncodingType.length);
+        header.put(contentEncodingType);
+
+        int length = header.capacity() + content.length;
+        int recordSize = RECORD_PREFIX_SIZE + length;
+        if (writePosition + recordSize > writeSegment.size() && !moveToNextWriteSegment(recordSize)) {
+            return false;
+        }
+
+        crc.reset();
+        crc.update(header.array());
+        crc.update(content);
+
+        MappedByteBuffer buffer = writeSegment.buffer;
+        buffer.position(writePosition + RECORD_PREFIX_SIZE);
+        buffer.put(header.array());
+        buffer.put(content);
+        buffer.putInt(writePosition + 4, (int) crc.getValue());
+        buffer.putInt(writePosition, length);
+
+        writePosition += recordSize;
+        if (writePosition + 4 <= writeSegment.size()) {
+            // Might hold the leftovers of a record that was not completely written before a crash
+            buffer.putInt(writePosition, 0);
+        }
+
+        return true;
+    }
+
+    private Transmission readRecord(int length) {
+        if (length < RECORD_HEADER_SIZE || readPosition + RECORD_PREFIX_SIZE + length > readSegment.size()) {
+            return null;
+        }
+
+        byte[] record = new byte[length];
+        MappedByteBuffer buffer = readSegment.buffer;
+        buffer.position(readPosition + RECORD_PREFIX_SIZE);
+        buffer.get(record);
+
+        crc.reset();
+        crc.update(record);
+        if ((int) crc.getValue() != buffer.getInt(readPosition + 4)) {
+            return null;
+        }
+
+        try {
+            ByteBuffer input = ByteBuffer.wrap(record);
+            if (input.get() != RECORD_FORMAT_VERSION) {
+                return null;
+            }
+
+            int version = input.getInt();
+            int numberOfSends = input.getInt();
+            int numberOfPersistence = input.getInt();
+            String contentType = readString(input);
+            String contentEncodingType = readString(input);
+            byte[] content = new byte[input.remaining()];
+            input.get(content);
+
+            Transmission transmission = new Transmission(content, contentType, contentEncodingType, version);
+            transmission.setNumberOfSends(numberOfSends);
+            transmission.setNumberOfPersistence(numberOfPersistence);
+
+            return transmission;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String readString(ByteBuffer input) {
+        byte[] bytes = new byte[input.getShort()];
+        input.get(bytes);
+
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Returns the position that follows the last complete record in the segment,
+     * or the size of the segment if it was sealed.
+     */
+    private int findEndOfRecords(Segment segment, int position) {
+        while (position + RECORD_PREFIX_SIZE <= segment.size()) {
+            int length = segment.buffer.getInt(position);
+            if (length == END_OF_SEGMENT) {
+                return segment.size();
+            }
+
+            if (length <= 0 || position + RECORD_PREFIX_SIZE + length > segment.size()) {
+                break;
+            }
+
+            byte[] record = new byte[length];
+            segment.buffer.position(position + RECORD_PREFIX_SIZE);
+            segment.buffer.get(record);
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != segment.buffer.getInt(position + 4)) {
+                break;
+            }
+
+            position += RECORD_PREFIX_SIZE + length;
+        }
+
+        if (position + 4 <= segment.size()) {
+            segment.buffer.putInt(position, 0);
+        }
+
+        return position;
+    }
+
+    private boolean moveToNextWriteSegment(int recordSize) throws IOException {
+        int newSegmentSize = Math.max(segmentSizeInBytes, recordSize);
+
+        // All of the records of the current segment were read, the new one replaces it
+        boolean currentSegmentIsConsumed = readSegment == writeSegment && readPosition >= writePosition;
+        long sizeAfterMove = sizeOfSegmentsInBytes + newSegmentSize - (currentSegmentIsConsumed ? writeSegment.size() : 0);
+        if (sizeAfterMove > capacityInBytes) {
+            return false;
+        }
+
+        Segment segment = createSegment(writeSegment.id + 1, newSegmentSize);
+        if (writePosition + 4 <= writeSegment.size()) {
+            writeSegment.buffer.putInt(writePosition, END_OF_SEGMENT);
+        }
+
+        segmentIds.addLast(segment.id);
+        sizeOfSegmentsInBytes += newSegmentSize;
+        Segment previous = writeSegment;
+        writeSegment = segment;
+        writePosition = 0;
+
+        if (currentSegmentIsConsumed) {
+            moveToNextReadSegment();
+        } else if (previous != readSegment) {
+            unmap(previous.buffer);
+        }
+
+        return true;
+    }
+
+    private void moveToNextReadSegment() throws IOException {
+        Segment consumed = readSegment;
+        segmentIds.removeFirst();
+
+        long nextId = segmentIds.getFirst();
+        readSegment = nextId == writeSegment.id ? writeSegment : mapSegment(nextId);
+        readPosition = 0;
+
+        // The checkpoint is moved before the segment is deleted, so it never points to a deleted segment
+        saveCheckpoint();
+
+        sizeOfSegmentsInBytes -= consumed.size();
+        unmap(consumed.buffer);
+        if (!consumed.file.delete()) {
+            InternalLogger.INSTANCE.warn("Failed to delete transmission queue segment '%s'", consumed.file.getName());
+            consumed.file.deleteOnExit();
+        }
+    }
+
+    private void saveCheckpoint() {
+        checkpoint.putLong(0, readSegment.id);
+        checkpoint.putInt(8, readPosition);
+    }
+
+    private void migrateLegacyTransmissions(File legacyFolder) {
+        try {
+            Collection<File> legacyFiles = FileUtils.listFiles(legacyFolder, new String[] {LEGACY_TRANSMISSION_FILE_EXTENSION}, false);
+            if (legacyFiles.isEmpty()) {
+                return;
+            }
+
+            InternalLogger.INSTANCE.info("Moving %d transmission files to the transmission queue", legacyFiles.size());
+            TransmissionFileSystemOutput legacyOutput = new TransmissionFileSystemOutput(legacyFolder.getPath(), String.valueOf(MAX_CAPACITY_MEGABYTES));
+            Transmission transmission;
+            while ((transmission = legacyOutput.fetchOldestFile()) != null) {
+                if (!send(transmission)) {
+                    // The queue is full, the rest stay in the files for the next time
+                    legacyOutput.send(transmission);
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to move transmission files to the transmission queue, exception: %s", e.getMessage());
+        }
+    }
+
+    private File getSegmentFile(long id) {
+        return new File(folder, String.format("%s%019d%s", SEGMENT_FILE_PREFIX, id, SEGMENT_FILE_EXTENSION));
+    }
+
+    private Segment createSegment(long id, int size) throws IOException {
+        File file = getSegmentFile(id);
+        return new Segment(id, file, map(file, size));
+    }
+
+    private Segment mapSegment(long id) throws IOException {
+        File file = getSegmentFile(id);
+        return new Segment(id, file, map(file, (int) file.length()));
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            // The mapping stays valid after the file is closed
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * The mapping is released by the garbage collector, and until then the file can not be deleted on Windows.
+     * When the JVM allows it, the mapping is released right away. The buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method cleanMethod = cleaner.getClass().getMethod("clean");
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // Left to the garbage collector
+        }
+    }
+}
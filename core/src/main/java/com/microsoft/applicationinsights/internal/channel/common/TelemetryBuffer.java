@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
@@ -45,7 +46,7 @@ import com.microsoft.applicationinsights.telemetry.Telemetry;
  *
  * Created by gupele on 12/17/2014.
  */
-public final class TelemetryBuffer {
+public final class TelemetryBuffer implements TelemetriesBuffer {
     /**
      * An inner helper class that will let the Sender class to fetch the relevant Telemetries.
      *
@@ -75,6 +76,11 @@ public final class TelemetryBuffer {
                 return readyToBeSent;
             }
         }
+
+        @Override
+        public boolean isObsolete() {
+            return expectedGeneration != generation;
+        }
     }
 
     /// The sender we use to send Telemetry containers
@@ -91,8 +97,9 @@ public final class TelemetryBuffer {
     /// The Telemetry instances are kept here
     private List<String> telemetries;
 
-    /// A way to help incoming threads make sure they are picking up the right Telemetry container
-    private long generation = 0;
+    /// A way to help incoming threads make sure they are picking up the right Telemetry container,
+    /// changed under the lock and read without it by the flush scheduler
+    private volatile long generation = 0;
 
     /// A synchronization object to avoid race conditions with the container and generation
     private final Object lock = new Object();
@@ -123,6 +130,7 @@ public final class TelemetryBuffer {
      * Sets the maximum number of telemetries in a batch
      * @param value The max amount of Telemetries that are allowed in a batch.
      */
+    @Override
     public void setMaxTelemetriesInBatch(int value) {
         synchronized (lock) {
             maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.normalizeValue(value);
@@ -137,6 +145,7 @@ public final class TelemetryBuffer {
      * Gets the maximum number of telemetries in a batch
      * @return The maximum number of telemetries in a batch
      */
+    @Override
     public int getMaxTelemetriesInBatch() {
         return this.maxTelemetriesInBatch;
     }
@@ -145,6 +154,7 @@ public final class TelemetryBuffer {
      * Sets the transmit buffer timeout in seconds
      * @param value The amount of time to wait before sending the buffer.
      */
+    @Override
     public void setTransmitBufferTimeoutInSeconds(int value) {
         synchronized (lock) {
             int oldValue = transmitBufferTimeoutInSeconds;
@@ -160,6 +170,7 @@ public final class TelemetryBuffer {
      * Gets the transmit buffer timeout in seconds
      * @return The transmit buffer timeout in seconds
      */
+    @Override
     public int getTransmitBufferTimeoutInSeconds() {
         return this.transmitBufferTimeoutInSeconds;
     }
@@ -174,6 +185,7 @@ public final class TelemetryBuffer {
      * move from a ready to send buffer to a new one
      * @param telemetry The {@link com.microsoft.applicationinsights.telemetry.Telemetry} to add to the buffer.
      */
+    @Override
     public void add(String telemetry) {
         Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
 
@@ -203,6 +215,7 @@ public final class TelemetryBuffer {
     /**
      * The method will flush the telemetries currently in the buffer to the {@link com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter}
      */
+    @Override
     public void flush() {
         synchronized (lock) {
             if (telemetries.size() != 0) {
@@ -213,6 +226,14 @@ public final class TelemetryBuffer {
         }
     }
 
+    /**
+     * The buffer does not own any thread, the telemetries it has are flushed so they are not lost.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        flush();
+    }
+
     /**
      * The method assumes that the lock is held before calling it.
      *
@@ -44,7 +44,8 @@ import java.util.Comparator;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
-import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.TransmissionListener;
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
@@ -66,7 +67,7 @@ import com.google.common.collect.Lists;
  *
  * Created by gupele on 12/18/2014.
  */
-public final class TransmissionFileSystemOutput implements TransmissionOutput {
+public final class TransmissionFileSystemOutput implements TransmissionStorage {
     private final static String TRANSMISSION_FILE_PREFIX = "Transmission";
     private final static String TRANSMISSION_DEFAULT_FOLDER = "transmissions";
     private final static String TEMP_FILE_EXTENSION = ".tmp";
@@ -98,6 +99,9 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
     private final ArrayList<File> cacheOfOldestFiles = new ArrayList<File>();
     private final HashSet<String> filesThatAreBeingLoaded = new HashSet<String>();
 
+    /// Notified after each transmission that was saved
+    private volatile TransmissionListener transmissionListener;
+
     public TransmissionFileSystemOutput(String folderPath, String maxTransmissionStorageCapacity) {
         if (folderPath == null) {
             folderPath = new File(System.getProperty("java.io.tmpdir"), TRANSMISSION_DEFAULT_FOLDER).getPath();
@@ -151,6 +155,11 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
             return false;
         }
 
+        TransmissionListener listener = transmissionListener;
+        if (listener != null) {
+            listener.onTransmissionPersisted();
+        }
+
         return true;
     }
 
@@ -158,6 +167,16 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
     public void stop(long timeout, TimeUnit timeUnit) {
     }
 
+    @Override
+    public Transmission fetchOldest() {
+        return fetchOldestFile();
+    }
+
+    @Override
+    public void setTransmissionListener(TransmissionListener listener) {
+        this.transmissionListener = listener;
+    }
+
     public Transmission fetchOldestFile() {
         try {
             Optional<File> oldestFile = fetchOldestFromCache();
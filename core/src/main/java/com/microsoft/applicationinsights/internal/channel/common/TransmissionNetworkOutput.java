@@ -30,8 +30,11 @@ import java.net.UnknownHostException;
 import java.util.concurrent.TimeUnit;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionListener;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.ShutdownStatistics;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -61,6 +64,11 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
     // For future use: re-send a failed transmission back to the dispatcher
     private TransmissionDispatcher transmissionDispatcher;
 
+    // Notified after each transmission, lets the transmissions loader follow the pace of the server
+    private volatile TransmissionListener transmissionListener;
+
+    private volatile ChannelMetrics channelMetrics = ChannelMetrics.NONE;
+
     private final String serverUri;
 
     private volatile boolean stopped;
@@ -92,6 +100,16 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
         this.transmissionDispatcher = transmissionDispatcher;
     }
 
+    public void setTransmissionListener(TransmissionListener transmissionListener) {
+        this.transmissionListener = transmissionListener;
+    }
+
+    public void setChannelMetrics(ChannelMetrics channelMetrics) {
+        Preconditions.checkNotNull(channelMetrics, "channelMetrics should be non-null value");
+
+        this.channelMetrics = channelMetrics;
+    }
+
     /**
      * Stops all threads from sending data.
      * @param timeout The timeout to wait, which is not relevant here.
@@ -118,17 +136,21 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
     @Override
     public boolean send(Transmission transmission) {
         while (!stopped) {
+            long startTimeInNanos = System.nanoTime();
             TransmissionSendResult result = doSend(transmission);
+            channelMetrics.recordLatency(ChannelMetrics.Latency.SEND, startTimeInNanos);
             switch (result) {
                 case THROTTLED:
                     boolean backOffDone = s_senderThreadsManager.backOffCurrentSenderThread();
                     if (!backOffDone) {
+                        notifySent(false);
                         return true;
                     }
                     break;
 
                 default:
                    s_senderThreadsManager.onDoneSending();
+                   notifySent(result == TransmissionSendResult.SENT_SUCCESSFULLY);
                    return true;
             }
         }
@@ -136,6 +158,20 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
         return true;
     }
 
+    private void notifySent(boolean succeeded) {
+        if (succeeded) {
+            channelMetrics.increment(ChannelMetrics.Counter.TRANSMISSIONS_SENT);
+            ShutdownStatistics.INSTANCE.onTransmissionSent();
+        } else {
+            channelMetrics.onDropped(ChannelMetrics.DropReason.SEND_FAILED);
+        }
+
+        TransmissionListener listener = transmissionListener;
+        if (listener != null) {
+            listener.onTransmissionSent(succeeded);
+        }
+    }
+
     private TransmissionSendResult doSend(Transmission transmission) {
         HttpResponse response = null;
         HttpPost request = null;
@@ -177,50 +213,35 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
     }
 
     private TransmissionSendResult translateResponse(int code, HttpEntity respEntity) {
-        if (code >= 200 && code < 300) {
-            return TransmissionSendResult.SENT_SUCCESSFULLY;
+        TransmissionSendResult result = TransmissionSendResult.fromResponseCode(code);
+        if (result == TransmissionSendResult.SENT_SUCCESSFULLY) {
+            return result;
         }
 
-        TransmissionSendResult result;
-
-        String errorMessage;
-        if (code < HttpStatus.SC_OK ||
-            (code >= HttpStatus.SC_MULTIPLE_CHOICES && code < HttpStatus.SC_BAD_REQUEST) ||
-                code > HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+        logError(getErrorMessage(code, result), respEntity);
+        return result;
+    }
 
-            errorMessage = String.format("Unexpected response code: %d", code);
-            result = TransmissionSendResult.REJECTED_BY_SERVER;
-        } else {
-            switch (code) {
-                case HttpStatus.SC_BAD_REQUEST:
-                    errorMessage = "Bad request ";
-                    result = TransmissionSendResult.BAD_REQUEST;
-                    break;
+    static String getErrorMessage(int code, TransmissionSendResult result) {
+        switch (result) {
+            case BAD_REQUEST:
+                return "Bad request ";
 
-                case 429:
-                    result = TransmissionSendResult.THROTTLED;
-                    errorMessage = "Throttling (All messages of the transmission were rejected) ";
-                    break;
+            case THROTTLED:
+                return "Throttling (All messages of the transmission were rejected) ";
 
-                case HttpStatus.SC_PARTIAL_CONTENT:
-                    result = TransmissionSendResult.PARTIALLY_THROTTLED;
-                    errorMessage = "Throttling (Partial messages of the transmission were rejected) ";
-                    break;
+            case PARTIALLY_THROTTLED:
+                return "Throttling (Partial messages of the transmission were rejected) ";
 
-                case HttpStatus.SC_INTERNAL_SERVER_ERROR:
-                    errorMessage = "Internal server error ";
-                    result = TransmissionSendResult.INTERNAL_SERVER_ERROR;
-                    break;
+            case INTERNAL_SERVER_ERROR:
+                return "Internal server error ";
 
-                default:
-                    result = TransmissionSendResult.REJECTED_BY_SERVER;
-                    errorMessage = String.format("Error, response code: %d", code);
-                    break;
-            }
+            default:
+                if (code < HttpStatus.SC_OK || code >= HttpStatus.SC_MULTIPLE_CHOICES && code < HttpStatus.SC_BAD_REQUEST || code > HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                    return String.format("Unexpected response code: %d", code);
+                }
+                return String.format("Error, response code: %d", code);
         }
-
-        logError(errorMessage, respEntity);
-        return result;
     }
 
     private void logError(String baseErrorMessage, HttpEntity respEntity) {
@@ -21,6 +21,8 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import org.apache.http.HttpStatus;
+
 /**
  * Created by gupele on 2/10/2015.
  */
@@ -41,5 +43,32 @@ enum TransmissionSendResult {
     PARTIALLY_THROTTLED,
 
     REJECTED_BY_SERVER,
-    UNKNOWN_ERROR,
+    UNKNOWN_ERROR;
+
+    private final static int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Classifies the response code the server returned for a transmission.
+     * @param code The HTTP response code.
+     * @return The result of the transmission.
+     */
+    public static TransmissionSendResult fromResponseCode(int code) {
+        if (code >= HttpStatus.SC_OK && code < HttpStatus.SC_MULTIPLE_CHOICES) {
+            return SENT_SUCCESSFULLY;
+        }
+
+        switch (code) {
+            case HttpStatus.SC_BAD_REQUEST:
+                return BAD_REQUEST;
+
+            case TOO_MANY_REQUESTS:
+                return THROTTLED;
+
+            case HttpStatus.SC_INTERNAL_SERVER_ERROR:
+                return INTERNAL_SERVER_ERROR;
+
+            default:
+                return REJECTED_BY_SERVER;
+        }
+    }
 }
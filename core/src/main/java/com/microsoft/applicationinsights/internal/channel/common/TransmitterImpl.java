@@ -21,17 +21,23 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
-import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -43,7 +49,13 @@ import com.google.common.base.Preconditions;
  * Telemetry instances buffered in a collection are sent through this class.
  *
  * The class makes sure that the container of telemetries is sent using internal threads
- * and not the 'application' threads
+ * and not the 'application' threads. The number of threads and of pending requests is set
+ * by a {@link PipelineStageConfiguration}, when there are too many pending requests the new
+ * one is dropped, or, with the {@link PipelineStageConfiguration.RejectionPolicy#BLOCK} policy,
+ * the application thread waits for room up to the block timeout.
+ *
+ * Scheduled sends wait in the shared {@link FlushScheduler} and take the room of a pending request
+ * only when their timeout expires, a scheduled send whose telemetries were already sent is skipped.
  *
  * Created by gupele on 12/18/2014.
  */
@@ -53,12 +65,15 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
 
         protected final TelemetrySerializer serializer;
 
-        protected SendHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer) {
+        protected final ChannelMetrics channelMetrics;
+
+        protected SendHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, ChannelMetrics channelMetrics) {
             Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher should be a non-null value");
             Preconditions.checkNotNull(serializer, "serializer should be a non-null value");
 
             this.transmissionDispatcher = transmissionDispatcher;
             this.serializer = serializer;
+            this.channelMetrics = channelMetrics;
         }
 
         protected void dispatch(Collection<String> telemetries) {
@@ -66,10 +81,14 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
                 return;
             }
 
+            long startTimeInNanos = System.nanoTime();
             Optional<Transmission> transmission = serializer.serialize(telemetries);
             if (!transmission.isPresent()) {
+                channelMetrics.onDropped(ChannelMetrics.DropReason.SERIALIZATION_FAILED);
                 return;
             }
+            channelMetrics.recordLatency(ChannelMetrics.Latency.GZIP, startTimeInNanos);
+            channelMetrics.increment(ChannelMetrics.Counter.TRANSMISSIONS_CREATED);
 
             transmissionDispatcher.dispatch(transmission.get());
         }
@@ -78,8 +97,8 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
     private static final class ScheduledSendHandler extends SendHandler implements Runnable {
         private final TelemetriesFetcher telemetriesFetcher;
 
-        public ScheduledSendHandler(TransmissionDispatcher transmissionDispatcher, TelemetriesFetcher telemetriesFetcher, TelemetrySerializer serializer) {
-            super(transmissionDispatcher,  serializer);
+        public ScheduledSendHandler(TransmissionDispatcher transmissionDispatcher, TelemetriesFetcher telemetriesFetcher, TelemetrySerializer serializer, ChannelMetrics channelMetrics) {
+            super(transmissionDispatcher, serializer, channelMetrics);
 
             Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be a non-null value");
 
@@ -96,8 +115,8 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
     private static final class SendNowHandler extends SendHandler implements Runnable {
         private final Collection<String> telemetries;
 
-        public SendNowHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, Collection<String> telemetries) {
-            super(transmissionDispatcher,  serializer);
+        public SendNowHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, ChannelMetrics channelMetrics, Collection<String> telemetries) {
+            super(transmissionDispatcher, serializer, channelMetrics);
 
             Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
 
@@ -110,33 +129,132 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
         }
     }
 
-    private final static int MAX_PENDING_SCHEDULE_REQUESTS = 16384;
+    /**
+     * Waits in the flush scheduler and hands the fetcher to the channel's threads when the timeout expires.
+     */
+    private final class ScheduledSend implements Runnable {
+        private final TelemetriesFetcher telemetriesFetcher;
+
+        private volatile FlushScheduler.Timeout timeout;
+
+        private ScheduledSend(TelemetriesFetcher telemetriesFetcher) {
+            this.telemetriesFetcher = telemetriesFetcher;
+        }
+
+        private void schedule(long value, TimeUnit timeUnit) {
+            scheduledSends.add(this);
+            timeout = FlushScheduler.INSTANCE.schedule(this, value, timeUnit);
+        }
+
+        private void cancel() {
+            FlushScheduler.Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        // Runs on the thread of the flush scheduler
+        @Override
+        public void run() {
+            if (!scheduledSends.remove(this)) {
+                // The transmitter was stopped and already sent it
+                return;
+            }
+
+            if (telemetriesFetcher.isObsolete()) {
+                return;
+            }
+
+            if (!semaphore.tryAcquire()) {
+                // The channel's threads are busy, the telemetries are picked up a bit later
+                if (!threadPool.isShutdown()) {
+                    schedule(BUSY_RETRY_DELAY_IN_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+
+            execute(new ScheduledSendHandler(transmissionDispatcher, telemetriesFetcher, serializer, channelMetrics));
+        }
+    }
+
+    private static final class SendTransmissionHandler implements Runnable {
+        private final TransmissionDispatcher transmissionDispatcher;
+
+        private final Transmission transmission;
+
+        public SendTransmissionHandler(TransmissionDispatcher transmissionDispatcher, Transmission transmission) {
+            Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher should be a non-null value");
+            Preconditions.checkNotNull(transmission, "transmission should be non-null value");
+
+            this.transmissionDispatcher = transmissionDispatcher;
+            this.transmission = transmission;
+        }
+
+        @Override
+        public void run() {
+            transmissionDispatcher.dispatch(transmission);
+        }
+    }
+
+    public final static PipelineStageConfiguration DEFAULT_CONFIGURATION =
+            new PipelineStageConfiguration("Transmitter", 2, 2, 16384, PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST, 500);
+
+    private final static long BUSY_RETRY_DELAY_IN_MILLIS = 100L;
+
+    private final PipelineStageConfiguration configuration;
 
     private final TransmissionDispatcher transmissionDispatcher;
 
     private final TelemetrySerializer serializer;
 
-    private final ScheduledThreadPoolExecutor threadPool;
+    private final ThreadPoolExecutor threadPool;
+
+    private final Set<ScheduledSend> scheduledSends = Collections.newSetFromMap(new ConcurrentHashMap<ScheduledSend, Boolean>());
 
     private final TransmissionsLoader transmissionsLoader;
 
     private final Semaphore semaphore;
 
+    private volatile ChannelMetrics channelMetrics = ChannelMetrics.NONE;
+
     public TransmitterImpl(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, TransmissionsLoader transmissionsLoader) {
+        this(transmissionDispatcher, serializer, transmissionsLoader, DEFAULT_CONFIGURATION);
+    }
+
+    /**
+     * @param configuration The threads and the maximal number of pending requests, the transmitter
+     *                      supports the {@link PipelineStageConfiguration.RejectionPolicy#DROP_NEWEST}
+     *                      and {@link PipelineStageConfiguration.RejectionPolicy#BLOCK} policies only.
+     */
+    public TransmitterImpl(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, TransmissionsLoader transmissionsLoader, PipelineStageConfiguration configuration) {
         Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher must be non-null value");
         Preconditions.checkNotNull(serializer, "serializer must be non-null value");
         Preconditions.checkNotNull(transmissionsLoader, "transmissionsLoader must be non-null value");
+        Preconditions.checkNotNull(configuration, "configuration must be non-null value");
+        Preconditions.checkArgument(
+                configuration.getRejectionPolicy() == PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST ||
+                configuration.getRejectionPolicy() == PipelineStageConfiguration.RejectionPolicy.BLOCK,
+                "The transmitter supports the DropNewest and Block rejection policies only");
 
         this.transmissionDispatcher = transmissionDispatcher;
         this.serializer = serializer;
-
-        semaphore = new Semaphore(MAX_PENDING_SCHEDULE_REQUESTS);
-
-        threadPool = new ScheduledThreadPoolExecutor(2);
+        this.configuration = configuration;
+
+        semaphore = new Semaphore(configuration.getQueueCapacity());
+
+        // The number of pending requests is bounded by the semaphore
+        threadPool = new ThreadPoolExecutor(
+                configuration.getMaxThreads(),
+                configuration.getMaxThreads(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        final String threadNamePrefix = "ApplicationInsights-" + configuration.getStageName() + "-";
+        final AtomicInteger threadCounter = new AtomicInteger(0);
         threadPool.setThreadFactory(new ThreadFactory() {
             @Override
             public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
+                Thread thread = new Thread(r, threadNamePrefix + threadCounter.incrementAndGet());
                 thread.setDaemon(true);
                 return thread;
             }
@@ -146,36 +264,42 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
         this.transmissionsLoader.load(false);
     }
 
+    /**
+     * Sets the metrics the transmitter records into, and adds the number of batches that wait to be sent as a queue.
+     */
+    public void setChannelMetrics(ChannelMetrics channelMetrics) {
+        Preconditions.checkNotNull(channelMetrics, "channelMetrics should be non-null value");
+
+        this.channelMetrics = channelMetrics;
+        channelMetrics.addQueue("TransmitterPendingRequests", new ChannelMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return configuration.getQueueCapacity() - semaphore.availablePermits();
+            }
+        });
+        channelMetrics.addPool("TransmitterPool", new ChannelMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return threadPool.getPoolSize();
+            }
+        });
+        channelMetrics.addQueue("TransmitterScheduledSends", new ChannelMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return scheduledSends.size();
+            }
+        });
+    }
+
     @Override
     public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
         Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be non-null value");
 
-        if (!semaphore.tryAcquire()) {
+        if (threadPool.isShutdown()) {
             return false;
         }
 
-        try {
-            final Runnable command = new ScheduledSendHandler(transmissionDispatcher, telemetriesFetcher, serializer);
-            threadPool.schedule(new Runnable() {
-                public void run() {
-                    try {
-                        semaphore.release();
-                        command.run();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } catch (Throwable t) {
-                    } finally {
-                    }
-                }
-            }, value, timeUnit);
-
-            return true;
-        } catch (Exception e) {
-            semaphore.release();
-        } catch (Throwable t) {
-            semaphore.release();
-        }
-
+        new ScheduledSend(telemetriesFetcher).schedule(value, timeUnit);
         return true;
     }
 
@@ -183,11 +307,94 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
     public boolean sendNow(Collection<String> telemetries) {
         Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
 
-        if (!semaphore.tryAcquire()) {
+        if (!acquire()) {
             return false;
         }
 
-        final Runnable command = new SendNowHandler(transmissionDispatcher, serializer, telemetries);
+        final Runnable command = new SendNowHandler(transmissionDispatcher, serializer, channelMetrics, telemetries);
+        return execute(command);
+    }
+
+    @Override
+    public boolean sendNow(Transmission transmission) {
+        Preconditions.checkNotNull(transmission, "transmission should be non-null value");
+
+        if (!acquire()) {
+            return false;
+        }
+
+        // The transmission was compressed by the buffer
+        if (!execute(new SendTransmissionHandler(transmissionDispatcher, transmission))) {
+            return false;
+        }
+
+        channelMetrics.increment(ChannelMetrics.Counter.TRANSMISSIONS_CREATED);
+        return true;
+    }
+
+    /**
+     * Stops within the timeout. The telemetries that were handed to the transmitter and not dispatched yet,
+     * including the ones of scheduled sends that did not expire, are dispatched by the calling thread,
+     * so the outputs can send or persist them while they are stopped.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        long deadlineInNanos = System.nanoTime() + timeUnit.toNanos(timeout);
+
+        transmissionsLoader.stop(timeout, timeUnit);
+
+        threadPool.shutdown();
+        try {
+            if (!threadPool.awaitTermination(remainingNanos(deadlineInNanos), TimeUnit.NANOSECONDS)) {
+                for (Runnable notStarted : threadPool.shutdownNow()) {
+                    notStarted.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            threadPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        for (ScheduledSend scheduledSend : new ArrayList<ScheduledSend>(scheduledSends)) {
+            if (scheduledSends.remove(scheduledSend)) {
+                scheduledSend.cancel();
+                new ScheduledSendHandler(transmissionDispatcher, scheduledSend.telemetriesFetcher, serializer, channelMetrics).run();
+            }
+        }
+
+        transmissionDispatcher.stop(remainingNanos(deadlineInNanos), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Acquires the room of a pending request, counts the request as dropped if there is no room.
+     */
+    private boolean acquire() {
+        if (semaphore.tryAcquire()) {
+            return true;
+        }
+
+        if (configuration.getRejectionPolicy() == PipelineStageConfiguration.RejectionPolicy.BLOCK) {
+            try {
+                if (semaphore.tryAcquire(configuration.getBlockTimeoutInMillis(), TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        channelMetrics.onDropped(ChannelMetrics.DropReason.TRANSMITTER_BUSY);
+        return false;
+    }
+
+    private static long remainingNanos(long deadlineInNanos) {
+        return Math.max(0, deadlineInNanos - System.nanoTime());
+    }
+
+    /**
+     * Runs the command on the channel's threads, the caller must have acquired the semaphore before.
+     */
+    private boolean execute(final Runnable command) {
         try {
             threadPool.execute(new Runnable() {
                 public void run() {
@@ -210,11 +417,4 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
 
         return false;
     }
-
-    @Override
-    public void stop(long timeout, TimeUnit timeUnit) {
-        transmissionsLoader.stop(timeout, timeUnit);
-        ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
-        transmissionDispatcher.stop(timeout, timeUnit);
-    }
 }
@@ -0,0 +1,168 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A {@link Writer} that encodes the characters it gets as UTF-8 straight into a growing byte array.
+ *
+ * The class lets the channel serialize a telemetry to bytes without creating a String first,
+ * the same instance is meant to be reused, call {@link #reset()} before writing the next item.
+ * Unpaired surrogates are replaced by '?', the same way {@link String#getBytes(String)} does.
+ *
+ * The class is not thread safe.
+ */
+final class Utf8ByteArrayWriter extends Writer {
+    private final static byte REPLACEMENT_BYTE = (byte)'?';
+
+    private byte[] buffer;
+    private int size;
+
+    // A high surrogate that waits for its low surrogate from the next write
+    private char pendingHighSurrogate;
+
+    Utf8ByteArrayWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(int c) {
+        ensureCapacity(4);
+        encode((char)c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        ensureCapacity(length * 3 + 1);
+        for (int i = offset; i < offset + length; ++i) {
+            encode(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) {
+        ensureCapacity(length * 3 + 1);
+        for (int i = offset; i < offset + length; ++i) {
+            encode(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void write(String str) {
+        write(str, 0, str.length());
+    }
+
+    /**
+     * Nothing to flush, the bytes are always in the buffer.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * The writer is reused so closing it only completes a dangling surrogate.
+     */
+    @Override
+    public void close() {
+        completePendingSurrogate();
+    }
+
+    /**
+     * Gets the internal buffer, only the first {@link #size()} bytes are valid.
+     * @return The internal buffer.
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void reset() {
+        size = 0;
+        pendingHighSurrogate = 0;
+    }
+
+    /**
+     * Drops the internal buffer if it grew above the limit, so a single huge item
+     * will not keep its memory for the lifetime of the thread that owns the writer.
+     * @param maxCapacity The maximum capacity to keep.
+     * @param initialCapacity The capacity to start with instead.
+     */
+    void trimTo(int maxCapacity, int initialCapacity) {
+        reset();
+        if (buffer.length > maxCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+    }
+
+    private void encode(char c) {
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                buffer[size++] = (byte)(0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte)(0x80 | (codePoint & 0x3F));
+                return;
+            }
+
+            buffer[size++] = REPLACEMENT_BYTE;
+        }
+
+        if (c < 0x80) {
+            buffer[size++] = (byte)c;
+        } else if (c < 0x800) {
+            buffer[size++] = (byte)(0xC0 | (c >> 6));
+            buffer[size++] = (byte)(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[size++] = REPLACEMENT_BYTE;
+        } else {
+            buffer[size++] = (byte)(0xE0 | (c >> 12));
+            buffer[size++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            buffer[size++] = (byte)(0x80 | (c & 0x3F));
+        }
+    }
+
+    private void completePendingSurrogate() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            ensureCapacity(1);
+            buffer[size++] = REPLACEMENT_BYTE;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        // A pending high surrogate may be written as a replacement byte on top of the requested bytes
+        int required = size + extra + 1;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length << 1));
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The metrics a telemetry channel keeps about itself: how many telemetries and transmissions went through
+ * each stage, how many transmissions were dropped and why, how deep its queues are and how long its stages take.
+ *
+ * The components of the channel record into it from their own threads, counters and latencies are recorded
+ * without locks so it can be used on the paths that application threads take. The metrics are exposed
+ * through JMX, see {@link #registerMBean(String)}, and can be sent as telemetry, see {@link ChannelMetricsPerformanceCounter}.
+ *
+ * Drops are counted per transmission, a batch of telemetries, except for {@link DropReason#SERIALIZATION_FAILED}
+ * that is counted per telemetry.
+ */
+public final class ChannelMetrics implements ChannelMetricsMXBean {
+    private final static String JMX_DOMAIN = "com.microsoft.applicationinsights";
+
+    /**
+     * The metrics of components that are not part of a channel, nothing is recorded.
+     */
+    public final static ChannelMetrics NONE = new ChannelMetrics(false);
+
+    public enum Counter {
+        TELEMETRIES_ENQUEUED("TelemetriesEnqueued"),
+        TRANSMISSIONS_CREATED("TransmissionsCreated"),
+        TRANSMISSIONS_SENT("TransmissionsSent"),
+        TRANSMISSIONS_PERSISTED("TransmissionsPersisted"),
+        TRANSMISSIONS_RELOADED("TransmissionsReloaded"),
+
+        // The transmission is handed to the next output, so these are not drops
+        NETWORK_OUTPUT_REJECTED("NetworkOutputRejected"),
+        FILE_SYSTEM_OUTPUT_REJECTED("FileSystemOutputRejected");
+
+        private final String displayName;
+
+        Counter(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    public enum DropReason {
+        SERIALIZATION_FAILED("SerializationFailed"),
+
+        // The transmitter has too many batches that wait to be sent
+        TRANSMITTER_BUSY("TransmitterBusy"),
+
+        // The queue of an output was full and its rejection policy drops
+        QUEUE_FULL("QueueFull"),
+
+        // Neither the network output nor the file system output accepted the transmission
+        OUTPUTS_FULL("OutputsFull"),
+
+        // The storage is full or could not be written
+        STORAGE_REFUSED("StorageRefused"),
+
+        // The server did not accept the transmission and it is not sent again
+        SEND_FAILED("SendFailed");
+
+        private final String displayName;
+
+        DropReason(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    public enum Latency {
+        SERIALIZE("Serialize"),
+        ENQUEUE("Enqueue"),
+        GZIP("Gzip"),
+
+        // From the transmission being handed to the network until the response
+        SEND("Send"),
+        PERSIST("Persist"),
+        RELOAD("Reload");
+
+        private final String displayName;
+
+        Latency(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * The current depth of a queue or size of a pool, called when the metrics are read.
+     */
+    public interface Gauge {
+        long getValue();
+    }
+
+    private final boolean recording;
+    private final AtomicLongArray counters;
+    private final AtomicLongArray drops;
+    private final LatencyHistogram[] latencies;
+    private final ConcurrentHashMap<String, Gauge> queues = new ConcurrentHashMap<String, Gauge>();
+    private final ConcurrentHashMap<String, Gauge> pools = new ConcurrentHashMap<String, Gauge>();
+
+    private ObjectName objectName;
+
+    public ChannelMetrics() {
+        this(true);
+    }
+
+    private ChannelMetrics(boolean recording) {
+        this.recording = recording;
+        counters = new AtomicLongArray(recording ? Counter.values().length : 0);
+        drops = new AtomicLongArray(recording ? DropReason.values().length : 0);
+        latencies = new LatencyHistogram[recording ? Latency.values().length : 0];
+        for (int i = 0; i < latencies.length; ++i) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    public void increment(Counter counter) {
+        add(counter, 1);
+    }
+
+    public void add(Counter counter, long value) {
+        if (recording) {
+            counters.addAndGet(counter.ordinal(), value);
+        }
+    }
+
+    public void onDropped(DropReason reason) {
+        if (recording) {
+            drops.incrementAndGet(reason.ordinal());
+        }
+    }
+
+    /**
+     * Records the time since the stage started.
+     * @param latency The stage.
+     * @param startTimeInNanos The start of the stage, in terms of System.nanoTime().
+     */
+    public void recordLatency(Latency latency, long startTimeInNanos) {
+        if (recording) {
+            latencies[latency.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTimeInNanos));
+        }
+    }
+
+    /**
+     * Adds a queue whose depth is reported, a queue that was added with the same name is replaced.
+     */
+    public void addQueue(String name, Gauge gauge) {
+        Preconditions.checkNotNull(name, "name should be non-null value");
+        Preconditions.checkNotNull(gauge, "gauge should be non-null value");
+
+        if (recording) {
+            queues.put(name, gauge);
+        }
+    }
+
+    /**
+     * Adds a thread pool whose size is reported, a pool that was added with the same name is replaced.
+     */
+    public void addPool(String name, Gauge gauge) {
+        Preconditions.checkNotNull(name, "name should be non-null value");
+        Preconditions.checkNotNull(gauge, "gauge should be non-null value");
+
+        if (recording) {
+            pools.put(name, gauge);
+        }
+    }
+
+    public long getCount(Counter counter) {
+        return recording ? counters.get(counter.ordinal()) : 0;
+    }
+
+    public long getDropCount(DropReason reason) {
+        return recording ? drops.get(reason.ordinal()) : 0;
+    }
+
+    public LatencyHistogram.Snapshot getLatency(Latency latency) {
+        return recording ? latencies[latency.ordinal()].snapshot() : new LatencyHistogram().snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        TreeMap<String, Long> result = new TreeMap<String, Long>();
+        for (Counter counter : Counter.values()) {
+            result.put(counter.getDisplayName(), getCount(counter));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getDroppedTransmissions() {
+        TreeMap<String, Long> result = new TreeMap<String, Long>();
+        for (DropReason reason : DropReason.values()) {
+            result.put(reason.getDisplayName(), getDropCount(reason));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getQueueDepths() {
+        return read(queues);
+    }
+
+    @Override
+    public Map<String, Long> getPoolSizes() {
+        return read(pools);
+    }
+
+    @Override
+    public Map<String, Long> getLatenciesInMicros() {
+        TreeMap<String, Long> result = new TreeMap<String, Long>();
+        for (Latency latency : Latency.values()) {
+            LatencyHistogram.Snapshot snapshot = getLatency(latency);
+            String prefix = latency.getDisplayName() + ".";
+            result.put(prefix + "Count", snapshot.getCount());
+            result.put(prefix + "Mean", Math.round(snapshot.getMean()));
+            result.put(prefix + "P50", snapshot.getValueAtPercentile(50.0));
+            result.put(prefix + "P90", snapshot.getValueAtPercentile(90.0));
+            result.put(prefix + "P99", snapshot.getValueAtPercentile(99.0));
+            result.put(prefix + "Max", snapshot.getMax());
+        }
+
+        return result;
+    }
+
+    private static Map<String, Long> read(Map<String, Gauge> gauges) {
+        TreeMap<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            try {
+                result.put(entry.getKey(), entry.getValue().getValue());
+            } catch (Throwable t) {
+                InternalLogger.INSTANCE.error("Failed to read '%s': '%s'", entry.getKey(), t.getMessage());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, under the 'com.microsoft.applicationinsights' domain.
+     * Failures are logged, the channel works without JMX.
+     * @param channelName The name that tells the channel apart from the other channels in the process.
+     * @return True if the metrics were registered.
+     */
+    public synchronized boolean registerMBean(String channelName) {
+        if (!recording || objectName != null) {
+            return false;
+        }
+
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=TelemetryChannel,name=" + ObjectName.quote(channelName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+            return true;
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to register the metrics of channel '%s' in JMX: '%s'", channelName, t.getMessage());
+        }
+
+        return false;
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to unregister the metrics '%s' from JMX: '%s'", objectName, t.getMessage());
+        } finally {
+            objectName = null;
+        }
+    }
+}
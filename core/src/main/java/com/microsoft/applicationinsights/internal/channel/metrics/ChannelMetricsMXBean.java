@@ -0,0 +1,47 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the {@link ChannelMetrics} of a telemetry channel.
+ *
+ * Counts are since the channel was created, latencies are in microseconds.
+ */
+public interface ChannelMetricsMXBean {
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getDroppedTransmissions();
+
+    Map<String, Long> getQueueDepths();
+
+    /**
+     * @return The number of threads in every pool.
+     */
+    Map<String, Long> getPoolSizes();
+
+    /**
+     * @return The count, mean, 50th, 90th and 99th percentiles and max of every latency, keyed by 'Latency.Statistic'.
+     */
+    Map<String, Long> getLatenciesInMicros();
+}
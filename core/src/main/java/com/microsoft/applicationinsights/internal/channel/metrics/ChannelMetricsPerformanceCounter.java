@@ -0,0 +1,129 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.metrics;
+
+import java.util.Map;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * Sends the {@link ChannelMetrics} of a channel as {@link MetricTelemetry} every time the
+ * {@link com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounterContainer} collects.
+ *
+ * Counters and drops are sent as the change since the previous collection, and only when they changed.
+ * Latencies are sent as the mean, count and max of the values recorded since the previous collection,
+ * with the 99th percentile as a metric of its own. Queue depths and pool sizes are sent as they are.
+ *
+ * The metrics are sent by the client of the performance counters, which uses the active configuration and its channel.
+ * A channel that is not the channel of the active configuration does not send its own metrics, and the metrics
+ * are counted by the active channel. The 'Channel' property tells which channel they describe.
+ */
+public final class ChannelMetricsPerformanceCounter implements PerformanceCounter {
+    private final static String ID_PREFIX = "ChannelMetrics-";
+    private final static String METRIC_PREFIX = "AI Channel ";
+    private final static String CHANNEL_PROPERTY_NAME = "Channel";
+
+    private final String channelName;
+    private final ChannelMetrics channelMetrics;
+
+    private final long[] previousCounts = new long[ChannelMetrics.Counter.values().length];
+    private final long[] previousDrops = new long[ChannelMetrics.DropReason.values().length];
+    private final LatencyHistogram.Snapshot[] previousLatencies = new LatencyHistogram.Snapshot[ChannelMetrics.Latency.values().length];
+
+    public ChannelMetricsPerformanceCounter(String channelName, ChannelMetrics channelMetrics) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(channelName), "channelName should be non null, non empty value");
+        Preconditions.checkNotNull(channelMetrics, "channelMetrics should be non-null value");
+
+        this.channelName = channelName;
+        this.channelMetrics = channelMetrics;
+        for (ChannelMetrics.Latency latency : ChannelMetrics.Latency.values()) {
+            previousLatencies[latency.ordinal()] = channelMetrics.getLatency(latency);
+        }
+    }
+
+    @Override
+    public String getId() {
+        return ID_PREFIX + channelName;
+    }
+
+    @Override
+    public synchronized void report(TelemetryClient telemetryClient) {
+        for (ChannelMetrics.Counter counter : ChannelMetrics.Counter.values()) {
+            long current = channelMetrics.getCount(counter);
+            long change = current - previousCounts[counter.ordinal()];
+            previousCounts[counter.ordinal()] = current;
+            if (change != 0) {
+                send(telemetryClient, createMetric(counter.getDisplayName(), change));
+            }
+        }
+
+        for (ChannelMetrics.DropReason reason : ChannelMetrics.DropReason.values()) {
+            long current = channelMetrics.getDropCount(reason);
+            long change = current - previousDrops[reason.ordinal()];
+            previousDrops[reason.ordinal()] = current;
+            if (change != 0) {
+                send(telemetryClient, createMetric("Dropped " + reason.getDisplayName(), change));
+            }
+        }
+
+        for (Map.Entry<String, Long> queueDepth : channelMetrics.getQueueDepths().entrySet()) {
+            send(telemetryClient, createMetric(queueDepth.getKey() + " Depth", queueDepth.getValue()));
+        }
+
+        for (Map.Entry<String, Long> poolSize : channelMetrics.getPoolSizes().entrySet()) {
+            send(telemetryClient, createMetric(poolSize.getKey() + " Threads", poolSize.getValue()));
+        }
+
+        for (ChannelMetrics.Latency latency : ChannelMetrics.Latency.values()) {
+            LatencyHistogram.Snapshot current = channelMetrics.getLatency(latency);
+            LatencyHistogram.Snapshot recorded = current.since(previousLatencies[latency.ordinal()]);
+            previousLatencies[latency.ordinal()] = current;
+            if (recorded.getCount() == 0) {
+                continue;
+            }
+
+            String name = latency.getDisplayName() + " Latency (us)";
+            MetricTelemetry mean = createMetric(name, recorded.getMean());
+            mean.setCount((int) Math.min(Integer.MAX_VALUE, recorded.getCount()));
+            mean.setMax((double) recorded.getMax());
+            send(telemetryClient, mean);
+            send(telemetryClient, createMetric(latency.getDisplayName() + " Latency P99 (us)", recorded.getValueAtPercentile(99.0)));
+        }
+    }
+
+    private MetricTelemetry createMetric(String name, double value) {
+        MetricTelemetry telemetry = new MetricTelemetry(METRIC_PREFIX + name, value);
+        telemetry.getProperties().put(CHANNEL_PROPERTY_NAME, channelName);
+        return telemetry;
+    }
+
+    private static void send(TelemetryClient telemetryClient, MetricTelemetry telemetry) {
+        InternalLogger.INSTANCE.trace("Channel metric: %s, %s", telemetry.getName(), telemetry.getValue());
+        telemetryClient.track(telemetry);
+    }
+}
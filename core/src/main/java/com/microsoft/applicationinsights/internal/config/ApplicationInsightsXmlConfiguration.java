@@ -35,6 +35,7 @@ public class ApplicationInsightsXmlConfiguration {
     private boolean disableTelemetry = false;
 
     private TelemetryInitializersXmlElement telemetryInitializers;
+    private TelemetryProcessorsXmlElement telemetryProcessors;
     private ContextInitializersXmlElement contextInitializers;
     private ChannelXmlElement channel = new ChannelXmlElement();
     private TelemetryModulesXmlElement modules;
@@ -70,6 +71,15 @@ public class ApplicationInsightsXmlConfiguration {
         this.telemetryInitializers = telemetryInitializers;
     }
 
+    public TelemetryProcessorsXmlElement getTelemetryProcessors() {
+        return telemetryProcessors;
+    }
+
+    @XmlElement(name="TelemetryProcessors")
+    public void setTelemetryProcessors(TelemetryProcessorsXmlElement telemetryProcessors) {
+        this.telemetryProcessors = telemetryProcessors;
+    }
+
     public ContextInitializersXmlElement getContextInitializers() {
         return contextInitializers;
     }
@@ -25,7 +25,9 @@ import com.google.common.base.Strings;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -40,6 +42,12 @@ public class ChannelXmlElement {
     private String flushIntervalInSeconds;
     private boolean developerMode;
     private String maxTransmissionStorageFilesCapacityInMB;
+    private String telemetryBufferType;
+    private String transmissionStorageType;
+    private String networkOutputType;
+    private String compressionLevel;
+    private boolean reportChannelMetrics;
+    private ArrayList<PipelineStageXmlElement> pipelineStages;
     private String type = "com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel";
 
     public String getType() {
@@ -96,6 +104,61 @@ public class ChannelXmlElement {
         this.maxTransmissionStorageFilesCapacityInMB = maxTransmissionStorageFilesCapacityInMB;
     }
 
+    public String getTelemetryBufferType() {
+        return telemetryBufferType;
+    }
+
+    @XmlElement(name="TelemetryBufferType")
+    public void setTelemetryBufferType(String telemetryBufferType) {
+        this.telemetryBufferType = telemetryBufferType;
+    }
+
+    public String getTransmissionStorageType() {
+        return transmissionStorageType;
+    }
+
+    @XmlElement(name="TransmissionStorageType")
+    public void setTransmissionStorageType(String transmissionStorageType) {
+        this.transmissionStorageType = transmissionStorageType;
+    }
+
+    public String getNetworkOutputType() {
+        return networkOutputType;
+    }
+
+    @XmlElement(name="NetworkOutputType")
+    public void setNetworkOutputType(String networkOutputType) {
+        this.networkOutputType = networkOutputType;
+    }
+
+    public String getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    @XmlElement(name="CompressionLevel")
+    public void setCompressionLevel(String compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public boolean getReportChannelMetrics() {
+        return reportChannelMetrics;
+    }
+
+    @XmlElement(name="ReportChannelMetrics")
+    public void setReportChannelMetrics(boolean reportChannelMetrics) {
+        this.reportChannelMetrics = reportChannelMetrics;
+    }
+
+    public ArrayList<PipelineStageXmlElement> getPipelineStages() {
+        return pipelineStages;
+    }
+
+    @XmlElementWrapper(name="PipelineStages")
+    @XmlElement(name="Add")
+    public void setPipelineStages(ArrayList<PipelineStageXmlElement> pipelineStages) {
+        this.pipelineStages = pipelineStages;
+    }
+
     public Map<String, String> getData() {
         HashMap<String, String> data = new HashMap<String, String>();
         if (developerMode) {
@@ -118,6 +181,46 @@ public class ChannelXmlElement {
             data.put("MaxTransmissionStorageFilesCapacityInMB", maxTransmissionStorageFilesCapacityInMB);
         }
 
+        if (!Strings.isNullOrEmpty(telemetryBufferType)) {
+            data.put("TelemetryBufferType", telemetryBufferType);
+        }
+
+        if (!Strings.isNullOrEmpty(transmissionStorageType)) {
+            data.put("TransmissionStorageType", transmissionStorageType);
+        }
+
+        if (!Strings.isNullOrEmpty(networkOutputType)) {
+            data.put("NetworkOutputType", networkOutputType);
+        }
+
+        if (!Strings.isNullOrEmpty(compressionLevel)) {
+            data.put("CompressionLevel", compressionLevel);
+        }
+
+        if (reportChannelMetrics) {
+            data.put("ReportChannelMetrics", "true");
+        }
+
+        if (pipelineStages != null) {
+            for (PipelineStageXmlElement stage : pipelineStages) {
+                if (Strings.isNullOrEmpty(stage.getName())) {
+                    continue;
+                }
+
+                putStageValue(data, stage.getName(), "MinThreads", stage.getMinThreads());
+                putStageValue(data, stage.getName(), "MaxThreads", stage.getMaxThreads());
+                putStageValue(data, stage.getName(), "QueueCapacity", stage.getQueueCapacity());
+                putStageValue(data, stage.getName(), "RejectionPolicy", stage.getRejectionPolicy());
+                putStageValue(data, stage.getName(), "BlockTimeoutInMillis", stage.getBlockTimeoutInMillis());
+            }
+        }
+
         return data;
     }
+
+    private static void putStageValue(Map<String, String> data, String stageName, String name, String value) {
+        if (!Strings.isNullOrEmpty(value)) {
+            data.put(stageName.trim() + "." + name, value);
+        }
+    }
 }
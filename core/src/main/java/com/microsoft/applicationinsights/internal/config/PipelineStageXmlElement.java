@@ -0,0 +1,92 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.config;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The threads and the queue of one stage of the channel's transmission pipeline.
+ * The stage is one of 'Transmitter', 'NetworkOutput' and 'FileSystemOutput'.
+ */
+@XmlRootElement(name="Add")
+public class PipelineStageXmlElement {
+    private String name;
+    private String minThreads;
+    private String maxThreads;
+    private String queueCapacity;
+    private String rejectionPolicy;
+    private String blockTimeoutInMillis;
+
+    public String getName() {
+        return name;
+    }
+
+    @XmlAttribute
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getMinThreads() {
+        return minThreads;
+    }
+
+    @XmlAttribute
+    public void setMinThreads(String minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    public String getMaxThreads() {
+        return maxThreads;
+    }
+
+    @XmlAttribute
+    public void setMaxThreads(String maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public String getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @XmlAttribute
+    public void setQueueCapacity(String queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public String getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    @XmlAttribute
+    public void setRejectionPolicy(String rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    public String getBlockTimeoutInMillis() {
+        return blockTimeoutInMillis;
+    }
+
+    @XmlAttribute
+    public void setBlockTimeoutInMillis(String blockTimeoutInMillis) {
+        this.blockTimeoutInMillis = blockTimeoutInMillis;
+    }
+}
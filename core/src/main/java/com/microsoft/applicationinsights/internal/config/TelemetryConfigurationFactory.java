@@ -32,6 +32,7 @@ import java.util.HashMap;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.extensibility.ContextInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel;
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.extensibility.TelemetryModule;
@@ -76,6 +77,7 @@ public enum TelemetryConfigurationFactory {
      * Set Tracking Disabled Mode (default false)
      * Set Context Initializers where they should be written with full package name
      * Set Telemetry Initializers where they should be written with full package name
+     * Set Telemetry Processors where they should be written with full package name
      * @param configuration The configuration that will be populated
      */
     public final void initialize(TelemetryConfiguration configuration) {
@@ -103,6 +105,7 @@ public enum TelemetryConfigurationFactory {
 
             setContextInitializers(applicationInsightsConfig.getContextInitializers(), configuration);
             setTelemetryInitializers(applicationInsightsConfig.getTelemetryInitializers(), configuration);
+            setTelemetryProcessors(applicationInsightsConfig.getTelemetryProcessors(), configuration);
             setTelemetryModules(applicationInsightsConfig, configuration);
 
             initializeComponents(configuration);
@@ -138,6 +141,21 @@ public enum TelemetryConfigurationFactory {
         loadComponents(TelemetryInitializer.class, initializerList, telemetryInitializers.getAdds());
     }
 
+    /**
+     * Sets the configuration data of Telemetry Processors in configuration class.
+     * The processors are kept in the order they are written in the configuration file.
+     * @param telemetryProcessors The configuration data.
+     * @param configuration The configuration class.
+     */
+    private void setTelemetryProcessors(TelemetryProcessorsXmlElement telemetryProcessors, TelemetryConfiguration configuration) {
+        if (telemetryProcessors == null) {
+            return;
+        }
+
+        List<TelemetryProcessor> processorList = configuration.getTelemetryProcessors();
+        loadComponents(TelemetryProcessor.class, processorList, telemetryProcessors.getAdds());
+    }
+
     /**
      * Sets the configuration data of Context Initializers in configuration class.
      * @param contextInitializers The configuration data.
@@ -21,11 +21,10 @@
 
 package com.microsoft.applicationinsights.internal.logger;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Map;
 
 import com.google.common.base.Strings;
+import com.microsoft.applicationinsights.internal.util.TimestampFormatter;
 
 /**
  * A first, very simple version of an internal logger
@@ -41,7 +40,6 @@ public enum InternalLogger {
     INSTANCE;
 
     private final static String LOGGER_LEVEL = "Level";
-    private final static SimpleDateFormat dateFormatter = new SimpleDateFormat("dd-MM-yyyy HH:mm");
 
     public enum LoggingLevel {
         ALL(Integer.MIN_VALUE),
@@ -221,10 +219,7 @@ public enum InternalLogger {
      * @return The formatted message with all the needed data.
      */
     private static String createMessage(String prefix, String message, Object... args) {
-        String currentDateAsString;
-        synchronized (INSTANCE) {
-            currentDateAsString = dateFormatter.format(new Date());
-        }
+        String currentDateAsString = TimestampFormatter.getDefault().format(System.currentTimeMillis());
         String formattedMessage = String.format(message, args);
         String theMessage = String.format("%s %s, %d: %s", prefix, currentDateAsString, Thread.currentThread().getId(), formattedMessage);
         return theMessage;
@@ -0,0 +1,103 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+/**
+ * An immutable aggregate of metric values: count, mean, min, max and the sum of squared differences
+ * from the mean, which gives the standard deviation.
+ *
+ * The mean and the squared differences are updated with Welford's method, and two aggregates
+ * are merged with the parallel version of it, so the result does not lose precision like
+ * a sum of squares would.
+ */
+final class MetricAggregate {
+    private final long count;
+    private final double mean;
+    private final double squaredDifferences;
+    private final double min;
+    private final double max;
+
+    private MetricAggregate(long count, double mean, double squaredDifferences, double min, double max) {
+        this.count = count;
+        this.mean = mean;
+        this.squaredDifferences = squaredDifferences;
+        this.min = min;
+        this.max = max;
+    }
+
+    static MetricAggregate of(double value) {
+        return new MetricAggregate(1, value, 0.0, value, value);
+    }
+
+    MetricAggregate add(double value) {
+        long newCount = count + 1;
+        double delta = value - mean;
+        double newMean = mean + delta / newCount;
+
+        return new MetricAggregate(
+                newCount,
+                newMean,
+                squaredDifferences + delta * (value - newMean),
+                Math.min(min, value),
+                Math.max(max, value));
+    }
+
+    MetricAggregate merge(MetricAggregate other) {
+        if (other == null) {
+            return this;
+        }
+
+        long newCount = count + other.count;
+        double delta = other.mean - mean;
+
+        return new MetricAggregate(
+                newCount,
+                mean + delta * other.count / newCount,
+                squaredDifferences + other.squaredDifferences + delta * delta * count * other.count / newCount,
+                Math.min(min, other.min),
+                Math.max(max, other.max));
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMean() {
+        return mean;
+    }
+
+    double getMin() {
+        return min;
+    }
+
+    double getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the population standard deviation of the values.
+     * @return The standard deviation.
+     */
+    double getStandardDeviation() {
+        return Math.sqrt(squaredDifferences / count);
+    }
+}
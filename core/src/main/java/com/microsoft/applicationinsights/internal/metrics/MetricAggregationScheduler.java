@@ -0,0 +1,126 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * The thread that flushes all the {@link MetricAggregator} instances.
+ *
+ * The thread is created with the first aggregated metric and is stopped when the application exits,
+ * the pending flushes are not waited for, instead every live aggregator is flushed by the stopping thread.
+ */
+enum MetricAggregationScheduler implements Stoppable {
+    INSTANCE;
+
+    private volatile boolean initialized = false;
+    private boolean stopped = false;
+
+    private ScheduledThreadPoolExecutor threads;
+
+    // The aggregators are weak keys, an aggregator that is not used anymore is not kept alive
+    private final Set<MetricAggregator> aggregators = Collections.newSetFromMap(new MapMaker().weakKeys().<MetricAggregator, Boolean>makeMap());
+
+    /**
+     * Registers the aggregator so it is flushed when the scheduler is stopped.
+     */
+    void register(MetricAggregator aggregator) {
+        aggregators.add(aggregator);
+    }
+
+    /**
+     * Schedules the task to run once after the delay, nothing is done after the scheduler is stopped.
+     * @param task The task to run.
+     * @param delayInMillis The delay in milliseconds.
+     */
+    void schedule(Runnable task, long delayInMillis) {
+        initialize();
+
+        try {
+            threads.schedule(task, delayInMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            InternalLogger.INSTANCE.trace("Metric aggregation is stopped, flush is not scheduled");
+        }
+    }
+
+    @Override
+    public synchronized void stop(long timeout, TimeUnit timeUnit) {
+        stopped = true;
+        if (!initialized) {
+            return;
+        }
+
+        // Nothing runs after the shutdown, the pending flushes are done here
+        threads.shutdown();
+        flushAggregators();
+
+        ThreadPoolUtils.stop(threads, timeout, timeUnit);
+    }
+
+    void flushAggregators() {
+        for (MetricAggregator aggregator : aggregators) {
+            try {
+                aggregator.flush();
+            } catch (Throwable t) {
+                InternalLogger.INSTANCE.error("Failed to flush aggregated metrics: '%s'", t.getMessage());
+            }
+        }
+    }
+
+    private void initialize() {
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    threads = new ScheduledThreadPoolExecutor(1);
+                    threads.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+                    threads.setThreadFactory(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "MetricAggregationScheduler");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    if (stopped) {
+                        threads.shutdown();
+                    } else {
+                        SDKShutdownActivity.INSTANCE.register(this);
+                    }
+
+                    initialized = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.MapUtil;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * Aggregates metric values locally and sends one {@link MetricTelemetry} per series per interval.
+ *
+ * A series is a metric name with a set of dimensions. The telemetry of a series holds the count,
+ * average, min, max and standard deviation of the values that were tracked during the interval,
+ * the dimensions are sent as its properties.
+ *
+ * Series that got no values for a whole interval are removed. The aggregator stops flushing when
+ * it has no series and starts again with the next value.
+ *
+ * The number of series is limited, values of new series are dropped once the limit is reached.
+ */
+public final class MetricAggregator {
+    private final static long DEFAULT_FLUSH_INTERVAL_IN_MILLIS = 60000;
+    final static int MAX_NUMBER_OF_SERIES = 10000;
+
+    private final TelemetryClient telemetryClient;
+    private final long flushIntervalInMillis;
+
+    private final ConcurrentMap<MetricSeriesKey, MetricSeries> series = new ConcurrentHashMap<MetricSeriesKey, MetricSeries>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean seriesLimitReported = new AtomicBoolean(false);
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (Throwable t) {
+                InternalLogger.INSTANCE.error("Failed to flush aggregated metrics: '%s'", t.getMessage());
+            }
+
+            if (series.isEmpty()) {
+                flushScheduled.set(false);
+
+                // A value might have been tracked after the check, it must not be left without a flush
+                if (series.isEmpty() || !flushScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+
+            MetricAggregationScheduler.INSTANCE.schedule(this, flushIntervalInMillis);
+        }
+    };
+
+    public MetricAggregator(TelemetryClient telemetryClient) {
+        this(telemetryClient, DEFAULT_FLUSH_INTERVAL_IN_MILLIS);
+    }
+
+    MetricAggregator(TelemetryClient telemetryClient, long flushIntervalInMillis) {
+        Preconditions.checkNotNull(telemetryClient, "telemetryClient must be a non-null value");
+        Preconditions.checkArgument(flushIntervalInMillis > 0, "flushIntervalInMillis must be a positive number");
+
+        this.telemetryClient = telemetryClient;
+        this.flushIntervalInMillis = flushIntervalInMillis;
+
+        MetricAggregationScheduler.INSTANCE.register(this);
+    }
+
+    /**
+     * Adds the value to the series of the name and the dimensions.
+     * @param name The name of the metric.
+     * @param value The value.
+     * @param dimensions The dimensions of the series, can be null.
+     */
+    public void track(String name, double value, Map<String, String> dimensions) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "name must be a non empty string");
+
+        MetricSeriesKey key = new MetricSeriesKey(name, dimensions);
+        for (;;) {
+            MetricSeries current = series.get(key);
+            if (current == null) {
+                current = createSeries(key);
+                if (current == null) {
+                    return;
+                }
+            }
+
+            if (current.track(value)) {
+                break;
+            }
+
+            // The series was just retired, a new one will be created
+            series.remove(key, current);
+        }
+
+        if (!flushScheduled.get() && flushScheduled.compareAndSet(false, true)) {
+            MetricAggregationScheduler.INSTANCE.schedule(flushTask, flushIntervalInMillis);
+        }
+    }
+
+    /**
+     * Sends the aggregates of all the series that got values since the previous flush.
+     */
+    public synchronized void flush() {
+        for (Iterator<MetricSeries> iterator = series.values().iterator(); iterator.hasNext();) {
+            MetricSeries current = iterator.next();
+            MetricAggregate aggregate = current.drain();
+            if (aggregate == null) {
+                // Values that were added since the drain are sent now, later ones go to a new series
+                iterator.remove();
+                send(current.getKey(), current.retire());
+            } else {
+                send(current.getKey(), aggregate);
+            }
+        }
+    }
+
+    int getNumberOfSeries() {
+        return series.size();
+    }
+
+    private MetricSeries createSeries(MetricSeriesKey key) {
+        if (series.size() >= MAX_NUMBER_OF_SERIES) {
+            if (seriesLimitReported.compareAndSet(false, true)) {
+                InternalLogger.INSTANCE.error("Aggregated metrics reached the limit of %d series, values of new series are dropped", MAX_NUMBER_OF_SERIES);
+            }
+            return null;
+        }
+
+        Map<String, String> dimensions = key.getDimensions().isEmpty() ? key.getDimensions() : new HashMap<String, String>(key.getDimensions());
+        MetricSeries created = new MetricSeries(new MetricSeriesKey(key.getName(), dimensions));
+        MetricSeries previous = series.putIfAbsent(created.getKey(), created);
+
+        return previous == null ? created : previous;
+    }
+
+    private void send(MetricSeriesKey key, MetricAggregate aggregate) {
+        if (aggregate == null) {
+            return;
+        }
+
+        MetricTelemetry telemetry = new MetricTelemetry(key.getName(), aggregate.getMean());
+        telemetry.setCount((int)Math.min(aggregate.getCount(), Integer.MAX_VALUE));
+        if (aggregate.getCount() > 1) {
+            telemetry.setMin(aggregate.getMin());
+            telemetry.setMax(aggregate.getMax());
+            telemetry.setStandardDeviation(aggregate.getStandardDeviation());
+        }
+
+        if (!key.getDimensions().isEmpty()) {
+            MapUtil.copy(key.getDimensions(), telemetry.getContext().getProperties());
+        }
+
+        telemetryClient.trackMetric(telemetry);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Accumulates the values of one metric series between two flushes.
+ *
+ * The values are spread on stripes by the calling thread, so threads that track the same series
+ * usually update different stripes. Every stripe holds an immutable {@link MetricAggregate} that is
+ * replaced by compare and set, draining takes each stripe as a whole, so a value is never split between
+ * two intervals.
+ *
+ * A retired series marks all its stripes, a value is either added before the mark and returned by
+ * {@link #retire()}, or it sees the mark and the caller adds it to a new series.
+ */
+final class MetricSeries {
+    private final static int MAX_STRIPES = 64;
+    private final static int STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    private final MetricSeriesKey key;
+    // Marks the stripes of a retired series
+    private final static MetricAggregate RETIRED = MetricAggregate.of(0.0);
+
+    private final AtomicReferenceArray<MetricAggregate> stripes = new AtomicReferenceArray<MetricAggregate>(STRIPES);
+
+    MetricSeries(MetricSeriesKey key) {
+        this.key = key;
+    }
+
+    MetricSeriesKey getKey() {
+        return key;
+    }
+
+    /**
+     * Adds the value to the series.
+     * @param value The value to add.
+     * @return False if the series is retired, the caller should add the value to a new series.
+     */
+    boolean track(double value) {
+        int index = (int)Thread.currentThread().getId() & (STRIPES - 1);
+        for (;;) {
+            MetricAggregate current = stripes.get(index);
+            if (current == RETIRED) {
+                return false;
+            }
+
+            MetricAggregate updated = current == null ? MetricAggregate.of(value) : current.add(value);
+            if (stripes.compareAndSet(index, current, updated)) {
+                return true;
+            }
+
+            // Another thread uses the stripe, try the next one
+            index = (index + 1) & (STRIPES - 1);
+        }
+    }
+
+    /**
+     * Takes all the values that were added since the previous drain.
+     * The series must not be retired.
+     * @return The aggregate of the values, or null if there are none.
+     */
+    MetricAggregate drain() {
+        return takeAll(null);
+    }
+
+    /**
+     * Stops the series from getting new values.
+     * @return The aggregate of the values that were added since the previous drain, or null if there are none.
+     */
+    MetricAggregate retire() {
+        return takeAll(RETIRED);
+    }
+
+    private MetricAggregate takeAll(MetricAggregate replacement) {
+        MetricAggregate result = null;
+        for (int i = 0; i < STRIPES; ++i) {
+            MetricAggregate stripe = stripes.getAndSet(i, replacement);
+            if (stripe != null && stripe != RETIRED) {
+                result = stripe.merge(result);
+            }
+        }
+
+        return result;
+    }
+
+    static int stripesFor(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+
+        return stripes;
+    }
+}
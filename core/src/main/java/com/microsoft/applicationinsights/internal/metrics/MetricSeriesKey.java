@@ -0,0 +1,69 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Identifies a metric series by the metric name and its dimensions.
+ *
+ * Lookups wrap the caller's map as is, the series keeps its own copy.
+ */
+final class MetricSeriesKey {
+    private final String name;
+    private final Map<String, String> dimensions;
+    private final int hashCode;
+
+    MetricSeriesKey(String name, Map<String, String> dimensions) {
+        this.name = name;
+        this.dimensions = dimensions == null ? Collections.<String, String>emptyMap() : dimensions;
+        this.hashCode = 31 * name.hashCode() + this.dimensions.hashCode();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Map<String, String> getDimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof MetricSeriesKey)) {
+            return false;
+        }
+
+        MetricSeriesKey that = (MetricSeriesKey)other;
+        return hashCode == that.hashCode && name.equals(that.name) && dimensions.equals(that.dimensions);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.sampling;
+
+import java.util.Random;
+
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+import com.google.common.base.Strings;
+
+/**
+ * Generates the score, a number in the range [0, 100), that sampling compares with its current percentage.
+ *
+ * The score of a telemetry is derived from the hash of its operation id, so all the telemetries
+ * of the same operation, i.e. a request and its dependencies and exceptions, are either kept or dropped together.
+ * Telemetries without an operation id get a random score.
+ */
+public final class SamplingScoreGenerator {
+    private final static int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private final static int FNV_PRIME = 0x01000193;
+    private final static double MAX_SCORE = 100.0;
+
+    private final static ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private SamplingScoreGenerator() {
+    }
+
+    public static double getSamplingScore(Telemetry telemetry) {
+        String operationId = telemetry.getContext().getOperation().getId();
+        if (Strings.isNullOrEmpty(operationId)) {
+            return random.get().nextDouble() * MAX_SCORE;
+        }
+
+        return getSamplingScore(operationId);
+    }
+
+    public static double getSamplingScore(String value) {
+        // FNV-1a followed by a final mix, operation ids that differ only by a few chars are spread evenly
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); ++i) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+
+        return (hash & Integer.MAX_VALUE) / ((double)Integer.MAX_VALUE + 1) * MAX_SCORE;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.sampling;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.PageViewTelemetry;
+import com.microsoft.applicationinsights.telemetry.PerformanceCounterTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SessionStateTelemetry;
+import com.microsoft.applicationinsights.telemetry.SupportSampling;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+
+import com.google.common.base.Strings;
+
+/**
+ * Decides which telemetries are subject to sampling.
+ *
+ * Types are given by their names, 'Request', 'Dependency', 'Event', 'Trace', 'Exception' and 'PageView',
+ * separated by ';'. When included types are set only those types are sampled, excluded types are never sampled.
+ * Metrics, performance counters and session states are never sampled since they are already aggregated.
+ */
+public final class SamplingTypeFilter {
+    private final static String TYPES_SEPARATOR = ";";
+
+    private final static Map<String, Class<? extends Telemetry>> typesByName = new HashMap<String, Class<? extends Telemetry>>();
+    static {
+        typesByName.put("request", RequestTelemetry.class);
+        typesByName.put("dependency", RemoteDependencyTelemetry.class);
+        typesByName.put("event", EventTelemetry.class);
+        typesByName.put("trace", TraceTelemetry.class);
+        typesByName.put("exception", ExceptionTelemetry.class);
+        typesByName.put("pageview", PageViewTelemetry.class);
+    }
+
+    private final static Class<?>[] neverSampledTypes = {
+            MetricTelemetry.class,
+            PerformanceCounterTelemetry.class,
+            SessionStateTelemetry.class
+    };
+
+    private volatile Set<Class<? extends Telemetry>> includedTypes = Collections.emptySet();
+    private volatile Set<Class<? extends Telemetry>> excludedTypes = Collections.emptySet();
+
+    public void setIncludedTypes(String types) {
+        includedTypes = parseTypes(types);
+    }
+
+    public void setExcludedTypes(String types) {
+        excludedTypes = parseTypes(types);
+    }
+
+    public boolean isSampled(Telemetry telemetry) {
+        if (!(telemetry instanceof SupportSampling)) {
+            return false;
+        }
+
+        for (Class<?> type : neverSampledTypes) {
+            if (type.isInstance(telemetry)) {
+                return false;
+            }
+        }
+
+        if (isInstanceOfAny(telemetry, excludedTypes)) {
+            return false;
+        }
+
+        return includedTypes.isEmpty() || isInstanceOfAny(telemetry, includedTypes);
+    }
+
+    private static boolean isInstanceOfAny(Telemetry telemetry, Set<Class<? extends Telemetry>> types) {
+        for (Class<? extends Telemetry> type : types) {
+            if (type.isInstance(telemetry)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static Set<Class<? extends Telemetry>> parseTypes(String types) {
+        if (Strings.isNullOrEmpty(types)) {
+            return Collections.emptySet();
+        }
+
+        HashSet<Class<? extends Telemetry>> result = new HashSet<Class<? extends Telemetry>>();
+        for (String typeName : types.split(TYPES_SEPARATOR)) {
+            typeName = typeName.trim();
+            if (typeName.length() == 0) {
+                continue;
+            }
+
+            Class<? extends Telemetry> type = typesByName.get(typeName.toLowerCase());
+            if (type == null) {
+                InternalLogger.INSTANCE.error("Unknown sampling telemetry type '%s', will be ignored", typeName);
+                continue;
+            }
+
+            result.add(type);
+        }
+
+        return Collections.unmodifiableSet(result);
+    }
+}
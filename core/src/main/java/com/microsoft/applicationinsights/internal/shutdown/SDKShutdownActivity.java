@@ -22,11 +22,18 @@
 package com.microsoft.applicationinsights.internal.shutdown;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
-import com.microsoft.applicationinsights.internal.util.ChannelFetcher;
+
+import com.google.common.collect.MapMaker;
 
 /**
  * The class is responsible for all shutdown activities done in the SDK.
@@ -36,46 +43,96 @@ import com.microsoft.applicationinsights.internal.util.ChannelFetcher;
 public enum SDKShutdownActivity {
     INSTANCE;
 
+    // The time the whole shutdown may take
+    private final static long SHUTDOWN_TIMEOUT_IN_MILLIS = 5000;
+
+    // The most the stoppables may take, the rest of the shutdown is kept for the channels
+    private final static long STOPPABLES_TIMEOUT_IN_MILLIS = 2000;
+
+    // Left to the channels, after their own timeout, for persisting what they could not send
+    private final static long PERSIST_TIMEOUT_IN_MILLIS = 1000;
+
     /**
      * An helper class that does the cleanup
      *
      * The following are a MUST and should be kept under any future change:
      * 1. The class should not throw an exception
      * 2. The class 'run' method should exit as soon as possible
+     *
+     * The stoppables are stopped first, so whatever they send on their way out still reaches the channels,
+     * then all the channels are stopped in parallel. The stoppables get at most {@link #STOPPABLES_TIMEOUT_IN_MILLIS},
+     * the channels get the rest of {@link #SHUTDOWN_TIMEOUT_IN_MILLIS}.
      */
-    private static class SDKShutdownThread extends Thread {
-        private boolean stopped = false;
+    static class SDKShutdownThread extends Thread {
+        private final AtomicBoolean stopped = new AtomicBoolean(false);
 
-        private final ArrayList<ChannelFetcher> fetchers = new ArrayList<ChannelFetcher>();
-        private final ArrayList<Stoppable> stoppables = new ArrayList<Stoppable>();
+        // Weak keys that are compared by identity, so every channel is kept once and only while it is in use
+        private final ConcurrentMap<TelemetryChannel, Boolean> channels = new MapMaker().weakKeys().makeMap();
+        private final ConcurrentLinkedQueue<Stoppable> stoppables = new ConcurrentLinkedQueue<Stoppable>();
 
-        public synchronized void register(ChannelFetcher fetcher) {
-            fetchers.add(fetcher);
+        public void register(TelemetryChannel channel) {
+            channels.put(channel, Boolean.TRUE);
         }
 
-        public synchronized void register(Stoppable stoppable) {
+        public void register(Stoppable stoppable) {
             stoppables.add(stoppable);
         }
 
         public SDKShutdownThread() {
         }
 
+        Set<TelemetryChannel> getChannels() {
+            return channels.keySet();
+        }
+
+        Collection<Stoppable> getStoppables() {
+            return stoppables;
+        }
+
         @Override
-        public synchronized void run() {
-            if (stopped) {
+        public void run() {
+            if (!stopped.compareAndSet(false, true)) {
                 // For making sure the JVM exists ASAP.
                 return;
             }
 
             try {
-                stopChannels();
-                stopStoppables();
+                stopAll();
+            } catch (Throwable t) {
             } finally {
                 // As the last step, the SDK gracefully closes the Internal Logger
                 stopInternalLogger();
             }
+        }
 
-            stopped = true;
+        void stopAll() {
+            long startInNanos = System.nanoTime();
+            long sentBefore = ShutdownStatistics.INSTANCE.getSent();
+            long persistedBefore = ShutdownStatistics.INSTANCE.getPersisted();
+            long droppedBefore = ShutdownStatistics.INSTANCE.getDropped();
+
+            ArrayList<Stoppable> channelsToStop = new ArrayList<Stoppable>();
+            for (final TelemetryChannel channel : channels.keySet()) {
+                channelsToStop.add(new Stoppable() {
+                    @Override
+                    public void stop(long timeout, TimeUnit timeUnit) {
+                        channel.stop(timeout, timeUnit);
+                    }
+
+                    @Override
+                    public String toString() {
+                        return channel.getClass().getName();
+                    }
+                });
+            }
+            int notStopped = stopInOrder(new ArrayList<Stoppable>(stoppables), channelsToStop, startInNanos);
+
+            InternalLogger.INSTANCE.info("SDK shutdown took %d ms: %d transmissions were sent, %d were persisted for the next run and %d were dropped, %d components did not stop in time",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startInNanos),
+                    ShutdownStatistics.INSTANCE.getSent() - sentBefore,
+                    ShutdownStatistics.INSTANCE.getPersisted() - persistedBefore,
+                    ShutdownStatistics.INSTANCE.getDropped() - droppedBefore,
+                    notStopped);
         }
 
         /**
@@ -87,47 +144,98 @@ public enum SDKShutdownActivity {
             } catch (Throwable t) {
             }
         }
+    }
 
-        /**
-         * Make sure no exception is thrown!
-         */
-        private void stopChannels() {
-            for (ChannelFetcher fetcher : fetchers) {
-                try {
-                    TelemetryChannel channelToStop = fetcher.fetch();
-                    if (channelToStop != null) {
-                        channelToStop.stop(1L, TimeUnit.SECONDS);
+    private static volatile SDKShutdownThread shutdownThread;
+
+    /**
+     * Registers a channel to be stopped when the JVM shuts down.
+     * A channel that is registered more than once is stopped once, and it is not kept from being garbage collected.
+     * @param channel The channel to stop.
+     */
+    public void register(TelemetryChannel channel) {
+        if (channel != null) {
+            getShutdownThread().register(channel);
+        }
+    }
+
+    public void register(Stoppable stoppable) {
+        getShutdownThread().register(stoppable);
+    }
+
+    /**
+     * Stops the stoppables and then the channels.
+     * The stoppables are not waited for more than {@link #STOPPABLES_TIMEOUT_IN_MILLIS}, and the channels
+     * are always waited for at least {@link #PERSIST_TIMEOUT_IN_MILLIS}, even when the shutdown is already late.
+     * @param stoppablesToStop The stoppables.
+     * @param channelsToStop The channels.
+     * @param startInNanos The time the shutdown started, in terms of System.nanoTime().
+     * @return The number of stoppables and channels that did not stop in time.
+     */
+    static int stopInOrder(List<Stoppable> stoppablesToStop, List<Stoppable> channelsToStop, long startInNanos) {
+        long deadlineInNanos = startInNanos + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_TIMEOUT_IN_MILLIS);
+
+        long stoppablesDeadlineInNanos = startInNanos + TimeUnit.MILLISECONDS.toNanos(STOPPABLES_TIMEOUT_IN_MILLIS);
+        int notStopped = stopInParallel(stoppablesToStop, stoppablesDeadlineInNanos, 0);
+
+        long persistDeadlineInNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PERSIST_TIMEOUT_IN_MILLIS);
+        notStopped += stopInParallel(channelsToStop, Math.max(deadlineInNanos, persistDeadlineInNanos), PERSIST_TIMEOUT_IN_MILLIS);
+
+        return notStopped;
+    }
+
+    /**
+     * Stops every stoppable on its own thread and waits for all of them up to the deadline.
+     * Make sure no exception is thrown!
+     * @param stoppablesToStop The stoppables.
+     * @param deadlineInNanos The deadline, in terms of System.nanoTime().
+     * @param reserveInMillis The time before the deadline that the stoppables are asked to finish by.
+     * @return The number of stoppables that did not stop before the deadline.
+     */
+    static int stopInParallel(List<Stoppable> stoppablesToStop, long deadlineInNanos, long reserveInMillis) {
+        long timeoutInMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineInNanos - System.nanoTime()) - reserveInMillis);
+
+        ArrayList<Thread> threads = new ArrayList<Thread>(stoppablesToStop.size());
+        for (final Stoppable stoppable : stoppablesToStop) {
+            final long timeout = timeoutInMillis;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stoppable.stop(timeout, TimeUnit.MILLISECONDS);
+                    } catch (Throwable t) {
+                        InternalLogger.INSTANCE.error("Failed to stop '%s': '%s'", stoppable, t.getMessage());
                     }
-                } catch (Throwable t) {
-                    InternalLogger.INSTANCE.error("Failed to stop channel: '%s'", t.getMessage());
                 }
+            }, "ApplicationInsights-Shutdown");
+            thread.setDaemon(true);
+            try {
+                thread.start();
+                threads.add(thread);
+            } catch (Throwable t) {
+                InternalLogger.INSTANCE.error("Failed to stop '%s': '%s'", stoppable, t.getMessage());
             }
         }
-        /**
-         * Make sure no exception is thrown!
-         */
-        private void stopStoppables() {
-            for (Stoppable stoppable : stoppables) {
-                try {
-                    stoppable.stop(1L, TimeUnit.SECONDS);
-                } catch (Throwable t) {
-                    InternalLogger.INSTANCE.error("Failed to stop stoppable class '%s': '%s'", stoppable.getClass().getName(), t.getMessage());
+
+        int notStopped = 0;
+        for (Thread thread : threads) {
+            try {
+                long remainingInMillis = TimeUnit.NANOSECONDS.toMillis(deadlineInNanos - System.nanoTime());
+                if (remainingInMillis > 0) {
+                    thread.join(remainingInMillis);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                ++notStopped;
             }
         }
-    }
 
-    private static volatile SDKShutdownThread shutdownThread;
-
-    public void register(ChannelFetcher fetcher) {
-        getShutdownThread().register(fetcher);
-    }
-
-    public void register(Stoppable stoppable) {
-        getShutdownThread().register(stoppable);
+        return notStopped;
     }
 
-    private SDKShutdownThread getShutdownThread() {
+    SDKShutdownThread getShutdownThread() {
         if (shutdownThread == null) {
             synchronized (this) {
                 if (shutdownThread == null) {
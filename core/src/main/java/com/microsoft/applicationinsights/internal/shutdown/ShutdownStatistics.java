@@ -0,0 +1,71 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.shutdown;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what happens to the transmissions of the channels, so the SDK shutdown can report
+ * how many were sent, persisted for the next process, or dropped while it ran.
+ *
+ * Transmissions are counted, each one is a batch of telemetries.
+ */
+public enum ShutdownStatistics {
+    INSTANCE;
+
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong persisted = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    /**
+     * Called for every transmission that was sent successfully.
+     */
+    public void onTransmissionSent() {
+        sent.incrementAndGet();
+    }
+
+    /**
+     * Called for every transmission that could not be sent before its output was stopped and was persisted instead.
+     */
+    public void onTransmissionPersisted() {
+        persisted.incrementAndGet();
+    }
+
+    /**
+     * Called for every transmission that could neither be sent nor persisted when its output was stopped.
+     */
+    public void onTransmissionDropped() {
+        dropped.incrementAndGet();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getPersisted() {
+        return persisted.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
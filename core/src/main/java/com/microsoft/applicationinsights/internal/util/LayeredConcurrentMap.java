@@ -0,0 +1,374 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A concurrent map whose entries are its own entries layered on top of an immutable parent map.
+ *
+ * The parent is shared, for example the snapshot of the tags of the client's context that every telemetry
+ * inherits, and is never copied: writes go to the map's own layer, which is only created on the first write,
+ * and removing a parent's key hides it. Reading and iterating merge the layers, the map's own entries win.
+ *
+ * The map also counts its modifications, so {@link #snapshot()} can return the same immutable copy
+ * of its content as long as it was not changed.
+ *
+ * Reads are not blocking, writes are synchronized on the map. Null keys and values are not allowed.
+ */
+public final class LayeredConcurrentMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    private static final class Snapshot<K, V> {
+        private final int modifications;
+        private final Map<K, V> map;
+
+        private Snapshot(int modifications, Map<K, V> map) {
+            this.modifications = modifications;
+            this.map = map;
+        }
+    }
+
+    private volatile Map<K, V> parent = Collections.emptyMap();
+    private volatile ConcurrentHashMap<K, V> local;
+    private volatile Set<K> hiddenParentKeys;
+    private volatile int modifications;
+    private volatile Snapshot<K, V> snapshot;
+
+    private Set<Entry<K, V>> entrySet;
+
+    /**
+     * Sets the parent of the map, unless it already has one or a parent's key was removed.
+     * @param parent The parent, which must not be changed from now on.
+     * @return True if the parent was set.
+     */
+    public synchronized boolean setParent(Map<K, V> parent) {
+        Preconditions.checkNotNull(parent, "parent must be non-null value");
+
+        if (!this.parent.isEmpty() || hiddenParentKeys != null) {
+            return false;
+        }
+
+        this.parent = parent;
+        ++modifications;
+        return true;
+    }
+
+    /**
+     * Gets an immutable copy of the current content of the map.
+     * The copy is kept and returned again until the map is changed.
+     * @return The copy.
+     */
+    public Map<K, V> snapshot() {
+        Snapshot<K, V> current = snapshot;
+        if (current != null && current.modifications == modifications) {
+            return current.map;
+        }
+
+        synchronized (this) {
+            current = snapshot;
+            if (current == null || current.modifications != modifications) {
+                Map<K, V> copy = isEmpty() ? Collections.<K, V>emptyMap() : Collections.unmodifiableMap(new HashMap<K, V>(this));
+                current = new Snapshot<K, V>(modifications, copy);
+                snapshot = current;
+            }
+
+            return current.map;
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+
+        ConcurrentHashMap<K, V> local = this.local;
+        if (local != null) {
+            V value = local.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        return getFromParent(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        ConcurrentHashMap<K, V> local = this.local;
+        if (local != null && !local.isEmpty()) {
+            return false;
+        }
+
+        Set<K> hiddenParentKeys = this.hiddenParentKeys;
+        if (hiddenParentKeys == null) {
+            return parent.isEmpty();
+        }
+
+        for (K key : parent.keySet()) {
+            if (!hiddenParentKeys.contains(key)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int size() {
+        ConcurrentHashMap<K, V> local = this.local;
+        int size = local == null ? 0 : local.size();
+        for (K key : parent.keySet()) {
+            if (isVisibleParentKey(key, local)) {
+                ++size;
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public synchronized V put(K key, V value) {
+        Preconditions.checkNotNull(key, "key must be non-null value");
+        Preconditions.checkNotNull(value, "value must be non-null value");
+
+        V previous = get(key);
+        getLocal().put(key, value);
+        if (hiddenParentKeys != null) {
+            hiddenParentKeys.remove(key);
+        }
+        ++modifications;
+
+        return previous;
+    }
+
+    @Override
+    public synchronized V remove(Object key) {
+        V previous = get(key);
+        if (previous == null) {
+            return null;
+        }
+
+        if (local != null) {
+            local.remove(key);
+        }
+        if (getFromParent(key) != null) {
+            getHiddenParentKeys().add(castKey(key));
+        }
+        ++modifications;
+
+        return previous;
+    }
+
+    @Override
+    public synchronized V putIfAbsent(K key, V value) {
+        V previous = get(key);
+        if (previous == null) {
+            put(key, value);
+        }
+
+        return previous;
+    }
+
+    @Override
+    public synchronized boolean remove(Object key, Object value) {
+        V current = get(key);
+        if (current == null || !current.equals(value)) {
+            return false;
+        }
+
+        remove(key);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean replace(K key, V oldValue, V newValue) {
+        V current = get(key);
+        if (current == null || !current.equals(oldValue)) {
+            return false;
+        }
+
+        put(key, newValue);
+        return true;
+    }
+
+    @Override
+    public synchronized V replace(K key, V value) {
+        V current = get(key);
+        if (current != null) {
+            put(key, value);
+        }
+
+        return current;
+    }
+
+    @Override
+    public synchronized void clear() {
+        parent = Collections.emptyMap();
+        local = null;
+        hiddenParentKeys = null;
+        ++modifications;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new LayeredIterator();
+                }
+
+                @Override
+                public int size() {
+                    return LayeredConcurrentMap.this.size();
+                }
+
+                @Override
+                public boolean isEmpty() {
+                    return LayeredConcurrentMap.this.isEmpty();
+                }
+
+                @Override
+                public void clear() {
+                    LayeredConcurrentMap.this.clear();
+                }
+            };
+        }
+
+        return entrySet;
+    }
+
+    // Goes over the map's own entries and then over the parent's entries that are not overridden or hidden
+    private final class LayeredIterator implements Iterator<Entry<K, V>> {
+        private final ConcurrentHashMap<K, V> localAtStart = local;
+        private final Iterator<Entry<K, V>> localIterator = localAtStart == null ? null : localAtStart.entrySet().iterator();
+        private final Iterator<Entry<K, V>> parentIterator = parent.entrySet().iterator();
+        private Entry<K, V> next;
+        private K lastKey;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+
+            if (localIterator != null && localIterator.hasNext()) {
+                next = localIterator.next();
+                return true;
+            }
+
+            while (parentIterator.hasNext()) {
+                Entry<K, V> candidate = parentIterator.next();
+                if (isVisibleParentKey(candidate.getKey(), localAtStart)) {
+                    next = candidate;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final Entry<K, V> entry = next;
+            next = null;
+            lastKey = entry.getKey();
+
+            return new SimpleEntry<K, V>(entry) {
+                @Override
+                public V setValue(V value) {
+                    put(getKey(), value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+
+            LayeredConcurrentMap.this.remove(lastKey);
+            lastKey = null;
+        }
+    }
+
+    private V getFromParent(Object key) {
+        Set<K> hiddenParentKeys = this.hiddenParentKeys;
+        if (hiddenParentKeys != null && hiddenParentKeys.contains(key)) {
+            return null;
+        }
+
+        return parent.get(key);
+    }
+
+    private boolean isVisibleParentKey(K key, ConcurrentHashMap<K, V> local) {
+        if (local != null && local.containsKey(key)) {
+            return false;
+        }
+
+        Set<K> hiddenParentKeys = this.hiddenParentKeys;
+        return hiddenParentKeys == null || !hiddenParentKeys.contains(key);
+    }
+
+    private ConcurrentHashMap<K, V> getLocal() {
+        if (local == null) {
+            local = new ConcurrentHashMap<K, V>();
+        }
+
+        return local;
+    }
+
+    private Set<K> getHiddenParentKeys() {
+        if (hiddenParentKeys == null) {
+            hiddenParentKeys = Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>());
+        }
+
+        return hiddenParentKeys;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K castKey(Object key) {
+        return (K) key;
+    }
+}
@@ -53,6 +53,16 @@ public class MapUtil
         return map.containsKey(key) ? Boolean.parseBoolean(map.get(key)) : null;
     }
 
+    public static Double getDoubleValueOrNull(Map<String, String> map, String key) {
+        try {
+            return map.containsKey(key) ? Double.valueOf(map.get(key).trim()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        } catch (NullPointerException e) {
+            return null;
+        }
+    }
+
     public static Date getDateValueOrNull(Map<String, String> map, String key) {
         try {
             return map.containsKey(key) ? LocalStringsUtils.getDateFormatter().parse(map.get(key)) : null;
@@ -81,6 +91,6 @@ public class MapUtil
         if (value == null)
             map.remove(key);
         else
-            map.put(key, LocalStringsUtils.getDateFormatter().format(value));
+            map.put(key, TimestampFormatter.getDefault().format(value));
     }
 }
@@ -22,7 +22,8 @@
 package com.microsoft.applicationinsights.internal.util;
 
 import java.net.URI;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -38,34 +39,69 @@ public final class Sanitizer {
     public final static int MAX_MESSAGE_LENGTH = 32768;
     public final static int MAX_URL_LENGTH = 2048;
 
-    private final static String INVALID_NAME_CHARACTERS = "[^0-9a-zA-Z-._()\\/ ]";
+    // The characters that are valid in property and measurement names: [0-9a-zA-Z-._()\/ ]
+    private final static boolean[] VALID_NAME_CHARACTERS = createValidNameCharacters();
 
+    /**
+     * Sanitizes the keys and values of the map in place.
+     *
+     * Entries that are already valid are left as they are, so a map with nothing to fix is only read.
+     * Values that are too long or not trimmed are replaced in their entries, entries with keys that are not
+     * valid are removed and put back with their sanitized keys, made unique among the keys of the map.
+     */
     public static void sanitizeProperties(Map<String, String> map) {
-        if (map != null) {
-            HashMap<String, String> tempMap = new HashMap<String, String>(map.size());
+        if (map == null) {
+            return;
+        }
 
-            for (Map.Entry<String, String> entry : map.entrySet()) {
-                String sanitizedKey = sanitizeKey(entry.getKey(), tempMap);
-                String sanitizedValue = sanitizeValue(entry.getValue());
-                tempMap.put(sanitizedKey, sanitizedValue);
+        List<String> keysToSanitize = null;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (!isValidKey(entry.getKey())) {
+                if (keysToSanitize == null) {
+                    keysToSanitize = new ArrayList<String>();
+                }
+                keysToSanitize.add(entry.getKey());
+                continue;
             }
 
-            map.clear();
-            map.putAll(tempMap);
+            String value = entry.getValue();
+            String sanitizedValue = sanitizeValue(value);
+            if (sanitizedValue != value) {
+                entry.setValue(sanitizedValue);
+            }
+        }
+
+        if (keysToSanitize != null) {
+            for (String key : keysToSanitize) {
+                String value = map.remove(key);
+                map.put(sanitizeKey(key, map), sanitizeValue(value));
+            }
         }
     }
 
+    /**
+     * Sanitizes the keys of the map in place, entries with valid keys are left as they are.
+     */
     public static void sanitizeMeasurements(Map<String, Double> map) {
-        if (map != null) {
-            HashMap<String, Double> tempMap = new HashMap<String, Double>(map.size());
+        if (map == null) {
+            return;
+        }
 
-            for (Map.Entry<String, Double> entry : map.entrySet()) {
-                String sanitizedKey = sanitizeKey(entry.getKey(), tempMap);
-                tempMap.put(sanitizedKey, entry.getValue());
+        List<String> keysToSanitize = null;
+        for (String key : map.keySet()) {
+            if (!isValidKey(key)) {
+                if (keysToSanitize == null) {
+                    keysToSanitize = new ArrayList<String>();
+                }
+                keysToSanitize.add(key);
             }
+        }
 
-            map.clear();
-            map.putAll(tempMap);
+        if (keysToSanitize != null) {
+            for (String key : keysToSanitize) {
+                Double value = map.remove(key);
+                map.put(sanitizeKey(key, map), value);
+            }
         }
     }
 
@@ -129,12 +165,75 @@ public final class Sanitizer {
     private static <V> String sanitizeKey(String key, Map<String, V> map) {
         String sanitizedKey = trimAndTruncate(key, MAX_MAP_NAME_LENGTH);
 
-        sanitizedKey = sanitizedKey.replaceAll(INVALID_NAME_CHARACTERS, "");
+        sanitizedKey = removeInvalidNameCharacters(sanitizedKey);
         sanitizedKey = MakeKeyNonEmpty(sanitizedKey);
         sanitizedKey = MakeKeyUnique(sanitizedKey, map);
         return sanitizedKey;
     }
 
+    private static boolean isValidKey(String key) {
+        if (key == null) {
+            return false;
+        }
+
+        int length = key.length();
+        if (length == 0 || length > MAX_MAP_NAME_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            if (!isValidNameCharacter(key.charAt(i))) {
+                return false;
+            }
+        }
+
+        // Only the space might need trimming
+        return key.charAt(0) != ' ' && key.charAt(length - 1) != ' ';
+    }
+
+    private static String removeInvalidNameCharacters(String key) {
+        if (key == null) {
+            return null;
+        }
+
+        StringBuilder sb = null;
+        for (int i = 0; i < key.length(); ++i) {
+            char c = key.charAt(i);
+            if (isValidNameCharacter(c)) {
+                if (sb != null) {
+                    sb.append(c);
+                }
+            } else if (sb == null) {
+                sb = new StringBuilder(key.length());
+                sb.append(key, 0, i);
+            }
+        }
+
+        return sb == null ? key : sb.toString();
+    }
+
+    private static boolean isValidNameCharacter(char c) {
+        return c < VALID_NAME_CHARACTERS.length && VALID_NAME_CHARACTERS[c];
+    }
+
+    private static boolean[] createValidNameCharacters() {
+        boolean[] validCharacters = new boolean[128];
+        for (char c = '0'; c <= '9'; ++c) {
+            validCharacters[c] = true;
+        }
+        for (char c = 'a'; c <= 'z'; ++c) {
+            validCharacters[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; ++c) {
+            validCharacters[c] = true;
+        }
+        for (char c : "-._()/ ".toCharArray()) {
+            validCharacters[c] = true;
+        }
+
+        return validCharacters;
+    }
+
     private static String trimAndTruncate(String value, int maxLength) {
         if (value == null) {
             return value;
@@ -159,7 +258,7 @@ public final class Sanitizer {
             String truncatedKey = truncate(key, MAX_MAP_NAME_LENGTH - uniqueNumberLength);
             int candidate = 1;
             do {
-                key = truncatedKey + String.format("%0%dd", uniqueNumberLength, candidate);
+                key = truncatedKey + String.format("%0" + uniqueNumberLength + "d", candidate);
                 candidate++;
             }
             while (map.containsKey(key));
@@ -0,0 +1,168 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Formats times in the 'yyyy-MM-dd'T'HH:mm:ss.SSSZ' layout of the envelopes, for example '2015-03-24T15:06:32.123+0200'.
+ *
+ * The date, the time up to the seconds and the time zone offset are kept for the last formatted second,
+ * so formatting another time within that second only writes the milliseconds.
+ * The class is thread safe and does not allocate when formatting into a buffer.
+ */
+public final class TimestampFormatter {
+    /**
+     * The number of characters of a formatted time.
+     */
+    public final static int TIMESTAMP_LENGTH = 28;
+
+    private final static int SECOND_LENGTH = 19;
+    private final static int OFFSET_POSITION = 23;
+    private final static int OFFSET_LENGTH = 5;
+
+    private final static TimestampFormatter s_default = new TimestampFormatter(TimeZone.getDefault());
+
+    // Immutable, replaced when a time of another second is formatted
+    private static final class CachedSecond {
+        private final long second;
+        private final char[] prefix;
+        private final char[] offset;
+
+        private CachedSecond(long second, char[] prefix, char[] offset) {
+            this.second = second;
+            this.prefix = prefix;
+            this.offset = offset;
+        }
+    }
+
+    private final TimeZone timeZone;
+    private volatile CachedSecond cachedSecond;
+
+    /**
+     * @return The formatter of the default time zone.
+     */
+    public static TimestampFormatter getDefault() {
+        return s_default;
+    }
+
+    public TimestampFormatter(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+        cachedSecond = createCachedSecond(0);
+    }
+
+    public String format(Date date) {
+        return format(date.getTime());
+    }
+
+    public String format(long timeInMillis) {
+        char[] buffer = new char[TIMESTAMP_LENGTH];
+        format(timeInMillis, buffer, 0);
+
+        return new String(buffer);
+    }
+
+    /**
+     * Writes the formatted time into the buffer.
+     * @param timeInMillis The time, in milliseconds since the epoch.
+     * @param buffer The buffer, that must have {@link #TIMESTAMP_LENGTH} characters from the offset.
+     * @param offset The position of the first character.
+     * @return The number of characters that were written.
+     */
+    public int format(long timeInMillis, char[] buffer, int offset) {
+        long second = floorDiv(timeInMillis, 1000);
+        CachedSecond cached = cachedSecond;
+        if (cached.second != second) {
+            cached = createCachedSecond(second);
+            cachedSecond = cached;
+        }
+
+        System.arraycopy(cached.prefix, 0, buffer, offset, SECOND_LENGTH);
+        buffer[offset + SECOND_LENGTH] = '.';
+        putDigits(buffer, offset + SECOND_LENGTH + 1, (int) (timeInMillis - second * 1000), 3);
+        System.arraycopy(cached.offset, 0, buffer, offset + OFFSET_POSITION, OFFSET_LENGTH);
+
+        return TIMESTAMP_LENGTH;
+    }
+
+    private CachedSecond createCachedSecond(long second) {
+        long timeInMillis = second * 1000;
+        int offsetInMillis = timeZone.getOffset(timeInMillis);
+        long localSeconds = second + offsetInMillis / 1000;
+
+        long days = floorDiv(localSeconds, 86400);
+        int secondOfDay = (int) (localSeconds - days * 86400);
+
+        // Civil date from days since epoch (Howard Hinnant's algorithm)
+        long shiftedDays = days + 719468;
+        long era = floorDiv(shiftedDays, 146097);
+        int dayOfEra = (int) (shiftedDays - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] prefix = new char[SECOND_LENGTH];
+        putDigits(prefix, 0, (int) year, 4);
+        prefix[4] = '-';
+        putDigits(prefix, 5, month, 2);
+        prefix[7] = '-';
+        putDigits(prefix, 8, day, 2);
+        prefix[10] = 'T';
+        putDigits(prefix, 11, secondOfDay / 3600, 2);
+        prefix[13] = ':';
+        putDigits(prefix, 14, (secondOfDay / 60) % 60, 2);
+        prefix[16] = ':';
+        putDigits(prefix, 17, secondOfDay % 60, 2);
+
+        char[] offset = new char[OFFSET_LENGTH];
+        int offsetInMinutes = offsetInMillis / 60000;
+        if (offsetInMinutes < 0) {
+            offset[0] = '-';
+            offsetInMinutes = -offsetInMinutes;
+        } else {
+            offset[0] = '+';
+        }
+        putDigits(offset, 1, offsetInMinutes / 60, 2);
+        putDigits(offset, 3, offsetInMinutes % 60, 2);
+
+        return new CachedSecond(second, prefix, offset);
+    }
+
+    private static void putDigits(char[] buffer, int offset, int value, int numberOfDigits) {
+        for (int i = offset + numberOfDigits - 1; i >= offset; --i) {
+            buffer[i] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long result = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            --result;
+        }
+        return result;
+    }
+}
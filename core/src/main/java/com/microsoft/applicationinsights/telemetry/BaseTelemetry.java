@@ -24,23 +24,24 @@ package com.microsoft.applicationinsights.telemetry;
 import java.io.IOException;
 import java.util.Date;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import com.microsoft.applicationinsights.internal.schemav2.Data;
 import com.microsoft.applicationinsights.internal.schemav2.Envelope;
 import com.microsoft.applicationinsights.internal.schemav2.SendableData;
-import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.internal.util.LayeredConcurrentMap;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
+import com.microsoft.applicationinsights.internal.util.TimestampFormatter;
 
 /**
  * Superclass for all telemetry data classes.
  */
-public abstract class BaseTelemetry<T extends SendableData> implements Telemetry
+public abstract class BaseTelemetry<T extends SendableData> implements Telemetry, SupportSampling
 {
     private TelemetryContext context;
     private Date             timestamp;
     private String           sequence;
+    private Double           samplingPercentage;
 
     protected BaseTelemetry() {
     }
@@ -50,7 +51,7 @@ public abstract class BaseTelemetry<T extends SendableData> implements Telemetry
      * @param properties The context properties
      */
     protected void initialize(ConcurrentMap<String, String> properties) {
-        this.context = new TelemetryContext(properties, new ConcurrentHashMap<String, String>());
+        this.context = new TelemetryContext(properties, new LayeredConcurrentMap<String, String>());
     }
 
     /**
@@ -96,6 +97,24 @@ public abstract class BaseTelemetry<T extends SendableData> implements Telemetry
         timestamp = date;
     }
 
+    /**
+     * Gets the percentage of the telemetries of this kind that were kept by sampling.
+     * @return The sampling percentage, null if the telemetry was not sampled.
+     */
+    @Override
+    public Double getSamplingPercentage() {
+        return samplingPercentage;
+    }
+
+    /**
+     * Sets the percentage of the telemetries of this kind that were kept by sampling.
+     * @param samplingPercentage The sampling percentage.
+     */
+    @Override
+    public void setSamplingPercentage(Double samplingPercentage) {
+        this.samplingPercentage = samplingPercentage;
+    }
+
     /**
      * Gets the context associated with the current telemetry item.
      * @return The context
@@ -136,8 +155,11 @@ public abstract class BaseTelemetry<T extends SendableData> implements Telemetry
         envelope.setIKey(context.getInstrumentationKey());
         envelope.setSeq(sequence);
         envelope.setData(new Data<T>(getData()));
-        envelope.setTime(LocalStringsUtils.getDateFormatter().format(getTimestamp()));
+        envelope.setTime(TimestampFormatter.getDefault().format(getTimestamp()));
         envelope.setTags(context.getTags());
+        if (samplingPercentage != null) {
+            envelope.setSampleRate(samplingPercentage);
+        }
 
         envelope.serialize(writer);
     }
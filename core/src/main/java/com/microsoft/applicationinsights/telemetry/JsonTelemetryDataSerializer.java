@@ -21,29 +21,36 @@
 
 package com.microsoft.applicationinsights.telemetry;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.*;
 
-import com.google.common.base.Strings;
-
-import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.internal.util.TimestampFormatter;
 
 /**
  * This class knows how to transform data that is relevant to {@link Telemetry} instances into JSON
+ *
+ * The serializer writes in a single pass straight into the writer it was given, nested objects included.
+ * A nested object is only 'opened' (its name and '{' are written) once the first value is written into it,
+ * so empty objects are left out without the need to serialize them into a temporary string first.
  */
 public final class JsonTelemetryDataSerializer {
 
     private final static String JSON_SEPARATOR = ",";
-    private final static String JSON_START_OBJECT = "{";
-    private final static String JSON_CLOSE_OBJECT = "}";
-    private final static String JSON_START_ARRAY = "[";
-    private final static String JSON_CLOSE_ARRAY = "]";
-    private final static String JSON_COMMA = "\"";
-    private final static String JSON_NAME_VALUE_SEPARATOR = ":";
-    private final static String JSON_EMPTY_OBJECT = "{}";
+    private final static char JSON_START_OBJECT = '{';
+    private final static char JSON_CLOSE_OBJECT = '}';
+    private final static char JSON_START_ARRAY = '[';
+    private final static char JSON_CLOSE_ARRAY = ']';
+    private final static char JSON_COMMA = '"';
+    private final static char JSON_NAME_VALUE_SEPARATOR = ':';
+    private final static String JSON_NULL = "null";
+    private final static String JSON_TRUE = "true";
+    private final static String JSON_FALSE = "false";
+
+    // Doubles below that value that have no fraction are written by Double.toString as '<digits>.0'
+    private final static double MAX_PLAIN_INTEGRAL_DOUBLE = 1e7;
+
+    private final static int INITIAL_PENDING_OBJECTS = 8;
 
     private static final Set<Class<?>> WRAPPER_TYPES = getWrapperTypes();
 
@@ -51,12 +58,21 @@ public final class JsonTelemetryDataSerializer {
 
     private String separator = "";
 
+    // Nested objects that were started but nothing was written into them yet
+    private String[] pendingNames = new String[INITIAL_PENDING_OBJECTS];
+    private String[] pendingSeparators = new String[INITIAL_PENDING_OBJECTS];
+    private int pendingObjects;
+
+    // Enough for any long and for 'yyyy-MM-dd'T'HH:mm:ss.SSS+ZZZZ'
+    private final char[] charBuffer = new char[32];
+
     public JsonTelemetryDataSerializer(Writer out) throws IOException {
         reset(out);
     }
 
     public void reset(Writer out) throws IOException {
         separator = "";
+        pendingObjects = 0;
         this.out = out;
         this.out.write(JSON_START_OBJECT);
     }
@@ -68,7 +84,7 @@ public final class JsonTelemetryDataSerializer {
 
     public void write(String name, int value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
+        writeLong(value);
         separator = JSON_SEPARATOR;
     }
 
@@ -77,14 +93,12 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
-        writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        write(name, value.intValue());
     }
 
     public void write(String name, double value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
+        writeDouble(value);
         separator = JSON_SEPARATOR;
     }
 
@@ -93,14 +107,12 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
-        writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        write(name, value.doubleValue());
     }
 
     public void write(String name, short value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
+        writeLong(value);
         separator = JSON_SEPARATOR;
     }
 
@@ -109,14 +121,12 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
-        writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        write(name, value.shortValue());
     }
 
     public void write(String name, long value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
+        writeLong(value);
         separator = JSON_SEPARATOR;
     }
 
@@ -125,14 +135,12 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
-        writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        write(name, value.longValue());
     }
 
     public void write(String name, boolean value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
+        out.write(value ? JSON_TRUE : JSON_FALSE);
         separator = JSON_SEPARATOR;
     }
 
@@ -141,9 +149,7 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
-        writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        write(name, value.booleanValue());
     }
 
     public void write(String name, Date value) throws IOException {
@@ -152,7 +158,9 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        write(LocalStringsUtils.getDateFormatter().format(value));
+        out.write(JSON_COMMA);
+        writeDate(value.getTime());
+        out.write(JSON_COMMA);
         separator = JSON_SEPARATOR;
     }
 
@@ -173,15 +181,7 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
-        String jsonStringToAppend = createJsonFor(value);
-        if (Strings.isNullOrEmpty(jsonStringToAppend)) {
-            return;
-        }
-
-        writeName(name);
-        out.write(jsonStringToAppend);
-
-        separator = JSON_SEPARATOR;
+        writeObject(name, value);
     }
 
     public <T> void write(String name, Map<String, T> map) throws IOException {
@@ -191,16 +191,21 @@ public final class JsonTelemetryDataSerializer {
 
         writeName(name);
         try {
-            if (map.size() < 1) {
-                out.write("null");
+            if (map.isEmpty()) {
+                out.write(JSON_NULL);
             } else {
                 out.write(JSON_START_OBJECT);
 
                 separator = "";
                 for (Map.Entry<String, T> entry : map.entrySet()) {
-                    writeName(entry.getKey());
-                    write(entry.getValue());
-                    separator = JSON_SEPARATOR;
+                    T value = entry.getValue();
+                    if (value instanceof JsonSerializable) {
+                        writeObject(entry.getKey(), (JsonSerializable)value);
+                    } else {
+                        writeName(entry.getKey());
+                        writeValue(value);
+                        separator = JSON_SEPARATOR;
+                    }
                 }
 
                 out.write(JSON_CLOSE_OBJECT);
@@ -218,14 +223,18 @@ public final class JsonTelemetryDataSerializer {
         writeName(name);
         try {
             if (list.size() < 1) {
-                out.write("null");
+                out.write(JSON_NULL);
             } else {
                 out.write(JSON_START_ARRAY);
                 separator = "";
                 for (T item : list) {
-                    out.write(separator);
-                    write(item);
-                    separator = JSON_SEPARATOR;
+                    if (item instanceof JsonSerializable) {
+                        writeObject(null, (JsonSerializable)item);
+                    } else {
+                        out.write(separator);
+                        writeValue(item);
+                        separator = JSON_SEPARATOR;
+                    }
                 }
 
                 out.write(JSON_CLOSE_ARRAY);
@@ -235,43 +244,74 @@ public final class JsonTelemetryDataSerializer {
         }
     }
 
-    private <T> void write(T item) throws IOException {
-        if (item instanceof JsonSerializable) {
-            StringWriter stringWriter = new StringWriter();
+    /**
+     * Serializes the object in place. The opening of the object is kept pending until the object
+     * writes its first value, if it writes nothing the object is left out altogether.
+     * @param name The name of the object, null for array items.
+     * @param value The object to serialize.
+     */
+    private void writeObject(String name, JsonSerializable value) throws IOException {
+        String separatorBefore = separator;
+        int index = pendingObjects;
+        if (index == pendingNames.length) {
+            pendingNames = Arrays.copyOf(pendingNames, index * 2);
+            pendingSeparators = Arrays.copyOf(pendingSeparators, index * 2);
+        }
+        pendingNames[index] = name;
+        pendingSeparators[index] = separatorBefore;
+        ++pendingObjects;
+        separator = "";
 
-            String jsonStringToAppend = createJsonFor((JsonSerializable)item);
-            if (Strings.isNullOrEmpty(jsonStringToAppend)) {
-                return;
-            }
+        value.serialize(this);
 
-            out.write(jsonStringToAppend);
+        if (pendingObjects > index) {
+            // Nothing was written, the object is elided
+            pendingObjects = index;
+            separator = separatorBefore;
         } else {
-            if (WRAPPER_TYPES.contains(item.getClass()))
-            {
-                out.write(String.valueOf(item));
-            } else {
+            out.write(JSON_CLOSE_OBJECT);
+            separator = JSON_SEPARATOR;
+        }
+    }
+
+    private void writePendingObjects() throws IOException {
+        for (int i = 0; i < pendingObjects; ++i) {
+            out.write(pendingSeparators[i]);
+            if (pendingNames[i] != null) {
                 out.write(JSON_COMMA);
-                out.write(String.valueOf(item));
+                out.write(pendingNames[i]);
                 out.write(JSON_COMMA);
+                out.write(JSON_NAME_VALUE_SEPARATOR);
             }
+            out.write(JSON_START_OBJECT);
         }
+        pendingObjects = 0;
     }
 
-    private <T extends JsonSerializable> String createJsonFor(T value) throws IOException {
-        StringWriter stringWriter = new StringWriter();
-        JsonTelemetryDataSerializer temp = new JsonTelemetryDataSerializer(new BufferedWriter(stringWriter));
-
-        value.serialize(temp);
-        temp.close();
-        String jsonStringToAppend = stringWriter.toString();
-        if (Strings.isNullOrEmpty(jsonStringToAppend) || JSON_EMPTY_OBJECT.equals(jsonStringToAppend)) {
-            return "";
+    private <T> void writeValue(T item) throws IOException {
+        if (item == null) {
+            out.write(JSON_NULL);
+        } else if (item instanceof String) {
+            out.write(JSON_COMMA);
+            writeEscapedString((String)item);
+            out.write(JSON_COMMA);
+        } else if (item instanceof Double) {
+            writeDouble((Double)item);
+        } else if (item instanceof Integer || item instanceof Long || item instanceof Short || item instanceof Byte) {
+            writeLong(((Number)item).longValue());
+        } else if (WRAPPER_TYPES.contains(item.getClass())) {
+            out.write(String.valueOf(item));
+        } else {
+            out.write(JSON_COMMA);
+            writeEscapedString(String.valueOf(item));
+            out.write(JSON_COMMA);
         }
-
-        return jsonStringToAppend;
     }
 
     private void writeName(String name) throws IOException {
+        if (pendingObjects != 0) {
+            writePendingObjects();
+        }
         out.write(separator);
         out.write(JSON_COMMA);
         out.write(name);
@@ -279,6 +319,53 @@ public final class JsonTelemetryDataSerializer {
         out.write(JSON_NAME_VALUE_SEPARATOR);
     }
 
+    /**
+     * Writes the decimal digits of the value without creating a temporary string.
+     */
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            out.write(String.valueOf(value));
+            return;
+        }
+
+        int position = charBuffer.length;
+        boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+        do {
+            charBuffer[--position] = (char)('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        if (negative) {
+            charBuffer[--position] = '-';
+        }
+
+        out.write(charBuffer, position, charBuffer.length - position);
+    }
+
+    /**
+     * Integral values, the common case for counts and durations, are written without a temporary string
+     * in the same format as {@link Double#toString(double)}. Other values are delegated to it.
+     */
+    private void writeDouble(double value) throws IOException {
+        if (value == Math.rint(value) && Math.abs(value) < MAX_PLAIN_INTEGRAL_DOUBLE && !(value == 0.0 && 1.0 / value < 0)) {
+            writeLong((long)value);
+            out.write(".0");
+            return;
+        }
+
+        out.write(String.valueOf(value));
+    }
+
+    /**
+     * Writes the time in the 'yyyy-MM-dd'T'HH:mm:ss.SSSZ' format, using the default time zone.
+     */
+    private void writeDate(long timeInMillis) throws IOException {
+        int length = TimestampFormatter.getDefault().format(timeInMillis, charBuffer, 0);
+        out.write(charBuffer, 0, length);
+    }
+
     private static Set<Class<?>> getWrapperTypes()
     {
         Set<Class<?>> ret = new HashSet<Class<?>>();
@@ -294,34 +381,50 @@ public final class JsonTelemetryDataSerializer {
         return ret;
     }
 
+    /**
+     * Writes the value, escaping the relevant characters. Runs of characters that need no escaping
+     * are written to the writer in one call.
+     */
     protected void writeEscapedString(String value) throws IOException {
-        for (char c : value.toCharArray()) {
-            switch (c) {
+        int length = value.length();
+        int runStart = 0;
+        for (int i = 0; i < length; ++i) {
+            String escaped;
+            switch (value.charAt(i)) {
                 case '\\':
-                    out.write("\\\\");
+                    escaped = "\\\\";
                     break;
                 case '"':
-                    out.write("\\\"");
+                    escaped = "\\\"";
                     break;
                 case '\n':
-                    out.write("\\n");
+                    escaped = "\\n";
                     break;
                 case '\b':
-                    out.write("\\b");
+                    escaped = "\\b";
                     break;
                 case '\f':
-                    out.write("\\f");
+                    escaped = "\\f";
                     break;
                 case '\r':
-                    out.write("\\r");
+                    escaped = "\\r";
                     break;
                 case '\t':
-                    out.write("\\t");
+                    escaped = "\\t";
                     break;
                 default:
-                    out.write(c);
-                    break;
+                    continue;
             }
+
+            if (i > runStart) {
+                out.write(value, runStart, i - runStart);
+            }
+            out.write(escaped);
+            runStart = i + 1;
+        }
+
+        if (runStart < length) {
+            out.write(value, runStart, length - runStart);
         }
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+/**
+ * Telemetry types that can be sampled implement this interface.
+ *
+ * The sampling percentage of a sampled telemetry is sent as the 'sampleRate' of its envelope,
+ * so the backend can restore the actual number of items from the ones that were kept.
+ */
+public interface SupportSampling {
+    /**
+     * Gets the percentage of the telemetries of this kind that were kept by sampling.
+     * @return The sampling percentage, null if the telemetry was not sampled.
+     */
+    Double getSamplingPercentage();
+
+    /**
+     * Sets the percentage of the telemetries of this kind that were kept by sampling.
+     * @param samplingPercentage The sampling percentage, a number in the range (0, 100].
+     */
+    void setSamplingPercentage(Double samplingPercentage);
+}
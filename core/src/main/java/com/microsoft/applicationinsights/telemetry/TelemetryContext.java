@@ -21,7 +21,7 @@
 
 package com.microsoft.applicationinsights.telemetry;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
 import com.microsoft.applicationinsights.extensibility.context.ComponentContext;
@@ -32,6 +32,7 @@ import com.microsoft.applicationinsights.extensibility.context.OperationContext;
 import com.microsoft.applicationinsights.extensibility.context.LocationContext;
 import com.microsoft.applicationinsights.extensibility.context.InternalContext;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LayeredConcurrentMap;
 import com.microsoft.applicationinsights.internal.util.MapUtil;
 
 import com.google.common.base.Strings;
@@ -57,7 +58,7 @@ public final class TelemetryContext {
      * Default Ctor
      */
     public TelemetryContext() {
-        this(new ConcurrentHashMap<String, String>(), new ConcurrentHashMap<String, String>());
+        this(new LayeredConcurrentMap<String, String>(), new LayeredConcurrentMap<String, String>());
     }
 
     /**
@@ -188,12 +189,8 @@ public final class TelemetryContext {
         if (Strings.isNullOrEmpty(this.instrumentationKey) && !Strings.isNullOrEmpty(source.getInstrumentationKey()))
             setInstrumentationKey(source.getInstrumentationKey());
 
-        if (source.tags != null && source.tags.size() > 0) {
-            MapUtil.copy(source.tags, this.tags);
-        }
-        if (source.properties != null && source.properties.size() > 0) {
-            MapUtil.copy(source.properties, this.properties);
-        }
+        inherit(source.tags, this.tags);
+        inherit(source.properties, this.properties);
     }
 
     public InternalContext getInternal() {
@@ -216,4 +213,24 @@ public final class TelemetryContext {
         this.properties = properties;
         this.tags = tags;
     }
+
+    /**
+     * Layers the target on top of a snapshot of the source when both are layered maps,
+     * so nothing is copied unless the target is changed. Otherwise, copies the source's entries
+     * that are missing in the target.
+     */
+    private static void inherit(ConcurrentMap<String, String> source, ConcurrentMap<String, String> target) {
+        if (source == null || source.isEmpty()) {
+            return;
+        }
+
+        if (source instanceof LayeredConcurrentMap && target instanceof LayeredConcurrentMap) {
+            Map<String, String> snapshot = ((LayeredConcurrentMap<String, String>) source).snapshot();
+            if (((LayeredConcurrentMap<String, String>) target).setParent(snapshot)) {
+                return;
+            }
+        }
+
+        MapUtil.copy(source, target);
+    }
 }
@@ -31,6 +31,8 @@ import java.util.concurrent.TimeUnit;
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.extensibility.ContextInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.processor.FixedRateSamplingTelemetryProcessor;
 import com.microsoft.applicationinsights.telemetry.*;
 
 import org.junit.Before;
@@ -143,6 +145,27 @@ public final class TelemetryClientTests {
         Mockito.verifyZeroInteractions(channel, mockTelemetry);
     }
 
+    @Test
+    public void testConfigurationChangesAreAppliedAfterTracking() {
+        client.trackEvent("First");
+
+        TelemetryInitializer mockTelemetryInitializer = Mockito.mock(TelemetryInitializer.class);
+        configuration.getTelemetryInitializers().add(mockTelemetryInitializer);
+        client.trackEvent("Second");
+        Mockito.verify(mockTelemetryInitializer, Mockito.times(1)).initialize(any(Telemetry.class));
+
+        configuration.setTrackingIsDisabled(true);
+        assertTrue(client.isDisabled());
+        client.trackEvent("Third");
+        Mockito.verify(channel, Mockito.times(2)).send(any(Telemetry.class));
+
+        configuration.setTrackingIsDisabled(false);
+        configuration.getTelemetryInitializers().clear();
+        client.trackEvent("Fourth");
+        Mockito.verify(channel, Mockito.times(3)).send(any(Telemetry.class));
+        Mockito.verify(mockTelemetryInitializer, Mockito.times(1)).initialize(any(Telemetry.class));
+    }
+
     @Test
     public void testUseConfigurationInstrumentationKeyWithNull() {
         testUseConfigurationInstrumentatonKey(null);
@@ -277,6 +300,19 @@ public final class TelemetryClientTests {
         verifyAndGetLastEventSent();
     }
 
+    @Test
+    public void testTrackAggregatedMetricIsSentOnFlush() {
+        client.trackAggregatedMetric("Metric", 1);
+        client.trackAggregatedMetric("Metric", 3);
+        assertEquals(0, eventsSent.size());
+
+        client.flush();
+
+        MetricTelemetry telemetry = (MetricTelemetry) verifyAndGetLastEventSent();
+        assertEquals(2, telemetry.getCount().intValue());
+        assertEquals(2.0, telemetry.getValue(), 0.0);
+    }
+
     @Test
     public void testTrackMetricWithMetricTelemetry() {
         MetricTelemetry telemetry = new MetricTelemetry("Metric", 1);
@@ -371,6 +407,60 @@ public final class TelemetryClientTests {
         client.track(telemetry);
     }
 
+    @Test
+    public void testTelemetryVetoedByProcessorIsNotSent() {
+        TelemetryProcessor mockProcessor = Mockito.mock(TelemetryProcessor.class);
+        Mockito.doReturn(false).when(mockProcessor).process(any(Telemetry.class));
+        configuration.getTelemetryProcessors().add(mockProcessor);
+
+        Telemetry mockTelemetry = Mockito.mock(Telemetry.class);
+        Mockito.doReturn(new TelemetryContext()).when(mockTelemetry).getContext();
+        client.track(mockTelemetry);
+
+        Mockito.verify(mockProcessor, Mockito.times(1)).process(mockTelemetry);
+        Mockito.verify(mockTelemetry, Mockito.never()).sanitize();
+        Mockito.verify(channel, Mockito.never()).send(any(Telemetry.class));
+    }
+
+    @Test
+    public void testProcessorThrowsDoesNotDropTelemetry() {
+        configuration.getTelemetryProcessors().add(new TelemetryProcessor() {
+            @Override
+            public boolean process(Telemetry telemetry) {
+                throw new RuntimeException();
+            }
+        });
+
+        client.track(new TraceTelemetry("test"));
+
+        verifyAndGetLastEventSent();
+    }
+
+    @Test
+    public void testSampledTelemetriesOfTheSameOperation() {
+        configuration.getTelemetryProcessors().add(new FixedRateSamplingTelemetryProcessor(50.0));
+
+        int operationsSent = 0;
+        for (int i = 0; i < 100; ++i) {
+            RequestTelemetry request = new RequestTelemetry();
+            request.getContext().getOperation().setId("operation" + i);
+            RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("dependency");
+            dependency.getContext().getOperation().setId("operation" + i);
+
+            int before = eventsSent.size();
+            client.track(request);
+            client.track(dependency);
+            int sent = eventsSent.size() - before;
+            assertTrue("Both or none of the operation's telemetries should be sent", sent == 0 || sent == 2);
+            if (sent == 2) {
+                ++operationsSent;
+                assertEquals(50.0, ((RequestTelemetry) eventsSent.get(eventsSent.size() - 2)).getSamplingPercentage(), 0.0);
+            }
+        }
+
+        assertTrue(operationsSent > 0 && operationsSent < 100);
+    }
+
     @Test
     public void testFlush() {
         client.flush();
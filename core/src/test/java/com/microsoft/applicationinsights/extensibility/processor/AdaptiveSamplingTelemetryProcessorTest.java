@@ -0,0 +1,161 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility.processor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class AdaptiveSamplingTelemetryProcessorTest {
+    private final static int EVALUATION_INTERVAL_IN_SECONDS = 10;
+
+    private final static AtomicLong now = new AtomicLong(0);
+
+    private static final class StubClockProcessor extends AdaptiveSamplingTelemetryProcessor {
+        private StubClockProcessor(double maxTelemetryItemsPerSecond) {
+            super(maxTelemetryItemsPerSecond, EVALUATION_INTERVAL_IN_SECONDS);
+        }
+
+        @Override
+        long currentTimeNanos() {
+            return now.get();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveRateIsRejected() {
+        new AdaptiveSamplingTelemetryProcessor(0.0);
+    }
+
+    @Test
+    public void testParametersFromConfiguration() {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("MaxTelemetryItemsPerSecond", "20");
+
+        assertEquals(20.0, new AdaptiveSamplingTelemetryProcessor(namesAndValues).getMaxTelemetryItemsPerSecond(), 0.0);
+        assertEquals(AdaptiveSamplingTelemetryProcessor.DEFAULT_MAX_TELEMETRY_ITEMS_PER_SECOND,
+                new AdaptiveSamplingTelemetryProcessor(new HashMap<String, String>()).getMaxTelemetryItemsPerSecond(), 0.0);
+    }
+
+    @Test
+    public void testStartsWithoutSampling() {
+        AdaptiveSamplingTelemetryProcessor processor = new AdaptiveSamplingTelemetryProcessor(1.0);
+
+        assertEquals(100.0, processor.getSamplingPercentage(), 0.0);
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(processor.process(createRequest(i)));
+        }
+    }
+
+    @Test
+    public void testLowRateIsNotSampled() {
+        now.set(0);
+        StubClockProcessor processor = new StubClockProcessor(10.0);
+
+        runInterval(processor, 50);
+        runInterval(processor, 50);
+
+        assertEquals(100.0, processor.getSamplingPercentage(), 0.0);
+    }
+
+    @Test
+    public void testHighRateIsSampledToTarget() {
+        now.set(0);
+        StubClockProcessor processor = new StubClockProcessor(10.0);
+
+        // 40 items per second, the target is a quarter of them
+        runInterval(processor, 400);
+        processor.process(createRequest(0));
+
+        assertEquals(25.0, processor.getSamplingPercentage(), 0.0);
+    }
+
+    @Test
+    public void testPercentageIsRoundedToWholeItems() {
+        now.set(0);
+        StubClockProcessor processor = new StubClockProcessor(10.0);
+
+        // 30 items per second, 33.3% is the closest percentage below the target that keeps 1 of every 3 items
+        runInterval(processor, 300);
+        processor.process(createRequest(0));
+
+        assertEquals(100.0 / 3, processor.getSamplingPercentage(), 0.0001);
+    }
+
+    @Test
+    public void testPercentageFollowsMovingAverage() {
+        now.set(0);
+        StubClockProcessor processor = new StubClockProcessor(10.0);
+
+        runInterval(processor, 400);
+        assertEquals(100.0, processor.getSamplingPercentage(), 0.0);
+        processor.process(createRequest(0));
+        double sampledPercentage = processor.getSamplingPercentage();
+        assertEquals(25.0, sampledPercentage, 0.0);
+
+        // The throughput dropped, the moving average goes down gradually
+        for (int i = 0; i < 20; ++i) {
+            runInterval(processor, 0);
+            processor.process(createRequest(i));
+            assertTrue(processor.getSamplingPercentage() >= sampledPercentage);
+            sampledPercentage = processor.getSamplingPercentage();
+        }
+        assertEquals(100.0, processor.getSamplingPercentage(), 0.0);
+    }
+
+    @Test
+    public void testKeptRatioUnderLoad() {
+        now.set(0);
+        StubClockProcessor processor = new StubClockProcessor(10.0);
+
+        runInterval(processor, 1000);
+        int kept = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (processor.process(createRequest(i))) {
+                ++kept;
+            }
+        }
+
+        assertEquals(10.0, processor.getSamplingPercentage(), 0.0);
+        assertTrue("Kept " + kept, kept > 60 && kept < 140);
+    }
+
+    private static void runInterval(StubClockProcessor processor, int numberOfItems) {
+        for (int i = 0; i < numberOfItems; ++i) {
+            processor.process(createRequest(i));
+        }
+        now.addAndGet(TimeUnit.SECONDS.toNanos(EVALUATION_INTERVAL_IN_SECONDS));
+    }
+
+    private static RequestTelemetry createRequest(int index) {
+        RequestTelemetry telemetry = new RequestTelemetry();
+        telemetry.getContext().getOperation().setId("operation" + index);
+        return telemetry;
+    }
+}
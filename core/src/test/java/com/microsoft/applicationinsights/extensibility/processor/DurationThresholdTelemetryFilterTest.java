@@ -0,0 +1,83 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility.processor;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class DurationThresholdTelemetryFilterTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingParameterIsRejected() {
+        new DurationThresholdTelemetryFilter(new HashMap<String, String>());
+    }
+
+    @Test
+    public void testParameterFromConfiguration() {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("MinimumDurationInMS", "250");
+
+        assertEquals(250, new DurationThresholdTelemetryFilter(namesAndValues).getMinimumDurationInMS());
+    }
+
+    @Test
+    public void testFastSuccessfulRequestIsDropped() {
+        DurationThresholdTelemetryFilter filter = new DurationThresholdTelemetryFilter(100);
+
+        assertFalse(filter.process(new RequestTelemetry("request", new Date(), 99L, "200", true)));
+        assertTrue(filter.process(new RequestTelemetry("request", new Date(), 100L, "200", true)));
+    }
+
+    @Test
+    public void testFastFailedRequestIsKept() {
+        DurationThresholdTelemetryFilter filter = new DurationThresholdTelemetryFilter(100);
+
+        assertTrue(filter.process(new RequestTelemetry("request", new Date(), 1L, "500", false)));
+    }
+
+    @Test
+    public void testDependencies() {
+        DurationThresholdTelemetryFilter filter = new DurationThresholdTelemetryFilter(100);
+
+        assertFalse(filter.process(new RemoteDependencyTelemetry("sql", "select", new Duration(5), true)));
+        assertTrue(filter.process(new RemoteDependencyTelemetry("sql", "select", new Duration(5), false)));
+        assertTrue(filter.process(new RemoteDependencyTelemetry("sql", "select", new Duration(500), true)));
+        assertTrue(filter.process(new RemoteDependencyTelemetry("sql")));
+    }
+
+    @Test
+    public void testOtherTypesAreKept() {
+        DurationThresholdTelemetryFilter filter = new DurationThresholdTelemetryFilter(100);
+
+        assertTrue(filter.process(new EventTelemetry("event")));
+    }
+}
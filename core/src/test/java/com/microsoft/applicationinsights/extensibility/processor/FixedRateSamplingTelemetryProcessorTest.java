@@ -0,0 +1,223 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility.processor;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class FixedRateSamplingTelemetryProcessorTest {
+    private final static int NUMBER_OF_OPERATIONS = 10000;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroPercentageIsRejected() {
+        new FixedRateSamplingTelemetryProcessor(0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentageAboveHundredIsRejected() {
+        new FixedRateSamplingTelemetryProcessor(100.1);
+    }
+
+    @Test
+    public void testParametersFromConfiguration() {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("SamplingPercentage", "1");
+        namesAndValues.put("ExcludedTypes", "Exception");
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor(namesAndValues);
+
+        assertEquals(1.0, processor.getSamplingPercentage(), 0.0);
+        for (int i = 0; i < 100; ++i) {
+            ExceptionTelemetry exception = new ExceptionTelemetry(new Exception());
+            exception.getContext().getOperation().setId("operation" + i);
+            assertTrue(processor.process(exception));
+        }
+    }
+
+    @Test
+    public void testHundredPercentKeepsAll() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor();
+
+        for (int i = 0; i < NUMBER_OF_OPERATIONS; ++i) {
+            RequestTelemetry telemetry = createRequest("operation" + i);
+            assertTrue(processor.process(telemetry));
+            assertNull(telemetry.getSamplingPercentage());
+        }
+    }
+
+    @Test
+    public void testKeptRatioIsCloseToPercentage() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor(10.0);
+
+        int kept = 0;
+        for (int i = 0; i < NUMBER_OF_OPERATIONS; ++i) {
+            RequestTelemetry telemetry = createRequest("operation" + i);
+            if (processor.process(telemetry)) {
+                ++kept;
+                assertEquals(10.0, telemetry.getSamplingPercentage(), 0.0);
+            }
+        }
+
+        assertTrue("Kept " + kept, kept > NUMBER_OF_OPERATIONS * 0.08 && kept < NUMBER_OF_OPERATIONS * 0.12);
+    }
+
+    @Test
+    public void testTelemetriesWithoutOperationIdAreSampled() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor(50.0);
+
+        int kept = 0;
+        for (int i = 0; i < NUMBER_OF_OPERATIONS; ++i) {
+            if (processor.process(new RequestTelemetry())) {
+                ++kept;
+            }
+        }
+
+        assertTrue("Kept " + kept, kept > NUMBER_OF_OPERATIONS * 0.45 && kept < NUMBER_OF_OPERATIONS * 0.55);
+    }
+
+    @Test
+    public void testDecisionIsConsistentPerOperation() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor(30.0);
+
+        for (int i = 0; i < 1000; ++i) {
+            String operationId = "operation" + i;
+            boolean requestKept = processor.process(createRequest(operationId));
+
+            ExceptionTelemetry exception = new ExceptionTelemetry(new Exception());
+            exception.getContext().getOperation().setId(operationId);
+            TraceTelemetry trace = new TraceTelemetry("trace");
+            trace.getContext().getOperation().setId(operationId);
+
+            assertEquals(requestKept, processor.process(exception));
+            assertEquals(requestKept, processor.process(trace));
+        }
+    }
+
+    @Test
+    public void testExcludedTypesAreAlwaysKept() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor(1.0);
+        processor.setExcludedTypes("Exception; Event");
+
+        for (int i = 0; i < 1000; ++i) {
+            ExceptionTelemetry exception = new ExceptionTelemetry(new Exception());
+            exception.getContext().getOperation().setId("operation" + i);
+            EventTelemetry event = new EventTelemetry("event");
+            event.getContext().getOperation().setId("operation" + i);
+
+            assertTrue(processor.process(exception));
+            assertTrue(processor.process(event));
+            assertNull(exception.getSamplingPercentage());
+        }
+    }
+
+    @Test
+    public void testOnlyIncludedTypesAreSampled() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor(1.0);
+        processor.setIncludedTypes("Request");
+
+        int keptRequests = 0;
+        for (int i = 0; i < 1000; ++i) {
+            TraceTelemetry trace = new TraceTelemetry("trace");
+            trace.getContext().getOperation().setId("operation" + i);
+            assertTrue(processor.process(trace));
+
+            if (processor.process(createRequest("operation" + i))) {
+                ++keptRequests;
+            }
+        }
+
+        assertTrue(keptRequests < 100);
+    }
+
+    @Test
+    public void testMetricsAreNeverSampled() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor(1.0);
+
+        for (int i = 0; i < 1000; ++i) {
+            MetricTelemetry metric = new MetricTelemetry("metric", i);
+            metric.getContext().getOperation().setId("operation" + i);
+            assertTrue(processor.process(metric));
+        }
+    }
+
+    @Test
+    public void testLowerPercentageOfTwoProcessorsIsKept() {
+        FixedRateSamplingTelemetryProcessor first = new FixedRateSamplingTelemetryProcessor(20.0);
+        FixedRateSamplingTelemetryProcessor second = new FixedRateSamplingTelemetryProcessor(50.0);
+
+        for (int i = 0; i < 1000; ++i) {
+            RequestTelemetry telemetry = createRequest("operation" + i);
+            if (first.process(telemetry)) {
+                assertTrue(second.process(telemetry));
+                assertEquals(20.0, telemetry.getSamplingPercentage(), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testSampleRateIsSerialized() throws IOException {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor(25.0);
+
+        RequestTelemetry telemetry = null;
+        for (int i = 0; telemetry == null; ++i) {
+            RequestTelemetry candidate = createRequest("operation" + i);
+            if (processor.process(candidate)) {
+                telemetry = candidate;
+            }
+        }
+
+        assertTrue(serialize(telemetry).contains("\"sampleRate\":25"));
+        assertTrue(serialize(createRequest("operation")).contains("\"sampleRate\":100"));
+        assertFalse(serialize(telemetry).contains("\"sampleRate\":100"));
+    }
+
+    private static RequestTelemetry createRequest(String operationId) {
+        RequestTelemetry telemetry = new RequestTelemetry();
+        telemetry.getContext().getOperation().setId(operationId);
+        return telemetry;
+    }
+
+    private static String serialize(Telemetry telemetry) throws IOException {
+        telemetry.setTimestamp(new Date());
+        StringWriter writer = new StringWriter();
+        JsonTelemetryDataSerializer serializer = new JsonTelemetryDataSerializer(writer);
+        telemetry.serialize(serializer);
+        serializer.close();
+        return writer.toString();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility.processor;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class NamePatternTelemetryFilterTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPatternIsRejected() {
+        new NamePatternTelemetryFilter("");
+    }
+
+    @Test
+    public void testParameterFromConfiguration() {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("Pattern", "GET /health.*");
+
+        assertEquals("GET /health.*", new NamePatternTelemetryFilter(namesAndValues).getPattern());
+    }
+
+    @Test
+    public void testMatchingRequestIsDropped() {
+        NamePatternTelemetryFilter filter = new NamePatternTelemetryFilter("GET /health.*");
+
+        assertFalse(filter.process(new RequestTelemetry("GET /health", new Date(), 1L, "200", true)));
+        assertFalse(filter.process(new RequestTelemetry("GET /health/ready", new Date(), 1L, "200", true)));
+        assertTrue(filter.process(new RequestTelemetry("GET /orders", new Date(), 1L, "200", true)));
+    }
+
+    @Test
+    public void testWholeNameMustMatch() {
+        NamePatternTelemetryFilter filter = new NamePatternTelemetryFilter("health");
+
+        assertTrue(filter.process(new RequestTelemetry("GET /health", new Date(), 1L, "200", true)));
+    }
+
+    @Test
+    public void testOtherNamedTypes() {
+        NamePatternTelemetryFilter filter = new NamePatternTelemetryFilter("noisy.*");
+
+        assertFalse(filter.process(new RemoteDependencyTelemetry("noisyDependency")));
+        assertFalse(filter.process(new EventTelemetry("noisyEvent")));
+        assertTrue(filter.process(new EventTelemetry("event")));
+        assertTrue(filter.process(new TraceTelemetry("noisyTrace")));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.agent;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public final class ConnectionTargetCacheTest {
+    private final static String MOCK_URL = "jdbc:mysql://mock-host:3306/db";
+
+    @Test
+    public void testMetaDataIsFetchedOncePerConnection() throws SQLException {
+        Connection connection = createConnection(MOCK_URL);
+        ConnectionTargetCache cache = new ConnectionTargetCache();
+
+        ConnectionTargetCache.Target target = cache.get(connection);
+        assertSame(target, cache.get(connection));
+
+        verify(connection, times(1)).getMetaData();
+        assertEquals(MOCK_URL, target.url);
+        assertEquals("mysql", target.databaseType);
+        assertEquals("mock-host", target.host);
+    }
+
+    @Test
+    public void testConnectionsAreKeptApart() throws SQLException {
+        ConnectionTargetCache cache = new ConnectionTargetCache();
+
+        ConnectionTargetCache.Target target1 = cache.get(createConnection(MOCK_URL));
+        ConnectionTargetCache.Target target2 = cache.get(createConnection(MOCK_URL));
+
+        assertNotSame(target1, target2);
+    }
+
+    @Test
+    public void testFailureToFetchMetaData() throws SQLException {
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.getMetaData()).thenThrow(new SQLException("mock"));
+        ConnectionTargetCache cache = new ConnectionTargetCache();
+
+        ConnectionTargetCache.Target target = cache.get(connection);
+        cache.get(connection);
+
+        assertEquals(ConnectionTargetCache.UNKNOWN_URL, target.url);
+        verify(connection, times(1)).getMetaData();
+    }
+
+    @Test
+    public void testParseDatabaseType() {
+        assertEquals("mysql", ConnectionTargetCache.parseDatabaseType(MOCK_URL));
+        assertEquals("oracle", ConnectionTargetCache.parseDatabaseType("jdbc:oracle:thin:@mock-host:1521:sid"));
+        assertEquals("h2", ConnectionTargetCache.parseDatabaseType("jdbc:h2:mem:test"));
+        assertNull(ConnectionTargetCache.parseDatabaseType("mock"));
+        assertNull(ConnectionTargetCache.parseDatabaseType(null));
+    }
+
+    @Test
+    public void testParseHost() {
+        assertEquals("mock-host", ConnectionTargetCache.parseHost(MOCK_URL));
+        assertEquals("mock-host", ConnectionTargetCache.parseHost("jdbc:oracle:thin:@mock-host:1521:sid"));
+        assertEquals("mock-host", ConnectionTargetCache.parseHost("jdbc:oracle:thin:@//mock-host:1521/service"));
+        assertEquals("mock-host", ConnectionTargetCache.parseHost("jdbc:sqlserver://mock-host;databaseName=db"));
+        assertEquals("[::1]", ConnectionTargetCache.parseHost("jdbc:postgresql://[::1]:5432/db"));
+        assertNull(ConnectionTargetCache.parseHost("jdbc:h2:mem:test"));
+        assertNull(ConnectionTargetCache.parseHost(null));
+    }
+
+    private static Connection createConnection(String url) throws SQLException {
+        DatabaseMetaData metaData = Mockito.mock(DatabaseMetaData.class);
+        Mockito.when(metaData.getURL()).thenReturn(url);
+
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.getMetaData()).thenReturn(metaData);
+
+        return connection;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.agent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.agent.internal.coresync.DependencyType;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public final class DependencyAggregatorTest {
+    @Test
+    public void testCallsAreAggregatedPerTarget() {
+        TelemetryClient mockClient = Mockito.mock(TelemetryClient.class);
+        DependencyAggregator aggregator = new DependencyAggregator(mockClient);
+
+        aggregator.add(DependencyType.REDIS, "get", 1000000L, true);
+        aggregator.add(DependencyType.REDIS, "get", 2000000L, true);
+        aggregator.add(DependencyType.REDIS, "set", 3000000L, false);
+        aggregator.add(DependencyType.SQL, "get", 4000000L, true);
+        aggregator.flush();
+
+        Map<String, MetricTelemetry> metrics = getMetrics(mockClient, 3);
+
+        MetricTelemetry get = metrics.get("REDIS/get");
+        assertNotNull(get);
+        assertEquals(DependencyAggregator.METRIC_NAME, get.getName());
+        assertEquals(1.5, get.getValue(), 0.0);
+        assertEquals(Integer.valueOf(2), get.getCount());
+        assertEquals("3.0", get.getProperties().get(DependencyAggregator.TOTAL_DURATION_PROPERTY));
+        assertNull(get.getProperties().get(DependencyAggregator.FAILURES_PROPERTY));
+
+        MetricTelemetry set = metrics.get("REDIS/set");
+        assertNotNull(set);
+        assertEquals(Integer.valueOf(1), set.getCount());
+        assertEquals("1", set.getProperties().get(DependencyAggregator.FAILURES_PROPERTY));
+
+        MetricTelemetry sql = metrics.get("SQL/get");
+        assertNotNull(sql);
+        assertEquals(4.0, sql.getValue(), 0.0);
+    }
+
+    @Test
+    public void testFlushResetsTheAggregates() {
+        TelemetryClient mockClient = Mockito.mock(TelemetryClient.class);
+        DependencyAggregator aggregator = new DependencyAggregator(mockClient);
+
+        aggregator.add(DependencyType.HTTP, "http://mock", 1000000L, true);
+        aggregator.flush();
+        aggregator.flush();
+
+        verify(mockClient, times(1)).track(any(Telemetry.class));
+    }
+
+    @Test
+    public void testStopSendsTheCallsThatAreLeft() {
+        TelemetryClient mockClient = Mockito.mock(TelemetryClient.class);
+        DependencyAggregator aggregator = new DependencyAggregator(mockClient);
+
+        aggregator.add(DependencyType.HTTP, "http://mock", 1000000L, true);
+        aggregator.stop(1, TimeUnit.SECONDS);
+
+        Map<String, MetricTelemetry> metrics = getMetrics(mockClient, 1);
+        assertNotNull(metrics.get("HTTP/http://mock"));
+    }
+
+    @Test
+    public void testNothingIsSentWithoutCalls() {
+        TelemetryClient mockClient = Mockito.mock(TelemetryClient.class);
+        DependencyAggregator aggregator = new DependencyAggregator(mockClient);
+
+        aggregator.flush();
+
+        verify(mockClient, never()).track(any(Telemetry.class));
+    }
+
+    @Test
+    public void testNullTarget() {
+        TelemetryClient mockClient = Mockito.mock(TelemetryClient.class);
+        DependencyAggregator aggregator = new DependencyAggregator(mockClient);
+
+        aggregator.add(DependencyType.SQL, null, 1000000L, true);
+        aggregator.flush();
+
+        Map<String, MetricTelemetry> metrics = getMetrics(mockClient, 1);
+        assertNotNull(metrics.get("SQL/" + DependencyAggregator.UNKNOWN_TARGET));
+    }
+
+    @Test
+    public void testTargetsBeyondTheLimitAreFoldedTogether() {
+        TelemetryClient mockClient = Mockito.mock(TelemetryClient.class);
+        DependencyAggregator aggregator = new DependencyAggregator(mockClient);
+
+        for (int i = 0; i < DependencyAggregator.MAX_TARGETS_PER_TYPE + 10; ++i) {
+            aggregator.add(DependencyType.OTHER, "method" + i, 1000000L, true);
+        }
+        aggregator.flush();
+
+        Map<String, MetricTelemetry> metrics = getMetrics(mockClient, DependencyAggregator.MAX_TARGETS_PER_TYPE + 1);
+        MetricTelemetry others = metrics.get("OTHER/" + DependencyAggregator.OTHER_TARGETS);
+        assertNotNull(others);
+        assertEquals(Integer.valueOf(10), others.getCount());
+    }
+
+    private static Map<String, MetricTelemetry> getMetrics(TelemetryClient mockClient, int expected) {
+        ArgumentCaptor<Telemetry> captor = ArgumentCaptor.forClass(Telemetry.class);
+        verify(mockClient, times(expected)).track(captor.capture());
+
+        Map<String, MetricTelemetry> metrics = new HashMap<String, MetricTelemetry>();
+        List<Telemetry> telemetries = captor.getAllValues();
+        for (Telemetry telemetry : telemetries) {
+            MetricTelemetry metric = (MetricTelemetry)telemetry;
+            String key = metric.getProperties().get(DependencyAggregator.TYPE_PROPERTY) + "/" + metric.getProperties().get(DependencyAggregator.TARGET_PROPERTY);
+            metrics.put(key, metric);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.agent;
+
+import com.microsoft.applicationinsights.agent.internal.coresync.InstrumentedClassType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public final class MethodFrameStackTest {
+    @Test
+    public void testEmptyStack() {
+        MethodFrameStack stack = new MethodFrameStack();
+
+        assertNull(stack.peek());
+        stack.pop();
+        assertEquals(0, stack.depth());
+    }
+
+    @Test
+    public void testPushAndPop() {
+        MethodFrameStack stack = new MethodFrameStack();
+
+        MethodFrameStack.Frame outer = stack.push(InstrumentedClassType.HTTP, "outer", 1L);
+        outer.target = "http://mock";
+        MethodFrameStack.Frame inner = stack.push(InstrumentedClassType.SQL, "inner", 2L);
+
+        assertEquals(2, stack.depth());
+        assertSame(inner, stack.peek());
+        assertEquals(InstrumentedClassType.SQL, inner.type);
+        assertEquals("inner", inner.name);
+        assertEquals(2L, inner.startInNanos);
+
+        stack.pop();
+        assertSame(outer, stack.peek());
+        assertEquals("http://mock", outer.target);
+
+        stack.pop();
+        assertNull(stack.peek());
+    }
+
+    @Test
+    public void testPopClearsTheFrame() {
+        MethodFrameStack stack = new MethodFrameStack();
+
+        MethodFrameStack.Frame frame = stack.push(InstrumentedClassType.SQL, "mock", 1L);
+        frame.target = "jdbc:mock";
+        frame.command = "SELECT 1";
+        frame.connection = new Object();
+        frame.database = new ConnectionTargetCache.Target("jdbc:mock://host/db");
+        frame.arguments = new Object[] {1};
+        frame.batchSize = 10;
+        stack.pop();
+
+        assertNull(frame.type);
+        assertNull(frame.name);
+        assertNull(frame.target);
+        assertNull(frame.command);
+        assertNull(frame.connection);
+        assertNull(frame.database);
+        assertNull(frame.arguments);
+        assertEquals(-1, frame.batchSize);
+    }
+
+    @Test
+    public void testFramesAreReused() {
+        MethodFrameStack stack = new MethodFrameStack();
+
+        MethodFrameStack.Frame first = stack.push(InstrumentedClassType.OTHER, "first", 1L);
+        stack.pop();
+        MethodFrameStack.Frame second = stack.push(InstrumentedClassType.OTHER, "second", 2L);
+
+        assertSame(first, second);
+        assertEquals("second", second.name);
+    }
+
+    @Test
+    public void testStackGrows() {
+        MethodFrameStack stack = new MethodFrameStack();
+
+        for (int i = 0; i < 100; ++i) {
+            stack.push(InstrumentedClassType.OTHER, "method" + i, i);
+        }
+        assertEquals(100, stack.depth());
+
+        for (int i = 99; i >= 0; --i) {
+            assertEquals("method" + i, stack.peek().name);
+            stack.pop();
+        }
+        assertNull(stack.peek());
+    }
+}
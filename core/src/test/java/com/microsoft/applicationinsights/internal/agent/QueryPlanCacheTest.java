@@ -0,0 +1,144 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.agent;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public final class QueryPlanCacheTest {
+    private final static String MOCK_SELECT = "SELECT * FROM mock";
+    private final static String MOCK_PLAN = "mock plan";
+
+    @Test
+    public void testPlanIsCapturedOnTheCallingThread() throws SQLException {
+        final List<Thread> explainThreads = new ArrayList<Thread>();
+        Connection connection = createConnection(explainThreads);
+        QueryPlanCache cache = new QueryPlanCache(60000, 60000, 10);
+
+        assertEquals("[" + MOCK_PLAN + "]", cache.getPlan(MOCK_SELECT, MOCK_SELECT, connection));
+
+        assertEquals(1, explainThreads.size());
+        assertSame(Thread.currentThread(), explainThreads.get(0));
+    }
+
+    @Test
+    public void testCachedPlanIsReturnedWithoutExplaining() throws SQLException {
+        Connection connection = createConnection(null);
+        QueryPlanCache cache = new QueryPlanCache(60000, 60000, 10);
+
+        cache.getPlan(MOCK_SELECT, MOCK_SELECT, connection);
+        assertEquals("[" + MOCK_PLAN + "]", cache.getPlan(MOCK_SELECT, MOCK_SELECT, connection));
+        assertEquals("[" + MOCK_PLAN + "]", cache.getPlan(MOCK_SELECT, MOCK_SELECT, connection));
+
+        verify(connection, times(1)).createStatement();
+    }
+
+    @Test
+    public void testFailedCaptureIsRateLimited() throws SQLException {
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.createStatement()).thenThrow(new SQLException("mock"));
+        QueryPlanCache cache = new QueryPlanCache(60000, 60000, 10);
+
+        assertNull(cache.getPlan(MOCK_SELECT, MOCK_SELECT, connection));
+        assertNull(cache.getPlan(MOCK_SELECT, MOCK_SELECT, connection));
+
+        verify(connection, times(1)).createStatement();
+    }
+
+    @Test
+    public void testExpiredPlanIsCapturedAgain() throws SQLException {
+        Connection connection = createConnection(null);
+        QueryPlanCache cache = new QueryPlanCache(0, 0, 10);
+
+        cache.getPlan(MOCK_SELECT, MOCK_SELECT, connection);
+        cache.getPlan(MOCK_SELECT, MOCK_SELECT, connection);
+
+        verify(connection, times(2)).createStatement();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPlanIsEvicted() throws SQLException {
+        Connection connection = createConnection(null);
+        QueryPlanCache cache = new QueryPlanCache(60000, 60000, 2);
+
+        cache.getPlan("SELECT 1", "SELECT 1", connection);
+        cache.getPlan("SELECT 2", "SELECT 2", connection);
+        cache.getPlan("SELECT 3", "SELECT 3", connection);
+
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testOnlySelectStatementsAreExplained() throws SQLException {
+        Connection connection = createConnection(null);
+        QueryPlanCache cache = new QueryPlanCache(60000, 60000, 10);
+
+        assertNull(cache.getPlan("UPDATE mock SET a = 1", "UPDATE mock SET a = 1", connection));
+
+        verify(connection, never()).createStatement();
+        assertEquals(0, cache.size());
+    }
+
+    private static Connection createConnection(final List<Thread> explainThreads) throws SQLException {
+        ResultSetMetaData metaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(metaData.getColumnCount()).thenReturn(1);
+
+        final ResultSet resultSet = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSet.next()).thenReturn(true, false, true, false);
+        Mockito.when(resultSet.getMetaData()).thenReturn(metaData);
+        Mockito.when(resultSet.getString(1)).thenReturn(MOCK_PLAN);
+
+        Statement statement = Mockito.mock(Statement.class);
+        Mockito.when(statement.executeQuery(anyString())).thenAnswer(new Answer<ResultSet>() {
+            @Override
+            public ResultSet answer(InvocationOnMock invocation) {
+                if (explainThreads != null) {
+                    explainThreads.add(Thread.currentThread());
+                }
+                return resultSet;
+            }
+        });
+
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.createStatement()).thenReturn(statement);
+
+        return connection;
+    }
+}
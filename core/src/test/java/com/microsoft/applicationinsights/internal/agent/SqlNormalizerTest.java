@@ -0,0 +1,139 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.agent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public final class SqlNormalizerTest {
+    @Test
+    public void testStringLiterals() {
+        assertEquals("SELECT * FROM users WHERE name = ? AND city = ?",
+                SqlNormalizer.normalizeStatement("SELECT * FROM users WHERE name = 'O''Brien' AND city = 'A\\'B'"));
+    }
+
+    @Test
+    public void testNumericLiterals() {
+        assertEquals("SELECT * FROM t1 WHERE a = ? AND b > ? AND c < ? AND d = ?",
+                SqlNormalizer.normalizeStatement("SELECT * FROM t1 WHERE a = 42 AND b > 3.14 AND c < 1e-5 AND d = 0x1F"));
+    }
+
+    @Test
+    public void testIdentifiersWithDigitsAreKept() {
+        assertEquals("SELECT col1, t2.col_3 FROM table2 t2", SqlNormalizer.normalizeStatement("SELECT col1, t2.col_3 FROM table2 t2"));
+    }
+
+    @Test
+    public void testQuotedIdentifiersAreKept() {
+        assertEquals("SELECT \"col 1\", `col2` FROM t WHERE a = ?", SqlNormalizer.normalizeStatement("SELECT \"col 1\", `col2` FROM t WHERE a = 'x'", SqlNormalizer.Dialect.STANDARD));
+    }
+
+    @Test
+    public void testWhitespaceIsCollapsed() {
+        assertEquals("SELECT a FROM t WHERE b = ?", SqlNormalizer.normalizeStatement("  SELECT a\n\tFROM   t\r\n WHERE b = 1  "));
+    }
+
+    @Test
+    public void testInListsAreCollapsed() {
+        assertEquals("SELECT a FROM t WHERE b IN (?) AND c in (?)",
+                SqlNormalizer.normalizeStatement("SELECT a FROM t WHERE b IN (1, 2, 3) AND c in ('x','y')"));
+    }
+
+    @Test
+    public void testPlaceholdersAreKept() {
+        assertEquals("INSERT INTO t (a, b) VALUES (?, ?)", SqlNormalizer.normalizeStatement("INSERT INTO t (a, b) VALUES (?, ?)"));
+    }
+
+    @Test
+    public void testNormalizedFormIsCached() {
+        SqlNormalizer normalizer = new SqlNormalizer();
+        String sql = "SELECT a FROM t WHERE b = 1";
+
+        String first = normalizer.normalize(sql);
+        assertSame(first, normalizer.normalize(sql));
+        assertSame(first, normalizer.normalize(new String(sql)));
+        assertEquals(1, normalizer.size());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        SqlNormalizer normalizer = new SqlNormalizer(10);
+
+        for (int i = 0; i < 25; ++i) {
+            assertEquals("SELECT a FROM t WHERE b = ?", normalizer.normalize("SELECT a FROM t WHERE b = " + i));
+        }
+        assertEquals(5, normalizer.size());
+    }
+
+    @Test
+    public void testNullStatement() {
+        assertNull(new SqlNormalizer().normalize(null));
+    }
+
+    @Test
+    public void testDoubleQuotedStringsOfMySqlAreReplaced() {
+        assertEquals("SELECT `name` FROM users WHERE email = ? AND name = ?",
+                SqlNormalizer.normalizeStatement("SELECT `name` FROM users WHERE email = \"john@mock.com\" AND name = 'John'", SqlNormalizer.Dialect.MYSQL));
+    }
+
+    @Test
+    public void testDoubleQuotesOfUnknownDatabasesAreKeptOnlyForIdentifiers() {
+        assertEquals("SELECT \"t\".\"a\" FROM \"users\" AS \"u\" WHERE \"u\".b = ? AND c = ?",
+                SqlNormalizer.normalizeStatement("SELECT \"t\".\"a\" FROM \"users\" AS \"u\" WHERE \"u\".b = \"secret\" AND c = 'x'"));
+        assertEquals("SELECT ?", SqlNormalizer.normalizeStatement("SELECT \"secret\""));
+    }
+
+    @Test
+    public void testBackslashIsNotAnEscapeInStandardStrings() {
+        assertEquals("SELECT * FROM files WHERE path = ? AND owner = ?",
+                SqlNormalizer.normalizeStatement("SELECT * FROM files WHERE path = 'C:\\' AND owner = 'John'", SqlNormalizer.Dialect.STANDARD));
+        assertEquals("SELECT * FROM t WHERE a = E? AND b = ?",
+                SqlNormalizer.normalizeStatement("SELECT * FROM t WHERE a = E'it\\'s' AND b = 'x'", SqlNormalizer.Dialect.STANDARD));
+    }
+
+    @Test
+    public void testBackslashIsAnEscapeInMySqlStrings() {
+        assertEquals("SELECT * FROM t WHERE a = ? AND b = ?",
+                SqlNormalizer.normalizeStatement("SELECT * FROM t WHERE a = 'it\\'s' AND b = \"x\\\"y\"", SqlNormalizer.Dialect.MYSQL));
+    }
+
+    @Test
+    public void testDialectOfDatabaseType() {
+        assertEquals(SqlNormalizer.Dialect.MYSQL, SqlNormalizer.Dialect.fromDatabaseType("mysql"));
+        assertEquals(SqlNormalizer.Dialect.STANDARD, SqlNormalizer.Dialect.fromDatabaseType("postgresql"));
+        assertEquals(SqlNormalizer.Dialect.UNKNOWN, SqlNormalizer.Dialect.fromDatabaseType("mockdb"));
+        assertEquals(SqlNormalizer.Dialect.UNKNOWN, SqlNormalizer.Dialect.fromDatabaseType(null));
+    }
+
+    @Test
+    public void testStatementsAreCachedPerDialect() {
+        SqlNormalizer normalizer = new SqlNormalizer();
+        String sql = "SELECT a FROM t WHERE b = \"x\"";
+
+        assertEquals("SELECT a FROM t WHERE b = ?", normalizer.normalize(sql, "mysql"));
+        assertEquals("SELECT a FROM t WHERE b = \"x\"", normalizer.normalize(sql, "postgresql"));
+        assertEquals(2, normalizer.size());
+    }
+}
@@ -23,14 +23,19 @@ package com.microsoft.applicationinsights.internal.channel.common;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionListener;
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
 import org.junit.Test;
 import org.mockito.Mockito;
 
 import org.apache.commons.io.FileUtils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyObject;
@@ -38,6 +43,51 @@ import static org.mockito.Matchers.anyObject;
 public class ActiveTransmissionLoaderTest {
     private final static String TEMP_TEST_FOLDER = "TransmissionTests";
 
+    private static class StubTransmissionStorage implements TransmissionStorage {
+        private final LinkedList<Transmission> transmissions = new LinkedList<Transmission>();
+        private volatile TransmissionListener listener;
+
+        @Override
+        public boolean send(Transmission transmission) {
+            synchronized (this) {
+                transmissions.add(transmission);
+            }
+            listener.onTransmissionPersisted();
+            return true;
+        }
+
+        @Override
+        public synchronized Transmission fetchOldest() {
+            return transmissions.poll();
+        }
+
+        @Override
+        public void setTransmissionListener(TransmissionListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+    }
+
+    private static class CountingDispatcher implements TransmissionDispatcher {
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        @Override
+        public void dispatch(Transmission transmission) {
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        public int getCounter() {
+            return counter.get();
+        }
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNullFileSystem() throws Exception {
         new ActiveTransmissionLoader(null, Mockito.mock(TransmissionDispatcher.class), 1);
@@ -83,6 +133,61 @@ public class ActiveTransmissionLoaderTest {
         testFilesOnDiskAreLoaded(2, false);
     }
 
+    @Test
+    public void testTransmissionsInFlightAreLimited() throws Exception {
+        StubTransmissionStorage storage = new StubTransmissionStorage();
+        CountingDispatcher dispatcher = new CountingDispatcher();
+        ActiveTransmissionLoader tested = new ActiveTransmissionLoader(storage, dispatcher, 2);
+        try {
+            tested.load(true);
+            for (int i = 0; i < 20; ++i) {
+                storage.send(new Transmission(new byte[2], "MockContentType", "MockEncodingType"));
+            }
+
+            // No send results, so only the allowed number is loaded
+            Thread.sleep(500);
+            assertEquals(8, dispatcher.getCounter());
+
+            for (int i = 0; i < 4; ++i) {
+                tested.onTransmissionSent(true);
+            }
+            waitForDispatches(dispatcher, 12);
+            Thread.sleep(200);
+            assertEquals(12, dispatcher.getCounter());
+        } finally {
+            tested.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testLoadingIsPausedAfterFailedSend() throws Exception {
+        StubTransmissionStorage storage = new StubTransmissionStorage();
+        CountingDispatcher dispatcher = new CountingDispatcher();
+        ActiveTransmissionLoader tested = new ActiveTransmissionLoader(storage, dispatcher, 1);
+        try {
+            tested.load(true);
+            tested.onTransmissionSent(false);
+            storage.send(new Transmission(new byte[2], "MockContentType", "MockEncodingType"));
+
+            Thread.sleep(300);
+            assertEquals(0, dispatcher.getCounter());
+
+            // A successful send ends the pause
+            tested.onTransmissionSent(true);
+            waitForDispatches(dispatcher, 1);
+        } finally {
+            tested.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void waitForDispatches(CountingDispatcher dispatcher, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getCounter() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, dispatcher.getCounter());
+    }
+
     private void testFilesOnDiskAreLoaded(int amount, boolean putFilesFirst) throws IOException, InterruptedException {
         File folder = null;
         ActiveTransmissionLoader tested = null;
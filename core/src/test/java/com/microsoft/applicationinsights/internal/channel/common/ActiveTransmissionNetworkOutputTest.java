@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
@@ -31,6 +32,7 @@ import org.junit.Test;
 
 import org.mockito.Mockito;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyObject;
@@ -56,13 +58,11 @@ public class ActiveTransmissionNetworkOutputTest {
 
     @Test
     public void testBufferIsFull() throws Exception {
-        final boolean[] isError = {false};
-        final int[] numberExpected = {0};
+        final AtomicInteger counter = new AtomicInteger(0);
         TransmissionOutput mock = new TransmissionOutput() {
             private ReentrantLock lock = new ReentrantLock();
             private Condition stopCondition = lock.newCondition();
             private boolean done = false;
-            private AtomicInteger counter = new AtomicInteger(0);
 
             @Override
             public boolean send(Transmission transmission) {
@@ -81,10 +81,6 @@ public class ActiveTransmissionNetworkOutputTest {
                     lock.unlock();
                 }
 
-                // Current default max number of threads + 1
-                if (counter.get() != numberExpected[0]) {
-                    isError[0] = true;
-                }
                 return false;
             }
 
@@ -99,10 +95,22 @@ public class ActiveTransmissionNetworkOutputTest {
                 }
             }
         };
-        ActiveTransmissionNetworkOutput tested = new ActiveTransmissionNetworkOutput(mock, 1);
-        numberExpected[0] = tested.getNumberOfMaxThreads();
-        testSend(100, 1, tested);
-        assertTrue("Too many calls to send", isError[0]);
+        TransmissionOutput spillOutput = Mockito.mock(TransmissionOutput.class);
+        Mockito.doReturn(true).when(spillOutput).send((Transmission) anyObject());
+
+        ActiveTransmissionNetworkOutput tested = new ActiveTransmissionNetworkOutput(mock, 1, spillOutput);
+        int accepted = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (tested.send(new Transmission(new byte[2], MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE))) {
+                ++accepted;
+            }
+        }
+        tested.stop(500L, TimeUnit.MILLISECONDS);
+
+        // Current default max number of threads + 1 in the buffer, the one in the buffer is never sent
+        assertEquals(tested.getNumberOfMaxThreads() + 1, accepted);
+        assertEquals(tested.getNumberOfMaxThreads(), counter.get());
+        Mockito.verify(spillOutput, Mockito.times(accepted)).send((Transmission) anyObject());
     }
 
     private void testSend(int amount) throws InterruptedException {
@@ -143,4 +151,73 @@ public class ActiveTransmissionNetworkOutputTest {
     @Test
     public void testStop() throws Exception {
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStopSpillsTransmissionsThatWereNotSent() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        TransmissionOutput blockedOutput = new TransmissionOutput() {
+            @Override
+            public boolean send(Transmission transmission) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                return true;
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+            }
+        };
+        TransmissionOutput spillOutput = Mockito.mock(TransmissionOutput.class);
+        Mockito.doReturn(true).when(spillOutput).send((Transmission) anyObject());
+
+        ActiveTransmissionNetworkOutput tested = new ActiveTransmissionNetworkOutput(blockedOutput, spillOutput);
+        int amount = tested.getNumberOfMaxThreads() + 3;
+        for (int i = 0; i < amount; ++i) {
+            tested.send(new Transmission(new byte[2], MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE));
+        }
+
+        try {
+            tested.stop(100L, TimeUnit.MILLISECONDS);
+
+            // Every transmission is either queued or being sent when the output is stopped
+            Mockito.verify(spillOutput, Mockito.times(amount)).send((Transmission) anyObject());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testFullQueueDropsTheNewestTransmission() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        TransmissionOutput blockedOutput = new TransmissionOutput() {
+            @Override
+            public boolean send(Transmission transmission) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                return true;
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+            }
+        };
+
+        PipelineStageConfiguration configuration =
+                new PipelineStageConfiguration("NetworkOutput", 1, 1, 1, PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST, 0);
+        ActiveTransmissionNetworkOutput tested = new ActiveTransmissionNetworkOutput(blockedOutput, null, configuration);
+        try {
+            // One is sent, one is queued and the rest are dropped, which is a success for the dispatcher
+            for (int i = 0; i < 5; ++i) {
+                assertTrue(tested.send(new Transmission(new byte[2], MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE)));
+            }
+            assertEquals(1, tested.getNumberOfMaxThreads());
+        } finally {
+            release.countDown();
+            tested.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+}
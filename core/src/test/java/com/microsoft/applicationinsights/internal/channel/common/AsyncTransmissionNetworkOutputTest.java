@@ -0,0 +1,316 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionListener;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class AsyncTransmissionNetworkOutputTest {
+    private final static long[] BACK_OFF_TIMES_IN_MILLIS = {10, 10};
+
+    private static class StubServer implements HttpHandler {
+        private final AtomicInteger received = new AtomicInteger(0);
+        private final int[] responseCodes;
+        private final boolean chunked;
+        private volatile CountDownLatch release = new CountDownLatch(0);
+        private HttpServer server;
+        private ExecutorService executor;
+
+        private StubServer(boolean chunked, int... responseCodes) {
+            this.chunked = chunked;
+            this.responseCodes = responseCodes;
+        }
+
+        private void start() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/v2/track", this);
+            executor = Executors.newFixedThreadPool(4);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            InputStream body = exchange.getRequestBody();
+            while (body.read(new byte[1024]) != -1) {
+            }
+            body.close();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+            }
+
+            int index = received.getAndIncrement();
+            int responseCode = responseCodes[Math.min(index, responseCodes.length - 1)];
+            byte[] response = ("{\"itemsReceived\":1}").getBytes("UTF-8");
+            exchange.sendResponseHeaders(responseCode, chunked ? 0 : response.length);
+            OutputStream output = exchange.getResponseBody();
+            output.write(response);
+            output.close();
+        }
+
+        private String getUri() {
+            return "http://localhost:" + server.getAddress().getPort() + "/v2/track";
+        }
+
+        private void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private static class StubListener implements TransmissionListener {
+        private final AtomicInteger succeeded = new AtomicInteger(0);
+        private final AtomicInteger failed = new AtomicInteger(0);
+        private final CountDownLatch results;
+
+        private StubListener(int expectedResults) {
+            results = new CountDownLatch(expectedResults);
+        }
+
+        @Override
+        public void onTransmissionPersisted() {
+        }
+
+        @Override
+        public void onTransmissionSent(boolean succeeded) {
+            if (succeeded) {
+                this.succeeded.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            results.countDown();
+        }
+
+        private boolean waitForResults() throws InterruptedException {
+            return results.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private StubServer server;
+    private AsyncTransmissionNetworkOutput tested;
+
+    @Before
+    public void setUp() {
+        server = null;
+        tested = null;
+    }
+
+    @After
+    public void tearDown() {
+        if (tested != null) {
+            tested.stop(1L, TimeUnit.SECONDS);
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testAllTransmissionsAreSent() throws Exception {
+        testTransmissionsAreSent(false);
+    }
+
+    @Test
+    public void testAllTransmissionsAreSentWithChunkedResponses() throws Exception {
+        testTransmissionsAreSent(true);
+    }
+
+    @Test
+    public void testBadRequestIsNotSentAgain() throws Exception {
+        StubListener listener = startAndSend(new StubServer(false, 400), 1024 * 1024, 1);
+
+        assertTrue(listener.waitForResults());
+        assertEquals(1, listener.failed.get());
+        assertEquals(1, server.received.get());
+    }
+
+    @Test
+    public void testThrottledTransmissionIsSentAgain() throws Exception {
+        StubListener listener = startAndSend(new StubServer(false, 429, 200), 1024 * 1024, 1);
+
+        assertTrue(listener.waitForResults());
+        assertEquals(1, listener.succeeded.get());
+        assertEquals(2, server.received.get());
+    }
+
+    @Test
+    public void testThrottledTransmissionIsDroppedAfterAllBackOffs() throws Exception {
+        StubListener listener = startAndSend(new StubServer(false, 429), 1024 * 1024, 1);
+
+        assertTrue(listener.waitForResults());
+        assertEquals(1, listener.failed.get());
+        assertEquals(BACK_OFF_TIMES_IN_MILLIS.length + 1, server.received.get());
+    }
+
+    @Test
+    public void testBytesInFlightAreBounded() throws Exception {
+        server = new StubServer(false, 200);
+        server.release = new CountDownLatch(1);
+        server.start();
+        tested = new AsyncTransmissionNetworkOutput(server.getUri(), 1, 8, 1200, 10000, BACK_OFF_TIMES_IN_MILLIS);
+        StubListener listener = new StubListener(3);
+        tested.setTransmissionListener(listener);
+
+        assertTrue(tested.send(createTransmission(400)));
+        assertTrue(tested.send(createTransmission(400)));
+        assertFalse(tested.send(createTransmission(400)));
+
+        server.release.countDown();
+        assertTrue(waitForNoBytesInFlight());
+        assertTrue(tested.send(createTransmission(400)));
+
+        assertTrue(listener.waitForResults());
+        assertEquals(3, listener.succeeded.get());
+    }
+
+    @Test
+    public void testUnreachableServer() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        tested = new AsyncTransmissionNetworkOutput("http://localhost:" + port + "/v2/track", 1, 8, 1024 * 1024, 10000, BACK_OFF_TIMES_IN_MILLIS);
+        StubListener listener = new StubListener(1);
+        tested.setTransmissionListener(listener);
+        assertTrue(tested.send(createTransmission(10)));
+
+        assertTrue(listener.waitForResults());
+        assertEquals(1, listener.failed.get());
+        assertEquals(0, tested.getBytesInFlight());
+    }
+
+    @Test
+    public void testWrittenRequestIsNotSentAgainWhenTheConnectionIsLost() throws Exception {
+        final ServerSocket socket = new ServerSocket(0);
+        final AtomicInteger requests = new AtomicInteger(0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket connection = socket.accept();
+                        if (connection.getInputStream().read(new byte[1024]) > 0) {
+                            requests.incrementAndGet();
+                        }
+                        // The request is read and the connection is lost before the response
+                        connection.close();
+                    }
+                } catch (IOException e) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        try {
+            tested = new AsyncTransmissionNetworkOutput("http://localhost:" + socket.getLocalPort() + "/v2/track", 1, 8, 1024 * 1024, 10000, BACK_OFF_TIMES_IN_MILLIS);
+            StubListener listener = new StubListener(1);
+            tested.setTransmissionListener(listener);
+            assertTrue(tested.send(createTransmission(10)));
+
+            assertTrue(listener.waitForResults());
+            Thread.sleep(200);
+            assertEquals(1, listener.failed.get());
+            assertEquals(1, requests.get());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testSendAfterStop() throws Exception {
+        server = new StubServer(false, 200);
+        server.start();
+        tested = new AsyncTransmissionNetworkOutput(server.getUri(), 1, 8, 1024 * 1024, 10000, BACK_OFF_TIMES_IN_MILLIS);
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        assertFalse(tested.send(createTransmission(10)));
+    }
+
+    private void testTransmissionsAreSent(boolean chunked) throws Exception {
+        int amount = 200;
+        server = new StubServer(chunked, 200);
+        server.start();
+        tested = new AsyncTransmissionNetworkOutput(server.getUri(), 2, 8, 1024 * 1024, 10000, BACK_OFF_TIMES_IN_MILLIS);
+        StubListener listener = new StubListener(amount);
+        tested.setTransmissionListener(listener);
+
+        for (int i = 0; i < amount; ++i) {
+            assertTrue(tested.send(createTransmission(100 + i)));
+        }
+
+        assertTrue(listener.waitForResults());
+        assertEquals(amount, listener.succeeded.get());
+        assertEquals(amount, server.received.get());
+        assertEquals(0, tested.getBytesInFlight());
+    }
+
+    private StubListener startAndSend(StubServer stubServer, long maxBytesInFlight, int amount) throws Exception {
+        server = stubServer;
+        server.start();
+        tested = new AsyncTransmissionNetworkOutput(server.getUri(), 1, 8, maxBytesInFlight, 10000, BACK_OFF_TIMES_IN_MILLIS);
+        StubListener listener = new StubListener(amount);
+        tested.setTransmissionListener(listener);
+        for (int i = 0; i < amount; ++i) {
+            assertTrue(tested.send(createTransmission(10)));
+        }
+
+        return listener;
+    }
+
+    private boolean waitForNoBytesInFlight() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (tested.getBytesInFlight() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        return tested.getBytesInFlight() == 0;
+    }
+
+    private static Transmission createTransmission(int size) {
+        return new Transmission(new byte[size], "application/x-json-stream", "gzip");
+    }
+}
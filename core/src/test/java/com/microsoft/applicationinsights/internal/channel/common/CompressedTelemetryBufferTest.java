@@ -0,0 +1,265 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class CompressedTelemetryBufferTest {
+    private final static String MOCK_PROPERTY_NAME = "MockProperty";
+    private final static String NEWLINE = System.getProperty("line.separator");
+
+    private static class StubTelemetriesTransmitter implements TelemetriesTransmitter {
+        private final List<Transmission> transmissions = new ArrayList<Transmission>();
+        private final CountDownLatch expectedTransmissions;
+        private final boolean runScheduledSends;
+
+        private StubTelemetriesTransmitter(int expectedTransmissions, boolean runScheduledSends) {
+            this.expectedTransmissions = new CountDownLatch(expectedTransmissions);
+            this.runScheduledSends = runScheduledSends;
+        }
+
+        @Override
+        public boolean scheduleSend(final TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+            if (!runScheduledSends) {
+                return true;
+            }
+
+            // Fires right away on another thread, like the transmitter's threads would do when the timeout expires
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    assertTrue(telemetriesFetcher.fetch().isEmpty());
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Collection<String> telemetries) {
+            throw new IllegalStateException("The compressed buffer should only send transmissions");
+        }
+
+        @Override
+        public synchronized boolean sendNow(Transmission transmission) {
+            transmissions.add(transmission);
+            expectedTransmissions.countDown();
+            return true;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        public boolean waitForTransmissions(long timeoutInSeconds) throws InterruptedException {
+            return expectedTransmissions.await(timeoutInSeconds, TimeUnit.SECONDS);
+        }
+
+        public synchronized List<Transmission> getTransmissions() {
+            return new ArrayList<Transmission>(transmissions);
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNoSenderIsSet() throws Exception {
+        new CompressedTelemetryBuffer(null, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(10));
+    }
+
+    @Test
+    public void testSendWhenBufferIsFull() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) Mockito.anyObject(), Mockito.anyLong(), (TimeUnit) Mockito.anyObject());
+        Mockito.doReturn(true).when(mockSender).sendNow((Transmission) Mockito.anyObject());
+
+        CompressedTelemetryBuffer testedBuffer = new CompressedTelemetryBuffer(mockSender, createEnforcerWithCurrentValue(2), createEnforcerWithCurrentValue(300));
+        testedBuffer.add("{\"name\":\"a\"}");
+        testedBuffer.add("{\"name\":\"b\"}");
+        testedBuffer.add("{\"name\":\"c\"}");
+
+        Mockito.verify(mockSender, Mockito.times(1)).sendNow((Transmission) Mockito.anyObject());
+        Mockito.verify(mockSender, Mockito.times(2)).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) Mockito.anyObject(), Mockito.anyLong(), (TimeUnit) Mockito.anyObject());
+    }
+
+    @Test
+    public void testTransmissionIsTheSameAsTheGzipSerializer() throws Exception {
+        StubTelemetriesTransmitter sender = new StubTelemetriesTransmitter(0, false);
+        CompressedTelemetryBuffer testedBuffer = new CompressedTelemetryBuffer(sender, createEnforcerWithCurrentValue(3), createEnforcerWithCurrentValue(300));
+
+        List<String> telemetries = new ArrayList<String>();
+        for (int i = 0; i < 3; ++i) {
+            EventTelemetry telemetry = new EventTelemetry("Event" + i);
+            telemetry.getProperties().put("Property", "Value " + i);
+            telemetry.setTimestamp(new Date());
+            telemetries.add(asJson(telemetry));
+            testedBuffer.add(telemetry);
+        }
+
+        List<Transmission> transmissions = sender.getTransmissions();
+        assertEquals(1, transmissions.size());
+        assertEquals("application/x-json-stream", transmissions.get(0).getWebContentType());
+        assertEquals("gzip", transmissions.get(0).getWebContentEncodingType());
+
+        Transmission expected = new GzipTelemetrySerializer().serialize(telemetries).get();
+        assertEquals(decompress(expected.getContent()), decompress(transmissions.get(0).getContent()));
+    }
+
+    @Test
+    public void testBatchIsReused() throws Exception {
+        StubTelemetriesTransmitter sender = new StubTelemetriesTransmitter(0, false);
+        CompressedTelemetryBuffer testedBuffer = new CompressedTelemetryBuffer(sender, createEnforcerWithCurrentValue(2), createEnforcerWithCurrentValue(300));
+
+        for (int i = 0; i < 6; ++i) {
+            testedBuffer.add("mockTelemetry" + i);
+        }
+
+        List<Transmission> transmissions = sender.getTransmissions();
+        assertEquals(3, transmissions.size());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals("mockTelemetry" + (2 * i) + NEWLINE + "mockTelemetry" + (2 * i + 1), decompress(transmissions.get(i).getContent()));
+        }
+    }
+
+    @Test
+    public void testAddDoesNotWaitForACompletedBatch() throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) Mockito.anyObject(), Mockito.anyLong(), (TimeUnit) Mockito.anyObject());
+        Mockito.doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                sending.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return true;
+            }
+        }).when(mockSender).sendNow((Transmission) Mockito.anyObject());
+
+        final CompressedTelemetryBuffer testedBuffer = new CompressedTelemetryBuffer(mockSender, createEnforcerWithCurrentValue(2), createEnforcerWithCurrentValue(300));
+        Thread completing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                testedBuffer.add("mockTelemetry1");
+                testedBuffer.add("mockTelemetry2");
+            }
+        });
+        completing.setDaemon(true);
+        completing.start();
+
+        try {
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            testedBuffer.add("mockTelemetry3");
+            assertTrue("The add waited for the completed batch", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testNonAsciiTelemetriesAreUtf8() throws Exception {
+        StubTelemetriesTransmitter sender = new StubTelemetriesTransmitter(0, false);
+        CompressedTelemetryBuffer testedBuffer = new CompressedTelemetryBuffer(sender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(300));
+
+        String telemetry = "{\"name\":\"caf\u00e9 \u20ac \ud83d\ude00\"}";
+        testedBuffer.add(telemetry);
+        testedBuffer.flush();
+
+        List<Transmission> transmissions = sender.getTransmissions();
+        assertEquals(1, transmissions.size());
+        assertEquals(telemetry, decompress(transmissions.get(0).getContent()));
+    }
+
+    @Test
+    public void testSendBufferAfterTimeoutExpires() throws Exception {
+        StubTelemetriesTransmitter sender = new StubTelemetriesTransmitter(1, true);
+        CompressedTelemetryBuffer testedBuffer = new CompressedTelemetryBuffer(sender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(1));
+
+        testedBuffer.add("mockTelemetry");
+
+        assertTrue(sender.waitForTransmissions(5L));
+        assertEquals("mockTelemetry", decompress(sender.getTransmissions().get(0).getContent()));
+    }
+
+    @Test
+    public void testStopSendsPendingTelemetries() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) Mockito.anyObject(), Mockito.anyLong(), (TimeUnit) Mockito.anyObject());
+        Mockito.doReturn(true).when(mockSender).sendNow((Transmission) Mockito.anyObject());
+
+        CompressedTelemetryBuffer testedBuffer = new CompressedTelemetryBuffer(mockSender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(300));
+        testedBuffer.add("mockTelemetry");
+        testedBuffer.stop(1L, TimeUnit.SECONDS);
+        testedBuffer.add("mockTelemetry");
+        testedBuffer.flush();
+
+        Mockito.verify(mockSender, Mockito.times(1)).sendNow((Transmission) Mockito.anyObject());
+    }
+
+    private static String asJson(EventTelemetry telemetry) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+        telemetry.serialize(jsonWriter);
+        jsonWriter.close();
+        return writer.toString();
+    }
+
+    private static String decompress(byte[] content) throws IOException {
+        GZIPInputStream zipStream = new GZIPInputStream(new ByteArrayInputStream(content));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = zipStream.read(buffer)) != -1) {
+            result.write(buffer, 0, read);
+        }
+        zipStream.close();
+
+        return new String(result.toByteArray(), "UTF-8");
+    }
+
+    private static LimitsEnforcer createEnforcerWithCurrentValue(int currentValue) {
+        return LimitsEnforcer.createWithClosestLimitOnError(MOCK_PROPERTY_NAME, 1, 1000, 20, currentValue);
+    }
+}
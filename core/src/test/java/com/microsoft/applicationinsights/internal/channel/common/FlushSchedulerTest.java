@@ -0,0 +1,146 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class FlushSchedulerTest {
+    private static final class CountingTask implements Runnable {
+        private final AtomicInteger counter = new AtomicInteger(0);
+        private final CountDownLatch done;
+
+        private CountingTask(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void run() {
+            counter.incrementAndGet();
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void testTaskRunsAfterTheDelay() throws Exception {
+        FlushScheduler scheduler = new FlushScheduler(10L, TimeUnit.MILLISECONDS, 8);
+        CountingTask task = new CountingTask(1);
+
+        long started = System.nanoTime();
+        scheduler.schedule(task, 100L, TimeUnit.MILLISECONDS);
+
+        assertTrue(task.done.await(5L, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) >= 100);
+        assertEquals(1, task.counter.get());
+    }
+
+    @Test
+    public void testCancelledTaskDoesNotRun() throws Exception {
+        FlushScheduler scheduler = new FlushScheduler(10L, TimeUnit.MILLISECONDS, 8);
+        CountingTask cancelled = new CountingTask(1);
+        CountingTask expired = new CountingTask(1);
+
+        FlushScheduler.Timeout timeout = scheduler.schedule(cancelled, 50L, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+        scheduler.schedule(expired, 100L, TimeUnit.MILLISECONDS);
+
+        assertTrue(expired.done.await(5L, TimeUnit.SECONDS));
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, cancelled.counter.get());
+        waitForNoTimeouts(scheduler);
+    }
+
+    @Test
+    public void testDeadlinesBeyondOneRoundOfTheWheel() throws Exception {
+        // Four buckets of 10 milliseconds, so the deadlines go around the wheel a few times
+        FlushScheduler scheduler = new FlushScheduler(10L, TimeUnit.MILLISECONDS, 4);
+        CountingTask shortTask = new CountingTask(1);
+        CountingTask longTask = new CountingTask(1);
+
+        long started = System.nanoTime();
+        scheduler.schedule(longTask, 150L, TimeUnit.MILLISECONDS);
+        scheduler.schedule(shortTask, 20L, TimeUnit.MILLISECONDS);
+
+        assertTrue(shortTask.done.await(5L, TimeUnit.SECONDS));
+        assertEquals(0, longTask.counter.get());
+
+        assertTrue(longTask.done.await(5L, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) >= 150);
+    }
+
+    @Test
+    public void testManyTimeoutsFromManyThreads() throws Exception {
+        final FlushScheduler scheduler = new FlushScheduler(5L, TimeUnit.MILLISECONDS, 16);
+        final int numberOfThreads = 4;
+        final int timeoutsPerThread = 1000;
+        final CountingTask task = new CountingTask(numberOfThreads * timeoutsPerThread);
+
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < timeoutsPerThread; ++j) {
+                        scheduler.schedule(task, j % 200, TimeUnit.MILLISECONDS);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(task.done.await(5L, TimeUnit.SECONDS));
+        assertEquals(numberOfThreads * timeoutsPerThread, task.counter.get());
+        waitForNoTimeouts(scheduler);
+    }
+
+    @Test
+    public void testSchedulerIsReusedAfterItIsIdle() throws Exception {
+        FlushScheduler scheduler = new FlushScheduler(10L, TimeUnit.MILLISECONDS, 8);
+
+        CountingTask first = new CountingTask(1);
+        scheduler.schedule(first, 10L, TimeUnit.MILLISECONDS);
+        assertTrue(first.done.await(5L, TimeUnit.SECONDS));
+        waitForNoTimeouts(scheduler);
+
+        Thread.sleep(200);
+
+        CountingTask second = new CountingTask(1);
+        scheduler.schedule(second, 10L, TimeUnit.MILLISECONDS);
+        assertTrue(second.done.await(5L, TimeUnit.SECONDS));
+    }
+
+    private static void waitForNoTimeouts(FlushScheduler scheduler) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getNumberOfTimeouts() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, scheduler.getNumberOfTimeouts());
+    }
+}
@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
@@ -146,8 +147,91 @@ public final class GzipTelemetrySerializerTest {
         testSerialization(10);
     }
 
-    private void testSerialization(int amount) throws Exception {
+    @Test
+    public void testSerializeWithBestSpeed() throws Exception {
+        testSerialization(new GzipTelemetrySerializer(Deflater.BEST_SPEED), 10);
+    }
+
+    @Test
+    public void testSerializeWithoutCompression() throws Exception {
+        testSerialization(new GzipTelemetrySerializer(Deflater.NO_COMPRESSION), 10);
+    }
+
+    @Test
+    public void testSerializerIsReused() throws Exception {
+        GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
+        for (int i = 1; i < 5; ++i) {
+            testSerialization(tested, i);
+        }
+    }
+
+    @Test
+    public void testSerializeOfNonAsciiTelemetries() throws Exception {
         GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
+        List<String> telemetries = new ArrayList<String>();
+        telemetries.add("{\"name\":\"\u00e9\u4e2d\ud83d\ude00\"}");
+
+        Transmission transmission = tested.serialize(telemetries).get();
+
+        GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(transmission.getContent()));
+        try {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = gis.read(buf)) > 0) {
+                contents.write(buf, 0, len);
+            }
+
+            assertEquals(telemetries.get(0), new String(contents.toByteArray(), "UTF-8"));
+        } finally {
+            gis.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCompressionLevel() throws Exception {
+        new GzipTelemetrySerializer(10);
+    }
+
+    @Test
+    public void testGetCompressionLevel() throws Exception {
+        assertEquals(Deflater.DEFAULT_COMPRESSION, GzipTelemetrySerializer.getCompressionLevel(null));
+
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        assertEquals(Deflater.DEFAULT_COMPRESSION, GzipTelemetrySerializer.getCompressionLevel(namesAndValues));
+
+        namesAndValues.put("CompressionLevel", "1");
+        assertEquals(1, GzipTelemetrySerializer.getCompressionLevel(namesAndValues));
+
+        namesAndValues.put("CompressionLevel", " 0 ");
+        assertEquals(0, GzipTelemetrySerializer.getCompressionLevel(namesAndValues));
+    }
+
+    @Test
+    public void testGetCompressionLevelAcceptsTheDefault() throws Exception {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("CompressionLevel", "-1");
+        assertEquals(Deflater.DEFAULT_COMPRESSION, GzipTelemetrySerializer.getCompressionLevel(namesAndValues));
+    }
+
+    @Test
+    public void testGetCompressionLevelOfBadValuesIsTheDefault() throws Exception {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("CompressionLevel", "abc");
+        assertEquals(Deflater.DEFAULT_COMPRESSION, GzipTelemetrySerializer.getCompressionLevel(namesAndValues));
+
+        namesAndValues.put("CompressionLevel", "12");
+        assertEquals(Deflater.DEFAULT_COMPRESSION, GzipTelemetrySerializer.getCompressionLevel(namesAndValues));
+
+        namesAndValues.put("CompressionLevel", "-2");
+        assertEquals(Deflater.DEFAULT_COMPRESSION, GzipTelemetrySerializer.getCompressionLevel(namesAndValues));
+    }
+
+    private void testSerialization(int amount) throws Exception {
+        testSerialization(new GzipTelemetrySerializer(), amount);
+    }
+
+    private void testSerialization(GzipTelemetrySerializer tested, int amount) throws Exception {
 
         List<Telemetry> telemetries = new ArrayList<Telemetry>(amount);
         List<String> telemetriesSerialized = new ArrayList<String>(amount);
@@ -22,10 +22,12 @@
 package com.microsoft.applicationinsights.internal.channel.common;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
 import org.junit.Test;
 
 import org.mockito.Mockito;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.anyObject;
 
 public class NonBlockingDispatcherTest {
@@ -78,6 +80,20 @@ public class NonBlockingDispatcherTest {
         Mockito.verify(mockOutput2, Mockito.times(1)).send((Transmission) anyObject());
     }
 
+    @Test
+    public void testDispatchFailureOfAllIsCountedAsDrop() {
+        TransmissionOutput mockOutput1 = Mockito.mock(TransmissionOutput.class);
+        TransmissionOutput mockOutput2 = Mockito.mock(TransmissionOutput.class);
+
+        NonBlockingDispatcher tested = new NonBlockingDispatcher(new TransmissionOutput[] {mockOutput1, mockOutput2});
+        ChannelMetrics metrics = new ChannelMetrics();
+        tested.setChannelMetrics(metrics);
+
+        tested.dispatch(new Transmission(new byte[2], "mockType", "mockEncoding"));
+
+        assertEquals(1, metrics.getDropCount(ChannelMetrics.DropReason.OUTPUTS_FULL));
+    }
+
     private NonBlockingDispatcher createDispatcher() {
         TransmissionOutput mockOutput1 = Mockito.mock(TransmissionOutput.class);
         TransmissionOutput mockOutput2 = Mockito.mock(TransmissionOutput.class);
@@ -0,0 +1,270 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class PipelineStageConfigurationTest {
+    private final static PipelineStageConfiguration DEFAULTS =
+            new PipelineStageConfiguration("MockStage", 2, 4, 10, PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST, 100);
+
+    private static final class DroppedTasks implements PipelineStageConfiguration.DroppedTaskListener {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public synchronized void onDropped(Runnable task) {
+            tasks.add(task);
+        }
+
+        public synchronized List<Runnable> getTasks() {
+            return new ArrayList<Runnable>(tasks);
+        }
+    }
+
+    private static final class BlockingTask implements Runnable {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    private static final class MockTask implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxThreadsSmallerThanMinThreads() {
+        new PipelineStageConfiguration("MockStage", 3, 2, 10, PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST, 0);
+    }
+
+    @Test
+    public void testNullNamesAndValuesKeepsTheDefaults() {
+        assertSame(DEFAULTS, PipelineStageConfiguration.fromNamesAndValues(null, DEFAULTS));
+    }
+
+    @Test
+    public void testValuesAreReadByStageName() {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("MockStage.MinThreads", "3");
+        namesAndValues.put("MockStage.MaxThreads", "8");
+        namesAndValues.put("MockStage.QueueCapacity", "500");
+        namesAndValues.put("MockStage.RejectionPolicy", "block");
+        namesAndValues.put("MockStage.BlockTimeoutInMillis", "250");
+        namesAndValues.put("OtherStage.MaxThreads", "100");
+
+        PipelineStageConfiguration configuration = PipelineStageConfiguration.fromNamesAndValues(namesAndValues, DEFAULTS);
+
+        assertEquals("MockStage", configuration.getStageName());
+        assertEquals(3, configuration.getMinThreads());
+        assertEquals(8, configuration.getMaxThreads());
+        assertEquals(500, configuration.getQueueCapacity());
+        assertEquals(PipelineStageConfiguration.RejectionPolicy.BLOCK, configuration.getRejectionPolicy());
+        assertEquals(250, configuration.getBlockTimeoutInMillis());
+    }
+
+    @Test
+    public void testValuesOutOfRangeAreClamped() {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("MockStage.MinThreads", "0");
+        namesAndValues.put("MockStage.MaxThreads", "100000");
+        namesAndValues.put("MockStage.QueueCapacity", "-5");
+
+        PipelineStageConfiguration configuration = PipelineStageConfiguration.fromNamesAndValues(namesAndValues, DEFAULTS);
+
+        assertEquals(1, configuration.getMinThreads());
+        assertEquals(256, configuration.getMaxThreads());
+        assertEquals(1, configuration.getQueueCapacity());
+    }
+
+    @Test
+    public void testMaxThreadsIsNotSmallerThanMinThreads() {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("MockStage.MinThreads", "6");
+
+        PipelineStageConfiguration configuration = PipelineStageConfiguration.fromNamesAndValues(namesAndValues, DEFAULTS);
+
+        assertEquals(6, configuration.getMinThreads());
+        assertEquals(6, configuration.getMaxThreads());
+    }
+
+    @Test
+    public void testUnsupportedPolicyKeepsTheDefault() {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("MockStage.RejectionPolicy", "SpillToDisk");
+
+        PipelineStageConfiguration configuration = PipelineStageConfiguration.fromNamesAndValues(
+                namesAndValues, DEFAULTS, PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST, PipelineStageConfiguration.RejectionPolicy.BLOCK);
+
+        assertEquals(PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST, configuration.getRejectionPolicy());
+    }
+
+    @Test
+    public void testUnknownPolicyKeepsTheDefault() {
+        Map<String, String> namesAndValues = new HashMap<String, String>();
+        namesAndValues.put("MockStage.RejectionPolicy", "MockPolicy");
+
+        PipelineStageConfiguration configuration = PipelineStageConfiguration.fromNamesAndValues(namesAndValues, DEFAULTS);
+
+        assertEquals(PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST, configuration.getRejectionPolicy());
+    }
+
+    @Test
+    public void testFullQueueRejectsWithDropNewest() throws Exception {
+        DroppedTasks droppedTasks = new DroppedTasks();
+        ThreadPoolExecutor threadPool = createConfiguration(PipelineStageConfiguration.RejectionPolicy.DROP_NEWEST).newThreadPool(droppedTasks);
+        BlockingTask blockingTask = new BlockingTask();
+        try {
+            fillThreadPool(threadPool, blockingTask);
+
+            try {
+                threadPool.execute(new MockTask());
+                fail("The full queue should reject the task");
+            } catch (RejectedExecutionException e) {
+            }
+            assertTrue(droppedTasks.getTasks().isEmpty());
+        } finally {
+            blockingTask.release.countDown();
+            threadPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFullQueueDropsTheOldestWithDropOldest() throws Exception {
+        DroppedTasks droppedTasks = new DroppedTasks();
+        ThreadPoolExecutor threadPool = createConfiguration(PipelineStageConfiguration.RejectionPolicy.DROP_OLDEST).newThreadPool(droppedTasks);
+        BlockingTask blockingTask = new BlockingTask();
+        try {
+            List<Runnable> queued = fillThreadPool(threadPool, blockingTask);
+
+            Runnable newest = new MockTask();
+            threadPool.execute(newest);
+
+            assertEquals(1, droppedTasks.getTasks().size());
+            assertSame(queued.get(0), droppedTasks.getTasks().get(0));
+            assertTrue(threadPool.getQueue().contains(newest));
+        } finally {
+            blockingTask.release.countDown();
+            threadPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFullQueueWaitsWithBlock() throws Exception {
+        DroppedTasks droppedTasks = new DroppedTasks();
+        ThreadPoolExecutor threadPool = createConfiguration(PipelineStageConfiguration.RejectionPolicy.BLOCK).newThreadPool(droppedTasks);
+        final BlockingTask blockingTask = new BlockingTask();
+        try {
+            fillThreadPool(threadPool, blockingTask);
+
+            long started = System.nanoTime();
+            try {
+                threadPool.execute(new MockTask());
+                fail("The full queue should reject the task after the block timeout");
+            } catch (RejectedExecutionException e) {
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) >= 90);
+
+            // Room that is made while waiting is taken
+            Thread releaser = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                    }
+                    blockingTask.release.countDown();
+                }
+            });
+            releaser.start();
+            threadPool.execute(new MockTask());
+            releaser.join();
+            assertTrue(droppedTasks.getTasks().isEmpty());
+        } finally {
+            blockingTask.release.countDown();
+            threadPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThreadsAreDaemonsNamedByStage() throws Exception {
+        ThreadPoolExecutor threadPool = DEFAULTS.newThreadPool(new DroppedTasks());
+        final Thread[] thread = new Thread[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    thread[0] = Thread.currentThread();
+                    done.countDown();
+                }
+            });
+
+            assertTrue(done.await(5L, TimeUnit.SECONDS));
+            assertTrue(thread[0].isDaemon());
+            assertTrue(thread[0].getName().startsWith("ApplicationInsights-MockStage-"));
+            assertFalse(threadPool.isShutdown());
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private static PipelineStageConfiguration createConfiguration(PipelineStageConfiguration.RejectionPolicy rejectionPolicy) {
+        return new PipelineStageConfiguration("MockStage", 1, 1, 2, rejectionPolicy, 100);
+    }
+
+    private static List<Runnable> fillThreadPool(ThreadPoolExecutor threadPool, BlockingTask blockingTask) throws InterruptedException {
+        threadPool.execute(blockingTask);
+        assertTrue(blockingTask.started.await(5L, TimeUnit.SECONDS));
+
+        List<Runnable> queued = new ArrayList<Runnable>();
+        for (int i = 0; i < 2; ++i) {
+            Runnable task = new MockTask();
+            threadPool.execute(task);
+            queued.add(task);
+        }
+
+        return queued;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class PipelinedHttpConnectionTest {
+    @Test
+    public void testRequestThatIsOnlyBufferedIsNotWritten() {
+        PipelinedHttpConnection.WriteProgress progress = new PipelinedHttpConnection.WriteProgress();
+
+        progress.onRequestStarted();
+        progress.onBuffered(100);
+
+        assertEquals(1, progress.getNumberOfStartedRequests());
+        assertEquals(0, progress.getNumberOfWrittenRequests());
+    }
+
+    @Test
+    public void testRequestIsWrittenOnceOneOfItsBytesIsFlushed() {
+        PipelinedHttpConnection.WriteProgress progress = new PipelinedHttpConnection.WriteProgress();
+
+        progress.onRequestStarted();
+        progress.onBuffered(100);
+        progress.onFlushed(1);
+
+        assertEquals(1, progress.getNumberOfWrittenRequests());
+    }
+
+    @Test
+    public void testOnlyRequestsWithFlushedBytesAreWritten() {
+        PipelinedHttpConnection.WriteProgress progress = new PipelinedHttpConnection.WriteProgress();
+
+        progress.onRequestStarted();
+        progress.onBuffered(100);
+        progress.onRequestStarted();
+        progress.onBuffered(50);
+        progress.onFlushed(100);
+
+        assertEquals(2, progress.getNumberOfStartedRequests());
+        assertEquals(1, progress.getNumberOfWrittenRequests());
+
+        progress.onFlushed(1);
+        assertEquals(2, progress.getNumberOfWrittenRequests());
+    }
+
+    @Test
+    public void testBytesOfOtherRecordsBeforeTheRequestDoNotCount() {
+        PipelinedHttpConnection.WriteProgress progress = new PipelinedHttpConnection.WriteProgress();
+
+        // For example a handshake message that is waiting in the network output
+        progress.onBuffered(300);
+        progress.onRequestStarted();
+        progress.onBuffered(100);
+        progress.onFlushed(300);
+
+        assertEquals(0, progress.getNumberOfWrittenRequests());
+    }
+
+    @Test
+    public void testAnsweredRequestsAreForgotten() {
+        PipelinedHttpConnection.WriteProgress progress = new PipelinedHttpConnection.WriteProgress();
+
+        progress.onRequestStarted();
+        progress.onBuffered(100);
+        progress.onFlushed(100);
+        progress.onRequestStarted();
+        progress.onBuffered(100);
+        progress.onRequestAnswered();
+
+        assertEquals(1, progress.getNumberOfStartedRequests());
+        assertEquals(0, progress.getNumberOfWrittenRequests());
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class RingTelemetryBufferTest {
+    private final static String MOCK_PROPERTY_NAME = "MockProperty";
+
+    private static class StubTelemetriesTransmitter implements TelemetriesTransmitter {
+        private final List<Collection<String>> batches = new ArrayList<Collection<String>>();
+        private final CountDownLatch expectedBatches;
+
+        private StubTelemetriesTransmitter(int expectedBatches) {
+            this.expectedBatches = new CountDownLatch(expectedBatches);
+        }
+
+        @Override
+        public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+            throw new IllegalStateException("The ring buffer should not schedule sends");
+        }
+
+        @Override
+        public synchronized boolean sendNow(Collection<String> telemetries) {
+            batches.add(telemetries);
+            expectedBatches.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Transmission transmission) {
+            throw new IllegalStateException("The ring buffer should not send transmissions");
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        public boolean waitForBatches(long timeoutInSeconds) throws InterruptedException {
+            return expectedBatches.await(timeoutInSeconds, TimeUnit.SECONDS);
+        }
+
+        public synchronized List<Collection<String>> getBatches() {
+            return new ArrayList<Collection<String>>(batches);
+        }
+
+        public synchronized int getNumberOfTelemetries() {
+            int counter = 0;
+            for (Collection<String> batch : batches) {
+                counter += batch.size();
+            }
+            return counter;
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNoSenderIsSet() throws Exception {
+        new RingTelemetryBuffer(null, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+
+        new RingTelemetryBuffer(mockSender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(10), 0);
+    }
+
+    @Test
+    public void testCapacityIsRoundedToPowerOfTwo() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+
+        RingTelemetryBuffer testedBuffer = new RingTelemetryBuffer(mockSender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(10), 100);
+        try {
+            assertEquals(128, testedBuffer.capacity());
+        } finally {
+            testedBuffer.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSendWhenBufferIsFull() throws Exception {
+        StubTelemetriesTransmitter sender = new StubTelemetriesTransmitter(2);
+        RingTelemetryBuffer testedBuffer = new RingTelemetryBuffer(sender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(300));
+
+        for (int i = 0; i < 20; ++i) {
+            testedBuffer.add("mockTelemetry" + i);
+        }
+
+        assertTrue(sender.waitForBatches(5L));
+        List<Collection<String>> batches = sender.getBatches();
+        assertEquals(2, batches.size());
+        assertEquals(10, batches.get(0).size());
+        assertEquals(10, batches.get(1).size());
+        assertEquals("mockTelemetry0", batches.get(0).iterator().next());
+        assertEquals("mockTelemetry10", batches.get(1).iterator().next());
+
+        testedBuffer.stop(1L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testSendBufferAfterTimeoutExpires() throws Exception {
+        StubTelemetriesTransmitter sender = new StubTelemetriesTransmitter(1);
+        RingTelemetryBuffer testedBuffer = new RingTelemetryBuffer(sender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(1));
+
+        testedBuffer.add("mockTelemetry");
+
+        assertTrue(sender.waitForBatches(5L));
+        assertEquals(1, sender.getNumberOfTelemetries());
+
+        testedBuffer.stop(1L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        StubTelemetriesTransmitter sender = new StubTelemetriesTransmitter(1);
+        RingTelemetryBuffer testedBuffer = new RingTelemetryBuffer(sender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(300));
+
+        testedBuffer.add("mockTelemetry1");
+        testedBuffer.add("mockTelemetry2");
+        testedBuffer.flush();
+
+        assertTrue(sender.waitForBatches(5L));
+        assertEquals(2, sender.getNumberOfTelemetries());
+
+        testedBuffer.stop(1L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testStopSendsPendingTelemetries() throws Exception {
+        StubTelemetriesTransmitter sender = new StubTelemetriesTransmitter(1);
+        RingTelemetryBuffer testedBuffer = new RingTelemetryBuffer(sender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(300));
+
+        for (int i = 0; i < 5; ++i) {
+            testedBuffer.add("mockTelemetry");
+        }
+        testedBuffer.stop(5L, TimeUnit.SECONDS);
+
+        assertEquals(5, sender.getNumberOfTelemetries());
+
+        testedBuffer.add("mockTelemetry");
+        assertEquals(0, testedBuffer.size());
+    }
+
+    @Test
+    public void testFullRingDropsTelemetries() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        TelemetriesTransmitter blockedSender = new StubTelemetriesTransmitter(0) {
+            @Override
+            public boolean sendNow(Collection<String> telemetries) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                return super.sendNow(telemetries);
+            }
+        };
+        RingTelemetryBuffer testedBuffer = new RingTelemetryBuffer(blockedSender, createEnforcerWithCurrentValue(1), createEnforcerWithCurrentValue(300), 4);
+
+        // The first one is drained and blocks the drain thread
+        testedBuffer.add("mockTelemetry");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (testedBuffer.size() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        for (int i = 0; i < 10; ++i) {
+            testedBuffer.add("mockTelemetry");
+        }
+        assertEquals(4, testedBuffer.size());
+
+        release.countDown();
+        testedBuffer.stop(5L, TimeUnit.SECONDS);
+        assertEquals(5, ((StubTelemetriesTransmitter) blockedSender).getNumberOfTelemetries());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int numberOfThreads = 8;
+        final int telemetriesPerThread = 10000;
+
+        StubTelemetriesTransmitter sender = new StubTelemetriesTransmitter(0);
+        final RingTelemetryBuffer testedBuffer =
+                new RingTelemetryBuffer(sender, createEnforcerWithCurrentValue(500), createEnforcerWithCurrentValue(300), numberOfThreads * telemetriesPerThread);
+
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < telemetriesPerThread; ++j) {
+                        testedBuffer.add("mockTelemetry");
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        testedBuffer.stop(5L, TimeUnit.SECONDS);
+
+        assertEquals(numberOfThreads * telemetriesPerThread, sender.getNumberOfTelemetries());
+        for (Collection<String> batch : sender.getBatches()) {
+            assertTrue(batch.size() <= 500);
+        }
+    }
+
+    private static LimitsEnforcer createEnforcerWithCurrentValue(int currentValue) {
+        return LimitsEnforcer.createWithClosestLimitOnError(MOCK_PROPERTY_NAME, 1, 1000, 20, currentValue);
+    }
+}
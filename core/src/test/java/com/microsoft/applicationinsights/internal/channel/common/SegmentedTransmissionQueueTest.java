@@ -0,0 +1,236 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class SegmentedTransmissionQueueTest {
+    private final static String TEMP_TEST_FOLDER = "SegmentedTransmissionQueueTests";
+    private final static String MOCK_CONTENT = "MockContent";
+    private final static String MOCK_CONTENT_TYPE = "application/x-json-stream";
+    private final static String MOCK_ENCODING_TYPE = "gzip";
+    private final static int SMALL_SEGMENT_SIZE = 1024;
+
+    private File folder;
+    private SegmentedTransmissionQueue tested;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = new File(System.getProperty("java.io.tmpdir"), TEMP_TEST_FOLDER);
+        if (folder.exists()) {
+            FileUtils.deleteDirectory(folder);
+        }
+        folder.mkdir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (tested != null) {
+            tested.stop(1L, TimeUnit.SECONDS);
+        }
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Test
+    public void testEmptyQueue() throws Exception {
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null);
+
+        assertNull(tested.fetchOldest());
+    }
+
+    @Test
+    public void testTransmissionsAreFetchedInOrder() throws Exception {
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null);
+
+        for (int i = 0; i < 10; ++i) {
+            Transmission transmission = createTransmission(i);
+            transmission.setNumberOfSends(i);
+            transmission.setNumberOfPersistence(i + 1);
+            assertTrue(tested.send(transmission));
+        }
+
+        for (int i = 0; i < 10; ++i) {
+            Transmission transmission = tested.fetchOldest();
+            assertNotNull(transmission);
+            assertEquals(MOCK_CONTENT + i, new String(transmission.getContent()));
+            assertEquals(MOCK_CONTENT_TYPE, transmission.getWebContentType());
+            assertEquals(MOCK_ENCODING_TYPE, transmission.getWebContentEncodingType());
+            assertEquals(i, transmission.getNumberOfSends());
+            assertEquals(i + 1, transmission.getNumberOfPersistence());
+            assertEquals(1, transmission.getVersion());
+        }
+
+        assertNull(tested.fetchOldest());
+    }
+
+    @Test
+    public void testConsumedSegmentsAreDeleted() throws Exception {
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null, SMALL_SEGMENT_SIZE);
+
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(tested.send(createTransmission(i)));
+        }
+        assertTrue(getSegmentFiles().size() > 1);
+
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(MOCK_CONTENT + i, new String(tested.fetchOldest().getContent()));
+        }
+        assertNull(tested.fetchOldest());
+
+        assertEquals(1, getSegmentFiles().size());
+        assertEquals(SMALL_SEGMENT_SIZE, tested.getSizeOfSegmentsInBytes());
+    }
+
+    @Test
+    public void testTransmissionLargerThanSegment() throws Exception {
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null, SMALL_SEGMENT_SIZE);
+
+        byte[] content = new byte[SMALL_SEGMENT_SIZE * 5];
+        content[content.length - 1] = 7;
+        assertTrue(tested.send(createTransmission(0)));
+        assertTrue(tested.send(new Transmission(content, MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE)));
+        assertTrue(tested.send(createTransmission(2)));
+
+        assertEquals(MOCK_CONTENT + 0, new String(tested.fetchOldest().getContent()));
+        Transmission large = tested.fetchOldest();
+        assertEquals(content.length, large.getContent().length);
+        assertEquals(7, large.getContent()[content.length - 1]);
+        assertEquals(MOCK_CONTENT + 2, new String(tested.fetchOldest().getContent()));
+    }
+
+    @Test
+    public void testReadPositionSurvivesRestart() throws Exception {
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null, SMALL_SEGMENT_SIZE);
+        for (int i = 0; i < 30; ++i) {
+            tested.send(createTransmission(i));
+        }
+        for (int i = 0; i < 12; ++i) {
+            tested.fetchOldest();
+        }
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null, SMALL_SEGMENT_SIZE);
+        for (int i = 12; i < 30; ++i) {
+            assertEquals(MOCK_CONTENT + i, new String(tested.fetchOldest().getContent()));
+        }
+        assertNull(tested.fetchOldest());
+
+        assertTrue(tested.send(createTransmission(30)));
+        assertEquals(MOCK_CONTENT + 30, new String(tested.fetchOldest().getContent()));
+    }
+
+    @Test
+    public void testPartiallyWrittenRecordIsIgnored() throws Exception {
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null);
+        for (int i = 0; i < 3; ++i) {
+            tested.send(createTransmission(i));
+        }
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        // Break the crc of the last record, as if the process ended while it was written
+        int recordSize = 8 + 17 + MOCK_CONTENT_TYPE.length() + MOCK_ENCODING_TYPE.length() + (MOCK_CONTENT + 0).length();
+        RandomAccessFile segment = new RandomAccessFile(getSegmentFiles().iterator().next(), "rw");
+        try {
+            segment.seek(2 * recordSize + 4);
+            segment.writeInt(12345);
+        } finally {
+            segment.close();
+        }
+
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null);
+        assertEquals(MOCK_CONTENT + 0, new String(tested.fetchOldest().getContent()));
+        assertEquals(MOCK_CONTENT + 1, new String(tested.fetchOldest().getContent()));
+        assertNull(tested.fetchOldest());
+
+        tested.send(createTransmission(3));
+        assertEquals(MOCK_CONTENT + 3, new String(tested.fetchOldest().getContent()));
+        assertNull(tested.fetchOldest());
+    }
+
+    @Test
+    public void testNoRoomWhenCapacityIsReached() throws Exception {
+        tested = new SegmentedTransmissionQueue(folder.getPath(), "1", 256 * 1024);
+
+        byte[] content = new byte[100 * 1024];
+        int sent = 0;
+        while (tested.send(new Transmission(content, MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE))) {
+            ++sent;
+            assertTrue(sent < 20);
+        }
+        assertEquals(8, sent);
+        assertTrue(tested.getSizeOfSegmentsInBytes() <= 1024 * 1024);
+
+        for (int i = 0; i < sent; ++i) {
+            assertNotNull(tested.fetchOldest());
+        }
+        assertTrue(tested.send(new Transmission(content, MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE)));
+    }
+
+    @Test
+    public void testTransmissionFilesAreMovedToQueue() throws Exception {
+        TransmissionFileSystemOutput legacyOutput = new TransmissionFileSystemOutput(folder.getPath());
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(legacyOutput.send(createTransmission(i)));
+        }
+
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null);
+
+        assertTrue(FileUtils.listFiles(folder, new String[] {"trn"}, false).isEmpty());
+        int fetched = 0;
+        while (tested.fetchOldest() != null) {
+            ++fetched;
+        }
+        assertEquals(3, fetched);
+    }
+
+    @Test
+    public void testSendAfterStop() throws Exception {
+        tested = new SegmentedTransmissionQueue(folder.getPath(), null);
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        assertFalse(tested.send(createTransmission(0)));
+        assertNull(tested.fetchOldest());
+    }
+
+    private Collection<File> getSegmentFiles() {
+        return FileUtils.listFiles(new File(folder, "queue"), new String[] {"seg"}, false);
+    }
+
+    private static Transmission createTransmission(int index) {
+        return new Transmission((MOCK_CONTENT + index).getBytes(), MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE);
+    }
+}
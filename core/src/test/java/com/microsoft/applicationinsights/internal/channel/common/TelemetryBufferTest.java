@@ -143,6 +143,11 @@ public final class TelemetryBufferTest {
             return true;
         }
 
+        @Override
+        public boolean sendNow(Transmission transmission) {
+            throw new IllegalStateException("The buffer should not send transmissions");
+        }
+
         @Override
         public void stop(long timeout, TimeUnit timeUnit) {
 
@@ -295,6 +300,11 @@ public final class TelemetryBufferTest {
                 return true;
             }
 
+            @Override
+            public boolean sendNow(Transmission transmission) {
+                return false;
+            }
+
             @Override
             public void stop(long timeout, TimeUnit timeUnit) {
 
@@ -410,6 +420,18 @@ public final class TelemetryBufferTest {
         Mockito.verify(mockSender, Mockito.never()).sendNow(anyCollectionOf(String.class));
     }
 
+    @Test
+    public void testStopFlushesTheBuffer() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) any(), anyLong(), (TimeUnit) anyObject());
+
+        TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(300));
+        testedBuffer.add("mockTelemetry");
+        testedBuffer.stop(1L, TimeUnit.SECONDS);
+
+        Mockito.verify(mockSender, Mockito.times(1)).sendNow(anyCollectionOf(String.class));
+    }
+
     @Test
     public void testFlushWithOneInTheBuffer() throws Exception {
         testFlushWithData(1);
@@ -38,6 +38,7 @@ import org.mockito.Mockito;
 
 import com.google.common.base.Optional;
 
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.any;
 
@@ -101,6 +102,45 @@ public final class TransmitterImplTest {
         testScheduleSend(100, false);
     }
 
+    @Test
+    public void testObsoleteScheduledSendIsSkipped() throws Exception {
+        TransmissionDispatcher mockDispatcher = Mockito.mock(TransmissionDispatcher.class);
+        TelemetrySerializer mockSerializer = Mockito.mock(TelemetrySerializer.class);
+        TransmissionsLoader mockLoader = Mockito.mock(TransmissionsLoader.class);
+        TelemetriesTransmitter.TelemetriesFetcher mockFetcher = Mockito.mock(TelemetriesTransmitter.TelemetriesFetcher.class);
+        Mockito.doReturn(true).when(mockFetcher).isObsolete();
+
+        TransmitterImpl transmitter = new TransmitterImpl(mockDispatcher, mockSerializer, mockLoader);
+        try {
+            transmitter.scheduleSend(mockFetcher, 100L, TimeUnit.MICROSECONDS);
+            Thread.sleep(300);
+
+            Mockito.verify(mockFetcher, Mockito.atLeastOnce()).isObsolete();
+            Mockito.verify(mockFetcher, Mockito.never()).fetch();
+        } finally {
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testStopSendsScheduledSends() throws Exception {
+        TransmissionDispatcher mockDispatcher = Mockito.mock(TransmissionDispatcher.class);
+        TransmissionsLoader mockLoader = Mockito.mock(TransmissionsLoader.class);
+        Transmission mockTransmission = new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE);
+        TelemetrySerializer mockSerializer = Mockito.mock(TelemetrySerializer.class);
+        Mockito.doReturn(Optional.of(mockTransmission)).when(mockSerializer).serialize(Mockito.anyCollectionOf(String.class));
+        TelemetriesTransmitter.TelemetriesFetcher mockFetcher = Mockito.mock(TelemetriesTransmitter.TelemetriesFetcher.class);
+        Mockito.doReturn(Collections.singletonList("mockTelemetry")).when(mockFetcher).fetch();
+
+        TransmitterImpl transmitter = new TransmitterImpl(mockDispatcher, mockSerializer, mockLoader);
+        transmitter.scheduleSend(mockFetcher, 1L, TimeUnit.HOURS);
+        transmitter.stop(1L, TimeUnit.SECONDS);
+
+        Mockito.verify(mockFetcher, Mockito.times(1)).fetch();
+        Mockito.verify(mockDispatcher, Mockito.times(1)).dispatch(mockTransmission);
+        assertFalse(transmitter.scheduleSend(mockFetcher, 1L, TimeUnit.SECONDS));
+    }
+
     @Test
     public void testSendNowWithNoTelemetries() throws IOException {
         testSendNow(0, true);
@@ -265,7 +305,9 @@ public final class TransmitterImplTest {
             transmitter = new TransmitterImpl(mockDispatcher, mockSerializer, mockLoader);
 
             transmitter.scheduleSend(mockFetcher, 100L, TimeUnit.MICROSECONDS);
-            Thread.sleep(100);
+
+            // The flush scheduler expires timeouts on ticks of 50 milliseconds
+            Thread.sleep(300);
 
             Mockito.verify(mockFetcher, Mockito.times(1)).fetch();
             if (numberOfTransmissions == 0) {
@@ -0,0 +1,89 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+
+public final class ChannelMetricsPerformanceCounterTest {
+    @Test
+    public void testReportsChangesSinceTheLastReport() {
+        ChannelMetrics metrics = new ChannelMetrics();
+        ChannelMetricsPerformanceCounter counter = new ChannelMetricsPerformanceCounter("MockChannel", metrics);
+
+        metrics.add(ChannelMetrics.Counter.TRANSMISSIONS_SENT, 5);
+        metrics.onDropped(ChannelMetrics.DropReason.TRANSMITTER_BUSY);
+        metrics.recordLatency(ChannelMetrics.Latency.SEND, System.nanoTime());
+
+        List<MetricTelemetry> reported = report(counter);
+        assertEquals(5.0, find(reported, "AI Channel TransmissionsSent").getValue(), 0.0);
+        assertEquals(1.0, find(reported, "AI Channel Dropped TransmitterBusy").getValue(), 0.0);
+        assertEquals(Integer.valueOf(1), find(reported, "AI Channel Send Latency (us)").getCount());
+        assertNotNull(find(reported, "AI Channel Send Latency P99 (us)"));
+        assertEquals("MockChannel", find(reported, "AI Channel TransmissionsSent").getProperties().get("Channel"));
+
+        metrics.add(ChannelMetrics.Counter.TRANSMISSIONS_SENT, 2);
+
+        reported = report(counter);
+        assertEquals(2.0, find(reported, "AI Channel TransmissionsSent").getValue(), 0.0);
+        assertNull(find(reported, "AI Channel Dropped TransmitterBusy"));
+        assertNull(find(reported, "AI Channel Send Latency (us)"));
+    }
+
+    private static List<MetricTelemetry> report(ChannelMetricsPerformanceCounter counter) {
+        final List<MetricTelemetry> reported = new ArrayList<MetricTelemetry>();
+        TelemetryClient mockClient = Mockito.mock(TelemetryClient.class);
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                reported.add((MetricTelemetry) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(mockClient).track(any(Telemetry.class));
+
+        counter.report(mockClient);
+        return reported;
+    }
+
+    private static MetricTelemetry find(List<MetricTelemetry> reported, String name) {
+        for (MetricTelemetry telemetry : reported) {
+            if (name.equals(telemetry.getName())) {
+                return telemetry;
+            }
+        }
+
+        return null;
+    }
+}
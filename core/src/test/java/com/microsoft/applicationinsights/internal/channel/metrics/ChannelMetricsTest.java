@@ -0,0 +1,114 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ChannelMetricsTest {
+    @Test
+    public void testCountersAndDrops() {
+        ChannelMetrics metrics = new ChannelMetrics();
+        metrics.increment(ChannelMetrics.Counter.TRANSMISSIONS_SENT);
+        metrics.add(ChannelMetrics.Counter.TRANSMISSIONS_SENT, 2);
+        metrics.onDropped(ChannelMetrics.DropReason.OUTPUTS_FULL);
+
+        assertEquals(3, metrics.getCount(ChannelMetrics.Counter.TRANSMISSIONS_SENT));
+        assertEquals(Long.valueOf(3), metrics.getCounters().get("TransmissionsSent"));
+        assertEquals(Long.valueOf(0), metrics.getCounters().get("TransmissionsPersisted"));
+        assertEquals(Long.valueOf(1), metrics.getDroppedTransmissions().get("OutputsFull"));
+        assertEquals(ChannelMetrics.DropReason.values().length, metrics.getDroppedTransmissions().size());
+    }
+
+    @Test
+    public void testLatencies() {
+        ChannelMetrics metrics = new ChannelMetrics();
+        metrics.recordLatency(ChannelMetrics.Latency.SEND, System.nanoTime() - 2000000);
+
+        Map<String, Long> latencies = metrics.getLatenciesInMicros();
+        assertEquals(Long.valueOf(1), latencies.get("Send.Count"));
+        assertTrue(latencies.get("Send.Max") >= 2000);
+        assertEquals(Long.valueOf(0), latencies.get("Gzip.Count"));
+    }
+
+    @Test
+    public void testQueueDepths() {
+        ChannelMetrics metrics = new ChannelMetrics();
+        metrics.addQueue("MockQueue", new ChannelMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return 7;
+            }
+        });
+        metrics.addQueue("FailingQueue", new ChannelMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                throw new IllegalStateException("mock");
+            }
+        });
+
+        Map<String, Long> depths = metrics.getQueueDepths();
+        assertEquals(1, depths.size());
+        assertEquals(Long.valueOf(7), depths.get("MockQueue"));
+    }
+
+    @Test
+    public void testNoneRecordsNothing() {
+        ChannelMetrics.NONE.increment(ChannelMetrics.Counter.TRANSMISSIONS_SENT);
+        ChannelMetrics.NONE.onDropped(ChannelMetrics.DropReason.SEND_FAILED);
+        ChannelMetrics.NONE.recordLatency(ChannelMetrics.Latency.SEND, System.nanoTime());
+
+        assertEquals(0, ChannelMetrics.NONE.getCount(ChannelMetrics.Counter.TRANSMISSIONS_SENT));
+        assertEquals(0, ChannelMetrics.NONE.getDropCount(ChannelMetrics.DropReason.SEND_FAILED));
+        assertEquals(0, ChannelMetrics.NONE.getLatency(ChannelMetrics.Latency.SEND).getCount());
+        assertFalse(ChannelMetrics.NONE.registerMBean("None"));
+    }
+
+    @Test
+    public void testRegisterAndUnregisterMBean() throws Exception {
+        ChannelMetrics metrics = new ChannelMetrics();
+        metrics.increment(ChannelMetrics.Counter.TELEMETRIES_ENQUEUED);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.microsoft.applicationinsights:type=TelemetryChannel,name=" + ObjectName.quote("MockChannel"));
+        assertTrue(metrics.registerMBean("MockChannel"));
+        try {
+            assertTrue(server.isRegistered(name));
+            TabularData counters = (TabularData) server.getAttribute(name, "Counters");
+            assertEquals(ChannelMetrics.Counter.values().length, counters.size());
+        } finally {
+            metrics.unregisterMBean();
+        }
+
+        assertFalse(server.isRegistered(name));
+    }
+}
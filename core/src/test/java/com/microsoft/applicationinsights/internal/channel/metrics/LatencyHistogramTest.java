@@ -0,0 +1,126 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class LatencyHistogramTest {
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0.0, snapshot.getMean(), 0.0);
+        assertEquals(0, snapshot.getValueAtPercentile(99.0));
+        assertEquals(0, snapshot.getMax());
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; ++i) {
+            histogram.record(i);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10, snapshot.getCount());
+        assertEquals(5.5, snapshot.getMean(), 0.0);
+        assertEquals(5, snapshot.getValueAtPercentile(50.0));
+        assertEquals(9, snapshot.getValueAtPercentile(90.0));
+        assertEquals(10, snapshot.getMax());
+    }
+
+    @Test
+    public void testLargeValuesAreWithinTheBucketPrecision() {
+        long[] values = {17, 100, 1000, 123456, 98765432L, 1L << 40};
+        for (long value : values) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+
+            long reported = histogram.snapshot().getMax();
+            assertTrue("Reported " + reported + " for " + value, reported >= value);
+            assertTrue("Reported " + reported + " for " + value, reported - value <= value / 16);
+        }
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (int bucket = 1; bucket < LatencyHistogram.NUMBER_OF_BUCKETS; ++bucket) {
+            long lowest = LatencyHistogram.highestValueOf(bucket - 1) + 1;
+            assertEquals(bucket, LatencyHistogram.bucketOf(lowest));
+            assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.highestValueOf(bucket)));
+        }
+        assertEquals(LatencyHistogram.NUMBER_OF_BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testNegativeValueIsRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getMax());
+    }
+
+    @Test
+    public void testSnapshotSince() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        LatencyHistogram.Snapshot earlier = histogram.snapshot();
+
+        histogram.record(3);
+        histogram.record(5);
+        LatencyHistogram.Snapshot recorded = histogram.snapshot().since(earlier);
+
+        assertEquals(2, recorded.getCount());
+        assertEquals(4.0, recorded.getMean(), 0.0);
+        assertEquals(5, recorded.getMax());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final int numberOfThreads = 8;
+        final int valuesPerThread = 10000;
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < valuesPerThread; ++j) {
+                        histogram.record(j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(numberOfThreads * valuesPerThread, histogram.snapshot().getCount());
+    }
+}
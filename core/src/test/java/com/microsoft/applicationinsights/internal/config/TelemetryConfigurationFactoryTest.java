@@ -28,6 +28,8 @@ import java.util.*;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel;
 import com.microsoft.applicationinsights.extensibility.TelemetryModule;
+import com.microsoft.applicationinsights.extensibility.processor.DurationThresholdTelemetryFilter;
+import com.microsoft.applicationinsights.extensibility.processor.FixedRateSamplingTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.channel.stdout.StdOutChannel;
 
 import com.microsoft.applicationinsights.internal.annotation.PerformanceModule;
@@ -160,6 +162,30 @@ public final class TelemetryConfigurationFactoryTest {
         assertTrue(mockConfiguration.getChannel() instanceof StdOutChannel);
     }
 
+    @Test
+    public void testTelemetryProcessors() {
+        AppInsightsConfigurationBuilder mockParser = createMockParser(true, true, false);
+        ApplicationInsightsXmlConfiguration appConf = mockParser.build(null);
+        appConf.setInstrumentationKey(MOCK_IKEY);
+
+        ArrayList<AddTypeXmlElement> processors = new ArrayList<AddTypeXmlElement>();
+        processors.add(createAddTypeXmlElement("com.microsoft.applicationinsights.extensibility.processor.DurationThresholdTelemetryFilter", "MinimumDurationInMS", "50"));
+        // The pattern is missing, the processor can not be created
+        processors.add(createAddTypeXmlElement("com.microsoft.applicationinsights.extensibility.processor.NamePatternTelemetryFilter", null, null));
+        processors.add(createAddTypeXmlElement("com.microsoft.applicationinsights.extensibility.processor.FixedRateSamplingTelemetryProcessor", "SamplingPercentage", "10"));
+        TelemetryProcessorsXmlElement telemetryProcessorsXmlElement = new TelemetryProcessorsXmlElement();
+        telemetryProcessorsXmlElement.setAdds(processors);
+        appConf.setTelemetryProcessors(telemetryProcessorsXmlElement);
+
+        TelemetryConfiguration mockConfiguration = new TelemetryConfiguration();
+
+        initializeWithFactory(mockParser, mockConfiguration);
+
+        assertEquals(2, mockConfiguration.getTelemetryProcessors().size());
+        assertEquals(50, ((DurationThresholdTelemetryFilter) mockConfiguration.getTelemetryProcessors().get(0)).getMinimumDurationInMS());
+        assertEquals(10.0, ((FixedRateSamplingTelemetryProcessor) mockConfiguration.getTelemetryProcessors().get(1)).getSamplingPercentage(), 0.0);
+    }
+
     @Test
     public void testTelemetryModulesWithoutParameters() {
         MockTelemetryModule module = generateTelemetryModules(false);
@@ -322,6 +348,24 @@ public final class TelemetryConfigurationFactoryTest {
         return module;
     }
 
+    private AddTypeXmlElement createAddTypeXmlElement(String type, String paramName, String paramValue) {
+        AddTypeXmlElement addXmlElement = new AddTypeXmlElement();
+        addXmlElement.setType(type);
+
+        if (paramName != null) {
+            ParamXmlElement param = new ParamXmlElement();
+            param.setName(paramName);
+            param.setValue(paramValue);
+
+            ArrayList<ParamXmlElement> list = new ArrayList<ParamXmlElement>();
+            list.add(param);
+
+            addXmlElement.setParameters(list);
+        }
+
+        return addXmlElement;
+    }
+
     private AppInsightsConfigurationBuilder createMockParserThatFailsToParse() {
         AppInsightsConfigurationBuilder mockParser = Mockito.mock(AppInsightsConfigurationBuilder.class);
         Mockito.doReturn(null).when(mockParser).build(any(InputStream.class));
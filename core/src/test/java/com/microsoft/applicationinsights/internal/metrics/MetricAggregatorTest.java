@@ -0,0 +1,271 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class MetricAggregatorTest {
+    private final static double PRECISION = 1e-9;
+
+    private static class StubTelemetryChannel implements TelemetryChannel {
+        private final List<MetricTelemetry> sent = new ArrayList<MetricTelemetry>();
+        private CountDownLatch expected = new CountDownLatch(0);
+
+        @Override
+        public boolean isDeveloperMode() {
+            return false;
+        }
+
+        @Override
+        public void setDeveloperMode(boolean value) {
+        }
+
+        @Override
+        public synchronized void send(Telemetry item) {
+            sent.add((MetricTelemetry)item);
+            expected.countDown();
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        public synchronized List<MetricTelemetry> getSent() {
+            return new ArrayList<MetricTelemetry>(sent);
+        }
+
+        public synchronized void clear() {
+            sent.clear();
+        }
+    }
+
+    private StubTelemetryChannel channel;
+    private TelemetryClient client;
+
+    @Before
+    public void setUp() {
+        TelemetryConfiguration configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        channel = new StubTelemetryChannel();
+        configuration.setChannel(channel);
+
+        client = new TelemetryClient(configuration);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyName() {
+        new MetricAggregator(client).track("", 1.0, null);
+    }
+
+    @Test
+    public void testAggregatesOfOneSeries() {
+        MetricAggregator aggregator = new MetricAggregator(client);
+        double[] values = {2.0, 4.0, 4.0, 4.0, 5.0, 5.0, 7.0, 9.0};
+        for (double value : values) {
+            aggregator.track("Latency", value, null);
+        }
+
+        aggregator.flush();
+
+        List<MetricTelemetry> sent = channel.getSent();
+        assertEquals(1, sent.size());
+        MetricTelemetry telemetry = sent.get(0);
+        assertEquals("Latency", telemetry.getName());
+        assertEquals(8, telemetry.getCount().intValue());
+        assertEquals(5.0, telemetry.getValue(), PRECISION);
+        assertEquals(2.0, telemetry.getMin(), PRECISION);
+        assertEquals(9.0, telemetry.getMax(), PRECISION);
+        assertEquals(2.0, telemetry.getStandardDeviation(), PRECISION);
+    }
+
+    @Test
+    public void testSingleValueIsNotAnAggregation() {
+        MetricAggregator aggregator = new MetricAggregator(client);
+        aggregator.track("Latency", 3.0, null);
+
+        aggregator.flush();
+
+        MetricTelemetry telemetry = channel.getSent().get(0);
+        assertEquals(1, telemetry.getCount().intValue());
+        assertEquals(3.0, telemetry.getValue(), PRECISION);
+        assertNull(telemetry.getMin());
+        assertNull(telemetry.getStandardDeviation());
+    }
+
+    @Test
+    public void testDimensionsAreSeparateSeries() {
+        MetricAggregator aggregator = new MetricAggregator(client);
+        Map<String, String> dimensions = new HashMap<String, String>();
+        dimensions.put("Region", "West");
+
+        aggregator.track("Latency", 1.0, dimensions);
+        aggregator.track("Latency", 3.0, new HashMap<String, String>(dimensions));
+        aggregator.track("Latency", 10.0, null);
+
+        // Changing the caller's map does not change the series
+        dimensions.put("Region", "East");
+        aggregator.track("Latency", 20.0, dimensions);
+
+        assertEquals(3, aggregator.getNumberOfSeries());
+
+        aggregator.flush();
+
+        List<MetricTelemetry> sent = channel.getSent();
+        assertEquals(3, sent.size());
+        boolean foundWest = false;
+        for (MetricTelemetry telemetry : sent) {
+            if ("West".equals(telemetry.getContext().getProperties().get("Region"))) {
+                foundWest = true;
+                assertEquals(2, telemetry.getCount().intValue());
+                assertEquals(2.0, telemetry.getValue(), PRECISION);
+            }
+        }
+        assertTrue(foundWest);
+    }
+
+    @Test
+    public void testIdleSeriesAreRemoved() {
+        MetricAggregator aggregator = new MetricAggregator(client);
+        aggregator.track("Latency", 1.0, null);
+
+        aggregator.flush();
+        assertEquals(1, aggregator.getNumberOfSeries());
+
+        aggregator.flush();
+        assertEquals(0, aggregator.getNumberOfSeries());
+
+        aggregator.track("Latency", 2.0, null);
+        aggregator.flush();
+
+        List<MetricTelemetry> sent = channel.getSent();
+        assertEquals(2, sent.size());
+        assertEquals(2.0, sent.get(1).getValue(), PRECISION);
+    }
+
+    @Test
+    public void testSeriesLimit() {
+        MetricAggregator aggregator = new MetricAggregator(client);
+        for (int i = 0; i < MetricAggregator.MAX_NUMBER_OF_SERIES + 10; ++i) {
+            aggregator.track("Metric" + i, 1.0, null);
+        }
+
+        assertEquals(MetricAggregator.MAX_NUMBER_OF_SERIES, aggregator.getNumberOfSeries());
+    }
+
+    @Test
+    public void testConcurrentThreads() throws Exception {
+        final int numberOfThreads = 8;
+        final int valuesPerThread = 20000;
+        final MetricAggregator aggregator = new MetricAggregator(client);
+
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; ++i) {
+            final int threadIndex = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < valuesPerThread; ++j) {
+                        aggregator.track("Latency", threadIndex, null);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        // Flushing while the threads are working must not lose values
+        long count = 0;
+        double sum = 0.0;
+        for (Thread thread : threads) {
+            thread.join();
+            aggregator.flush();
+        }
+        for (MetricTelemetry telemetry : channel.getSent()) {
+            count += telemetry.getCount();
+            sum += telemetry.getValue() * telemetry.getCount();
+        }
+
+        assertEquals(numberOfThreads * valuesPerThread, count);
+        assertEquals(valuesPerThread * (numberOfThreads * (numberOfThreads - 1) / 2.0), sum, 1e-3);
+    }
+
+    @Test
+    public void testScheduledFlush() throws Exception {
+        channel.expected = new CountDownLatch(1);
+        MetricAggregator aggregator = new MetricAggregator(client, 100);
+
+        aggregator.track("Latency", 1.0, null);
+        aggregator.track("Latency", 2.0, null);
+
+        assertTrue(channel.expected.await(5, TimeUnit.SECONDS));
+        assertEquals(2, channel.getSent().get(0).getCount().intValue());
+    }
+
+    @Test
+    public void testPendingValuesAreFlushedWhenTheSchedulerStops() {
+        MetricAggregator aggregator = new MetricAggregator(client, TimeUnit.MINUTES.toMillis(10));
+
+        aggregator.track("Latency", 1.0, null);
+        aggregator.track("Latency", 2.0, null);
+        assertTrue(channel.getSent().isEmpty());
+
+        MetricAggregationScheduler.INSTANCE.flushAggregators();
+
+        assertEquals(1, channel.getSent().size());
+        assertEquals(2, channel.getSent().get(0).getCount().intValue());
+    }
+
+    @Test
+    public void testMerge() {
+        MetricAggregate first = MetricAggregate.of(1.0).add(2.0).add(3.0);
+        MetricAggregate second = MetricAggregate.of(10.0).add(20.0);
+        MetricAggregate all = MetricAggregate.of(1.0).add(2.0).add(3.0).add(10.0).add(20.0);
+
+        MetricAggregate merged = first.merge(second);
+
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMean(), merged.getMean(), PRECISION);
+        assertEquals(all.getStandardDeviation(), merged.getStandardDeviation(), PRECISION);
+        assertEquals(1.0, merged.getMin(), PRECISION);
+        assertEquals(20.0, merged.getMax(), PRECISION);
+    }
+}
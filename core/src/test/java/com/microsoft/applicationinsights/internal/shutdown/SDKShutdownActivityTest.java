@@ -0,0 +1,215 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.shutdown;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class SDKShutdownActivityTest {
+    private static class SleepingStoppable implements Stoppable {
+        private final long sleepInMillis;
+        private final CountDownLatch stopped;
+
+        private SleepingStoppable(long sleepInMillis, CountDownLatch stopped) {
+            this.sleepInMillis = sleepInMillis;
+            this.stopped = stopped;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+            try {
+                Thread.sleep(sleepInMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            stopped.countDown();
+        }
+    }
+
+    @Test
+    public void testStoppablesAreStoppedInParallel() throws Exception {
+        CountDownLatch stopped = new CountDownLatch(4);
+        List<Stoppable> stoppables = new ArrayList<Stoppable>();
+        for (int i = 0; i < 4; ++i) {
+            stoppables.add(new SleepingStoppable(500, stopped));
+        }
+
+        long start = System.nanoTime();
+        int notStopped = SDKShutdownActivity.stopInParallel(stoppables, start + TimeUnit.SECONDS.toNanos(5), 0);
+        long elapsedInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(0, notStopped);
+        assertEquals(0, stopped.getCount());
+        assertTrue("Stoppables were stopped one after the other", elapsedInMillis < 1500);
+    }
+
+    @Test
+    public void testStoppableThatMissesTheDeadlineIsCounted() throws Exception {
+        CountDownLatch stopped = new CountDownLatch(2);
+        List<Stoppable> stoppables = new ArrayList<Stoppable>();
+        stoppables.add(new SleepingStoppable(0, stopped));
+        stoppables.add(new SleepingStoppable(5000, stopped));
+
+        long start = System.nanoTime();
+        int notStopped = SDKShutdownActivity.stopInParallel(stoppables, start + TimeUnit.MILLISECONDS.toNanos(200), 0);
+        long elapsedInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, notStopped);
+        assertEquals(1, stopped.getCount());
+        assertTrue("The deadline was not kept", elapsedInMillis < 2000);
+    }
+
+    private static class RecordingStoppable implements Stoppable {
+        private volatile long timeoutInMillis = -1;
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+            timeoutInMillis = timeUnit.toMillis(timeout);
+        }
+    }
+
+    @Test
+    public void testBlockingStoppableLeavesTimeForTheChannels() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        List<Stoppable> stoppables = new ArrayList<Stoppable>();
+        stoppables.add(new Stoppable() {
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        RecordingStoppable channel = new RecordingStoppable();
+        List<Stoppable> channels = new ArrayList<Stoppable>();
+        channels.add(channel);
+
+        try {
+            long start = System.nanoTime();
+            int notStopped = SDKShutdownActivity.stopInOrder(stoppables, channels, start);
+            long elapsedInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(1, notStopped);
+            assertTrue("The channel got " + channel.timeoutInMillis + " ms", channel.timeoutInMillis >= 1500);
+            assertTrue("The stoppable was waited for too long", elapsedInMillis < 4000);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testChannelsAreWaitedForWhenTheShutdownIsLate() throws Exception {
+        CountDownLatch stopped = new CountDownLatch(1);
+        List<Stoppable> channels = new ArrayList<Stoppable>();
+        channels.add(new SleepingStoppable(300, stopped));
+
+        long start = System.nanoTime() - TimeUnit.SECONDS.toNanos(10);
+        int notStopped = SDKShutdownActivity.stopInOrder(new ArrayList<Stoppable>(), channels, start);
+
+        assertEquals(0, notStopped);
+        assertEquals(0, stopped.getCount());
+    }
+
+    @Test
+    public void testFailingStoppableDoesNotStopTheOthers() throws Exception {
+        CountDownLatch stopped = new CountDownLatch(1);
+        List<Stoppable> stoppables = new ArrayList<Stoppable>();
+        stoppables.add(new Stoppable() {
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+                throw new IllegalStateException("mock");
+            }
+        });
+        stoppables.add(new SleepingStoppable(0, stopped));
+
+        int notStopped = SDKShutdownActivity.stopInParallel(stoppables, System.nanoTime() + TimeUnit.SECONDS.toNanos(5), 0);
+
+        assertEquals(0, notStopped);
+        assertEquals(0, stopped.getCount());
+    }
+
+    @Test
+    public void testChannelThatIsRegisteredTwiceIsStoppedOnce() throws Exception {
+        TelemetryChannel channel = Mockito.mock(TelemetryChannel.class);
+        SDKShutdownActivity.SDKShutdownThread shutdownThread = new SDKShutdownActivity.SDKShutdownThread();
+
+        shutdownThread.register(channel);
+        shutdownThread.register(channel);
+        shutdownThread.stopAll();
+
+        assertEquals(1, shutdownThread.getChannels().size());
+        Mockito.verify(channel, Mockito.times(1)).stop(Mockito.anyLong(), (TimeUnit) Mockito.anyObject());
+    }
+
+    @Test
+    public void testUnreferencedChannelIsNotKeptAlive() throws Exception {
+        SDKShutdownActivity.SDKShutdownThread shutdownThread = new SDKShutdownActivity.SDKShutdownThread();
+        TelemetryChannel channel = Mockito.mock(TelemetryChannel.class);
+        shutdownThread.register(channel);
+        WeakReference<TelemetryChannel> reference = new WeakReference<TelemetryChannel>(channel);
+        channel = null;
+
+        for (int i = 0; i < 50 && reference.get() != null; ++i) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertNull("The channel was kept alive by the registration", reference.get());
+        // Collected keys might still be counted until the map cleans up, but they are never iterated
+        assertFalse(shutdownThread.getChannels().iterator().hasNext());
+    }
+
+    @Test
+    public void testCreatingClientsRegistersNothing() throws Exception {
+        TelemetryConfiguration configuration = new TelemetryConfiguration();
+        configuration.setChannel(Mockito.mock(TelemetryChannel.class));
+
+        SDKShutdownActivity.SDKShutdownThread shutdownThread = SDKShutdownActivity.INSTANCE.getShutdownThread();
+        Set<TelemetryChannel> channelsBefore = new HashSet<TelemetryChannel>(shutdownThread.getChannels());
+        int stoppablesBefore = shutdownThread.getStoppables().size();
+        assertTrue(channelsBefore.contains(configuration.getChannel()));
+
+        for (int i = 0; i < 100; ++i) {
+            new TelemetryClient(configuration);
+        }
+
+        assertEquals(channelsBefore, new HashSet<TelemetryChannel>(shutdownThread.getChannels()));
+        assertEquals(stoppablesBefore, shutdownThread.getStoppables().size());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class LayeredConcurrentMapTest {
+    @Test
+    public void testReadsFallBackToParent() {
+        LayeredConcurrentMap<String, String> map = createWithParent("a", "1", "b", "2");
+        map.put("b", "3");
+        map.put("c", "4");
+
+        assertEquals("1", map.get("a"));
+        assertEquals("3", map.get("b"));
+        assertEquals("4", map.get("c"));
+        assertEquals(3, map.size());
+        assertEquals(createMap("a", "1", "b", "3", "c", "4"), new HashMap<String, String>(map));
+    }
+
+    @Test
+    public void testRemoveHidesParentKey() {
+        LayeredConcurrentMap<String, String> map = createWithParent("a", "1");
+
+        assertEquals("1", map.remove("a"));
+        assertNull(map.get("a"));
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+
+        map.put("a", "2");
+        assertEquals("2", map.get("a"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testWritesDoNotChangeParent() {
+        Map<String, String> parent = createMap("a", "1");
+        LayeredConcurrentMap<String, String> map = new LayeredConcurrentMap<String, String>();
+        map.setParent(parent);
+
+        map.put("a", "2");
+        map.remove("a");
+
+        assertEquals(createMap("a", "1"), parent);
+    }
+
+    @Test
+    public void testSetParentOnlyOnce() {
+        LayeredConcurrentMap<String, String> map = createWithParent("a", "1");
+
+        assertFalse(map.setParent(createMap("b", "2")));
+        assertNull(map.get("b"));
+    }
+
+    @Test
+    public void testIteratorSetValueAndRemove() {
+        LayeredConcurrentMap<String, String> map = createWithParent("a", "1", "b", "2");
+        map.put("c", "3");
+
+        Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (entry.getKey().equals("a")) {
+                entry.setValue("10");
+            } else if (entry.getKey().equals("b")) {
+                iterator.remove();
+            }
+        }
+
+        assertEquals(createMap("a", "10", "c", "3"), new HashMap<String, String>(map));
+    }
+
+    @Test
+    public void testConcurrentMapOperations() {
+        LayeredConcurrentMap<String, String> map = createWithParent("a", "1");
+
+        assertEquals("1", map.putIfAbsent("a", "2"));
+        assertFalse(map.replace("a", "2", "3"));
+        assertTrue(map.replace("a", "1", "3"));
+        assertEquals("3", map.replace("a", "4"));
+        assertFalse(map.remove("a", "3"));
+        assertTrue(map.remove("a", "4"));
+        assertNull(map.putIfAbsent("a", "5"));
+        assertEquals("5", map.get("a"));
+    }
+
+    @Test
+    public void testSnapshotIsKeptUntilModified() {
+        LayeredConcurrentMap<String, String> map = createWithParent("a", "1");
+
+        Map<String, String> snapshot = map.snapshot();
+        assertSame(snapshot, map.snapshot());
+        assertEquals(createMap("a", "1"), snapshot);
+
+        map.put("b", "2");
+        Map<String, String> newSnapshot = map.snapshot();
+        assertNotSame(snapshot, newSnapshot);
+        assertEquals(createMap("a", "1"), snapshot);
+        assertEquals(createMap("a", "1", "b", "2"), newSnapshot);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsImmutable() {
+        LayeredConcurrentMap<String, String> map = createWithParent("a", "1");
+
+        map.snapshot().put("b", "2");
+    }
+
+    private static LayeredConcurrentMap<String, String> createWithParent(String... keysAndValues) {
+        LayeredConcurrentMap<String, String> map = new LayeredConcurrentMap<String, String>();
+        assertTrue(map.setParent(createMap(keysAndValues)));
+
+        return map;
+    }
+
+    private static Map<String, String> createMap(String... keysAndValues) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+
+        return map;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class TimestampFormatterTest {
+    private final static String[] TIME_ZONES = {"UTC", "Asia/Jerusalem", "America/Los_Angeles", "Asia/Kolkata", "America/St_Johns", "Pacific/Chatham"};
+
+    private final static long[] TIMES = {
+            0L,
+            -1L,
+            -86400001L,
+            951782400000L,     // 2000-02-29
+            1427209592123L,
+            1425801599999L,    // Right before DST starts in Los Angeles, 2015
+            1425801600000L,
+            1446364799999L,    // Right before DST ends in Los Angeles, 2015
+            1446364800000L,
+            4102444799999L     // 2099-12-31
+    };
+
+    @Test
+    public void testFormatIsSameAsSimpleDateFormat() {
+        for (String timeZoneId : TIME_ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+            TimestampFormatter formatter = new TimestampFormatter(timeZone);
+            for (long time : TIMES) {
+                assertEquals(timeZoneId + " " + time, createExpected(timeZone, time), formatter.format(time));
+            }
+        }
+    }
+
+    @Test
+    public void testFormatWithinAndAcrossSeconds() {
+        TimeZone timeZone = TimeZone.getTimeZone("Asia/Jerusalem");
+        TimestampFormatter formatter = new TimestampFormatter(timeZone);
+
+        long time = 1427209592000L;
+        for (long i = -1500; i < 1500; i += 7) {
+            assertEquals(createExpected(timeZone, time + i), formatter.format(time + i));
+        }
+    }
+
+    @Test
+    public void testFormatIntoBuffer() {
+        TimeZone timeZone = TimeZone.getTimeZone("UTC");
+        TimestampFormatter formatter = new TimestampFormatter(timeZone);
+
+        char[] buffer = new char[TimestampFormatter.TIMESTAMP_LENGTH + 4];
+        buffer[0] = 'a';
+        buffer[1] = 'b';
+        int length = formatter.format(1427209592123L, buffer, 2);
+
+        assertEquals(TimestampFormatter.TIMESTAMP_LENGTH, length);
+        assertEquals("ab2015-03-24T15:06:32.123+0000", new String(buffer, 0, length + 2));
+    }
+
+    @Test
+    public void testFormatDate() {
+        Date date = new Date(1427209592123L);
+
+        assertEquals(LocalStringsUtils.getDateFormatter().format(date), TimestampFormatter.getDefault().format(date));
+    }
+
+    @Test
+    public void testConcurrentFormat() throws InterruptedException {
+        final TimeZone timeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        final TimestampFormatter formatter = new TimestampFormatter(timeZone);
+        final int[] failures = new int[1];
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            final long base = 1427209592000L + i * 1000L;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 2000; ++j) {
+                        long time = base + (j % 2) * 3600000L + j % 1000;
+                        if (!createExpected(timeZone, time).equals(formatter.format(time))) {
+                            synchronized (failures) {
+                                ++failures[0];
+                            }
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures[0]);
+    }
+
+    private static String createExpected(TimeZone timeZone, long time) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZZ");
+        dateFormat.setTimeZone(timeZone);
+        return dateFormat.format(new Date(time));
+    }
+}
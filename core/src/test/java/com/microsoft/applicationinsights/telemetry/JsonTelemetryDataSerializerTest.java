@@ -26,14 +26,19 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.text.SimpleDateFormat;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParser;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class JsonTelemetryDataSerializerTest {
     private final static class TestClassWithStrings implements JsonSerializable, Serializable {
@@ -182,6 +187,101 @@ public class JsonTelemetryDataSerializerTest {
         }
     }
 
+    private final static class NestedClass implements JsonSerializable {
+        private final String name;
+        private final JsonSerializable inner;
+        private final List<JsonSerializable> items = new ArrayList<JsonSerializable>();
+
+        private NestedClass(String name, JsonSerializable inner) {
+            this.name = name;
+            this.inner = inner;
+        }
+
+        @Override
+        public void serialize(JsonTelemetryDataSerializer serializer) throws IOException {
+            serializer.write("name", name);
+            serializer.write("inner", inner);
+            if (!items.isEmpty()) {
+                serializer.write("items", items);
+            }
+        }
+    }
+
+    @Test
+    public void testNestedObjectsAreWrittenInPlace() throws IOException {
+        NestedClass nested = new NestedClass("outer", new NestedClass("middle", new NestedClass("inner", null)));
+
+        assertEquals("{\"value\":{\"name\":\"outer\",\"inner\":{\"name\":\"middle\",\"inner\":{\"name\":\"inner\"}}}}", serialize(nested));
+    }
+
+    @Test
+    public void testEmptyNestedObjectsAreElided() throws IOException {
+        NestedClass nested = new NestedClass(null, new NestedClass(null, new NestedClass(null, null)));
+
+        assertEquals("{\"first\":1,\"last\":2}", serializeWithSurroundingValues(nested));
+    }
+
+    @Test
+    public void testEmptyObjectsInListAreElided() throws IOException {
+        NestedClass nested = new NestedClass(null, null);
+        nested.items.add(new NestedClass(null, null));
+        nested.items.add(new NestedClass("a", null));
+        nested.items.add(new NestedClass(null, null));
+        nested.items.add(new NestedClass("b", null));
+
+        assertEquals("{\"first\":1,\"value\":{\"items\":[{\"name\":\"a\"},{\"name\":\"b\"}]},\"last\":2}", serializeWithSurroundingValues(nested));
+    }
+
+    @Test
+    public void testNumbers() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("i", Integer.MIN_VALUE);
+        tested.write("l", Long.MIN_VALUE);
+        tested.write("l2", Long.MAX_VALUE);
+        tested.write("s", (short)-12);
+        tested.write("d1", 100.0);
+        tested.write("d2", -0.0);
+        tested.write("d3", 1e7);
+        tested.write("d4", 12.25);
+        tested.write("d5", -9999999.0);
+        tested.close();
+
+        String expected = "{\"i\":" + Integer.MIN_VALUE + ",\"l\":" + Long.MIN_VALUE + ",\"l2\":" + Long.MAX_VALUE + ",\"s\":-12" +
+                ",\"d1\":" + String.valueOf(100.0) + ",\"d2\":" + String.valueOf(-0.0) + ",\"d3\":" + String.valueOf(1e7) +
+                ",\"d4\":" + String.valueOf(12.25) + ",\"d5\":" + String.valueOf(-9999999.0) + "}";
+        assertEquals(expected, stringWriter.toString());
+    }
+
+    @Test
+    public void testDate() throws IOException {
+        Date date = new Date(1400000000123L);
+
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("date", date);
+        tested.close();
+
+        String expected = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZZ").format(date);
+        assertEquals("{\"date\":\"" + expected + "\"}", stringWriter.toString());
+    }
+
+    @Test
+    public void testMapValuesAreEscaped() throws IOException {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        map.put("k1", "a\"b\\c\n");
+        map.put("k2", "plain");
+
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("map", map);
+        tested.close();
+
+        String str = stringWriter.toString();
+        assertEquals("{\"map\":{\"k1\":\"a\\\"b\\\\c\\n\",\"k2\":\"plain\"}}", str);
+        assertEquals("a\"b\\c\n", new JsonParser().parse(str).getAsJsonObject().getAsJsonObject("map").get("k1").getAsString());
+    }
+
     @Test
     public void testStrings() throws IOException {
         TestClassWithStrings testClassWithStrings = new TestClassWithStrings();
@@ -221,4 +321,22 @@ public class JsonTelemetryDataSerializerTest {
 //        System.out.println(str);
     }
 
-}
\ No newline at end of file
+    private static String serialize(JsonSerializable value) throws IOException {
+        String json = serializeWithSurroundingValues(value);
+        assertTrue(json.startsWith("{\"first\":1,"));
+        assertTrue(json.endsWith(",\"last\":2}"));
+
+        return "{" + json.substring("{\"first\":1,".length(), json.length() - ",\"last\":2}".length()) + "}";
+    }
+
+    private static String serializeWithSurroundingValues(JsonSerializable value) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("first", 1);
+        tested.write("value", value);
+        tested.write("last", 2);
+        tested.close();
+
+        return stringWriter.toString();
+    }
+}
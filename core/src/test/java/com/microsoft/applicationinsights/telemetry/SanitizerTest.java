@@ -31,6 +31,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertEquals;
@@ -92,6 +93,40 @@ public final class SanitizerTest {
         assertEquals(entry.getValue(), VALID_VALUE_PROPERTY);
     }
 
+    @Test
+    public void testSanitizeValidPropertiesKeepsValues() throws Exception {
+        ConcurrentMap<String, String> properties = new ConcurrentHashMap<String, String>();
+        String value = new String(VALID_VALUE_PROPERTY);
+        properties.put(VALID_KEY_PROPERTY, value);
+        Sanitizer.sanitizeProperties(properties);
+
+        assertSame(value, properties.get(VALID_KEY_PROPERTY));
+    }
+
+    @Test
+    public void testSanitizeOnlyValueProperties() throws Exception {
+        ConcurrentMap<String, String> properties = new ConcurrentHashMap<String, String>();
+        properties.put(VALID_KEY_PROPERTY, " " + VALID_VALUE_PROPERTY + " ");
+        Sanitizer.sanitizeProperties(properties);
+
+        assertEquals(properties.size(), 1);
+        assertEquals(properties.get(VALID_KEY_PROPERTY), VALID_VALUE_PROPERTY);
+    }
+
+    @Test
+    public void testSanitizeDuplicateKeysProperties() throws Exception {
+        ConcurrentMap<String, String> properties = new ConcurrentHashMap<String, String>();
+        properties.put(VALID_KEY_PROPERTY, "1");
+        properties.put("@" + VALID_KEY_PROPERTY, "2");
+        properties.put(" " + VALID_KEY_PROPERTY, "3");
+        Sanitizer.sanitizeProperties(properties);
+
+        assertEquals(properties.size(), 3);
+        assertEquals(properties.get(VALID_KEY_PROPERTY), "1");
+        assertTrue(properties.containsKey(VALID_KEY_PROPERTY + "001"));
+        assertTrue(properties.containsKey(VALID_KEY_PROPERTY + "002"));
+    }
+
     @Test
     public void testNonValidEmptyUUID() {
         boolean valid = Sanitizer.isUUID("");
@@ -72,4 +72,38 @@ public final class TelemetryContextTest {
 
         Assert.assertEquals(TEST_IKEY, contextToInitialize.getInstrumentationKey());
     }
+
+    @Test
+    public void testTagsAndPropertiesInheritedWhenContextInitialized() {
+        TelemetryContext context = new TelemetryContext();
+        context.getTags().put("tag", "source");
+        context.getProperties().put("property", "source");
+        context.getProperties().put("overridden", "source");
+
+        TelemetryContext contextToInitialize = new TelemetryContext();
+        contextToInitialize.getProperties().put("overridden", "item");
+        contextToInitialize.initialize(context);
+
+        assertEquals("source", contextToInitialize.getTags().get("tag"));
+        assertEquals("source", contextToInitialize.getProperties().get("property"));
+        assertEquals("item", contextToInitialize.getProperties().get("overridden"));
+        assertEquals(2, contextToInitialize.getProperties().size());
+    }
+
+    @Test
+    public void testSourceChangesOnlyAffectContextsInitializedLater() {
+        TelemetryContext context = new TelemetryContext();
+        context.getTags().put("tag", "first");
+
+        TelemetryContext first = new TelemetryContext();
+        first.initialize(context);
+        context.getTags().put("tag", "second");
+        TelemetryContext second = new TelemetryContext();
+        second.initialize(context);
+        second.getTags().remove("tag");
+
+        assertEquals("first", first.getTags().get("tag"));
+        assertNull(second.getTags().get("tag"));
+        assertEquals("second", context.getTags().get("tag"));
+    }
 }
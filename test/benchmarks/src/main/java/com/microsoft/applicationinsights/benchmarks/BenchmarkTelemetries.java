@@ -0,0 +1,91 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.benchmarks;
+
+import java.util.Date;
+
+import com.microsoft.applicationinsights.telemetry.BaseTelemetry;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.PageViewTelemetry;
+import com.microsoft.applicationinsights.telemetry.PerformanceCounterTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SessionState;
+import com.microsoft.applicationinsights.telemetry.SessionStateTelemetry;
+import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+
+/**
+ * Creates typical, fully populated, telemetries of every type for the benchmarks.
+ */
+final class BenchmarkTelemetries {
+    final static String INSTRUMENTATION_KEY = "00000000-0000-0000-0000-000000000000";
+
+    /**
+     * The names of the types that {@link #create(String)} knows, to be used as a JMH parameter.
+     */
+    final static String TYPES = "Event,Trace,Metric,Exception,Request,PageView,RemoteDependency,SessionState,PerformanceCounter";
+
+    private BenchmarkTelemetries() {
+    }
+
+    static BaseTelemetry<?> create(String type) {
+        BaseTelemetry<?> telemetry;
+        if ("Event".equals(type)) {
+            EventTelemetry event = new EventTelemetry("BenchmarkEvent");
+            event.getMetrics().put("Metric", 12.5);
+            telemetry = event;
+        } else if ("Trace".equals(type)) {
+            telemetry = new TraceTelemetry("Benchmark trace message with some \"quoted\" text", SeverityLevel.Warning);
+        } else if ("Metric".equals(type)) {
+            telemetry = new MetricTelemetry("BenchmarkMetric", 120.9);
+        } else if ("Exception".equals(type)) {
+            telemetry = new ExceptionTelemetry(new IllegalStateException("Benchmark exception", new RuntimeException("Cause")));
+        } else if ("Request".equals(type)) {
+            telemetry = new RequestTelemetry("GET /benchmark/request", new Date(), 125L, "200", true);
+        } else if ("PageView".equals(type)) {
+            telemetry = new PageViewTelemetry("BenchmarkPage");
+        } else if ("RemoteDependency".equals(type)) {
+            telemetry = new RemoteDependencyTelemetry("BenchmarkDatabase", "SELECT * FROM benchmark WHERE id = ?", new Duration(35L), true);
+        } else if ("SessionState".equals(type)) {
+            telemetry = new SessionStateTelemetry(SessionState.Start);
+        } else if ("PerformanceCounter".equals(type)) {
+            telemetry = new PerformanceCounterTelemetry("Processor", "% Processor Time", "_Total", 42.0);
+        } else {
+            throw new IllegalArgumentException("Unknown telemetry type " + type);
+        }
+
+        telemetry.setTimestamp(new Date());
+        telemetry.getContext().setInstrumentationKey(INSTRUMENTATION_KEY);
+        telemetry.getContext().getOperation().setId("7c2f1e4a-5d6b-4c8e-9f0a-1b2c3d4e5f60");
+        telemetry.getContext().getOperation().setName("GET /benchmark");
+        telemetry.getContext().getDevice().setRoleName("BenchmarkRole");
+        for (int i = 0; i < 5; ++i) {
+            telemetry.getProperties().put("Property" + i, "Value of property " + i);
+        }
+
+        return telemetry;
+    }
+}
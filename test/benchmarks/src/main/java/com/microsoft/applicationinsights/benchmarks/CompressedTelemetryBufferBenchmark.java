@@ -0,0 +1,229 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.channel.common.CompressedTelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+import com.microsoft.applicationinsights.telemetry.BaseTelemetry;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the default channel path, where every telemetry is kept as a String and the batch is compressed
+ * by the transmitter, with the {@link CompressedTelemetryBuffer} that hands ready transmissions to the transmitter.
+ *
+ * Both paths include the compression, so the time of the 'add' benchmarks is the cost of turning telemetries
+ * into transmissions, and the GC profiler shows what each path allocates per telemetry.
+ *
+ * 'fillNearlyFullBatch' keeps {@link #NUMBER_OF_RETAINED_BATCHES} batches one telemetry short of being sent
+ * and prints the heap they retain after every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressedTelemetryBufferBenchmark {
+    private final static int MAX_TELEMETRIES_IN_BATCH = 500;
+    private final static int NUMBER_OF_RETAINED_BATCHES = 20;
+
+    /**
+     * Does what TransmitterImpl does with the batches, on the calling thread.
+     */
+    private static final class SerializingTransmitter implements TelemetriesTransmitter {
+        private final ThreadLocal<GzipTelemetrySerializer> serializers = new ThreadLocal<GzipTelemetrySerializer>() {
+            @Override
+            protected GzipTelemetrySerializer initialValue() {
+                return new GzipTelemetrySerializer();
+            }
+        };
+
+        @Override
+        public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+            // Batches are always full before the timeout expires
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Collection<String> telemetries) {
+            return serializers.get().serialize(telemetries).isPresent();
+        }
+
+        @Override
+        public boolean sendNow(Transmission transmission) {
+            return true;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+    }
+
+    /**
+     * The buffers that 'fillNearlyFullBatch' filled in the current iteration.
+     */
+    @State(Scope.Thread)
+    public static class RetainedBatches {
+        private final List<Object> buffers = new ArrayList<Object>();
+        private long usedHeapBefore;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            usedHeapBefore = usedHeap();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown(CompressedTelemetryBufferBenchmark benchmark) {
+            long retained = usedHeap() - usedHeapBefore;
+            System.out.println(String.format("%n%s: %d nearly full batches retain %d bytes", benchmark.bufferType, buffers.size(), retained));
+
+            for (Object buffer : buffers) {
+                if (buffer instanceof CompressedTelemetryBuffer) {
+                    ((CompressedTelemetryBuffer)buffer).stop(1L, TimeUnit.SECONDS);
+                }
+            }
+            buffers.clear();
+        }
+
+        private static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 3; ++i) {
+                System.gc();
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+
+    @Param({"String", "Compressed"})
+    public String bufferType;
+
+    private TelemetryBuffer stringBuffer;
+
+    private CompressedTelemetryBuffer compressedBuffer;
+
+    private BaseTelemetry<?> telemetry;
+
+    @Setup
+    public void setUp() {
+        telemetry = BenchmarkTelemetries.create("Event");
+
+        SerializingTransmitter transmitter = new SerializingTransmitter();
+        if ("String".equals(bufferType)) {
+            stringBuffer = new TelemetryBuffer(transmitter, createBatchSizeEnforcer(), createTimeoutEnforcer());
+        } else if ("Compressed".equals(bufferType)) {
+            compressedBuffer = new CompressedTelemetryBuffer(transmitter, createBatchSizeEnforcer(), createTimeoutEnforcer());
+        } else {
+            throw new IllegalArgumentException("Unknown buffer type " + bufferType);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (compressedBuffer != null) {
+            compressedBuffer.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void add1Thread() throws IOException {
+        add();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void add8Threads() throws IOException {
+        add();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1, batchSize = NUMBER_OF_RETAINED_BATCHES)
+    @Measurement(iterations = 5, batchSize = NUMBER_OF_RETAINED_BATCHES)
+    public void fillNearlyFullBatch(RetainedBatches retained) throws IOException {
+        SerializingTransmitter transmitter = new SerializingTransmitter();
+        Object buffer;
+        if (compressedBuffer != null) {
+            CompressedTelemetryBuffer filled = new CompressedTelemetryBuffer(transmitter, createBatchSizeEnforcer(), createTimeoutEnforcer());
+            for (int i = 0; i < MAX_TELEMETRIES_IN_BATCH - 1; ++i) {
+                filled.add(telemetry);
+            }
+            buffer = filled;
+        } else {
+            TelemetryBuffer filled = new TelemetryBuffer(transmitter, createBatchSizeEnforcer(), createTimeoutEnforcer());
+            for (int i = 0; i < MAX_TELEMETRIES_IN_BATCH - 1; ++i) {
+                filled.add(serialize(telemetry));
+            }
+            buffer = filled;
+        }
+        retained.buffers.add(buffer);
+    }
+
+    private void add() throws IOException {
+        if (compressedBuffer != null) {
+            compressedBuffer.add(telemetry);
+        } else {
+            stringBuffer.add(serialize(telemetry));
+        }
+    }
+
+    private static String serialize(BaseTelemetry<?> telemetry) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+        telemetry.serialize(jsonWriter);
+        jsonWriter.close();
+        return writer.toString();
+    }
+
+    private static LimitsEnforcer createBatchSizeEnforcer() {
+        return LimitsEnforcer.createWithClosestLimitOnError("MaxTelemetryBufferCapacity", 1, 1000, MAX_TELEMETRIES_IN_BATCH, MAX_TELEMETRIES_IN_BATCH);
+    }
+
+    private static LimitsEnforcer createTimeoutEnforcer() {
+        return LimitsEnforcer.createWithClosestLimitOnError("FlushIntervalInSeconds", 1, 300, 300, 300);
+    }
+}
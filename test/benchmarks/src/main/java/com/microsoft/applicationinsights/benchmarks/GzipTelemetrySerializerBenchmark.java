@@ -0,0 +1,92 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+import com.microsoft.applicationinsights.telemetry.BaseTelemetry;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link GzipTelemetrySerializer#serialize}, the transmitter's compression of a batch.
+ *
+ * The batch mixes all the telemetry types so the compression ratio is close to a real one.
+ * The default compression level is compared with the one that favors speed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GzipTelemetrySerializerBenchmark {
+    @Param({"1", "100", "500"})
+    public int batchSize;
+
+    @Param({"-1", "1"})
+    public int compressionLevel;
+
+    private GzipTelemetrySerializer serializer;
+
+    private List<String> telemetries;
+
+    @Setup
+    public void setUp() throws IOException {
+        serializer = new GzipTelemetrySerializer(compressionLevel);
+
+        String[] types = BenchmarkTelemetries.TYPES.split(",");
+        telemetries = new ArrayList<String>(batchSize);
+        for (int i = 0; i < batchSize; ++i) {
+            BaseTelemetry<?> telemetry = BenchmarkTelemetries.create(types[i % types.length]);
+            telemetry.getProperties().put("Index", String.valueOf(i));
+
+            StringWriter writer = new StringWriter();
+            JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+            telemetry.serialize(jsonWriter);
+            jsonWriter.close();
+            telemetries.add(writer.toString());
+        }
+    }
+
+    @Benchmark
+    public Optional<Transmission> serialize() {
+        return serializer.serialize(telemetries);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * Does what the in process channel does on the application thread: serializes the telemetry
+ * and adds it to a {@link TelemetryBuffer}. Batches go to a {@link NoOpTelemetriesTransmitter}.
+ */
+final class SerializingChannel implements TelemetryChannel {
+    private final TelemetryBuffer buffer = new TelemetryBuffer(
+            new NoOpTelemetriesTransmitter(),
+            LimitsEnforcer.createWithClosestLimitOnError("MaxTelemetryBufferCapacity", 1, 1000, 500, 500),
+            LimitsEnforcer.createWithClosestLimitOnError("FlushIntervalInSeconds", 1, 300, 5, 5));
+
+    @Override
+    public boolean isDeveloperMode() {
+        return false;
+    }
+
+    @Override
+    public void setDeveloperMode(boolean value) {
+    }
+
+    @Override
+    public void send(Telemetry item) {
+        try {
+            StringWriter writer = new StringWriter();
+            JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+            item.serialize(jsonWriter);
+            jsonWriter.close();
+            buffer.add(writer.toString());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+    }
+
+    @Override
+    public void flush() {
+        buffer.flush();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.volume;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.channel.common.RingTelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+
+/**
+ * Measures how fast application threads can add telemetries to the channel's buffer
+ * when many of them do it at the same time.
+ *
+ * Every round runs the synchronized {@link TelemetryBuffer} and the lock free {@link RingTelemetryBuffer}
+ * with the same number of threads, the transmitter only counts the telemetries it gets.
+ */
+public final class BufferContentionTest {
+    private final static int TELEMETRIES_PER_THREAD = 200000;
+    private final static int MAX_TELEMETRIES_IN_BATCH = 500;
+    private final static int TRANSMIT_BUFFER_TIMEOUT_IN_SECONDS = 5;
+    private final static int[] NUMBER_OF_THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private final static String MOCK_TELEMETRY = "{\"name\":\"MOCK_EVENT\"}";
+
+    private static final class CountingTransmitter implements TelemetriesTransmitter {
+        private final AtomicLong counter = new AtomicLong(0);
+
+        @Override
+        public boolean scheduleSend(final TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+            // The batch is always filled before the timeout expires
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Collection<String> telemetries) {
+            counter.addAndGet(telemetries.size());
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Transmission transmission) {
+            return true;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        public long getCounter() {
+            return counter.get();
+        }
+    }
+
+    private interface BufferCreator {
+        TelemetriesBuffer create(TelemetriesTransmitter transmitter);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.err.println("   BufferContentionTest");
+        System.err.println("   Available processors: " + Runtime.getRuntime().availableProcessors());
+
+        BufferCreator synchronizedBuffer = new BufferCreator() {
+            @Override
+            public TelemetriesBuffer create(TelemetriesTransmitter transmitter) {
+                return new TelemetryBuffer(transmitter, createBatchSizeEnforcer(), createTimeoutEnforcer());
+            }
+        };
+        BufferCreator ringBuffer = new BufferCreator() {
+            @Override
+            public TelemetriesBuffer create(TelemetriesTransmitter transmitter) {
+                return new RingTelemetryBuffer(transmitter, createBatchSizeEnforcer(), createTimeoutEnforcer());
+            }
+        };
+
+        // Warm up
+        test(synchronizedBuffer, 4);
+        test(ringBuffer, 4);
+
+        System.err.println("--------------------------------------------");
+        System.err.println("Threads    Synchronized (adds/s)    RingBuffer (adds/s)");
+        for (int numberOfThreads : NUMBER_OF_THREADS) {
+            double synchronizedRate = test(synchronizedBuffer, numberOfThreads);
+            double ringRate = test(ringBuffer, numberOfThreads);
+            System.err.println(String.format("%7d    %21.0f    %19.0f", numberOfThreads, synchronizedRate, ringRate));
+        }
+        System.err.println("--------------------------------------------");
+    }
+
+    private static double test(BufferCreator creator, int numberOfThreads) throws InterruptedException {
+        CountingTransmitter transmitter = new CountingTransmitter();
+        final TelemetriesBuffer buffer = creator.create(transmitter);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < TELEMETRIES_PER_THREAD; ++j) {
+                        buffer.add(MOCK_TELEMETRY);
+                    }
+                }
+            });
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        long elapsed = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        elapsed = System.nanoTime() - elapsed;
+
+        buffer.flush();
+        buffer.stop(1L, TimeUnit.SECONDS);
+
+        long expected = (long)numberOfThreads * TELEMETRIES_PER_THREAD;
+        if (transmitter.getCounter() != expected) {
+            System.err.println(String.format("   %d telemetries out of %d were dropped", expected - transmitter.getCounter(), expected));
+        }
+
+        return expected / ((double)elapsed / 1000000000.0);
+    }
+
+    private static LimitsEnforcer createBatchSizeEnforcer() {
+        return LimitsEnforcer.createWithClosestLimitOnError("MaxTelemetryBufferCapacity", 1, 1000, MAX_TELEMETRIES_IN_BATCH, MAX_TELEMETRIES_IN_BATCH);
+    }
+
+    private static LimitsEnforcer createTimeoutEnforcer() {
+        return LimitsEnforcer.createWithClosestLimitOnError("FlushIntervalInSeconds", 1, 300, TRANSMIT_BUFFER_TIMEOUT_IN_SECONDS, TRANSMIT_BUFFER_TIMEOUT_IN_SECONDS);
+    }
+}
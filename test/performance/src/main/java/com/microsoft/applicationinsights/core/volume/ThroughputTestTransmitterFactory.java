@@ -21,6 +21,8 @@
 
 package com.microsoft.applicationinsights.core.volume;
 
+import java.util.Map;
+
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
@@ -33,13 +35,14 @@ import com.microsoft.applicationinsights.internal.channel.common.NonBlockingDisp
 import com.microsoft.applicationinsights.internal.channel.common.ActiveTransmissionLoader;
 import com.microsoft.applicationinsights.internal.channel.common.TransmitterImpl;
 import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.metrics.ChannelMetrics;
 
 /**
  * Created by gupele on 2/4/2015.
  */
 final class ThroughputTestTransmitterFactory implements TransmitterFactory {
     @Override
-    public TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity) {
+    public TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity, String transmissionStorageType, String networkOutputType, Map<String, String> namesAndValues, ChannelMetrics channelMetrics) {
         // An active object with the network sender
         TransmissionOutput actualNetworkSender = TestThreadLocalData.getTransmissionOutput();
         TransmissionOutput networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender);
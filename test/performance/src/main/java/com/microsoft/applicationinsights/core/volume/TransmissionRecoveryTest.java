@@ -0,0 +1,197 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.volume;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
+import com.microsoft.applicationinsights.internal.channel.common.ActiveTransmissionFileSystemOutput;
+import com.microsoft.applicationinsights.internal.channel.common.ActiveTransmissionLoader;
+import com.microsoft.applicationinsights.internal.channel.common.ActiveTransmissionNetworkOutput;
+import com.microsoft.applicationinsights.internal.channel.common.NonBlockingDispatcher;
+import com.microsoft.applicationinsights.internal.channel.common.SegmentedTransmissionQueue;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionFileSystemOutput;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionNetworkOutput;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures how long it takes to send the transmissions that were persisted during an outage,
+ * once the endpoint is reachable again.
+ *
+ * The endpoint is a local HTTP server that accepts every transmission after a short delay,
+ * the transmissions are loaded by the {@link ActiveTransmissionLoader} from both kinds of storage.
+ */
+public final class TransmissionRecoveryTest {
+    // Small enough for the transmission files, whose capacity limit is compared with the size in bytes
+    private final static int NUMBER_OF_TRANSMISSIONS = 250;
+    private final static int TRANSMISSION_SIZE_IN_BYTES = 64;
+    private final static int SERVER_LATENCY_IN_MILLIS = 5;
+    private final static int SERVER_THREADS = 16;
+    private final static long MAX_RECOVERY_TIME_IN_SECONDS = 600;
+    private final static String TEMP_TEST_FOLDER = "TransmissionRecoveryTest";
+
+    private interface StorageCreator {
+        TransmissionStorage create(File folder) throws IOException;
+    }
+
+    private static final class StandInEndpoint implements HttpHandler {
+        private final AtomicInteger received = new AtomicInteger(0);
+        private final HttpServer server;
+        private final ExecutorService executor;
+
+        private StandInEndpoint() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/v2/track", this);
+            executor = Executors.newFixedThreadPool(SERVER_THREADS);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            InputStream body = exchange.getRequestBody();
+            byte[] buffer = new byte[8192];
+            while (body.read(buffer) != -1) {
+            }
+            body.close();
+
+            try {
+                Thread.sleep(SERVER_LATENCY_IN_MILLIS);
+            } catch (InterruptedException e) {
+            }
+
+            byte[] response = "{}".getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, response.length);
+            OutputStream output = exchange.getResponseBody();
+            output.write(response);
+            output.close();
+
+            received.incrementAndGet();
+        }
+
+        private String getUri() {
+            return "http://localhost:" + server.getAddress().getPort() + "/v2/track";
+        }
+
+        private int getReceived() {
+            return received.get();
+        }
+
+        private void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.err.println("   TransmissionRecoveryTest");
+        System.err.println(String.format("   %d transmissions of %d bytes, %d ms server latency",
+                NUMBER_OF_TRANSMISSIONS, TRANSMISSION_SIZE_IN_BYTES, SERVER_LATENCY_IN_MILLIS));
+
+        StorageCreator files = new StorageCreator() {
+            @Override
+            public TransmissionStorage create(File folder) {
+                return new TransmissionFileSystemOutput(folder.getPath(), "100");
+            }
+        };
+        StorageCreator queue = new StorageCreator() {
+            @Override
+            public TransmissionStorage create(File folder) throws IOException {
+                return new SegmentedTransmissionQueue(folder.getPath(), "100");
+            }
+        };
+
+        System.err.println("--------------------------------------------");
+        System.err.println("Storage      Recovery time (ms)    Transmissions/s");
+        report("Files", test(files));
+        report("Segmented", test(queue));
+        System.err.println("--------------------------------------------");
+    }
+
+    private static void report(String storageName, long elapsedInNanos) {
+        if (elapsedInNanos < 0) {
+            System.err.println(String.format("%-9s    did not recover in %d seconds", storageName, MAX_RECOVERY_TIME_IN_SECONDS));
+            return;
+        }
+
+        double elapsedInSeconds = elapsedInNanos / 1000000000.0;
+        System.err.println(String.format("%-9s    %18.0f    %15.0f", storageName, elapsedInSeconds * 1000, NUMBER_OF_TRANSMISSIONS / elapsedInSeconds));
+    }
+
+    /**
+     * @return The time it took until the endpoint got all the transmissions, or -1 if it did not get them in time.
+     */
+    private static long test(StorageCreator creator) throws Exception {
+        File folder = new File(System.getProperty("java.io.tmpdir"), TEMP_TEST_FOLDER);
+        FileUtils.deleteDirectory(folder);
+        folder.mkdirs();
+
+        // The outage: everything the application sent was persisted
+        TransmissionStorage storage = creator.create(folder);
+        byte[] content = new byte[TRANSMISSION_SIZE_IN_BYTES];
+        for (int i = 0; i < NUMBER_OF_TRANSMISSIONS; ++i) {
+            if (!storage.send(new Transmission(content, "application/x-json-stream", "gzip"))) {
+                throw new IllegalStateException("Failed to persist transmission " + i);
+            }
+        }
+
+        StandInEndpoint endpoint = new StandInEndpoint();
+        TransmissionNetworkOutput actualNetworkSender = TransmissionNetworkOutput.create(endpoint.getUri());
+        TransmissionOutput networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender);
+        TransmissionOutput fileSystemSender = new ActiveTransmissionFileSystemOutput(storage);
+        TransmissionDispatcher dispatcher = new NonBlockingDispatcher(new TransmissionOutput[] {networkSender, fileSystemSender});
+        ActiveTransmissionLoader loader = new ActiveTransmissionLoader(storage, dispatcher);
+        actualNetworkSender.setTransmissionListener(loader);
+
+        // The endpoint is back
+        long elapsed = System.nanoTime();
+        loader.load(false);
+        long deadline = elapsed + TimeUnit.SECONDS.toNanos(MAX_RECOVERY_TIME_IN_SECONDS);
+        while (endpoint.getReceived() < NUMBER_OF_TRANSMISSIONS && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        elapsed = endpoint.getReceived() < NUMBER_OF_TRANSMISSIONS ? -1 : System.nanoTime() - elapsed;
+
+        loader.stop(1L, TimeUnit.SECONDS);
+        dispatcher.stop(1L, TimeUnit.SECONDS);
+        endpoint.stop();
+        FileUtils.deleteDirectory(folder);
+
+        return elapsed;
+    }
+}